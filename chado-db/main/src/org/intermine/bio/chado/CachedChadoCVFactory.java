@@ -0,0 +1,232 @@
+package org.intermine.bio.chado;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A ChadoCVFactory that keeps a snapshot of each cv it reads in a directory.  The snapshot is
+ * used instead of querying the cvterm and cvterm_relationship tables if the fingerprint of the
+ * cv hasn't changed since it was written, so repeated builds from the same chado release only
+ * need the fingerprint query.  The fingerprint is made from the maximum id and the number of
+ * the cvterms and of their cvterm_relationships and a hash of the names of the cvterms, so that
+ * renamed terms and changed relationships are noticed as well as new terms.
+ */
+public class CachedChadoCVFactory extends ChadoCVFactory
+{
+    private static final Logger LOG = Logger.getLogger(CachedChadoCVFactory.class);
+    private static final int MAGIC = 0x43484356;
+    private static final int VERSION = 2;
+    private static final String[] FINGERPRINT_COLUMNS = {
+        "max_cvterm_id", "cvterm_count", "max_relationship_id", "relationship_count", "name_hash"
+    };
+
+    private final Connection connection;
+    private final File snapshotDirectory;
+
+    /**
+     * Create a new CachedChadoCVFactory.
+     * @param connection the connection to use for querying cvterms.
+     * @param snapshotDirectory the directory to keep the snapshots in
+     */
+    public CachedChadoCVFactory(Connection connection, File snapshotDirectory) {
+        super(connection);
+        this.connection = connection;
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChadoCV getChadoCV(String cvName) throws SQLException {
+        ResultSet res = getCVFingerprintResultSet(connection, cvName);
+        StringBuilder fingerprint = new StringBuilder();
+        if (res.next()) {
+            for (String column: FINGERPRINT_COLUMNS) {
+                fingerprint.append(res.getObject(column)).append(',');
+            }
+        }
+        res.close();
+
+        File snapshotFile = getSnapshotFile(cvName);
+        if (snapshotFile.exists()) {
+            try {
+                ChadoCV cv = readSnapshot(snapshotFile, cvName, fingerprint.toString());
+                if (cv != null) {
+                    LOG.info("read cv " + cvName + " from snapshot: " + snapshotFile);
+                    return cv;
+                }
+                LOG.info("cv " + cvName + " has changed since snapshot was written: "
+                        + snapshotFile);
+            } catch (IOException e) {
+                LOG.warn("ignoring unreadable cv snapshot: " + snapshotFile, e);
+            }
+        }
+
+        ChadoCV cv = super.getChadoCV(cvName);
+        try {
+            writeSnapshot(snapshotFile, cv, fingerprint.toString());
+        } catch (IOException e) {
+            LOG.warn("can't write cv snapshot: " + snapshotFile, e);
+        }
+        return cv;
+    }
+
+    /**
+     * Return the file to keep the snapshot of the cv with the given name in.
+     * @param cvName the cv name
+     * @return the snapshot file
+     */
+    protected File getSnapshotFile(String cvName) {
+        return new File(snapshotDirectory, cvName.replaceAll("[^A-Za-z0-9_\\-]", "_")
+                + ".cvsnapshot");
+    }
+
+    /**
+     * Read a snapshot written by writeSnapshot().
+     * @return the cv, or null if the snapshot is of a different cv, was written by another
+     * version of this class or its fingerprint doesn't match
+     */
+    private static ChadoCV readSnapshot(File file, String cvName, String fingerprint)
+        throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a cv snapshot: " + file);
+            }
+            if (in.readInt() != VERSION || !in.readUTF().equals(cvName)
+                    || !in.readUTF().equals(fingerprint)) {
+                return null;
+            }
+            ChadoCV cv = new ChadoCV(cvName);
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                Integer cvtermId = new Integer(in.readInt());
+                cv.addByChadoId(cvtermId, new ChadoCVTerm(in.readUTF()));
+            }
+            int relationshipCount = in.readInt();
+            for (int i = 0; i < relationshipCount; i++) {
+                ChadoCVTerm subject = cv.getByChadoId(new Integer(in.readInt()));
+                ChadoCVTerm object = cv.getByChadoId(new Integer(in.readInt()));
+                if (subject == null || object == null) {
+                    throw new IOException("cv snapshot refers to a missing term: " + file);
+                }
+                subject.getDirectParents().add(object);
+                object.getDirectChildren().add(subject);
+            }
+            return cv;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the terms and is_a relationships of a cv to a file, via a temporary file so that a
+     * partly written snapshot is never read.
+     */
+    private static void writeSnapshot(File file, ChadoCV cv, String fingerprint)
+        throws IOException {
+        Map<Integer, ChadoCVTerm> termMap = cv.getTermMap();
+        Map<ChadoCVTerm, Integer> termIds = new HashMap<ChadoCVTerm, Integer>();
+        int relationshipCount = 0;
+        for (Map.Entry<Integer, ChadoCVTerm> entry: termMap.entrySet()) {
+            termIds.put(entry.getValue(), entry.getKey());
+            relationshipCount += entry.getValue().getDirectParents().size();
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tempFile))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(cv.getCvName());
+            out.writeUTF(fingerprint);
+            out.writeInt(termMap.size());
+            for (Map.Entry<Integer, ChadoCVTerm> entry: termMap.entrySet()) {
+                out.writeInt(entry.getKey().intValue());
+                out.writeUTF(entry.getValue().getName());
+            }
+            out.writeInt(relationshipCount);
+            for (Map.Entry<Integer, ChadoCVTerm> entry: termMap.entrySet()) {
+                for (ChadoCVTerm parent: entry.getValue().getDirectParents()) {
+                    out.writeInt(entry.getKey().intValue());
+                    out.writeInt(termIds.get(parent).intValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("can't replace cv snapshot: " + file);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("can't rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Return the fingerprint of the cv with the given name: the maximum cvterm_id and the number
+     * of cvterms in the cv, the maximum cvterm_relationship_id and the number of the
+     * cvterm_relationships whose subject is in the cv and an MD5 hash of the ids and names of the
+     * cvterms, as columns max_cvterm_id, cvterm_count, max_relationship_id, relationship_count
+     * and name_hash.
+     * This is a protected method so that it can be overriden for testing
+     * @param connection the db connection
+     * @param cvName the value of the name field to use when finding the cv
+     * @return the SQL result set
+     * @throws SQLException if a database problem occurs
+     */
+    protected ResultSet getCVFingerprintResultSet(Connection connection, String cvName)
+        throws SQLException {
+        String query =
+            "SELECT max(cvterm.cvterm_id) AS max_cvterm_id, count(*) AS cvterm_count,"
+            + "       rel.max_relationship_id, rel.relationship_count,"
+            + "       md5(string_agg(cvterm.cvterm_id || ':' || cvterm.name, ','"
+            + "                      ORDER BY cvterm.cvterm_id)) AS name_hash"
+            + "  FROM cvterm, cv,"
+            + "       (SELECT max(cvterm_rel.cvterm_relationship_id) AS max_relationship_id,"
+            + "               count(*) AS relationship_count"
+            + "          FROM cvterm_relationship cvterm_rel, cvterm subject_cvterm,"
+            + "               cv subject_cv"
+            + "         WHERE cvterm_rel.subject_id = subject_cvterm.cvterm_id"
+            + "           AND subject_cvterm.cv_id = subject_cv.cv_id"
+            + "           AND subject_cv.name = ?) AS rel"
+            + " WHERE cv.name = ?"
+            + "   AND cvterm.cv_id = cv.cv_id"
+            + " GROUP BY rel.max_relationship_id, rel.relationship_count";
+        LOG.info("executing: " + query);
+        PreparedStatement stmt = connection.prepareStatement(query);
+        stmt.setString(1, cvName);
+        stmt.setString(2, cvName);
+        ResultSet res = stmt.executeQuery();
+        return res;
+    }
+}
@@ -10,8 +10,11 @@ package org.intermine.bio.chado;
  *
  */
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,6 +26,62 @@ public class ChadoCV
 {
     private final String cvName;
     private final Map<Integer, ChadoCVTerm> termMap = new HashMap<Integer, ChadoCVTerm>();
+    private volatile Closure closure = null;
+
+    /**
+     * The transitive closure of the is_a relation of this cv.  Each term has an index and
+     * descendants[i] has the bits set for all the terms below term i.  ChadoCVTerms are equal
+     * if their names are equal, so terms are indexed by name.
+     */
+    private static class Closure
+    {
+        private final Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+        private final BitSet[] descendants;
+
+        Closure(Map<Integer, ChadoCVTerm> termMap) {
+            List<ChadoCVTerm> terms = new ArrayList<ChadoCVTerm>();
+            for (ChadoCVTerm term: termMap.values()) {
+                if (!nameIndexes.containsKey(term.getName())) {
+                    nameIndexes.put(term.getName(), new Integer(terms.size()));
+                    terms.add(term);
+                }
+            }
+            descendants = new BitSet[terms.size()];
+            BitSet inProgress = new BitSet();
+            for (int i = 0; i < terms.size(); i++) {
+                addDescendants(terms.get(i), i, inProgress);
+            }
+        }
+
+        private BitSet addDescendants(ChadoCVTerm term, int index, BitSet inProgress) {
+            if (descendants[index] != null) {
+                return descendants[index];
+            }
+            BitSet termDescendants = new BitSet();
+            // guard against cycles in the is_a relation, which would otherwise recurse forever
+            inProgress.set(index);
+            for (ChadoCVTerm child: term.getDirectChildren()) {
+                Integer childIndex = nameIndexes.get(child.getName());
+                if (childIndex == null || inProgress.get(childIndex.intValue())) {
+                    continue;
+                }
+                termDescendants.set(childIndex.intValue());
+                termDescendants.or(addDescendants(child, childIndex.intValue(), inProgress));
+            }
+            inProgress.clear(index);
+            descendants[index] = termDescendants;
+            return termDescendants;
+        }
+
+        boolean isDescendant(String descendantName, String ancestorName) {
+            Integer descendantIndex = nameIndexes.get(descendantName);
+            Integer ancestorIndex = nameIndexes.get(ancestorName);
+            if (descendantIndex == null || ancestorIndex == null) {
+                return false;
+            }
+            return descendants[ancestorIndex.intValue()].get(descendantIndex.intValue());
+        }
+    }
 
     /**
      * Create a new ChadoCV.
@@ -47,6 +106,7 @@ public class ChadoCV
      */
     public void addByChadoId(Integer cvtermId, ChadoCVTerm chadoCvTerm) {
         termMap.put(cvtermId, chadoCvTerm);
+        closure = null;
     }
 
     /**
@@ -81,4 +141,51 @@ public class ChadoCV
     public Set<ChadoCVTerm> getAllCVTerms() {
         return new HashSet<ChadoCVTerm>(termMap.values());
     }
+
+    /**
+     * Return the map from cvterm_id to ChadoCVTerm.  Used when writing a snapshot of this cv.
+     * @return the term map
+     */
+    Map<Integer, ChadoCVTerm> getTermMap() {
+        return termMap;
+    }
+
+    /**
+     * Return true if the given term, or one of the terms below it, is named termName.  The
+     * first call computes the transitive closure of the cv so later calls are a bit lookup
+     * rather than a walk of the DAG.  The closure is recomputed if terms are added, but not if
+     * the parents or children of a term are changed after the first call.
+     * @param term a term from this cv
+     * @param termName the name to look for
+     * @return true if term or one of its descendants is named termName
+     */
+    public boolean termOrDescendantNamed(ChadoCVTerm term, String termName) {
+        return term.getName().equals(termName) || getClosure().isDescendant(termName,
+                term.getName());
+    }
+
+    /**
+     * Return true if one of the terms above the given term is named termName.  See
+     * termOrDescendantNamed().
+     * @param term a term from this cv
+     * @param termName the name to look for
+     * @return true if an ancestor of term is named termName
+     */
+    public boolean ancestorNamed(ChadoCVTerm term, String termName) {
+        return getClosure().isDescendant(term.getName(), termName);
+    }
+
+    private Closure getClosure() {
+        Closure currentClosure = closure;
+        if (currentClosure == null) {
+            synchronized (this) {
+                currentClosure = closure;
+                if (currentClosure == null) {
+                    currentClosure = new Closure(termMap);
+                    closure = currentClosure;
+                }
+            }
+        }
+        return currentClosure;
+    }
 }
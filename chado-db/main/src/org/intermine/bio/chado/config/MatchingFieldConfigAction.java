@@ -13,22 +13,49 @@ package org.intermine.bio.chado.config;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.intermine.util.CacheMap;
-
 /**
- * A ConfigAction that succeeds only if the value matches a pattern.
+ * A ConfigAction that succeeds only if the value matches a pattern.  Instances may be shared by
+ * several threads.
  * @author Kim Rutherford
  */
 public class MatchingFieldConfigAction extends ConfigAction
 {
+    // matches patterns like "FBgn\d+", "^(FBgn\d+)$" that can be checked without a Matcher
+    private static final Pattern LITERAL_PREFIX_PATTERN =
+        Pattern.compile("\\^?(\\()?([A-Za-z0-9_:\\-]+)\\\\d\\+(\\))?\\$?");
+
     private final Pattern pattern;
-    private final CacheMap<String, Matcher> cacheMap = new CacheMap<String, Matcher>();
+    private final int groupCount;
+
+    // for a pattern matched by LITERAL_PREFIX_PATTERN, the literal prefix, otherwise null
+    private final String literalPrefix;
+
+    // the result of the last match in each thread, so that processValue() doesn't need to match
+    // the value again after isValidValue()
+    private final ThreadLocal<MatchResult> lastMatch = new ThreadLocal<MatchResult>();
+
+    /**
+     * The outcome of matching one value: whether it matched and the contents of the capturing
+     * group.
+     */
+    private static class MatchResult
+    {
+        private final String value;
+        private final boolean matches;
+        private final String group;
+
+        MatchResult(String value, boolean matches, String group) {
+            this.value = value;
+            this.matches = matches;
+            this.group = group;
+        }
+    }
 
     /**
      * Construct a MatchingFieldConfigAction.
      */
     MatchingFieldConfigAction() {
-        pattern = null;
+        this(null);
     }
 
     /**
@@ -38,6 +65,16 @@ public class MatchingFieldConfigAction extends ConfigAction
      */
     MatchingFieldConfigAction(Pattern pattern) {
         this.pattern = pattern;
+        groupCount = pattern == null ? 0 : pattern.matcher("").groupCount();
+        String prefix = null;
+        if (pattern != null && pattern.flags() == 0) {
+            Matcher matcher = LITERAL_PREFIX_PATTERN.matcher(pattern.pattern());
+            // the brackets must be balanced for the pattern to be a literal prefix pattern
+            if (matcher.matches() && (matcher.group(1) == null) == (matcher.group(3) == null)) {
+                prefix = matcher.group(2);
+            }
+        }
+        literalPrefix = prefix;
     }
 
     /**
@@ -49,14 +86,47 @@ public class MatchingFieldConfigAction extends ConfigAction
         if (pattern == null) {
             return true;
         }
-        Matcher matcher;
-        if (cacheMap.containsKey(value)) {
-            matcher = (Matcher) cacheMap.get(value);
+        if (literalPrefix != null) {
+            return matchesLiteralPrefix(value);
+        }
+        return match(value).matches;
+    }
+
+    /**
+     * Return true if the value is the literal prefix followed by one or more digits.
+     */
+    private boolean matchesLiteralPrefix(String value) {
+        int prefixLength = literalPrefix.length();
+        if (value.length() <= prefixLength || !value.startsWith(literalPrefix)) {
+            return false;
+        }
+        for (int i = prefixLength; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Match the value against the pattern, reusing the result of the last match in this thread
+     * if it was for the same value.
+     */
+    private MatchResult match(String value) {
+        MatchResult result = lastMatch.get();
+        if (result != null && result.value.equals(value)) {
+            return result;
+        }
+        Matcher matcher = pattern.matcher(value);
+        if (matcher.matches()) {
+            result = new MatchResult(value, true,
+                    groupCount == 1 ? matcher.group(1) : null);
         } else {
-            matcher = pattern.matcher(value);
-            cacheMap.put(value, matcher);
+            result = new MatchResult(value, false, null);
         }
-        return matcher.matches();
+        lastMatch.set(result);
+        return result;
     }
 
     /**
@@ -68,20 +138,21 @@ public class MatchingFieldConfigAction extends ConfigAction
      * @return the processed value
      */
     public String processValue(String value) {
-        if (pattern == null) {
+        if (pattern == null || literalPrefix != null) {
+            // a literal prefix pattern can only capture the whole value
             return value;
         }
-        Matcher matcher = (Matcher) cacheMap.get(value);
-        if (matcher.groupCount() == 0) {
+        if (groupCount == 0) {
             // no capturing group in pattern so return the whole value
             return value;
         } else {
-            if (matcher.groupCount() == 1) {
-                if (matcher.group(1) == null) {
+            if (groupCount == 1) {
+                String group = match(value).group;
+                if (group == null) {
                     // special case - the pattern matches, but doesn't match the capturing group
                     return value;
                 } else {
-                    return matcher.group(1);
+                    return group;
                 }
             } else {
                 throw new RuntimeException("more than one capturing group in: "
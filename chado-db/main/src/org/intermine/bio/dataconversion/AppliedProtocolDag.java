@@ -0,0 +1,278 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The DAG of modENCODE applied protocols and the data that flows between them, held as int
+ * arrays.  Applied protocols and data are identified by their chado ids, and are numbered from
+ * 0 internally.  The input and output edges are added first, then build() makes compressed
+ * adjacency arrays for traversal.
+ */
+class AppliedProtocolDag
+{
+    private IntPairs inputEdges = new IntPairs();
+    private IntPairs outputEdges = new IntPairs();
+
+    // sorted chado ids, the index of an id is its node number
+    private int[] appliedProtocolIds;
+    private int[] dataIds;
+
+    // for each applied protocol, the data it reads and writes
+    private int[] inputOffsets, inputs;
+    private int[] outputOffsets, outputs;
+    // for each data, the applied protocols that read it
+    private int[] nextOffsets, nextAppliedProtocols;
+
+    // the result of traverse()
+    private int[] order = new int[0];
+    private int[] steps;
+    private int[] submissionIds;
+
+    /**
+     * Record that an applied protocol reads a data item.
+     * @param appliedProtocolId the chado applied_protocol_id
+     * @param dataId the chado data_id
+     */
+    void addInput(int appliedProtocolId, int dataId) {
+        inputEdges.add(appliedProtocolId, dataId);
+    }
+
+    /**
+     * Record that an applied protocol writes a data item.
+     * @param appliedProtocolId the chado applied_protocol_id
+     * @param dataId the chado data_id
+     */
+    void addOutput(int appliedProtocolId, int dataId) {
+        outputEdges.add(appliedProtocolId, dataId);
+    }
+
+    /**
+     * Make the adjacency arrays from the edges added so far.  Must be called before the other
+     * methods.
+     */
+    void build() {
+        appliedProtocolIds = distinct(inputEdges.first, inputEdges.size, outputEdges.first,
+                outputEdges.size);
+        dataIds = distinct(inputEdges.second, inputEdges.size, outputEdges.second,
+                outputEdges.size);
+        int[] inputAps = indexes(appliedProtocolIds, inputEdges.first, inputEdges.size);
+        int[] inputData = indexes(dataIds, inputEdges.second, inputEdges.size);
+        int[] outputAps = indexes(appliedProtocolIds, outputEdges.first, outputEdges.size);
+        int[] outputData = indexes(dataIds, outputEdges.second, outputEdges.size);
+        inputEdges = null;
+        outputEdges = null;
+
+        inputOffsets = offsets(inputAps, appliedProtocolIds.length);
+        inputs = targets(inputOffsets, inputAps, inputData);
+        outputOffsets = offsets(outputAps, appliedProtocolIds.length);
+        outputs = targets(outputOffsets, outputAps, outputData);
+        nextOffsets = offsets(inputData, dataIds.length);
+        nextAppliedProtocols = targets(nextOffsets, inputData, inputAps);
+    }
+
+    /**
+     * Find the applied protocols that can be reached from the first applied protocols of the
+     * submissions, and the step (level in the DAG) and submission of each.  This is a single
+     * topological pass: an applied protocol is visited after all its reachable parents, and its
+     * step is one more than the largest step of its parents, so each is visited once however
+     * many paths lead to it.  Applied protocols on a cycle aren't reached.
+     * @param firstAppliedProtocolIds the chado ids of the first applied protocols
+     * @param firstSubmissionIds the submission of each first applied protocol
+     * @return the number of applied protocols reached
+     */
+    int traverse(int[] firstAppliedProtocolIds, int[] firstSubmissionIds) {
+        int apCount = appliedProtocolIds.length;
+        steps = new int[apCount];
+        submissionIds = new int[apCount];
+
+        // count the edges from reachable applied protocols
+        int[] parentCounts = new int[apCount];
+        BitSet reachable = new BitSet(apCount);
+        int[] stack = new int[Math.max(16, firstAppliedProtocolIds.length)];
+        int stackSize = 0;
+        for (int firstId: firstAppliedProtocolIds) {
+            int ap = Arrays.binarySearch(appliedProtocolIds, firstId);
+            if (ap >= 0 && !reachable.get(ap)) {
+                reachable.set(ap);
+                stack[stackSize++] = ap;
+            }
+        }
+        while (stackSize > 0) {
+            int ap = stack[--stackSize];
+            for (int i = outputOffsets[ap]; i < outputOffsets[ap + 1]; i++) {
+                int data = outputs[i];
+                for (int j = nextOffsets[data]; j < nextOffsets[data + 1]; j++) {
+                    int child = nextAppliedProtocols[j];
+                    parentCounts[child]++;
+                    if (!reachable.get(child)) {
+                        reachable.set(child);
+                        if (stackSize == stack.length) {
+                            stack = Arrays.copyOf(stack, stackSize * 2);
+                        }
+                        stack[stackSize++] = child;
+                    }
+                }
+            }
+        }
+
+        order = new int[reachable.cardinality()];
+        int orderSize = 0;
+        for (int i = 0; i < firstAppliedProtocolIds.length; i++) {
+            int ap = Arrays.binarySearch(appliedProtocolIds, firstAppliedProtocolIds[i]);
+            if (ap >= 0 && steps[ap] == 0) {
+                steps[ap] = 1;
+                submissionIds[ap] = firstSubmissionIds[i];
+                if (parentCounts[ap] == 0) {
+                    order[orderSize++] = ap;
+                }
+            }
+        }
+        // order is also the queue of applied protocols whose parents have all been visited
+        for (int head = 0; head < orderSize; head++) {
+            int ap = order[head];
+            for (int i = outputOffsets[ap]; i < outputOffsets[ap + 1]; i++) {
+                int data = outputs[i];
+                for (int j = nextOffsets[data]; j < nextOffsets[data + 1]; j++) {
+                    int child = nextAppliedProtocols[j];
+                    if (steps[ap] + 1 >= steps[child]) {
+                        steps[child] = steps[ap] + 1;
+                        submissionIds[child] = submissionIds[ap];
+                    }
+                    if (--parentCounts[child] == 0) {
+                        order[orderSize++] = child;
+                    }
+                }
+            }
+        }
+        if (orderSize < order.length) {
+            order = Arrays.copyOf(order, orderSize);
+        }
+        return orderSize;
+    }
+
+    /**
+     * Return the applied protocols reached by traverse(), parents before children.
+     * @return the chado ids
+     */
+    int[] getTraversalOrder() {
+        int[] ids = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ids[i] = appliedProtocolIds[order[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Return the step of an applied protocol found by traverse().
+     * @param appliedProtocolId the chado applied_protocol_id
+     * @return the step, counting from 1, or 0 if the applied protocol wasn't reached
+     */
+    int getStep(int appliedProtocolId) {
+        int ap = Arrays.binarySearch(appliedProtocolIds, appliedProtocolId);
+        return ap < 0 ? 0 : steps[ap];
+    }
+
+    /**
+     * Return the submission of an applied protocol found by traverse().
+     * @param appliedProtocolId the chado applied_protocol_id
+     * @return the chado experiment_id, or 0 if the applied protocol wasn't reached
+     */
+    int getSubmissionId(int appliedProtocolId) {
+        int ap = Arrays.binarySearch(appliedProtocolIds, appliedProtocolId);
+        return ap < 0 ? 0 : submissionIds[ap];
+    }
+
+    /**
+     * Return the chado ids of the applied protocols that read a data item.
+     * @param dataId the chado data_id
+     * @return the chado applied_protocol_ids
+     */
+    int[] getNextAppliedProtocols(int dataId) {
+        int data = Arrays.binarySearch(dataIds, dataId);
+        if (data < 0) {
+            return new int[0];
+        }
+        int[] ids = new int[nextOffsets[data + 1] - nextOffsets[data]];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = appliedProtocolIds[nextAppliedProtocols[nextOffsets[data] + i]];
+        }
+        return ids;
+    }
+
+    private static int[] distinct(int[] a, int aSize, int[] b, int bSize) {
+        int[] all = new int[aSize + bSize];
+        System.arraycopy(a, 0, all, 0, aSize);
+        System.arraycopy(b, 0, all, aSize, bSize);
+        Arrays.sort(all);
+        int size = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                all[size++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, size);
+    }
+
+    private static int[] indexes(int[] sortedIds, int[] ids, int size) {
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = Arrays.binarySearch(sortedIds, ids[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Return the start of each node's edges in the array made by targets(), with an extra
+     * element holding the edge count.
+     */
+    private static int[] offsets(int[] sources, int nodeCount) {
+        int[] offsets = new int[nodeCount + 1];
+        for (int source: sources) {
+            offsets[source + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        return offsets;
+    }
+
+    private static int[] targets(int[] offsets, int[] sources, int[] targets) {
+        int[] result = new int[sources.length];
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < sources.length; i++) {
+            result[next[sources[i]]++] = targets[i];
+        }
+        return result;
+    }
+
+    /**
+     * A growable list of pairs of ints.
+     */
+    private static class IntPairs
+    {
+        private int[] first = new int[1024];
+        private int[] second = new int[1024];
+        private int size = 0;
+
+        void add(int a, int b) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+            }
+            first[size] = a;
+            second[size] = b;
+            size++;
+        }
+    }
+}
@@ -10,12 +10,16 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -28,8 +32,13 @@ import org.intermine.bio.util.OrganismData;
 import org.intermine.bio.util.OrganismRepository;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.sql.Database;
 import org.intermine.util.StringUtil;
+import org.intermine.xml.full.Attribute;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.Reference;
+import org.intermine.xml.full.ReferenceList;
 
 /**
  * DataConverter to read from a Chado database into items
@@ -51,6 +60,42 @@ public class ChadoDBConverter extends BioDBConverter
 
     private Connection connection;
 
+    // the number of rows to fetch at a time when streaming query results, 0 means don't stream
+    private int defaultFetchSize = 0;
+
+    // fetch sizes for particular processors, keyed by unqualified class name
+    private final Map<String, Integer> processorFetchSizes = new HashMap<String, Integer>();
+
+    // if true, residues are read after the features rather than with them
+    private boolean lazyResidues = false;
+
+    // the number of threads processors may use for passes that can run at the same time
+    private int parallelism = 1;
+    // the number of processors that may run at the same time
+    private int processorParallelism = 1;
+
+    // if shardCount > 1, only the organisms in shard number shardIndex (counting from 1) are
+    // processed - see setShard()
+    private int shardIndex = 1;
+    private int shardCount = 1;
+
+    // the directory for the manifests of incremental loads, null to always load all features
+    private File manifestDirectory = null;
+    private File cvSnapshotDirectory = null;
+    private String stagingSchema = null;
+    private String chadoRelease = null;
+    private File spillDirectory = null;
+    private boolean stagedDataIds = false;
+    private boolean bulkCopy = false;
+    // the number of ids in each IN list when processors look values up in bulk
+    private int lookupBatchSize = 1000;
+    // the number of features each processor keeps on the heap, 0 to keep them all
+    private int featureCacheSize = 0;
+
+    // measurements of this load, see setProfileReport()
+    private final LoadProfile loadProfile = new LoadProfile();
+    private File profileReport = null;
+    private boolean profileJmx = false;
 
     /**
      * Create a new ChadoDBConverter object.
@@ -105,6 +150,581 @@ public class ChadoDBConverter extends BioDBConverter
         this.processors = processors;
     }
 
+    /**
+     * Set the number of rows that processors fetch at a time when reading from chado.  If set,
+     * query results are streamed through a cursor instead of being read into memory in one go.
+     * @param fetchSizes a space separated list of fetch sizes, either a number to set the default
+     * for all processors or ProcessorClassName:number to set it for one processor, eg.
+     * "10000 FlyBaseProcessor:50000"
+     */
+    public void setFetchSize(String fetchSizes) {
+        String[] bits = StringUtil.split(fetchSizes.trim(), " ");
+        for (String bit: bits) {
+            if (StringUtils.isEmpty(bit)) {
+                continue;
+            }
+            int colonPos = bit.indexOf(':');
+            try {
+                if (colonPos == -1) {
+                    defaultFetchSize = Integer.parseInt(bit);
+                } else {
+                    String className = bit.substring(0, colonPos);
+                    Integer size = Integer.valueOf(bit.substring(colonPos + 1));
+                    processorFetchSizes.put(className, size);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("can't parse fetch size: " + bit, e);
+            }
+        }
+    }
+
+    /**
+     * Return the fetch size configured for the given processor class, or the default fetch size
+     * if none is set for that class or one of its superclasses.
+     * @param processorClass the class of the processor
+     * @return the fetch size, 0 if results shouldn't be streamed
+     */
+    public int getFetchSize(Class<?> processorClass) {
+        Class<?> cls = processorClass;
+        while (cls != null) {
+            Integer size = processorFetchSizes.get(cls.getSimpleName());
+            if (size != null) {
+                return size.intValue();
+            }
+            cls = cls.getSuperclass();
+        }
+        return defaultFetchSize;
+    }
+
+    /**
+     * Toggle whether the residues of features are read in a separate pass, one feature at a time,
+     * instead of being copied into the feature temporary table and read with the other feature
+     * columns.  Useful for genomes with large chromosomes.  Long residues are read in chunks,
+     * which is only fast if feature.residues is stored uncompressed ("SET STORAGE EXTERNAL") -
+     * SequenceProcessor logs a warning if it isn't.
+     * @param lazyResidues "true" to read residues lazily
+     */
+    public void setLazyResidues(String lazyResidues) {
+        this.lazyResidues = "true".equalsIgnoreCase(lazyResidues);
+    }
+
+    /**
+     * Return true if residues should be read lazily.  See setLazyResidues().
+     * @return true if residues should be read lazily
+     */
+    public boolean isLazyResidues() {
+        return lazyResidues;
+    }
+
+    /**
+     * Set the number of threads that processors may use to run independent passes over the chado
+     * tables at the same time.  Each thread reads from chado using its own connection.  The
+     * default of 1 runs all passes one after another on a single connection.
+     * @param parallelism the maximum number of threads to use
+     */
+    public void setParallelism(String parallelism) {
+        try {
+            this.parallelism = Integer.parseInt(parallelism.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("can't parse parallelism: " + parallelism, e);
+        }
+        if (this.parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+    }
+
+    /**
+     * Return the number of threads that processors may use.  See setParallelism().
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Split the organisms from setOrganisms() into shards and process only one of them, so that a
+     * large load can be run as several independent converters, each writing to its own items
+     * database.  The organisms are sorted by taxon id and dealt out to the shards in turn, so
+     * every converter given the same organisms and shard count makes the same split.  The
+     * results are merged when the items databases are integrated.
+     * @param shard the shard to process and the number of shards, eg. "2/4" for the second of
+     * four shards
+     */
+    public void setShard(String shard) {
+        String[] bits = StringUtil.split(shard.trim(), "/");
+        try {
+            if (bits.length != 2) {
+                throw new NumberFormatException();
+            }
+            shardIndex = Integer.parseInt(bits[0].trim());
+            shardCount = Integer.parseInt(bits[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("can't parse shard, expected eg. \"2/4\": "
+                    + shard, e);
+        }
+        if (shardCount < 1 || shardIndex < 1 || shardIndex > shardCount) {
+            throw new IllegalArgumentException("shard number must be between 1 and the number "
+                    + "of shards: " + shard);
+        }
+    }
+
+    /**
+     * Set the number of processors that may run at the same time.  Each processor starts when
+     * the processors it depends on have finished (see ChadoProcessor.getDependencies()) and runs
+     * on its own connection.  The default of 1 runs the processors one after another in the
+     * order given to setProcessors().
+     * @param processorParallelism the maximum number of processors to run at once
+     */
+    public void setProcessorParallelism(String processorParallelism) {
+        try {
+            this.processorParallelism = Integer.parseInt(processorParallelism.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("can't parse processorParallelism: "
+                    + processorParallelism, e);
+        }
+        if (this.processorParallelism < 1) {
+            throw new IllegalArgumentException("processorParallelism must be at least 1: "
+                    + processorParallelism);
+        }
+    }
+
+    /**
+     * Return the number of processors that may run at the same time.  See
+     * setProcessorParallelism().
+     * @return the processor parallelism
+     */
+    public int getProcessorParallelism() {
+        return processorParallelism;
+    }
+
+    /**
+     * Set the directory where processors keep a manifest of the features they processed.  If set,
+     * each run compares the features in chado with the manifest from the last run and only
+     * processes the features that are new or have changed, with their sequences, locations,
+     * synonyms, relations etc.  A feature has changed if its timelastmodified is later than any
+     * in the last run or its relations differ.  The unchanged features they refer to are stored
+     * with just their identifiers, so the feature classes need keys for the items to merge with
+     * the objects from the last run.  A changed feature's new Location only replaces its old
+     * one if Location has a key, so a source loaded incrementally should use the keys of
+     * chado-db-incremental_keys.properties, which adds one on feature and locatedOn.  The
+     * normal keys files leave Location without a key, as a feature may have several locations
+     * on one chromosome.  At the end of a successful run the new manifests are written as
+     * pending files, which must be committed with commitManifests() once the items
+     * have been integrated - the load target of the chado-db build does this with
+     * CommitFeatureManifestsTask.
+     * @param manifestDirectory the directory path
+     */
+    public void setManifestDirectory(String manifestDirectory) {
+        File directory = new File(manifestDirectory.trim());
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("manifest directory doesn't exist: "
+                    + manifestDirectory);
+        }
+        this.manifestDirectory = directory;
+    }
+
+    /**
+     * Make the pending manifests written by the last run in a manifest directory the manifests
+     * that the next run compares with.  See setManifestDirectory().
+     * @param manifestDirectory the directory
+     * @return the number of manifests committed
+     * @throws IOException if a manifest can't be replaced
+     */
+    public static int commitManifests(File manifestDirectory) throws IOException {
+        int count = FeatureManifest.commitPending(manifestDirectory);
+        LOG.info("committed " + count + " feature manifests in " + manifestDirectory);
+        return count;
+    }
+
+    /**
+     * Return the directory set by setManifestDirectory().
+     * @return the directory, or null if all features should always be loaded
+     */
+    public File getManifestDirectory() {
+        return manifestDirectory;
+    }
+
+    /**
+     * Set the directory where processors keep snapshots of the chado cvs they read.  A snapshot
+     * is used instead of querying chado if the cv hasn't changed since it was written.
+     * @param cvSnapshotDirectory the directory path
+     */
+    public void setCvSnapshotDirectory(String cvSnapshotDirectory) {
+        File directory = new File(cvSnapshotDirectory.trim());
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("cv snapshot directory doesn't exist: "
+                    + cvSnapshotDirectory);
+        }
+        this.cvSnapshotDirectory = directory;
+    }
+
+    /**
+     * Return the directory set by setCvSnapshotDirectory().
+     * @return the directory, or null if cvs should always be read from chado
+     */
+    public File getCvSnapshotDirectory() {
+        return cvSnapshotDirectory;
+    }
+
+    /**
+     * Set the schema in the chado database where processors keep staging tables.  If set,
+     * processors that support it create their intermediate tables as unlogged tables in this
+     * schema rather than as temporary tables, tagged with the chado release, and reuse them in
+     * later runs against the same release.  The schema is created if it doesn't exist.
+     * @param stagingSchema the schema name
+     */
+    public void setStagingSchema(String stagingSchema) {
+        String schema = stagingSchema.trim();
+        if (!schema.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("not a valid schema name: " + stagingSchema);
+        }
+        this.stagingSchema = schema;
+    }
+
+    /**
+     * Return the schema set by setStagingSchema().
+     * @return the schema name, or null if staging tables aren't kept between runs
+     */
+    public String getStagingSchema() {
+        return stagingSchema;
+    }
+
+    /**
+     * Set the name of the chado release being loaded, eg. "FB2014_01".  If set it is used to tag
+     * staging tables instead of a fingerprint computed from the chado tables, see
+     * setStagingSchema().
+     * @param chadoRelease the release name
+     */
+    public void setChadoRelease(String chadoRelease) {
+        String release = chadoRelease.trim();
+        if (release.length() == 0) {
+            throw new IllegalArgumentException("empty chado release name");
+        }
+        this.chadoRelease = release;
+    }
+
+    /**
+     * Return the release set by setChadoRelease().
+     * @return the release name, or null if the staging tables are tagged with a fingerprint
+     */
+    public String getChadoRelease() {
+        return chadoRelease;
+    }
+
+    /**
+     * Set the directory where processors may write temporary files to limit their memory use,
+     * for example the submissions collections of modENCODE features.  The files are deleted
+     * when they have been read.
+     * @param spillDirectory the directory path
+     */
+    public void setSpillDirectory(String spillDirectory) {
+        File directory = new File(spillDirectory.trim());
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("spill directory doesn't exist: "
+                    + spillDirectory);
+        }
+        this.spillDirectory = directory;
+    }
+
+    /**
+     * Return the directory set by setSpillDirectory().
+     * @return the directory, or null if processors should keep everything in memory
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Toggle whether the data ids of all modENCODE submissions are copied into one table before
+     * the features are processed, instead of into a temporary table for each submission.  This
+     * saves creating, indexing and dropping a table per submission.  The table is made in the
+     * staging schema if one is set (see setStagingSchema()), and a table left by a failed run is
+     * dropped by the next one.
+     * @param stagedDataIds "true" to use a single data ids table
+     */
+    public void setStagedDataIds(String stagedDataIds) {
+        this.stagedDataIds = "true".equalsIgnoreCase(stagedDataIds);
+    }
+
+    /**
+     * Return true if a single data ids table should be used.  See setStagedDataIds().
+     * @return true if a single data ids table should be used
+     */
+    public boolean isStagedDataIds() {
+        return stagedDataIds;
+    }
+
+    /**
+     * Set to "true" to read the biggest chado tables (dbxref, synonym and featureprop) with
+     * PostgreSQL COPY ... TO STDOUT instead of JDBC queries, which is several times faster for
+     * those wide text tables.  It has no effect if the connection isn't a PostgreSQL connection.
+     * The getDbxrefResultSet(), getSynonymResultSet() and getFeaturePropResultSet() methods of
+     * SequenceProcessor aren't called when COPY is used.
+     * @param bulkCopy "true" to use COPY
+     */
+    public void setBulkCopy(String bulkCopy) {
+        this.bulkCopy = "true".equalsIgnoreCase(bulkCopy);
+    }
+
+    /**
+     * Return true if the biggest tables should be read with COPY.  See setBulkCopy().
+     * @return true if COPY should be used
+     */
+    public boolean isBulkCopy() {
+        return bulkCopy;
+    }
+
+    /**
+     * Set the number of ids processors put in the IN list of each query when they look values up
+     * in bulk, for example the official names of modENCODE data.  The default is 1000.
+     * @param lookupBatchSize the number of ids per query
+     */
+    public void setLookupBatchSize(String lookupBatchSize) {
+        try {
+            this.lookupBatchSize = Integer.parseInt(lookupBatchSize.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("can't parse lookupBatchSize: " + lookupBatchSize,
+                    e);
+        }
+        if (this.lookupBatchSize < 1) {
+            throw new IllegalArgumentException("lookupBatchSize must be at least 1: "
+                    + lookupBatchSize);
+        }
+    }
+
+    /**
+     * Return the number of ids per bulk lookup query.  See setLookupBatchSize().
+     * @return the batch size
+     */
+    public int getLookupBatchSize() {
+        return lookupBatchSize;
+    }
+
+    /**
+     * Set the number of features a SequenceProcessor keeps on the heap.  If set, the features
+     * read from chado are kept in a memory mapped file in the spill directory (or the system
+     * temporary directory if there is no spill directory) and only the most recently used ones
+     * are kept as objects, so that organisms with more features than fit in memory can be
+     * loaded, a little more slowly.  By default all features are kept on the heap.  Can't be
+     * used with a parallelism of more than 1 - see setParallelism().
+     * @param featureCacheSize the number of features to cache
+     */
+    public void setFeatureCacheSize(String featureCacheSize) {
+        try {
+            this.featureCacheSize = Integer.parseInt(featureCacheSize.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("can't parse featureCacheSize: "
+                    + featureCacheSize, e);
+        }
+        if (this.featureCacheSize < 1) {
+            throw new IllegalArgumentException("featureCacheSize must be at least 1: "
+                    + featureCacheSize);
+        }
+    }
+
+    /**
+     * Return the number of features a SequenceProcessor keeps on the heap.  See
+     * setFeatureCacheSize().
+     * @return the cache size, or 0 if all features are kept on the heap
+     */
+    public int getFeatureCacheSize() {
+        return featureCacheSize;
+    }
+
+    /**
+     * Set a file to write a JSON report of the load to when it finishes, with the rows read,
+     * items stored, SQL and Java time, peak featureMap size and allocation of each pass.  Setting
+     * this also turns on counting of rows and JDBC time, which slows reading a little.
+     * @param profileReport the path of the report file
+     */
+    public void setProfileReport(String profileReport) {
+        File file = new File(profileReport.trim());
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory == null || !directory.isDirectory()) {
+            throw new IllegalArgumentException("directory for profile report doesn't exist: "
+                    + profileReport);
+        }
+        this.profileReport = file;
+    }
+
+    /**
+     * Return the file set by setProfileReport().
+     * @return the file, or null if no report should be written
+     */
+    public File getProfileReport() {
+        return profileReport;
+    }
+
+    /**
+     * Toggle registering the LoadProfile of this load as a JMX MBean while it runs.  Setting
+     * this also turns on counting of rows and JDBC time.
+     * @param profileJmx "true" to register the MBean
+     */
+    public void setProfileJmx(String profileJmx) {
+        this.profileJmx = "true".equalsIgnoreCase(profileJmx);
+    }
+
+    /**
+     * Return true if rows and JDBC time should be counted, see setProfileReport() and
+     * setProfileJmx().
+     * @return true if profiling
+     */
+    public boolean isProfiling() {
+        return profileReport != null || profileJmx;
+    }
+
+    /**
+     * Return the measurements of this load.  Items and references are always counted, rows and
+     * JDBC time only if isProfiling().
+     * @return the LoadProfile
+     */
+    public LoadProfile getLoadProfile() {
+        return loadProfile;
+    }
+
+    /**
+     * Return a new connection to the chado database, for processors that read with several
+     * threads.  The caller should close it.
+     * @return the new Connection
+     * @throws SQLException if a database problem occurs
+     */
+    public Connection getNewConnection() throws SQLException {
+        Connection newConnection = getDatabase().getConnection();
+        return isProfiling() ? loadProfile.profileConnection(newConnection) : newConnection;
+    }
+
+    /**
+     * Return the organisms from setOrganisms() that are in the shard set by setShard(), or all
+     * of them if no shard is set.
+     * @return the organisms to process in this run
+     */
+    protected Set<OrganismData> getShardOrganisms() {
+        if (shardCount == 1) {
+            return organismsToProcess;
+        }
+        List<OrganismData> sortedOrganisms = new ArrayList<OrganismData>(organismsToProcess);
+        Collections.sort(sortedOrganisms, new Comparator<OrganismData>() {
+            public int compare(OrganismData od1, OrganismData od2) {
+                return od1.getTaxonId() - od2.getTaxonId();
+            }
+        });
+        Set<OrganismData> shardOrganisms = new HashSet<OrganismData>();
+        for (int i = shardIndex - 1; i < sortedOrganisms.size(); i += shardCount) {
+            shardOrganisms.add(sortedOrganisms.get(i));
+        }
+        LOG.info("processing shard " + shardIndex + "/" + shardCount + ": " + shardOrganisms);
+        return shardOrganisms;
+    }
+
+    /**
+     * Synchronized so that processors can store from several threads.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Integer store(Item item) throws ObjectStoreException {
+        loadProfile.countItem();
+        return super.store(item);
+    }
+
+    /**
+     * Synchronized so that processors can store from several threads.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void store(Reference reference, Integer itemId)
+        throws ObjectStoreException {
+        loadProfile.countReference();
+        super.store(reference, itemId);
+    }
+
+    /**
+     * Synchronized so that processors can store from several threads.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void store(ReferenceList referenceList, Integer itemId)
+        throws ObjectStoreException {
+        loadProfile.countCollection();
+        super.store(referenceList, itemId);
+    }
+
+    /**
+     * Synchronized so that processors can store from several threads.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void store(Attribute attribute, Integer itemId)
+        throws ObjectStoreException {
+        loadProfile.countAttribute();
+        super.store(attribute, itemId);
+    }
+
+    /**
+     * Synchronized so that processors can create Items from several threads.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item createItem(String className) {
+        return super.createItem(className);
+    }
+
+    /**
+     * Synchronized so that processors running at the same time share one organism Item.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item getOrganismItem(int taxonId) {
+        return super.getOrganismItem(taxonId);
+    }
+
+    /**
+     * Synchronized so that processors running at the same time share one data source Item.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item getDataSourceItem() {
+        return super.getDataSourceItem();
+    }
+
+    /**
+     * Synchronized so that processors running at the same time share one data set Item.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item getDataSetItem(String title, String url, String description,
+            Item dataSourceItem) {
+        return super.getDataSetItem(title, url, description, dataSourceItem);
+    }
+
+    /**
+     * Synchronized so that processors running at the same time share one data set Item.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item getDataSetItem(int taxonId) {
+        return super.getDataSetItem(taxonId);
+    }
+
+    /**
+     * Synchronized so that processors can make Locations from several threads.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item makeLocation(String chromosomeId, String sequenceFeatureId,
+            int start, int end, int strand, int taxonId) {
+        return super.makeLocation(chromosomeId, sequenceFeatureId, start, end, strand, taxonId);
+    }
+
+    /**
+     * Synchronized so that processors can create Synonyms from several threads.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item createSynonym(String subjectId, String value, boolean store)
+        throws ObjectStoreException {
+        return super.createSynonym(subjectId, value, store);
+    }
+
     /**
      * Return a map from chado organism_id to OrganismData object for all the organisms that we
      * are processing
@@ -132,10 +752,22 @@ public class ChadoDBConverter extends BioDBConverter
         if (StringUtils.isEmpty(processors)) {
             throw new IllegalArgumentException("processors not set in ChadoDBConverter");
         }
+        if (featureCacheSize > 0 && parallelism > 1) {
+            // the passes would evict each other's features from the one cache of a processor
+            throw new IllegalArgumentException("featureCacheSize can't be used with a parallelism"
+                    + " of more than 1");
+        }
+
+        Set<OrganismData> shardOrganisms = getShardOrganisms();
+        if (shardOrganisms.isEmpty() && !organismsToProcess.isEmpty()) {
+            LOG.warn("no organisms in shard " + shardIndex + "/" + shardCount
+                    + " - nothing to process");
+            return;
+        }
 
         Map<OrganismData, Integer> tempChadoOrgMap = getChadoOrganismIds(getConnection());
 
-        for (OrganismData od: organismsToProcess) {
+        for (OrganismData od: shardOrganisms) {
             Integer chadoId = tempChadoOrgMap.get(od);
             if (chadoId == null) {
                 throw new RuntimeException("Organism " + od
@@ -148,15 +780,50 @@ public class ChadoDBConverter extends BioDBConverter
             throw new RuntimeException("can't find any known organisms in the organism table");
         }
 
-        String[] bits = processors.trim().split("[ \\t]+");
-        for (int i = 0; i < bits.length; i++) {
-            String className = bits[i];
-            if (!StringUtils.isEmpty(className)) {
-                Class<?> cls = Class.forName(className);
-                Constructor<?> constructor = cls.getDeclaredConstructor(ChadoDBConverter.class);
-                ChadoProcessor currentProcessor = (ChadoProcessor) constructor.newInstance(this);
-                currentProcessor.process(getConnection());
-                getCompletedProcessors().add(currentProcessor);
+        Connection processConnection = getConnection();
+        if (isProfiling() && processConnection != null) {
+            processConnection = loadProfile.profileConnection(processConnection);
+        }
+        if (profileJmx) {
+            loadProfile.registerMBean(processors.trim());
+        }
+        try {
+            ProcessorScheduler scheduler = new ProcessorScheduler(this, processorParallelism);
+            String[] bits = processors.trim().split("[ \\t]+");
+            for (int i = 0; i < bits.length; i++) {
+                String className = bits[i];
+                if (!StringUtils.isEmpty(className)) {
+                    Class<?> cls = Class.forName(className);
+                    Constructor<?> constructor =
+                        cls.getDeclaredConstructor(ChadoDBConverter.class);
+                    scheduler.add((ChadoProcessor) constructor.newInstance(this));
+                }
+            }
+            scheduler.run(processConnection);
+            writePendingManifests();
+        } finally {
+            loadProfile.unregisterMBean();
+            if (profileReport != null) {
+                try {
+                    loadProfile.writeReport(profileReport);
+                } catch (IOException e) {
+                    LOG.warn("can't write profile report: " + profileReport, e);
+                }
+            }
+        }
+    }
+
+    // only called once all processors have succeeded, so a failed run leaves the manifests of
+    // the last successful run in place
+    private void writePendingManifests() throws IOException {
+        if (manifestDirectory == null) {
+            return;
+        }
+        synchronized (completedProcessors) {
+            for (ChadoProcessor processor: completedProcessors) {
+                if (processor instanceof SequenceProcessor) {
+                    ((SequenceProcessor) processor).writePendingManifest();
+                }
             }
         }
     }
@@ -226,13 +893,15 @@ public class ChadoDBConverter extends BioDBConverter
     public ChadoProcessor findProcessor(Class<? extends ChadoProcessor> cls) {
         ChadoProcessor returnProcessor = null;
 
-        for (ChadoProcessor processor: getCompletedProcessors()) {
-            if (cls.isAssignableFrom(processor.getClass())) {
-                if (returnProcessor == null) {
-                    returnProcessor = processor;
-                } else {
-                    throw new RuntimeException("Completed processors list contains two objects of "
-                                               + "type: " + cls.getName());
+        synchronized (completedProcessors) {
+            for (ChadoProcessor processor: completedProcessors) {
+                if (cls.isAssignableFrom(processor.getClass())) {
+                    if (returnProcessor == null) {
+                        returnProcessor = processor;
+                    } else {
+                        throw new RuntimeException("Completed processors list contains two objects"
+                                                   + " of type: " + cls.getName());
+                    }
                 }
             }
         }
@@ -259,6 +928,8 @@ public class ChadoDBConverter extends BioDBConverter
     }
 
     /**
+     * Return the processors that have finished, in the order they finished.  When processors
+     * run at the same time, synchronize on the list while reading it.
      * @return the completedProcessors
      */
     public List<ChadoProcessor> getCompletedProcessors() {
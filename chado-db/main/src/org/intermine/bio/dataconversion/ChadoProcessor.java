@@ -10,13 +10,23 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
 
+import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.sql.Database;
 import org.intermine.xml.full.Attribute;
+import org.intermine.xml.full.Reference;
+import org.intermine.xml.full.ReferenceList;
 
 /**
  * A processor for a chado module.  See http://www.gmod.org/wiki/index.php/Chado#Modules for
@@ -25,8 +35,21 @@ import org.intermine.xml.full.Attribute;
  */
 public abstract class ChadoProcessor
 {
+    private static final Logger LOG = Logger.getLogger(ChadoProcessor.class);
     private final ChadoDBConverter chadoDBConverter;
 
+    // the number of updates to buffer before storing them, see startPendingUpdates()
+    private static final int PENDING_UPDATES_BATCH_SIZE = 10000;
+
+    // the buffer of updates for the current thread, null when updates are stored immediately
+    private final ThreadLocal<PendingUpdates> pendingUpdates = new ThreadLocal<PendingUpdates>();
+
+    // totals from the PendingUpdates of all threads, see finishPendingUpdates()
+    private long pendingUpdateCount = 0;
+    private long pendingCoalescedCount = 0;
+    private long pendingFlushCount = 0;
+    private long pendingFlushNanos = 0;
+
     /**
      * Create a new ChadoModuleProcessor object.
      * @param chadoDBConverter the converter that created this Processor
@@ -74,6 +97,19 @@ public abstract class ChadoProcessor
      */
     public abstract void process(Connection connection) throws Exception;
 
+    /**
+     * Return the classes of the processors that must finish before this processor starts, for
+     * when ChadoDBConverter runs processors at the same time.  Only processors that come before
+     * this one in the processors list are waited for, including instances of subclasses of the
+     * returned classes.  The default is null, meaning that this processor waits for all the
+     * processors before it in the list.  A processor that doesn't use other processors or the
+     * results of their queries should return an empty list.
+     * @return the dependencies, or null to depend on all earlier processors
+     */
+    public List<Class<? extends ChadoProcessor>> getDependencies() {
+        return null;
+    }
+
     /**
      * Set an attribute in an Item by creating an Attribute object and storing it.
      * @param intermineObjectId the intermine object ID of the item to create this attribute for.
@@ -86,6 +122,197 @@ public abstract class ChadoProcessor
         Attribute att = new Attribute();
         att.setName(attributeName);
         att.setValue(value);
-        getChadoDBConverter().store(att, intermineObjectId);
+        PendingUpdates updates = pendingUpdates.get();
+        if (updates == null) {
+            getChadoDBConverter().store(att, intermineObjectId);
+        } else {
+            updates.add(att, intermineObjectId);
+            flushIfFull(updates);
+        }
+    }
+
+    /**
+     * Store a reference of an Item that has already been stored.  Between startPendingUpdates()
+     * and finishPendingUpdates() the reference is buffered.
+     * @param reference the Reference
+     * @param intermineObjectId the intermine object ID of the item to add the reference to
+     * @throws ObjectStoreException if there is a problem while storing
+     */
+    protected void storeReference(Reference reference, Integer intermineObjectId)
+        throws ObjectStoreException {
+        PendingUpdates updates = pendingUpdates.get();
+        if (updates == null) {
+            getChadoDBConverter().store(reference, intermineObjectId);
+        } else {
+            updates.add(reference, intermineObjectId);
+            flushIfFull(updates);
+        }
+    }
+
+    /**
+     * Store a collection of an Item that has already been stored.  Between startPendingUpdates()
+     * and finishPendingUpdates() the collection is buffered.
+     * @param referenceList the ReferenceList
+     * @param intermineObjectId the intermine object ID of the item to add the collection to
+     * @throws ObjectStoreException if there is a problem while storing
+     */
+    protected void storeCollection(ReferenceList referenceList, Integer intermineObjectId)
+        throws ObjectStoreException {
+        PendingUpdates updates = pendingUpdates.get();
+        if (updates == null) {
+            getChadoDBConverter().store(referenceList, intermineObjectId);
+        } else {
+            updates.add(referenceList, intermineObjectId);
+            flushIfFull(updates);
+        }
+    }
+
+    private void flushIfFull(PendingUpdates updates) throws ObjectStoreException {
+        if (updates.size() >= PENDING_UPDATES_BATCH_SIZE) {
+            updates.flush(getChadoDBConverter());
+        }
+    }
+
+    /**
+     * Start buffering the updates made by setAttribute(), storeReference() and storeCollection()
+     * in the current thread.  Repeated updates of the same field of an object are coalesced and
+     * the updates are stored in batches.  Call finishPendingUpdates() to store the remaining
+     * updates.
+     */
+    protected void startPendingUpdates() {
+        pendingUpdates.set(new PendingUpdates());
+    }
+
+    /**
+     * Store any updates buffered since startPendingUpdates() and go back to storing updates
+     * immediately.
+     * @throws ObjectStoreException if there is a problem while storing
+     */
+    protected void finishPendingUpdates() throws ObjectStoreException {
+        PendingUpdates updates = pendingUpdates.get();
+        if (updates == null) {
+            return;
+        }
+        pendingUpdates.remove();
+        updates.flush(getChadoDBConverter());
+        synchronized (this) {
+            pendingUpdateCount += updates.getUpdateCount();
+            pendingCoalescedCount += updates.getCoalescedCount();
+            pendingFlushCount += updates.getFlushCount();
+            pendingFlushNanos += updates.getFlushNanos();
+        }
+    }
+
+    /**
+     * Log the number of buffered updates, the number of store() calls saved by coalescing them
+     * and the time spent storing the batches.
+     */
+    protected synchronized void logPendingUpdateStats() {
+        LOG.info("buffered " + pendingUpdateCount + " updates, saved " + pendingCoalescedCount
+                + " store calls, stored " + pendingFlushCount + " batches in "
+                + (pendingFlushNanos / 1000000) + "ms");
+    }
+
+    /**
+     * Return the number of rows to fetch at a time when querying chado.  Configured for each
+     * processor with ChadoDBConverter.setFetchSize().
+     * @return the fetch size, or 0 if results shouldn't be streamed
+     */
+    protected int getFetchSize() {
+        return chadoDBConverter.getFetchSize(getClass());
+    }
+
+    /**
+     * Create a Statement for running a query against chado.  If a fetch size is configured, the
+     * statement reads rows in batches of that size using a server side cursor, rather than
+     * loading the whole result into memory.  PostgreSQL only uses a cursor if the connection is
+     * not in auto-commit mode - see startStreaming().
+     * @param connection the db connection
+     * @return the new Statement
+     * @throws SQLException if a database problem occurs
+     */
+    protected Statement createStatement(Connection connection) throws SQLException {
+        Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        int fetchSize = getFetchSize();
+        if (fetchSize > 0) {
+            stmt.setFetchSize(fetchSize);
+        }
+        return stmt;
+    }
+
+    /**
+     * If a fetch size is configured, turn off auto-commit so that queries made with
+     * createStatement() can use cursors.  Call finishStreaming() when done, or abortStreaming() if
+     * processing fails.
+     * @param connection the db connection, may be null while testing
+     * @return true if auto-commit was turned off by this call
+     * @throws SQLException if a database problem occurs
+     */
+    protected boolean startStreaming(Connection connection) throws SQLException {
+        if (connection == null || getFetchSize() <= 0 || !connection.getAutoCommit()) {
+            return false;
+        }
+        LOG.info("streaming query results with fetch size " + getFetchSize());
+        connection.setAutoCommit(false);
+        resetHeapHighWaterMark();
+        return true;
+    }
+
+    /**
+     * Commit the transaction started by startStreaming() and turn auto-commit back on.
+     * @param connection the db connection
+     * @param started the value returned by startStreaming()
+     * @throws SQLException if a database problem occurs
+     */
+    protected void finishStreaming(Connection connection, boolean started) throws SQLException {
+        if (started) {
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Roll back the transaction started by startStreaming() and turn auto-commit back on.  Called
+     * from a finally block when processing fails before finishStreaming(), so problems are logged
+     * rather than thrown to avoid hiding the original exception.
+     * @param connection the db connection
+     * @param started the value returned by startStreaming(), or false if finishStreaming() has
+     * already been called
+     */
+    protected void abortStreaming(Connection connection, boolean started) {
+        if (started) {
+            try {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOG.warn("failed to roll back streaming transaction", e);
+            }
+        }
+    }
+
+    /**
+     * Log the current heap usage and the peak heap usage since the last reset.
+     * @param stage the name of the processing stage that has just finished
+     */
+    protected void logHeapHighWaterMark(String stage) {
+        long used = 0;
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                used += pool.getUsage().getUsed();
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        LOG.info("heap after " + stage + ": " + (used >> 20) + "MB used, high-water mark "
+                + (peak >> 20) + "MB");
+    }
+
+    private void resetHeapHighWaterMark() {
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+
+/**
+ * A forward-only view of the rows of a chado query, read either from a JDBC ResultSet or from
+ * the output of a PostgreSQL COPY.  Columns are found by name once with findColumn() and then
+ * read by index.
+ */
+abstract class ChadoRows
+{
+    private final String[] columnNames;
+
+    /**
+     * Create a new ChadoRows.
+     * @param columnNames the names of the columns, in the order of the query
+     */
+    ChadoRows(String[] columnNames) {
+        this.columnNames = columnNames;
+    }
+
+    /**
+     * Return the number of columns.
+     * @return the column count
+     */
+    int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * Return the name of a column.
+     * @param column the index of the column
+     * @return the name
+     */
+    String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * Return the index of the column with the given name.
+     * @param columnName the name
+     * @return the index, to pass to the get methods
+     */
+    int findColumn(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(columnName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("no column named " + columnName);
+    }
+
+    /**
+     * Move to the next row.
+     * @return false if there are no more rows
+     * @throws SQLException if the row can't be read
+     */
+    abstract boolean next() throws SQLException;
+
+    /**
+     * Return a column of the current row as an int.
+     * @param column the index of the column
+     * @return the value, or 0 if the value is NULL
+     * @throws SQLException if the value isn't an integer
+     */
+    abstract int getInt(int column) throws SQLException;
+
+    /**
+     * Return a column of the current row as an int, for columns that may be NULL.
+     * @param column the index of the column
+     * @param nullValue the value to return if the value is NULL
+     * @return the value, or nullValue if the value is NULL
+     * @throws SQLException if the value isn't an integer
+     */
+    abstract int getInt(int column, int nullValue) throws SQLException;
+
+    /**
+     * Return a column of the current row as a String.
+     * @param column the index of the column
+     * @return the value, or null if the value is NULL
+     * @throws SQLException if the value can't be read
+     */
+    abstract String getString(int column) throws SQLException;
+
+    /**
+     * Return a column of the current row as a boolean.
+     * @param column the index of the column
+     * @return the value, or false if the value is NULL
+     * @throws SQLException if the value can't be read
+     */
+    abstract boolean getBoolean(int column) throws SQLException;
+
+    /**
+     * Stop reading and release the query.
+     * @throws SQLException if a database problem occurs
+     */
+    abstract void close() throws SQLException;
+}
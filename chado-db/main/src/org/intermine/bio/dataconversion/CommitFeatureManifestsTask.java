@@ -0,0 +1,57 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+/**
+ * Commit the pending feature manifests of a chado-db source once its items have been
+ * integrated - see ChadoDBConverter.setManifestDirectory().  Run by the load target of the
+ * chado-db build with the source's manifestDirectory property; does nothing if it isn't set.
+ */
+public class CommitFeatureManifestsTask extends Task
+{
+    private String manifestDirectory = null;
+
+    /**
+     * Set the manifest directory, the same as the manifestDirectory of the source.
+     * @param manifestDirectory the directory path
+     */
+    public void setManifestDirectory(String manifestDirectory) {
+        this.manifestDirectory = manifestDirectory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        // an unset ant property is passed through as "${manifestDirectory}"
+        if (StringUtils.isBlank(manifestDirectory) || manifestDirectory.startsWith("${")) {
+            return;
+        }
+        File directory = new File(manifestDirectory.trim());
+        if (!directory.isDirectory()) {
+            throw new BuildException("manifest directory doesn't exist: " + manifestDirectory);
+        }
+        try {
+            int count = ChadoDBConverter.commitManifests(directory);
+            log("committed " + count + " feature manifests in " + directory);
+        } catch (IOException e) {
+            throw new BuildException("failed to commit feature manifests in " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The features shared by the ModEncodeFeatureProcessors of submissions that are processed at
+ * the same time.  The first processor to claim a feature makes and stores it, any other
+ * processor that claims the same feature waits until it has been made and then uses the same
+ * FeatureData, so each common feature is stored exactly once.  A processor only ever waits for
+ * one feature while it doesn't own any unfinished claim, so processors can't deadlock.
+ */
+class CommonFeatureRegistry
+{
+    private final ConcurrentMap<Integer, Claim> claims = new ConcurrentHashMap<Integer, Claim>();
+    private final AtomicInteger sharedCount = new AtomicInteger();
+    private final Map<Integer, FeatureData> features = new FeatureView();
+
+    /**
+     * A feature claimed by one thread.  featureData is null until the feature is made, and stays
+     * null if the owner didn't make a common feature.
+     */
+    private static class Claim
+    {
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch made = new CountDownLatch(1);
+        private volatile FeatureData featureData = null;
+    }
+
+    /**
+     * Claim a feature for the calling thread, or wait until the thread that claimed it first has
+     * made it.
+     * @param featureId the chado feature_id
+     * @return null if the calling thread should make the feature itself, in which case it must
+     * call release() afterwards, otherwise the FeatureData made by another thread
+     * @throws InterruptedException if interrupted while waiting for another thread
+     */
+    FeatureData claim(Integer featureId) throws InterruptedException {
+        Claim existing = claims.putIfAbsent(featureId, new Claim());
+        if (existing == null) {
+            return null;
+        }
+        if (existing.owner == Thread.currentThread() && existing.made.getCount() > 0) {
+            // claimed but not yet released by this thread
+            return null;
+        }
+        existing.made.await();
+        FeatureData fdat = existing.featureData;
+        if (fdat != null) {
+            sharedCount.incrementAndGet();
+        }
+        return fdat;
+    }
+
+    /**
+     * Finish a claim made by the calling thread, waking any threads waiting for the feature.  Does
+     * nothing if the calling thread doesn't hold an unfinished claim on the feature.
+     * @param featureId the chado feature_id
+     * @param fdat the FeatureData of the stored feature, or null if the feature wasn't made or
+     * isn't a common feature, in which case other threads make their own
+     */
+    void release(Integer featureId, FeatureData fdat) {
+        Claim claim = claims.get(featureId);
+        if (claim != null && claim.owner == Thread.currentThread()
+                && claim.made.getCount() > 0) {
+            claim.featureData = fdat;
+            claim.made.countDown();
+        }
+    }
+
+    /**
+     * Return the features made so far, to initialise a new processor.  The map is a read-only
+     * view that also shows features made later, so callers should read each entry only once.
+     * @return a map from chado feature_id to FeatureData
+     */
+    Map<Integer, FeatureData> getFeatures() {
+        return features;
+    }
+
+    /**
+     * A read-only view of the claims that have a FeatureData.
+     */
+    private class FeatureView extends AbstractMap<Integer, FeatureData>
+    {
+        private final Set<Map.Entry<Integer, FeatureData>> entrySet =
+            new AbstractSet<Map.Entry<Integer, FeatureData>>() {
+                @Override
+                public Iterator<Map.Entry<Integer, FeatureData>> iterator() {
+                    return new FeatureIterator(claims.entrySet().iterator());
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Claim claim: claims.values()) {
+                        if (claim.featureData != null) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+
+        @Override
+        public Set<Map.Entry<Integer, FeatureData>> entrySet() {
+            return entrySet;
+        }
+
+        @Override
+        public FeatureData get(Object featureId) {
+            Claim claim = claims.get(featureId);
+            return claim == null ? null : claim.featureData;
+        }
+
+        @Override
+        public boolean containsKey(Object featureId) {
+            return get(featureId) != null;
+        }
+    }
+
+    /**
+     * An iterator over the claims that have a FeatureData, skipping the others.
+     */
+    private static class FeatureIterator implements Iterator<Map.Entry<Integer, FeatureData>>
+    {
+        private final Iterator<Map.Entry<Integer, Claim>> claimIterator;
+        private Map.Entry<Integer, FeatureData> next = null;
+
+        FeatureIterator(Iterator<Map.Entry<Integer, Claim>> claimIterator) {
+            this.claimIterator = claimIterator;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && claimIterator.hasNext()) {
+                Map.Entry<Integer, Claim> entry = claimIterator.next();
+                FeatureData fdat = entry.getValue().featureData;
+                if (fdat != null) {
+                    next = new AbstractMap.SimpleImmutableEntry<Integer, FeatureData>(
+                            entry.getKey(), fdat);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<Integer, FeatureData> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, FeatureData> entry = next;
+            advance();
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("the features are read-only");
+        }
+    }
+
+    /**
+     * Return the number of times claim() returned a feature made by another thread.
+     * @return the count
+     */
+    int getSharedCount() {
+        return sharedCount.get();
+    }
+}
@@ -0,0 +1,156 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.intermine.bio.chado.config.ConfigAction;
+
+/**
+ * The configuration of a processor for one organism, as returned by getConfig(), indexed so that
+ * the actions for a key can be found without making a MultiKey for every row read from chado.
+ * Each part of each configured key is given a small number once, the numbers of the parts of a
+ * key are packed into a long and the longs are kept in an open addressing hash table that points
+ * into a list of the configured action lists.  Looking a key up allocates nothing.
+ */
+class ConfigIndex
+{
+    // part numbers 0 and 1 mean "no part" (for keys of three parts) and null
+    private static final int NO_PART = 0;
+    private static final int NULL_PART = 1;
+    private static final int MAX_PARTS = 1 << 16;
+
+    private final int taxonId;
+    private final Map<Object, Integer> partNumbers = new HashMap<Object, Integer>();
+    private final List<List<ConfigAction>> actionLists = new ArrayList<List<ConfigAction>>();
+    private final long[] keys;
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * Index a configuration.
+     * @param taxonId the organism the configuration is for
+     * @param config the configuration, keys with other than three or four parts are ignored
+     */
+    ConfigIndex(int taxonId, Map<MultiKey, List<ConfigAction>> config) {
+        this.taxonId = taxonId;
+        int capacity = 16;
+        while (capacity < config.size() * 2) {
+            capacity *= 2;
+        }
+        keys = new long[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (Map.Entry<MultiKey, List<ConfigAction>> entry: config.entrySet()) {
+            Object[] parts = entry.getKey().getKeys();
+            if (parts.length != 3 && parts.length != 4) {
+                continue;
+            }
+            long key = 0;
+            for (int i = 0; i < parts.length; i++) {
+                key |= ((long) addPart(parts[i])) << (16 * i);
+            }
+            actionLists.add(entry.getValue());
+            int slot = findSlot(key);
+            keys[slot] = key;
+            slots[slot] = actionLists.size();
+        }
+    }
+
+    private int addPart(Object part) {
+        if (part == null) {
+            return NULL_PART;
+        }
+        Integer number = partNumbers.get(part);
+        if (number == null) {
+            if (partNumbers.size() + 2 >= MAX_PARTS) {
+                throw new IllegalArgumentException("too many distinct configuration key parts");
+            }
+            number = new Integer(partNumbers.size() + 2);
+            partNumbers.put(part, number);
+        }
+        return number.intValue();
+    }
+
+    // -1 if the part isn't in any configured key
+    private int getPart(Object part) {
+        if (part == null) {
+            return NULL_PART;
+        }
+        Integer number = partNumbers.get(part);
+        return number == null ? -1 : number.intValue();
+    }
+
+    // the slot holding the key, or the empty slot where it would go
+    private int findSlot(long key) {
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private List<ConfigAction> lookUp(long key) {
+        int slot = findSlot(key);
+        return keys[slot] == 0 ? null : actionLists.get(slots[slot] - 1);
+    }
+
+    /**
+     * Return the organism the configuration is for.
+     * @return the taxon id
+     */
+    int getTaxonId() {
+        return taxonId;
+    }
+
+    /**
+     * Return the actions configured for a key of three parts, eg. ("prop", "Gene", "symbol").
+     * @param part0 the first part of the key
+     * @param part1 the second part of the key
+     * @param part2 the third part of the key
+     * @return the actions, or null if nothing is configured for the key
+     */
+    List<ConfigAction> get(Object part0, Object part1, Object part2) {
+        int number0 = getPart(part0);
+        int number1 = getPart(part1);
+        int number2 = getPart(part2);
+        if (number0 < 0 || number1 < 0 || number2 < 0) {
+            return null;
+        }
+        return lookUp(number0 | ((long) number1 << 16) | ((long) number2 << 32)
+                | ((long) NO_PART << 48));
+    }
+
+    /**
+     * Return the actions configured for a key of four parts, eg. ("synonym", "Gene", "symbol",
+     * Boolean.TRUE).
+     * @param part0 the first part of the key
+     * @param part1 the second part of the key
+     * @param part2 the third part of the key
+     * @param part3 the fourth part of the key
+     * @return the actions, or null if nothing is configured for the key
+     */
+    List<ConfigAction> get(Object part0, Object part1, Object part2, Object part3) {
+        int number0 = getPart(part0);
+        int number1 = getPart(part1);
+        int number2 = getPart(part2);
+        int number3 = getPart(part3);
+        if (number0 < 0 || number1 < 0 || number2 < 0 || number3 < 0) {
+            return null;
+        }
+        return lookUp(number0 | ((long) number1 << 16) | ((long) number2 << 32)
+                | ((long) number3 << 48));
+    }
+}
@@ -0,0 +1,265 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+
+/**
+ * The rows of a query read with "COPY (query) TO STDOUT", which PostgreSQL sends as one line of
+ * tab separated text per row with much less work than a JDBC ResultSet.  Each line is split in
+ * place by recording where its columns start and end, and a column is only turned into a String
+ * if getString() is called.  Integers and booleans are parsed straight from the bytes.
+ */
+class CopyOutRows extends ChadoRows
+{
+    private static final Logger LOG = Logger.getLogger(CopyOutRows.class);
+    // the JDBC driver always sets client_encoding to UTF8
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final CopyOut copyOut;
+    private final int[] starts;
+    private final int[] ends;
+    private byte[] row = null;
+    private int rowCount = 0;
+
+    /**
+     * Create a new CopyOutRows.
+     * @param copyOut the COPY to read from, null if the rows will be passed to parseRow()
+     * @param columnNames the names of the columns, in the order of the query
+     */
+    CopyOutRows(CopyOut copyOut, String... columnNames) {
+        super(columnNames);
+        this.copyOut = copyOut;
+        starts = new int[columnNames.length];
+        ends = new int[columnNames.length];
+    }
+
+    /**
+     * Start a COPY of the results of a query.
+     * @param connection the connection to run the COPY on, which can't be used for anything else
+     * until the rows are read or closed
+     * @param query the query
+     * @param columnNames the names of the columns the query returns, in order
+     * @return the rows, or null if the connection isn't a PostgreSQL connection
+     * @throws SQLException if the COPY fails
+     */
+    static CopyOutRows open(Connection connection, String query, String... columnNames)
+        throws SQLException {
+        PGConnection pgConnection;
+        if (connection instanceof PGConnection) {
+            pgConnection = (PGConnection) connection;
+        } else if (connection.isWrapperFor(PGConnection.class)) {
+            pgConnection = connection.unwrap(PGConnection.class);
+        } else {
+            return null;
+        }
+        String sql = "COPY (" + query + ") TO STDOUT";
+        LOG.info("executing: " + sql);
+        return new CopyOutRows(pgConnection.getCopyAPI().copyOut(sql), columnNames);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    boolean next() throws SQLException {
+        byte[] newRow = copyOut.readFromCopy();
+        if (newRow == null) {
+            row = null;
+            return false;
+        }
+        parseRow(newRow);
+        return true;
+    }
+
+    /**
+     * Make a line of COPY output the current row.
+     * @param newRow the line, with or without its newline
+     * @throws SQLException if the line doesn't have one value for each column
+     */
+    void parseRow(byte[] newRow) throws SQLException {
+        int length = newRow.length;
+        if (length > 0 && newRow[length - 1] == '\n') {
+            length--;
+        }
+        // tabs in values are sent as "\t" so every tab byte separates two columns
+        int column = 0;
+        starts[0] = 0;
+        for (int i = 0; i < length; i++) {
+            if (newRow[i] == '\t') {
+                ends[column] = i;
+                column++;
+                if (column == starts.length) {
+                    throw new SQLException("more than " + starts.length
+                            + " columns in COPY output row " + (rowCount + 1));
+                }
+                starts[column] = i + 1;
+            }
+        }
+        ends[column] = length;
+        if (column != starts.length - 1) {
+            throw new SQLException("expected " + starts.length + " columns in COPY output row "
+                    + (rowCount + 1) + ", found " + (column + 1));
+        }
+        row = newRow;
+        rowCount++;
+    }
+
+    /**
+     * Return the number of rows read so far.
+     * @return the row count
+     */
+    int getRowCount() {
+        return rowCount;
+    }
+
+    // NULL is sent as \N
+    private boolean isNull(int column) {
+        int start = starts[column];
+        return ends[column] - start == 2 && row[start] == '\\' && row[start + 1] == 'N';
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    int getInt(int column) throws SQLException {
+        if (isNull(column)) {
+            return 0;
+        }
+        int i = starts[column];
+        int end = ends[column];
+        boolean negative = i < end && row[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end) {
+            throw new SQLException("can't parse integer in column " + getColumnName(column)
+                    + ": \"" + getString(column) + "\"");
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = row[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new SQLException("can't parse integer in column " + getColumnName(column)
+                        + ": \"" + getString(column) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    int getInt(int column, int nullValue) throws SQLException {
+        return isNull(column) ? nullValue : getInt(column);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    String getString(int column) {
+        if (isNull(column)) {
+            return null;
+        }
+        int start = starts[column];
+        int end = ends[column];
+        for (int i = start; i < end; i++) {
+            if (row[i] == '\\') {
+                return unescape(start, end);
+            }
+        }
+        return new String(row, start, end - start, UTF8);
+    }
+
+    // decode the backslash escapes of the COPY text format
+    private String unescape(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            byte b = row[i++];
+            if (b != '\\' || i == end) {
+                bytes[length++] = b;
+                continue;
+            }
+            b = row[i++];
+            switch (b) {
+                case 'b':
+                    bytes[length++] = '\b';
+                    break;
+                case 'f':
+                    bytes[length++] = '\f';
+                    break;
+                case 'n':
+                    bytes[length++] = '\n';
+                    break;
+                case 'r':
+                    bytes[length++] = '\r';
+                    break;
+                case 't':
+                    bytes[length++] = '\t';
+                    break;
+                case 'v':
+                    bytes[length++] = 11;
+                    break;
+                case 'x':
+                    int hexValue = 0;
+                    int hexDigits = 0;
+                    while (hexDigits < 2 && i < end && Character.digit(row[i], 16) >= 0) {
+                        hexValue = hexValue * 16 + Character.digit(row[i++], 16);
+                        hexDigits++;
+                    }
+                    bytes[length++] = hexDigits == 0 ? (byte) 'x' : (byte) hexValue;
+                    break;
+                default:
+                    if (b >= '0' && b <= '7') {
+                        int octalValue = b - '0';
+                        for (int digits = 1; digits < 3 && i < end && row[i] >= '0'
+                                && row[i] <= '7'; digits++) {
+                            octalValue = octalValue * 8 + row[i++] - '0';
+                        }
+                        bytes[length++] = (byte) octalValue;
+                    } else {
+                        bytes[length++] = b;
+                    }
+            }
+        }
+        return new String(bytes, 0, length, UTF8);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    boolean getBoolean(int column) {
+        return !isNull(column) && ends[column] > starts[column] && row[starts[column]] == 't';
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void close() throws SQLException {
+        if (copyOut != null && copyOut.isActive()) {
+            copyOut.cancelCopy();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the data_id and feature_id rows of the data_feature table for modENCODE submissions.
+ * If the cursor is ordered, the rows also have an experiment_id column and are sorted by it, and
+ * next() returns the rows of one submission at a time, so the data_feature join can be run once
+ * for all submissions.  Submissions must then be read in increasing experiment_id order, and the
+ * rows of any submission that isn't read are skipped.
+ */
+class DataFeatureCursor
+{
+    private final ResultSet res;
+    private final boolean ordered;
+    private boolean hasNextRow = false;
+    private int nextExperimentId;
+    private int nextDataId;
+    private int nextFeatureId;
+    private int dataId;
+    private int featureId;
+
+    /**
+     * Create a new DataFeatureCursor.
+     * @param res the rows, with data_id and feature_id columns
+     * @param ordered true if the rows have an experiment_id column and are sorted by it
+     * @throws SQLException if the first row can't be read
+     */
+    DataFeatureCursor(ResultSet res, boolean ordered) throws SQLException {
+        this.res = res;
+        this.ordered = ordered;
+        if (ordered) {
+            advance();
+        }
+    }
+
+    /**
+     * Move to the next row of a submission.
+     * @param chadoExperimentId the submission, ignored if the cursor isn't ordered
+     * @return false if there are no more rows for the submission
+     * @throws SQLException if a row can't be read
+     */
+    boolean next(int chadoExperimentId) throws SQLException {
+        if (!ordered) {
+            if (!res.next()) {
+                return false;
+            }
+            dataId = res.getInt("data_id");
+            featureId = res.getInt("feature_id");
+            return true;
+        }
+        while (hasNextRow && nextExperimentId < chadoExperimentId) {
+            advance();
+        }
+        if (!hasNextRow || nextExperimentId != chadoExperimentId) {
+            return false;
+        }
+        dataId = nextDataId;
+        featureId = nextFeatureId;
+        advance();
+        return true;
+    }
+
+    private void advance() throws SQLException {
+        hasNextRow = res.next();
+        if (hasNextRow) {
+            nextExperimentId = res.getInt("experiment_id");
+            nextDataId = res.getInt("data_id");
+            nextFeatureId = res.getInt("feature_id");
+        }
+    }
+
+    /**
+     * Return the data_id of the current row.
+     * @return the data_id
+     */
+    int getDataId() {
+        return dataId;
+    }
+
+    /**
+     * Return the feature_id of the current row.
+     * @return the feature_id
+     */
+    int getFeatureId() {
+        return featureId;
+    }
+
+    /**
+     * Close the result set.
+     * @throws SQLException if a database problem occurs
+     */
+    void close() throws SQLException {
+        res.close();
+    }
+}
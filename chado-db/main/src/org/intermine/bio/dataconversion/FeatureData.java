@@ -10,11 +10,15 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.apache.commons.lang.StringUtils;
 import org.intermine.bio.util.OrganismData;
 import org.intermine.xml.full.Item;
 
@@ -22,19 +26,41 @@ import org.intermine.xml.full.Item;
  * Data about one feature from the feature table in chado.  This exists to avoid having lots of
  * Item objects in memory.
  *
+ * To keep the size of each object down, the InterMine type and the prefix of the item identifier
+ * are stored as ordinals into dictionaries shared by all FeatureData objects, the number part of
+ * item identifiers of the usual "&lt;prefix&gt;_&lt;n&gt;" form is stored as an int and the
+ * identifier made each time it is needed, MD5 checksums are stored as 16 bytes and the synonyms
+ * set is only created when the first synonym is added.
+ *
  * @author Kim Rutherford
  */
 class FeatureData
 {
-    private String md5checksum;
+    // InterMine type names, eg. "Gene"
+    private static final Dictionary TYPE_DICTIONARY = new Dictionary();
+    // the part of item identifiers before the '_', eg. "1" for "1_1234"
+    private static final Dictionary ITEM_ID_PREFIX_DICTIONARY = new Dictionary();
+
+    // the raw bytes of a hex MD5 checksum, or the checksum String if it isn't in that form
+    private Object md5checksum;
     OrganismData organismData;
     private String uniqueName;
     private String chadoFeatureName;
-    private Set<String> existingSynonyms = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    // created when the first synonym is added, and only read or changed while holding the lock
+    // on this object, as a common modENCODE feature may be shared by processors in several
+    // threads, see CommonFeatureRegistry
+    private Set<String> existingSynonyms = null;
+    private short interMineTypeOrdinal = -1;
+    private short itemIdPrefixOrdinal = -1;
+    private int itemIdNumber;
+    // the item identifier if it isn't in the usual "<prefix>_<n>" form, otherwise null
     private String itemIdentifier;
-    private String interMineType;
     private Integer intermineObjectId;
+    // set while this has been evicted from the cache of a SpillingFeatureDataMap, see setEvicted()
+    private SpillingFeatureDataMap.Evicted evicted = null;
 
+    // changed only by the synchronized flag methods, as a common modENCODE feature may be shared
+    // by processors in several threads
     private short flags = 0;
     static final short EVIDENCE_CREATED = 0;
     static final short IDENTIFIER_SET = 1;
@@ -47,6 +73,8 @@ class FeatureData
     static final short CAN_HAVE_SEQUENCE = 8;
     static final short CAN_HAVE_SYMBOL = 9;
     private static final Map<String, Short> NAME_MAP = new HashMap<String, Short>();
+    private static final int MD5_HEX_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     static {
         NAME_MAP.put(SequenceProcessor.PRIMARY_IDENTIFIER_STRING, new Short(IDENTIFIER_SET));
@@ -73,6 +101,7 @@ class FeatureData
      */
     public void setIntermineObjectId(Integer intermineObjectId) {
         this.intermineObjectId = intermineObjectId;
+        changed();
     }
 
     /**
@@ -121,6 +150,15 @@ class FeatureData
         setFlag(getFlagId(attributeName), value);
     }
 
+    /**
+     * Set the flag corresponding to the given attribute name if it isn't already set.
+     * @param attributeName the attribute name
+     * @return true if the flag wasn't set before
+     */
+    public boolean setFlagIfNotSet(String attributeName) {
+        return setFlagIfNotSet(getFlagId(attributeName));
+    }
+
     private short getFlagId(String attributeName) {
         if (NAME_MAP.containsKey(attributeName)) {
             return NAME_MAP.get(attributeName).shortValue();
@@ -141,7 +179,13 @@ class FeatureData
      * @param chadoFeatureName the chadoFeatureName to set
      */
     public void setChadoFeatureName(String chadoFeatureName) {
-        this.chadoFeatureName = chadoFeatureName;
+        if (chadoFeatureName != null && chadoFeatureName.equals(uniqueName)) {
+            // share the String - the name and uniquename are often the same
+            this.chadoFeatureName = uniqueName;
+        } else {
+            this.chadoFeatureName = chadoFeatureName;
+        }
+        changed();
     }
 
     /**
@@ -166,14 +210,19 @@ class FeatureData
      */
     public void setUniqueName(String uniqueName) {
         this.uniqueName = uniqueName;
+        changed();
     }
 
     /**
-     * Return the InterMine Item identifier for this feature.
+     * Return the InterMine Item identifier for this feature.  Identifiers of the usual
+     * "&lt;prefix&gt;_&lt;n&gt;" form are made from the compact form on each call.
      * @return the new InterMine Item identifier
      */
     public String getItemIdentifier() {
-        return itemIdentifier;
+        if (itemIdPrefixOrdinal == -1) {
+            return itemIdentifier;
+        }
+        return ITEM_ID_PREFIX_DICTIONARY.get(itemIdPrefixOrdinal) + "_" + itemIdNumber;
     }
 
     /**
@@ -181,7 +230,32 @@ class FeatureData
      * @param itemIdentifier the new item identifier
      */
     public void setItemIdentifier(String itemIdentifier) {
+        setCompactItemIdentifier(itemIdentifier);
+        changed();
+    }
+
+    private void setCompactItemIdentifier(String itemIdentifier) {
+        itemIdPrefixOrdinal = -1;
         this.itemIdentifier = itemIdentifier;
+        if (itemIdentifier == null) {
+            return;
+        }
+        int underscorePos = itemIdentifier.lastIndexOf('_');
+        if (underscorePos <= 0 || underscorePos == itemIdentifier.length() - 1) {
+            return;
+        }
+        String numberString = itemIdentifier.substring(underscorePos + 1);
+        // only compact identifiers that will be recreated exactly by getItemIdentifier()
+        if (numberString.charAt(0) == '0' && numberString.length() > 1
+                || !StringUtils.isNumeric(numberString) || numberString.length() > 9) {
+            return;
+        }
+        itemIdNumber = Integer.parseInt(numberString);
+        itemIdPrefixOrdinal =
+            ITEM_ID_PREFIX_DICTIONARY.getOrdinal(itemIdentifier.substring(0, underscorePos));
+        if (itemIdPrefixOrdinal != -1) {
+            this.itemIdentifier = null;
+        }
     }
 
     /**
@@ -197,7 +271,10 @@ class FeatureData
      * @return the InterMine type
      */
     public String getInterMineType() {
-        return interMineType;
+        if (interMineTypeOrdinal == -1) {
+            return null;
+        }
+        return TYPE_DICTIONARY.get(interMineTypeOrdinal);
     }
 
     /**
@@ -205,7 +282,16 @@ class FeatureData
      * @param interMineType the type to set
      */
     public void setInterMineType(String interMineType) {
-        this.interMineType = interMineType;
+        if (interMineType == null) {
+            interMineTypeOrdinal = -1;
+        } else {
+            interMineTypeOrdinal = TYPE_DICTIONARY.getOrdinal(interMineType);
+            if (interMineTypeOrdinal == -1) {
+                throw new RuntimeException("too many InterMine types while setting: "
+                        + interMineType);
+            }
+        }
+        changed();
     }
 
     private int shift(short flag) {
@@ -217,7 +303,7 @@ class FeatureData
      * @param flag the flag constant eg. LENGTH_SET_BIT
      * @return true if the flag is set
      */
-    public boolean getFlag(short flag) {
+    public synchronized boolean getFlag(short flag) {
         return (flags & shift(flag)) != 0;
     }
 
@@ -226,20 +312,70 @@ class FeatureData
      * @param flag the flag constant
      * @param value the new value
      */
-    public void setFlag(short flag, boolean value) {
+    public synchronized void setFlag(short flag, boolean value) {
         if (value) {
             flags |= shift(flag);
         } else {
             flags &= ~shift(flag);
         }
+        changed();
+    }
+
+    /**
+     * Set a flag if it isn't already set, so that of several threads doing the same check only
+     * one goes on to set the field the flag stands for.
+     * @param flag the flag constant
+     * @return true if the flag wasn't set before
+     */
+    public synchronized boolean setFlagIfNotSet(short flag) {
+        if ((flags & shift(flag)) != 0) {
+            return false;
+        }
+        flags |= shift(flag);
+        changed();
+        return true;
     }
 
     /**
-     * Return the MD5 checksum of the residues of this feature.
+     * Return the MD5 checksum of the residues of this feature.  A lower case hex checksum is
+     * stored as bytes, so this makes a new String - use hasChecksum() to compare.
      * @return the checksum
      */
     public String getChecksum() {
-        return md5checksum;
+        if (md5checksum instanceof byte[]) {
+            byte[] bytes = (byte[]) md5checksum;
+            char[] hex = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+            }
+            return new String(hex);
+        }
+        return (String) md5checksum;
+    }
+
+    /**
+     * Return true if the MD5 checksum of this feature is the given one, without making a String
+     * from the stored bytes.
+     * @param checksum the checksum to compare with
+     * @return true if the checksums are equal
+     */
+    public boolean hasChecksum(String checksum) {
+        Object stored = md5checksum;
+        if (stored instanceof byte[]) {
+            byte[] bytes = (byte[]) stored;
+            if (checksum == null || checksum.length() != bytes.length * 2) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (checksum.charAt(i * 2) != HEX_DIGITS[(bytes[i] >> 4) & 0xf]
+                        || checksum.charAt(i * 2 + 1) != HEX_DIGITS[bytes[i] & 0xf]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return stored == null ? checksum == null : stored.equals(checksum);
     }
 
     /**
@@ -247,16 +383,51 @@ class FeatureData
      * @param md5checksum the new md5checksum
      */
     public void setMd5checksum(String md5checksum) {
+        if (md5checksum != null && md5checksum.length() == MD5_HEX_LENGTH) {
+            byte[] bytes = new byte[MD5_HEX_LENGTH / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                int high = Character.digit(md5checksum.charAt(i * 2), 16);
+                int low = Character.digit(md5checksum.charAt(i * 2 + 1), 16);
+                if (high == -1 || low == -1 || Character.isUpperCase(md5checksum.charAt(i * 2))
+                        || Character.isUpperCase(md5checksum.charAt(i * 2 + 1))) {
+                    // not lower case hex, keep the String so that getChecksum() returns it as is
+                    bytes = null;
+                    break;
+                }
+                bytes[i] = (byte) ((high << 4) | low);
+            }
+            if (bytes != null) {
+                this.md5checksum = bytes;
+                changed();
+                return;
+            }
+        }
         this.md5checksum = md5checksum;
+        changed();
     }
 
 
     /**
-     * Return the set of identifiers for which Synonyms have been created.
+     * Return a copy of the set of identifiers for which Synonyms have been created.  Use
+     * hasExistingSynonym() to test for one identifier.
      * @return the existingSynonyms
      */
-    public final Set<String> getExistingSynonyms() {
-        return existingSynonyms;
+    public final synchronized Set<String> getExistingSynonyms() {
+        if (existingSynonyms == null) {
+            return Collections.emptySet();
+        }
+        Set<String> synonyms = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        synonyms.addAll(existingSynonyms);
+        return synonyms;
+    }
+
+    /**
+     * Return true if a Synonym has been created for the given identifier, ignoring case.
+     * @param synonym the identifier
+     * @return true if there is a Synonym for the identifier
+     */
+    public synchronized boolean hasExistingSynonym(String synonym) {
+        return existingSynonyms != null && existingSynonyms.contains(synonym);
     }
 
 
@@ -266,8 +437,200 @@ class FeatureData
      * synonyms collection.
      * @param synonym identifier that has just been created as a synonym
      */
-    public void addExistingSynonym(String synonym) {
+    public synchronized void addExistingSynonym(String synonym) {
+        if (existingSynonyms == null) {
+            existingSynonyms = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        }
         existingSynonyms.add(synonym);
+        changed();
+    }
+
+    /**
+     * Set while this FeatureData has been evicted from the cache of a SpillingFeatureDataMap, so
+     * that changes made through references held elsewhere are written to the map's store rather
+     * than lost.
+     * @param evicted the map's reference to this object, or null once it is cached again
+     */
+    void setEvicted(SpillingFeatureDataMap.Evicted evicted) {
+        this.evicted = evicted;
+    }
+
+    // called after every change to a field that writeRecord() writes
+    private void changed() {
+        SpillingFeatureDataMap.Evicted ref = evicted;
+        if (ref != null) {
+            ref.changed(this);
+        }
+    }
+
+    /**
+     * Return the number of bytes writeRecord() will write for this feature, not counting the
+     * OrganismData, which the caller must save.
+     * @return the record size
+     */
+    synchronized int getRecordSize() {
+        int size = 2 + 2 + 4 + 2 + 5 + 1;
+        if (md5checksum instanceof byte[]) {
+            size += ((byte[]) md5checksum).length + 1;
+        } else if (md5checksum != null) {
+            size += getStringRecordSize((String) md5checksum);
+        }
+        size += getStringRecordSize(uniqueName) + 1;
+        if (chadoFeatureName != uniqueName) {
+            size += getStringRecordSize(chadoFeatureName);
+        }
+        size += getStringRecordSize(itemIdentifier) + 4;
+        if (existingSynonyms != null) {
+            for (String synonym: existingSynonyms) {
+                size += getStringRecordSize(synonym);
+            }
+        }
+        return size;
+    }
+
+    private static int getStringRecordSize(String value) {
+        return value == null ? 4 : 4 + value.length() * 2;
+    }
+
+    /**
+     * Write the fields of this feature, except the OrganismData, to a buffer so that readRecord()
+     * can make an equal FeatureData.  Type names and item identifier prefixes are written as
+     * their ordinals, so records can only be read by the same JVM.
+     * @param buffer the buffer, with at least getRecordSize() bytes remaining
+     */
+    synchronized void writeRecord(ByteBuffer buffer) {
+        buffer.putShort(interMineTypeOrdinal);
+        buffer.putShort(itemIdPrefixOrdinal);
+        buffer.putInt(itemIdNumber);
+        buffer.putShort(flags);
+        buffer.put((byte) (intermineObjectId == null ? 0 : 1));
+        buffer.putInt(intermineObjectId == null ? 0 : intermineObjectId.intValue());
+        if (md5checksum instanceof byte[]) {
+            byte[] bytes = (byte[]) md5checksum;
+            buffer.put((byte) 1);
+            buffer.put((byte) bytes.length);
+            buffer.put(bytes);
+        } else if (md5checksum != null) {
+            buffer.put((byte) 2);
+            putString(buffer, (String) md5checksum);
+        } else {
+            buffer.put((byte) 0);
+        }
+        putString(buffer, uniqueName);
+        // the name is usually the same String as the uniquename
+        if (chadoFeatureName == uniqueName) {
+            buffer.put((byte) 1);
+        } else {
+            buffer.put((byte) 0);
+            putString(buffer, chadoFeatureName);
+        }
+        putString(buffer, itemIdentifier);
+        Set<String> synonyms = existingSynonyms;
+        buffer.putInt(synonyms == null ? -1 : synonyms.size());
+        if (synonyms != null) {
+            for (String synonym: synonyms) {
+                putString(buffer, synonym);
+            }
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer.putChar(value.charAt(i));
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Make a FeatureData from a record written by writeRecord().  The organismData field isn't
+     * set.
+     * @param buffer the buffer, positioned at the start of the record
+     * @return the new FeatureData
+     */
+    static FeatureData readRecord(ByteBuffer buffer) {
+        FeatureData fdat = new FeatureData();
+        fdat.interMineTypeOrdinal = buffer.getShort();
+        fdat.itemIdPrefixOrdinal = buffer.getShort();
+        fdat.itemIdNumber = buffer.getInt();
+        fdat.flags = buffer.getShort();
+        boolean hasObjectId = buffer.get() == 1;
+        int objectId = buffer.getInt();
+        if (hasObjectId) {
+            fdat.intermineObjectId = new Integer(objectId);
+        }
+        byte md5Type = buffer.get();
+        if (md5Type == 1) {
+            byte[] bytes = new byte[buffer.get()];
+            buffer.get(bytes);
+            fdat.md5checksum = bytes;
+        } else if (md5Type == 2) {
+            fdat.md5checksum = getString(buffer);
+        }
+        fdat.uniqueName = getString(buffer);
+        if (buffer.get() == 1) {
+            fdat.chadoFeatureName = fdat.uniqueName;
+        } else {
+            fdat.chadoFeatureName = getString(buffer);
+        }
+        fdat.itemIdentifier = getString(buffer);
+        int synonymCount = buffer.getInt();
+        if (synonymCount >= 0) {
+            Set<String> synonyms = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < synonymCount; i++) {
+                synonyms.add(getString(buffer));
+            }
+            fdat.existingSynonyms = synonyms;
+        }
+        return fdat;
+    }
+
+    /**
+     * A thread safe map from String to a short ordinal, shared by all FeatureData objects.  Reads
+     * by ordinal don't lock.
+     */
+    private static class Dictionary
+    {
+        private final Map<String, Short> ordinals = new HashMap<String, Short>();
+        private volatile String[] values = new String[0];
+
+        /**
+         * Return the ordinal for a value, adding the value if necessary.
+         * @return the ordinal or -1 if the dictionary is full
+         */
+        synchronized short getOrdinal(String value) {
+            Short ordinal = ordinals.get(value);
+            if (ordinal == null) {
+                if (values.length == Short.MAX_VALUE) {
+                    return -1;
+                }
+                ordinal = new Short((short) values.length);
+                String[] newValues = Arrays.copyOf(values, values.length + 1);
+                newValues[values.length] = value;
+                ordinals.put(value, ordinal);
+                values = newValues;
+            }
+            return ordinal.shortValue();
+        }
+
+        String get(short ordinal) {
+            return values[ordinal];
+        }
     }
 
 }
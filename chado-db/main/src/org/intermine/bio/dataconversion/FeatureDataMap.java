@@ -0,0 +1,325 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A Map from chado feature_id to FeatureData that stores the keys as primitive ints in an open
+ * addressing (linear probing) hash table.  A HashMap&lt;Integer, FeatureData&gt; needs an Entry
+ * object and an Integer for each feature - around 50 bytes per feature on a 64-bit JVM before
+ * counting the FeatureData.  This class needs an int and a reference for each slot of the table,
+ * which at the maximum load factor of 0.75 is 11-22 bytes per feature, and creates no garbage
+ * when the int methods (get(int), containsKey(int), put(int, FeatureData)) are used.
+ *
+ * Null values are not allowed.  The iterators of the entrySet(), keySet() and values() views
+ * don't support remove().
+ */
+class FeatureDataMap extends AbstractMap<Integer, FeatureData>
+{
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private int[] keys;
+    private FeatureData[] values;
+    private int mask;
+    private int resizeThreshold;
+    private int size = 0;
+    private int modCount = 0;
+
+    /**
+     * Create a new, empty FeatureDataMap.
+     */
+    FeatureDataMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create a new, empty FeatureDataMap with room for the given number of features before the
+     * table needs to be resized.
+     * @param expectedSize the expected number of features
+     */
+    FeatureDataMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && (long) capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Create a new FeatureDataMap containing the mappings of the given Map.
+     * @param map the map to copy
+     */
+    FeatureDataMap(Map<Integer, FeatureData> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new FeatureData[capacity];
+        mask = capacity - 1;
+        resizeThreshold = capacity / 4 * 3;
+    }
+
+    private int slot(int featureId) {
+        int h = featureId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Return the FeatureData for the given feature_id.
+     * @param featureId the chado feature_id
+     * @return the FeatureData or null if there is none
+     */
+    public FeatureData get(int featureId) {
+        int i = slot(featureId);
+        while (values[i] != null) {
+            if (keys[i] == featureId) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Return true if there is a FeatureData for the given feature_id.
+     * @param featureId the chado feature_id
+     * @return true if the feature_id is in the map
+     */
+    public boolean containsKey(int featureId) {
+        return get(featureId) != null;
+    }
+
+    /**
+     * Add a FeatureData to the map, replacing any existing value for the feature_id.
+     * @param featureId the chado feature_id
+     * @param fdat the FeatureData, not null
+     * @return the previous value or null if there was none
+     */
+    public FeatureData put(int featureId, FeatureData fdat) {
+        if (fdat == null) {
+            throw new IllegalArgumentException("FeatureDataMap can't store null for feature_id "
+                    + featureId);
+        }
+        int i = slot(featureId);
+        while (values[i] != null) {
+            if (keys[i] == featureId) {
+                FeatureData previous = values[i];
+                values[i] = fdat;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = featureId;
+        values[i] = fdat;
+        size++;
+        modCount++;
+        if (size > resizeThreshold) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * Add a FeatureData that must stay the same object for as long as it is in the map, for
+     * example one that is shared by several feature_ids or is also held in another map.  This
+     * class keeps every FeatureData on the heap, so this is the same as put().
+     * @param featureId the chado feature_id
+     * @param fdat the FeatureData, not null
+     * @return the previous value or null if there was none
+     */
+    public FeatureData putPinned(int featureId, FeatureData fdat) {
+        return put(featureId, fdat);
+    }
+
+    /**
+     * Remove the FeatureData for the given feature_id.
+     * @param featureId the chado feature_id
+     * @return the removed value or null if there was none
+     */
+    public FeatureData remove(int featureId) {
+        int i = slot(featureId);
+        while (values[i] != null) {
+            if (keys[i] == featureId) {
+                FeatureData previous = values[i];
+                deleteSlot(i);
+                size--;
+                modCount++;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Empty the given slot then move later entries of the same probe sequence back so that
+     * lookups don't stop early at the gap.
+     */
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        int i = (gap + 1) & mask;
+        while (values[i] != null) {
+            int home = slot(keys[i]);
+            // move the entry at i into the gap if its home slot isn't between the gap and i
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        values[gap] = null;
+    }
+
+    private void resize() {
+        if (keys.length == MAX_CAPACITY) {
+            throw new IllegalStateException("FeatureDataMap is full");
+        }
+        int[] oldKeys = keys;
+        FeatureData[] oldValues = values;
+        allocate(keys.length << 1);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData get(Object key) {
+        if (key instanceof Integer) {
+            return get(((Integer) key).intValue());
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData put(Integer key, FeatureData value) {
+        return put(key.intValue(), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData remove(Object key) {
+        if (key instanceof Integer) {
+            return remove(((Integer) key).intValue());
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<Integer, FeatureData>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, FeatureData>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, FeatureData>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Integer, FeatureData>>
+    {
+        private final int expectedModCount = modCount;
+        private final int[] iterKeys = keys;
+        private final FeatureData[] iterValues = values;
+        private int next = 0;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            while (next < iterValues.length && iterValues[next] == null) {
+                next++;
+            }
+        }
+
+        public boolean hasNext() {
+            return next < iterValues.length;
+        }
+
+        public Map.Entry<Integer, FeatureData> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, FeatureData> entry =
+                new SimpleImmutableEntry<Integer, FeatureData>(new Integer(iterKeys[next]),
+                        iterValues[next]);
+            next++;
+            advance();
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("remove() not supported by FeatureDataMap");
+        }
+    }
+}
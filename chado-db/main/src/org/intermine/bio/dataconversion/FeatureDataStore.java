@@ -0,0 +1,278 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.bio.util.OrganismData;
+
+/**
+ * FeatureData records kept in a memory mapped temporary file rather than on the heap.  The file
+ * is mapped in segments of SEGMENT_SIZE bytes and each record is written to one segment, prefixed
+ * by the number of bytes reserved for it.  A record that is written again is overwritten in place
+ * if it still fits, otherwise it is appended.  The only heap used per feature is an open
+ * addressing table from feature_id to the offset of its record, 16-32 bytes per feature.
+ *
+ * The file is deleted as soon as it has been mapped where the operating system allows it, so it
+ * goes away when the store is garbage collected or the JVM exits.
+ */
+class FeatureDataStore
+{
+    private static final Logger LOG = Logger.getLogger(FeatureDataStore.class);
+    static final int SEGMENT_SIZE = 1 << 26;
+    private static final int MIN_CAPACITY = 16;
+    // the reserved size and the organism ordinal
+    private static final int HEADER_SIZE = 4 + 2;
+    // records are padded so that a few synonyms can be added without moving them
+    private static final int RECORD_ALIGNMENT = 32;
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private long end = 0;
+
+    private final Map<OrganismData, Short> organismOrdinals = new HashMap<OrganismData, Short>();
+    private final List<OrganismData> organisms = new ArrayList<OrganismData>();
+
+    private int[] keys;
+    // offset + 1 of the record of each feature, 0 for an empty slot
+    private long[] offsets;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * Create a new, empty store.
+     * @param directory the directory for the file, or null for the system temporary directory
+     * @throws IOException if the file can't be created
+     */
+    FeatureDataStore(File directory) throws IOException {
+        file = File.createTempFile("feature_data", ".store", directory);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        addSegment();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+        LOG.info("storing features in " + file);
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        offsets = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private void addSegment() throws IOException {
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE,
+                (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+    }
+
+    private int slot(int featureId) {
+        int h = featureId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int findSlot(int featureId) {
+        int i = slot(featureId);
+        while (offsets[i] != 0 && keys[i] != featureId) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Return the number of features in the store.
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return true if there is a record for the given feature_id.
+     * @param featureId the chado feature_id
+     * @return true if the feature is stored
+     */
+    boolean contains(int featureId) {
+        return offsets[findSlot(featureId)] != 0;
+    }
+
+    /**
+     * Return the feature_ids of all the stored features.
+     * @return the feature_ids, in no particular order
+     */
+    int[] getFeatureIds() {
+        int[] featureIds = new int[size];
+        int count = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] != 0) {
+                featureIds[count++] = keys[i];
+            }
+        }
+        return featureIds;
+    }
+
+    // a view of the segment holding the given offset, positioned at the offset
+    private ByteBuffer getBuffer(long offset) {
+        ByteBuffer buffer = segments.get((int) (offset / SEGMENT_SIZE)).duplicate();
+        buffer.position((int) (offset % SEGMENT_SIZE));
+        return buffer;
+    }
+
+    /**
+     * Read a new copy of a stored feature.
+     * @param featureId the chado feature_id
+     * @return the FeatureData, or null if the feature isn't stored
+     */
+    FeatureData read(int featureId) {
+        long offset = offsets[findSlot(featureId)] - 1;
+        if (offset < 0) {
+            return null;
+        }
+        ByteBuffer buffer = getBuffer(offset);
+        buffer.getInt();
+        short organismOrdinal = buffer.getShort();
+        FeatureData fdat = FeatureData.readRecord(buffer);
+        if (organismOrdinal >= 0) {
+            fdat.organismData = organisms.get(organismOrdinal);
+        }
+        return fdat;
+    }
+
+    /**
+     * Write a feature, replacing any earlier record for the feature_id.
+     * @param featureId the chado feature_id
+     * @param fdat the FeatureData
+     * @throws IOException if the file can't be extended
+     */
+    void write(int featureId, FeatureData fdat) throws IOException {
+        int recordSize = HEADER_SIZE + fdat.getRecordSize();
+        int slot = findSlot(featureId);
+        long offset = offsets[slot] - 1;
+        if (offset < 0 || getBuffer(offset).getInt() < recordSize) {
+            offset = allocateRecord(recordSize);
+            if (offsets[slot] == 0) {
+                keys[slot] = featureId;
+                size++;
+            }
+            offsets[slot] = offset + 1;
+            if (size > offsets.length / 4 * 3) {
+                resize();
+            }
+        }
+        ByteBuffer buffer = getBuffer(offset);
+        buffer.getInt();
+        buffer.putShort(getOrganismOrdinal(fdat.organismData));
+        fdat.writeRecord(buffer);
+    }
+
+    // reserve space for a record at the end of the file and return its offset
+    private long allocateRecord(int recordSize) throws IOException {
+        int reserved = (recordSize + RECORD_ALIGNMENT - 1) / RECORD_ALIGNMENT * RECORD_ALIGNMENT;
+        if (reserved > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("FeatureData record of " + recordSize
+                    + " bytes is too big for the store");
+        }
+        if (end % SEGMENT_SIZE + reserved > SEGMENT_SIZE) {
+            // records don't span segments
+            end = (long) segments.size() * SEGMENT_SIZE;
+        }
+        if (end / SEGMENT_SIZE == segments.size()) {
+            addSegment();
+        }
+        long offset = end;
+        end += reserved;
+        getBuffer(offset).putInt(reserved);
+        return offset;
+    }
+
+    private short getOrganismOrdinal(OrganismData organismData) {
+        if (organismData == null) {
+            return -1;
+        }
+        Short ordinal = organismOrdinals.get(organismData);
+        if (ordinal == null) {
+            ordinal = new Short((short) organisms.size());
+            organisms.add(organismData);
+            organismOrdinals.put(organismData, ordinal);
+        }
+        return ordinal.shortValue();
+    }
+
+    /**
+     * Remove the record of a feature.  The space it used isn't reused.
+     * @param featureId the chado feature_id
+     * @return true if the feature was stored
+     */
+    boolean remove(int featureId) {
+        int gap = findSlot(featureId);
+        if (offsets[gap] == 0) {
+            return false;
+        }
+        int i = (gap + 1) & mask;
+        while (offsets[i] != 0) {
+            int home = slot(keys[i]);
+            // move the entry at i into the gap if its home slot isn't between the gap and i
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                offsets[gap] = offsets[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        offsets[gap] = 0;
+        size--;
+        return true;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldOffsets = offsets;
+        allocate(keys.length << 1);
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] != 0) {
+                int j = findSlot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                offsets[j] = oldOffsets[i];
+            }
+        }
+    }
+
+    /**
+     * Return the number of bytes of the file used so far.
+     * @return the length
+     */
+    long getLength() {
+        return end;
+    }
+
+    /**
+     * Close the file.  The store can't be used afterwards.
+     * @throws IOException if the file can't be closed
+     */
+    void close() throws IOException {
+        segments.clear();
+        channel.close();
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A record of the chado features processed by a run of a SequenceProcessor.  For each feature it
+ * stores the feature_id and a 64 bit digest of the feature's relations, and for the whole run
+ * the latest timelastmodified of the features, so that the next run can find the features that
+ * are new or have changed.  The feature_ids are kept in increasing order in an int array, so a
+ * manifest costs 12 bytes per feature in memory and on disk.  A run writes its manifest to a
+ * pending file, which replaces the manifest read by the next run only once the run's items
+ * have been integrated - see commitPending().
+ */
+class FeatureManifest
+{
+    private static final int MAGIC = 0x43484d46;
+    // version 3 replaced the digest of the feature's columns by its timelastmodified
+    private static final int VERSION = 3;
+    private static final String PENDING_SUFFIX = ".pending";
+
+    private final String organismIds;
+    private int[] featureIds;
+    private long[] digests;
+    private int size = 0;
+    private long lastModified = 0;
+
+    /**
+     * Create a new, empty FeatureManifest.
+     * @param organismIds the chado organism_ids of the processed features, a manifest is only
+     * used by a later run that processes the same organisms
+     */
+    FeatureManifest(String organismIds) {
+        this(organismIds, 1024);
+    }
+
+    private FeatureManifest(String organismIds, int capacity) {
+        this.organismIds = organismIds;
+        featureIds = new int[capacity];
+        digests = new long[capacity];
+    }
+
+    /**
+     * Return the organism_ids passed to the constructor.
+     * @return the organism ids
+     */
+    String getOrganismIds() {
+        return organismIds;
+    }
+
+    /**
+     * Return the latest timelastmodified of the features in the manifest.
+     * @return the time in milliseconds since the epoch, 0 if not known
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Record the timelastmodified of a feature, keeping the latest.
+     * @param modified the time in milliseconds since the epoch
+     */
+    void updateLastModified(long modified) {
+        if (modified > lastModified) {
+            lastModified = modified;
+        }
+    }
+
+    /**
+     * Add a feature.  Features must be added in increasing feature_id order.
+     * @param featureId the chado feature_id
+     * @param digest the digest of the feature
+     */
+    void add(int featureId, long digest) {
+        if (size > 0 && featureId <= featureIds[size - 1]) {
+            throw new IllegalArgumentException("feature_id " + featureId + " added after "
+                    + featureIds[size - 1]);
+        }
+        if (size == featureIds.length) {
+            featureIds = Arrays.copyOf(featureIds, size * 2);
+            digests = Arrays.copyOf(digests, size * 2);
+        }
+        featureIds[size] = featureId;
+        digests[size] = digest;
+        size++;
+    }
+
+    /**
+     * Return the number of features in the manifest.
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return true if the manifest has the given feature with the given digest.
+     * @param featureId the chado feature_id
+     * @param digest the digest of the feature in this run
+     * @return true if the feature is unchanged since the manifest was made
+     */
+    boolean isUnchanged(int featureId, long digest) {
+        int pos = Arrays.binarySearch(featureIds, 0, size, featureId);
+        return pos >= 0 && digests[pos] == digest;
+    }
+
+    /**
+     * Return true if the manifest has the given feature.
+     * @param featureId the chado feature_id
+     * @return true if the feature is in the manifest
+     */
+    boolean contains(int featureId) {
+        return Arrays.binarySearch(featureIds, 0, size, featureId) >= 0;
+    }
+
+    /**
+     * Parse the first 16 characters of an md5 hex string, as returned by the PostgreSQL md5()
+     * function, into a long.
+     * @param md5 the hex string
+     * @return the digest
+     */
+    static long parseDigest(String md5) {
+        if (md5 == null || md5.length() < 16) {
+            throw new IllegalArgumentException("not an md5 digest: " + md5);
+        }
+        long digest = 0;
+        for (int i = 0; i < 16; i++) {
+            int value = Character.digit(md5.charAt(i), 16);
+            if (value < 0) {
+                throw new IllegalArgumentException("not an md5 digest: " + md5);
+            }
+            digest = (digest << 4) | value;
+        }
+        return digest;
+    }
+
+    /**
+     * Write the manifest to a file.  The manifest is written to a temporary file first, so an
+     * existing manifest is only replaced by a complete new one.
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    void write(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tempFile))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(organismIds);
+            out.writeLong(lastModified);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(featureIds[i]);
+                out.writeLong(digests[i]);
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("can't replace manifest: " + file);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("can't rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Read a manifest written by write().
+     * @param file the file to read
+     * @return the manifest
+     * @throws IOException if the file can't be read or isn't a manifest
+     */
+    static FeatureManifest read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a feature manifest: " + file);
+            }
+            String organismIds = in.readUTF();
+            long lastModified = in.readLong();
+            int size = in.readInt();
+            FeatureManifest manifest = new FeatureManifest(organismIds, Math.max(size, 1));
+            manifest.lastModified = lastModified;
+            for (int i = 0; i < size; i++) {
+                manifest.add(in.readInt(), in.readLong());
+            }
+            return manifest;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the file that the manifest for the given manifest file is written to before it is
+     * committed.
+     * @param manifestFile the manifest file
+     * @return the pending file
+     */
+    static File getPendingFile(File manifestFile) {
+        return new File(manifestFile.getPath() + PENDING_SUFFIX);
+    }
+
+    /**
+     * Replace each manifest in a directory by its pending manifest, if there is one.
+     * @param directory the manifest directory
+     * @return the number of manifests committed
+     * @throws IOException if a manifest can't be replaced
+     */
+    static int commitPending(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("can't list manifest directory: " + directory);
+        }
+        Arrays.sort(files);
+        int count = 0;
+        for (File pendingFile: files) {
+            String name = pendingFile.getName();
+            if (!name.endsWith(PENDING_SUFFIX)) {
+                continue;
+            }
+            File file = new File(directory,
+                    name.substring(0, name.length() - PENDING_SUFFIX.length()));
+            if (file.exists() && !file.delete()) {
+                throw new IOException("can't replace manifest: " + file);
+            }
+            if (!pendingFile.renameTo(file)) {
+                throw new IOException("can't rename " + pendingFile + " to " + file);
+            }
+            count++;
+        }
+        return count;
+    }
+}
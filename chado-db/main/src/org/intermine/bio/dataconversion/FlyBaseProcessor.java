@@ -10,16 +10,21 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,6 +32,7 @@ import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.collections.map.MultiKeyMap;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.bio.chado.CachedChadoCVFactory;
 import org.intermine.bio.chado.ChadoCV;
 import org.intermine.bio.chado.ChadoCVFactory;
 import org.intermine.bio.chado.ChadoCVTerm;
@@ -121,15 +127,19 @@ public class FlyBaseProcessor extends SequenceProcessor
     private final Map<Integer, MultiKeyMap> config = new HashMap<Integer, MultiKeyMap>();
 
     // a set of feature_ids for those genes that have a location in the featureloc table, set by
-    // the constructor
-    private final IntPresentSet locatedGeneIds;
+    // earlyExtraProcessing()
+    private IntPresentSet locatedGeneIds = new IntPresentSet();
 
     // a map from the uniquename of each allele to its item identifier
     private Map<String, String> alleleIdMap = new HashMap<String, String>();
 
-    // a map from the uniquename of each cdna clone to its item identifier
+    // a map from the name of each cdna clone to its FeatureData
     private Map<String, FeatureData> cdnaCloneMap = new HashMap<String, FeatureData>();
 
+    // the feature_ids of the proteins and cdna clones, whose FeatureData are shared with their
+    // duplicates through proteinFeatureDataMap and cdnaCloneMap, see addToFeatureMap()
+    private IntPresentSet sharedFeatureIds = new IntPresentSet();
+
     // an object representing the FlyBase miscellaneous CV
     private ChadoCV flyBaseMiscCv = null;
 
@@ -150,6 +160,26 @@ public class FlyBaseProcessor extends SequenceProcessor
     private static final String ALLELE_TEMP_TABLE_NAME = "intermine_flybase_allele_temp";
     private static final String INSERTION_TEMP_TABLE_NAME = "intermine_flybase_insertion_temp";
 
+    // the names of the tables made by createLocatedGenesTempTable(), createAllelesTempTable()
+    // and createInsertionTempTable() - qualified and tagged with the chado release if the
+    // converter has a staging schema, see createTable()
+    private String locatedGenesTableName = LOCATED_GENES_TEMP_TABLE_NAME;
+    private String alleleTableName = ALLELE_TEMP_TABLE_NAME;
+    private String insertionTableName = INSERTION_TEMP_TABLE_NAME;
+
+    // the fingerprint of the chado release, used to tag staging tables
+    private String releaseFingerprint = null;
+    // the tables whose ids and sizes are part of the fingerprint, see
+    // getChadoReleaseFingerprint()
+    private static final String[] RELEASE_FINGERPRINT_TABLES = {
+        "feature", "featureloc", "feature_relationship", "feature_pub", "cvterm"
+    };
+
+    // time spent building or finding the tables made by createTable()
+    private long tableMillis = 0;
+    private int tablesBuilt = 0;
+    private int tablesReused = 0;
+
     // pattern to match the names of Exelixis insertions
     //  - matches "f07705" in "PBac{WH}f07705"
     //  - matches "f07705" in "PBac{WH}tam[f07705]"
@@ -197,14 +227,6 @@ public class FlyBaseProcessor extends SequenceProcessor
             throw new RuntimeException("can't execute query for so cv terms", e);
         }
 
-        try {
-            createLocatedGenesTempTable(connection);
-        } catch (SQLException e) {
-            throw new RuntimeException("can't execute query for located genes", e);
-        }
-
-        locatedGeneIds = getLocatedGeneIds(connection);
-
         chromosomeStructureVariationTypes = getChromosomeStructureVariationTypes(connection);
 
 
@@ -283,7 +305,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + WT_CLASS_CVTERM + "'";
 
         LOG.info("executing getChromosomeStructureVariationResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -326,8 +348,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             orgConstraintForQuery = " AND " + organismConstraint;
         }
 
-        String query = "CREATE TEMPORARY TABLE " + LOCATED_GENES_TEMP_TABLE_NAME
-            + " AS SELECT feature.feature_id FROM feature, cvterm"
+        String query = "SELECT feature.feature_id FROM feature, cvterm"
             + "     WHERE feature.type_id = cvterm.cvterm_id"
             + "       AND cvterm.name = 'gene' "
             + "       AND NOT feature.is_obsolete "
@@ -337,16 +358,8 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "           WHERE l.srcfeature_id = c.feature_id and NOT c.is_obsolete)"
             + orgConstraintForQuery;
 
-        Statement stmt = connection.createStatement();
-        LOG.info("executing createLocatedGenesTempTable(): " + query);
-        stmt.execute(query);
-        String idIndexQuery = "CREATE INDEX " + LOCATED_GENES_TEMP_TABLE_NAME + "_feature_index ON "
-            + LOCATED_GENES_TEMP_TABLE_NAME + "(feature_id)";
-        LOG.info("executing: " + idIndexQuery);
-        stmt.execute(idIndexQuery);
-        String analyze = "ANALYZE " + LOCATED_GENES_TEMP_TABLE_NAME;
-        LOG.info("executing: " + analyze);
-        stmt.execute(analyze);
+        locatedGenesTableName =
+            createTable(connection, LOCATED_GENES_TEMP_TABLE_NAME, query, "feature_id");
     }
 
     /**
@@ -362,9 +375,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             orgConstraintForQuery = " AND " + organismConstraint;
         }
 
-        String query =
-            " CREATE TEMPORARY TABLE " + ALLELE_TEMP_TABLE_NAME
-            + " AS SELECT feature_id"
+        String query = "SELECT feature_id"
             + " FROM feature, cvterm feature_type "
             + " WHERE feature_type.name = 'gene'"
             + " AND type_id = feature_type.cvterm_id"
@@ -374,16 +385,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + getLocatedGeneAllesSql() + ")"
             + orgConstraintForQuery;
 
-        Statement stmt = connection.createStatement();
-        LOG.info("executing createAllelesTempTable(): " + query);
-        stmt.execute(query);
-        String idIndexQuery = "CREATE INDEX " + ALLELE_TEMP_TABLE_NAME + "_feature_index ON "
-            + ALLELE_TEMP_TABLE_NAME + "(feature_id)";
-        LOG.info("executing: " + idIndexQuery);
-        stmt.execute(idIndexQuery);
-        String analyze = "ANALYZE " + ALLELE_TEMP_TABLE_NAME;
-        LOG.info("executing: " + analyze);
-        stmt.execute(analyze);
+        alleleTableName = createTable(connection, ALLELE_TEMP_TABLE_NAME, query, "feature_id");
     }
 
     /**
@@ -398,8 +400,7 @@ public class FlyBaseProcessor extends SequenceProcessor
      */
     protected void createInsertionTempTable(Connection connection) throws SQLException {
         String query =
-            " CREATE TEMPORARY TABLE " + INSERTION_TEMP_TABLE_NAME
-            + " AS SELECT obj.feature_id AS obj_id, sub.feature_id AS sub_id,"
+            "SELECT obj.feature_id AS obj_id, sub.feature_id AS sub_id,"
             + "       obj_loc.fmin, obj_loc.fmax,"
             + "       obj_loc.srcfeature_id as chr_feature_id"
             + "  FROM feature sub, cvterm sub_type, feature_relationship rel, cvterm rel_type, "
@@ -417,16 +418,273 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "generating custom chromosomal aberrations in Drosophila melanogaster.')) "
             + "   AND obj.feature_id = obj_loc.feature_id";
 
+        insertionTableName =
+            createTable(connection, INSERTION_TEMP_TABLE_NAME, query, "sub_id");
+    }
+
+    /**
+     * Create a table from the results of a query, with an index on one column, and return its
+     * name.  If the converter has a staging schema, the table is an unlogged table in that schema
+     * whose name is tagged with a digest of the query and a digest of the chado release.  If a
+     * table with that name exists it was made by an earlier run from the same data and is
+     * reused.  Otherwise the table is named by getTempTableName() and made with
+     * getCreateTempTableSql().  A staging table is built while holding an advisory lock on its
+     * name, so that when several runs or shards need the same table one builds it and the others
+     * wait and then reuse it.  After building, the tables made from the same query for other
+     * releases are dropped if no other run is using them.
+     * @param connection the connection
+     * @param tableName the name of the table, without schema or tag
+     * @param selectQuery the query for the contents of the table
+     * @param indexColumn the column to index
+     * @return the name to use for the table in queries
+     * @throws SQLException if there is a database problem
+     */
+    String createTable(Connection connection, String tableName, String selectQuery,
+            String indexColumn) throws SQLException {
+        long startTime = System.currentTimeMillis();
+        String stagingSchema = getChadoDBConverter().getStagingSchema();
         Statement stmt = connection.createStatement();
-        LOG.info("executing createInsertionTempTable(): " + query);
+        String createdTableName;
+        if (stagingSchema == null) {
+            createdTableName = getTempTableName(tableName);
+            executeTableQuery(stmt, getCreateTempTableSql(connection, createdTableName) + " AS "
+                    + selectQuery);
+            executeTableQuery(stmt, "CREATE INDEX " + createdTableName + "_" + indexColumn
+                    + "_index ON " + createdTableName + "(" + indexColumn + ")");
+            executeTableQuery(stmt, "ANALYZE " + createdTableName);
+            tablesBuilt++;
+        } else {
+            String queryTag = getQueryTag(selectQuery);
+            String stagedName = tableName + "_" + queryTag + getReleaseTag(connection);
+            createdTableName = stagingSchema + "." + stagedName;
+            if (stagingTableExists(connection, stagingSchema, stagedName)) {
+                LOG.info("reusing staging table: " + createdTableName);
+                tablesReused++;
+            } else {
+                setStagingLock(connection, createdTableName, true);
+                try {
+                    if (stagingTableExists(connection, stagingSchema, stagedName)) {
+                        // built by another run while we waited for the lock
+                        LOG.info("reusing staging table: " + createdTableName);
+                        tablesReused++;
+                    } else {
+                        buildStagingTable(connection, stmt, stagingSchema, stagedName,
+                                selectQuery, indexColumn);
+                        tablesBuilt++;
+                        dropOldStagingTables(connection, stagingSchema,
+                                tableName + "_" + queryTag, stagedName);
+                    }
+                } finally {
+                    setStagingLock(connection, createdTableName, false);
+                }
+            }
+        }
+        long tableTime = System.currentTimeMillis() - startTime;
+        tableMillis += tableTime;
+        LOG.info("created table " + createdTableName + " in " + tableTime + "ms");
+        return createdTableName;
+    }
+
+    /**
+     * Build a staging table under another name and rename it when complete, so that a table
+     * left by a failed run is never reused.
+     */
+    private void buildStagingTable(Connection connection, Statement stmt, String stagingSchema,
+            String stagedName, String selectQuery, String indexColumn) throws SQLException {
+        String buildName = stagingSchema + "." + stagedName + "_build";
+        executeTableQuery(stmt, "CREATE SCHEMA IF NOT EXISTS " + stagingSchema);
+        // only a failed run can have left this, as we hold the lock
+        executeTableQuery(stmt, "DROP TABLE IF EXISTS " + buildName);
+        executeTableQuery(stmt, "CREATE UNLOGGED TABLE " + buildName + " AS " + selectQuery);
+        executeTableQuery(stmt, "CREATE INDEX " + stagedName + "_index ON " + buildName
+                + "(" + indexColumn + ")");
+        executeTableQuery(stmt, "ANALYZE " + buildName);
+        executeTableQuery(stmt, "ALTER TABLE " + buildName + " RENAME TO " + stagedName);
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Take or release the session advisory lock for building the staging table with the given
+     * name.
+     */
+    private void setStagingLock(Connection connection, String tableName, boolean lock)
+        throws SQLException {
+        String query = "SELECT " + (lock ? "pg_advisory_lock" : "pg_advisory_unlock")
+            + "(hashtext(?))";
+        LOG.info("executing: " + query + " for " + tableName);
+        PreparedStatement stmt = connection.prepareStatement(query);
+        stmt.setString(1, tableName);
+        stmt.executeQuery().close();
+        stmt.close();
+    }
+
+    /**
+     * Drop the staging tables whose names start with the given prefix, followed by a release
+     * tag, other than the table that has just been built.  A table that another run is reading
+     * can't be locked straight away and is left for a later run to drop.
+     */
+    private void dropOldStagingTables(Connection connection, String stagingSchema, String prefix,
+            String currentName) throws SQLException {
+        Pattern oldNamePattern =
+            Pattern.compile(Pattern.quote(prefix.toLowerCase()) + "[0-9a-f]{8}");
+        List<String> oldNames = new ArrayList<String>();
+        String query = "SELECT tablename FROM pg_tables WHERE schemaname = ?";
+        LOG.info("executing: " + query);
+        PreparedStatement listStmt = connection.prepareStatement(query);
+        listStmt.setString(1, stagingSchema.toLowerCase());
+        ResultSet res = listStmt.executeQuery();
+        while (res.next()) {
+            String name = res.getString("tablename");
+            if (oldNamePattern.matcher(name).matches()
+                    && !name.equals(currentName.toLowerCase())) {
+                oldNames.add(name);
+            }
+        }
+        res.close();
+        listStmt.close();
+        if (oldNames.isEmpty()) {
+            return;
+        }
+        Statement stmt = connection.createStatement();
+        executeTableQuery(stmt, "SET lock_timeout = '1s'");
+        try {
+            for (String oldName: oldNames) {
+                String oldTableName = stagingSchema + "." + oldName;
+                Savepoint savepoint = null;
+                if (!connection.getAutoCommit()) {
+                    savepoint = connection.setSavepoint();
+                }
+                try {
+                    executeTableQuery(stmt, "DROP TABLE " + oldTableName);
+                    if (savepoint != null) {
+                        connection.releaseSavepoint(savepoint);
+                    }
+                    LOG.info("dropped old staging table: " + oldTableName);
+                } catch (SQLException e) {
+                    if (savepoint != null) {
+                        connection.rollback(savepoint);
+                    }
+                    LOG.info("old staging table " + oldTableName + " is in use, not dropping: "
+                            + e.getMessage());
+                }
+            }
+        } finally {
+            executeTableQuery(stmt, "RESET lock_timeout");
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    private void executeTableQuery(Statement stmt, String query) throws SQLException {
+        LOG.info("executing: " + query);
         stmt.execute(query);
-        String idIndexQuery = "CREATE INDEX " + INSERTION_TEMP_TABLE_NAME + "index ON "
-            + INSERTION_TEMP_TABLE_NAME + "(sub_id)";
-        LOG.info("executing: " + idIndexQuery);
-        stmt.execute(idIndexQuery);
-        String analyze = "ANALYZE " + INSERTION_TEMP_TABLE_NAME;
-        LOG.info("executing: " + analyze);
-        stmt.execute(analyze);
+    }
+
+    /**
+     * Return true if the given table exists in the given schema.
+     */
+    private boolean stagingTableExists(Connection connection, String schema, String tableName)
+        throws SQLException {
+        String query = "SELECT 1 FROM pg_tables WHERE schemaname = ? AND tablename = ?";
+        LOG.info("executing: " + query);
+        PreparedStatement stmt = connection.prepareStatement(query);
+        stmt.setString(1, schema.toLowerCase());
+        stmt.setString(2, tableName.toLowerCase());
+        ResultSet res = stmt.executeQuery();
+        boolean exists = res.next();
+        res.close();
+        stmt.close();
+        return exists;
+    }
+
+    /**
+     * Return the part of the tag of a staging table name that changes if the query changes.
+     */
+    private static String getQueryTag(String selectQuery) {
+        return digest(selectQuery);
+    }
+
+    /**
+     * Return the part of the tag of a staging table name that changes if the chado release
+     * changes: a digest of the converter's chadoRelease if set, otherwise of the fingerprint
+     * from getChadoReleaseFingerprint().
+     */
+    private String getReleaseTag(Connection connection) throws SQLException {
+        if (releaseFingerprint == null) {
+            releaseFingerprint = getChadoDBConverter().getChadoRelease();
+            if (releaseFingerprint == null) {
+                releaseFingerprint = getChadoReleaseFingerprint(connection);
+            }
+            LOG.info("chado release fingerprint: " + releaseFingerprint);
+        }
+        return digest(releaseFingerprint);
+    }
+
+    // return 8 hex digits of the MD5 of a string
+    private static String digest(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(value.getBytes("UTF-8"));
+            StringBuilder tag = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                tag.append(String.format("%02x", bytes[i] & 0xff));
+            }
+            return tag.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 digest unavailable", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 unavailable", e);
+        }
+    }
+
+    /**
+     * Return a string that changes when a new chado release is loaded, made from the largest
+     * ids and the numbers of rows in the tables that the staging tables are built from and the
+     * latest modification time of the features, so that deleted and edited rows change it as
+     * well as new ones.  Not used if the converter's chadoRelease is set, which also saves
+     * counting the tables.  This is a protected method so that it can be overridden for testing
+     * or for a database with a better release marker.
+     * @param connection the Connection
+     * @return the fingerprint
+     * @throws SQLException if there is a database problem
+     */
+    protected String getChadoReleaseFingerprint(Connection connection) throws SQLException {
+        StringBuilder query =
+            new StringBuilder("SELECT (SELECT max(timelastmodified) FROM feature)");
+        for (String table: RELEASE_FINGERPRINT_TABLES) {
+            query.append(", (SELECT max(" + table + "_id) FROM " + table + ")");
+            query.append(", (SELECT count(*) FROM " + table + ")");
+        }
+        LOG.info("executing getChadoReleaseFingerprint(): " + query);
+        Statement stmt = connection.createStatement();
+        ResultSet res = stmt.executeQuery(query.toString());
+        StringBuilder fingerprint = new StringBuilder();
+        if (res.next()) {
+            for (int i = 1; i <= 1 + 2 * RELEASE_FINGERPRINT_TABLES.length; i++) {
+                if (i > 1) {
+                    fingerprint.append(',');
+                }
+                fingerprint.append(res.getString(i));
+            }
+        }
+        res.close();
+        stmt.close();
+        return fingerprint.toString();
+    }
+
+    /**
+     * Return the factory to read cvs with, which uses snapshots if the converter has a cv
+     * snapshot directory.
+     */
+    private ChadoCVFactory getChadoCVFactory(Connection connection) {
+        File snapshotDirectory = getChadoDBConverter().getCvSnapshotDirectory();
+        if (snapshotDirectory == null) {
+            return new ChadoCVFactory(connection);
+        }
+        return new CachedChadoCVFactory(connection, snapshotDirectory);
     }
 
     /**
@@ -437,8 +695,7 @@ public class FlyBaseProcessor extends SequenceProcessor
      * @throws SQLException if there is a database problem
      */
     protected ChadoCV getFlyBaseMiscCV(Connection connection) throws SQLException {
-        ChadoCVFactory cvFactory = new ChadoCVFactory(connection);
-        return cvFactory.getChadoCV(FLYBASE_MISCELLANEOUS_CV);
+        return getChadoCVFactory(connection).getChadoCV(FLYBASE_MISCELLANEOUS_CV);
     }
 
     /**
@@ -449,8 +706,7 @@ public class FlyBaseProcessor extends SequenceProcessor
      * @throws SQLException if there is a database problem
      */
     protected ChadoCV getFlyBaseSequenceOntologyCV(Connection connection) throws SQLException {
-        ChadoCVFactory cvFactory = new ChadoCVFactory(connection);
-        return cvFactory.getChadoCV(FLYBASE_SO_CV_NAME);
+        return getChadoCVFactory(connection).getChadoCV(FLYBASE_SO_CV_NAME);
     }
 
     /**
@@ -502,7 +758,7 @@ public class FlyBaseProcessor extends SequenceProcessor
     protected ResultSet getLocatedGenesResultSet(Connection connection) throws SQLException {
         String query = getLocatedGenesSql();
         LOG.info("executing getLocatedGenesResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -511,14 +767,14 @@ public class FlyBaseProcessor extends SequenceProcessor
      * Return a query that gets the feature_ids of genes that have locations.
      */
     private String getLocatedGenesSql() {
-        return "SELECT feature_id FROM " + LOCATED_GENES_TEMP_TABLE_NAME;
+        return "SELECT feature_id FROM " + locatedGenesTableName;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    protected Map<MultiKey, List<ConfigAction>> getConfig(int taxonId) {
+    protected synchronized Map<MultiKey, List<ConfigAction>> getConfig(int taxonId) {
         MultiKeyMap map = config.get(new Integer(taxonId));
         if (map == null) {
             map = new MultiKeyMap();
@@ -802,7 +1058,7 @@ public class FlyBaseProcessor extends SequenceProcessor
                 ChadoCVTerm term = sequenceOntologyCV.getByChadoId(cvtermId);
 
                 for (String soName: CHROMOSOME_STRUCTURE_VARIATION_SO_MAP.keySet()) {
-                    if (termOrChildrenNameMatches(term, soName)) {
+                    if (sequenceOntologyCV.termOrDescendantNamed(term, soName)) {
                         realInterMineType = CHROMOSOME_STRUCTURE_VARIATION_SO_MAP.get(soName);
                         break;
                     }
@@ -837,22 +1093,6 @@ public class FlyBaseProcessor extends SequenceProcessor
         return feature;
     }
 
-    /**
-     * Return true iff the given term or one of its children is named termName.
-     */
-    private boolean termOrChildrenNameMatches(ChadoCVTerm term, String termName) {
-        if (term.getName().equals(termName)) {
-            return true;
-        }
-        Set<ChadoCVTerm> children = term.getAllChildren();
-        for (ChadoCVTerm childTerm: children) {
-            if (childTerm.getName().equals(termName)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static final List<String> FEATURES = Arrays.asList(
             "gene", "mRNA", "transcript", "protein",
             "intron", "exon", "regulatory_region", "enhancer", "EST", "cDNA_clone",
@@ -873,6 +1113,18 @@ public class FlyBaseProcessor extends SequenceProcessor
         return FEATURES;
     }
 
+    /**
+     * Find the genes that have locations.  This is done here rather than in the constructor so
+     * that the table of located genes is made on the connection that process() is given.
+     * {@inheritDoc}
+     */
+    @Override
+    protected void earlyExtraProcessing(Connection connection)
+        throws ObjectStoreException, SQLException {
+        createLocatedGenesTempTable(connection);
+        locatedGeneIds = getLocatedGeneIds(connection);
+    }
+
     /**
      * For objects that have primaryIdentifier == null, set the primaryIdentifier to be the
      * uniquename column from chado.
@@ -881,6 +1133,8 @@ public class FlyBaseProcessor extends SequenceProcessor
     @Override
     protected void extraProcessing(Connection connection, Map<Integer, FeatureData> features)
         throws ObjectStoreException, SQLException {
+        long startTime = System.currentTimeMillis();
+        long tableMillisBefore = tableMillis;
 
         createAllelesTempTable(connection);
         createInsertionTempTable(connection);
@@ -914,6 +1168,12 @@ public class FlyBaseProcessor extends SequenceProcessor
 
             createInteractions(connection);
         }
+
+        long extraTableMillis = tableMillis - tableMillisBefore;
+        LOG.info("finished extraProcessing() in " + (System.currentTimeMillis() - startTime)
+                + "ms, " + extraTableMillis + "ms of it making tables; " + tableMillis
+                + "ms making tables in total, " + tablesBuilt + " built, " + tablesReused
+                + " reused from the staging schema");
     }
 
     private Item getInteraction(Map<MultiKey, Item> interactions, String refId,
@@ -1024,6 +1284,10 @@ public class FlyBaseProcessor extends SequenceProcessor
         ResultSet res = getDeletionLocationResultSet(connection);
         while (res.next()) {
             Integer delId = new Integer(res.getInt("deletion_feature_id"));
+            if (!isChangedFeature(delId.intValue())) {
+                // incremental load - the location from the last load is still there
+                continue;
+            }
 
             FeatureData delFeatureData = getFeatureMap().get(delId);
             if (delFeatureData == null) {
@@ -1158,6 +1422,10 @@ public class FlyBaseProcessor extends SequenceProcessor
         ResultSet res = getInsertionLocationsResultSet(connection);
         while (res.next()) {
             int subId = res.getInt("sub_id");
+            if (!isChangedFeature(subId)) {
+                // incremental load - the location from the last load is still there
+                continue;
+            }
             int chrId = res.getInt("chr_feature_id");
             int fmin = res.getInt("fmin");
             int fmax = res.getInt("fmax");
@@ -1235,29 +1503,23 @@ public class FlyBaseProcessor extends SequenceProcessor
         Map<Integer, List<String>> retMap = new HashMap<Integer, List<String>>();
 
         ResultSet res = getAlleleCVTermsResultSet(connection);
-    RESULTS:
         while (res.next()) {
             Integer featureId = new Integer(res.getInt("feature_id"));
             Integer cvtermId = new Integer(res.getInt("cvterm_id"));
 
             ChadoCVTerm cvterm = flyBaseMiscCv.getByChadoId(cvtermId);
 
-            Set<ChadoCVTerm> parents = cvterm.getAllParents();
+            if (flyBaseMiscCv.ancestorNamed(cvterm, "origin of mutation")) {
+                String fixedName = XmlUtil.fixEntityNames(cvterm.getName());
+                List<String> mutagens;
+                if (retMap.containsKey(featureId)) {
+                    mutagens = retMap.get(featureId);
 
-            for (ChadoCVTerm parent: parents) {
-                if ("origin of mutation".equals(parent.getName())) {
-                    String fixedName = XmlUtil.fixEntityNames(cvterm.getName());
-                    List<String> mutagens;
-                    if (retMap.containsKey(featureId)) {
-                        mutagens = retMap.get(featureId);
-
-                    } else {
-                        mutagens = new ArrayList<String>();
-                        retMap.put(featureId, mutagens);
-                    }
-                    mutagens.add(fixedName);
-                    continue RESULTS;
+                } else {
+                    mutagens = new ArrayList<String>();
+                    retMap.put(featureId, mutagens);
                 }
+                mutagens.add(fixedName);
             }
         }
 
@@ -1277,7 +1539,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "            AND feature.feature_id IN (" + getAlleleFeaturesSql() + ")"
             + "            AND feature_cvterm.cvterm_id = cvterm.cvterm_id";
         LOG.info("executing getAlleleCVTermsResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1537,7 +1799,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "           AND feature.feature_id IN (" + getLocatedGenesSql() + ")"
             + "           AND other_feature.feature_id IN (" + getLocatedGenesSql() + ")";
         LOG.info("executing getInteractionResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1557,7 +1819,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "       AND feature_id IN (" + getAlleleFeaturesSql() + ")"
             + "   ORDER BY feature_id";
         LOG.info("executing getAllelePropResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1595,9 +1857,9 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "   AND break.type_id = break_type.cvterm_id"
             + "   AND break_type.name = 'breakpoint'"
             // ignore the progenitors so we only set element1 and element2 to be the "descendants"
-            + "   AND ins.feature_id NOT IN (SELECT obj_id FROM " + INSERTION_TEMP_TABLE_NAME + ")";
+            + "   AND ins.feature_id NOT IN (SELECT obj_id FROM " + insertionTableName + ")";
         LOG.info("executing getIndelResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1614,9 +1876,9 @@ public class FlyBaseProcessor extends SequenceProcessor
      * @return the ResultSet
      */
     protected ResultSet getInsertionLocationsResultSet(Connection connection) throws SQLException  {
-        String query = "SELECT * from " + INSERTION_TEMP_TABLE_NAME;
+        String query = "SELECT * from " + insertionTableName;
         LOG.info("executing getInsertionLocationsResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1648,7 +1910,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "     AND f.is_obsolete = false "
             + "     AND fl.srcfeature_id = c.feature_id ";
         LOG.info("executing getDeletionLocationResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1673,7 +1935,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "        AND feature_id IN (" + getAlleleFeaturesSql() + ")"
             + "    ORDER BY featureprop_id";
         LOG.info("executing getAllelePropPubResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1696,7 +1958,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "  AND fls.type_id=fls_type.cvterm_id ";
 
         LOG.info("executing getCDNALengthResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1725,16 +1987,17 @@ public class FlyBaseProcessor extends SequenceProcessor
             if (!uniqueName.startsWith("FBpp")) {
                 return null;
             }
+            sharedFeatureIds.set(featureId, true);
             FeatureData protein = proteinFeatureDataMap.get(md5checksum);
             // make a synonym for the protein we're about to discard
             if (protein != null) {
                 if (StringUtils.isNotEmpty(uniqueName)
-                        && !protein.getExistingSynonyms().contains(uniqueName)) {
+                        && !protein.hasExistingSynonym(uniqueName)) {
                     Item synonym = createSynonym(protein, uniqueName);
                     store(synonym);
                 }
                 if (StringUtils.isNotEmpty(name)
-                        && !protein.getExistingSynonyms().contains(name)) {
+                        && !protein.hasExistingSynonym(name)) {
                     Item synonym = createSynonym(protein, name);
                     store(synonym);
                 }
@@ -1750,6 +2013,7 @@ public class FlyBaseProcessor extends SequenceProcessor
 
             // flybase has duplicates.  to merge with BDGP we need to discard duplicates and
             // make a synonym
+            sharedFeatureIds.set(featureId, true);
             FeatureData cdnaClone = cdnaCloneMap.get(name);
             if (cdnaClone != null) {
                 if (StringUtils.isNotEmpty(name)) {
@@ -1769,11 +2033,25 @@ public class FlyBaseProcessor extends SequenceProcessor
                 md5checksum, seqlen, organismId);
     }
 
+    /**
+     * Pin the proteins and cdna clones in the feature map, so that the map never replaces the
+     * FeatureData held by proteinFeatureDataMap and cdnaCloneMap with a copy.
+     * {@inheritDoc}
+     */
+    @Override
+    protected void addToFeatureMap(Integer featureId, FeatureData fdat) {
+        if (sharedFeatureIds.contains(featureId.intValue())) {
+            addPinnedToFeatureMap(featureId, fdat);
+        } else {
+            super.addToFeatureMap(featureId, fdat);
+        }
+    }
+
     /**
      * Return a query that gets the feature_ids of the allele in the feature table.
      */
     private String getAlleleFeaturesSql() {
-        return "SELECT feature_id FROM " + ALLELE_TEMP_TABLE_NAME;
+        return "SELECT feature_id FROM " + alleleTableName;
     }
 
     /**
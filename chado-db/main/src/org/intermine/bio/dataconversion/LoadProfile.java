@@ -0,0 +1,491 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Measurements of a chado load, kept for each named pass over the chado tables: the rows read,
+ * the Items, references, collections and attributes stored, the time spent in JDBC calls and in
+ * Java, the peak featureMap size and the bytes allocated, and how many runs failed.  Passes may be
+ * nested and may run in
+ * several threads at once.  Each thread counts towards the innermost pass it is running, and new
+ * threads start in the pass of the thread that made them.  Runs of passes with the same name,
+ * for example the passes of each modENCODE submission, are added together.
+ *
+ * Rows and JDBC time are only measured for connections returned by profileConnection(), which
+ * ChadoDBConverter only uses if profiling is switched on.
+ */
+public class LoadProfile implements LoadProfileMBean
+{
+    private static final Logger LOG = Logger.getLogger(LoadProfile.class);
+    private static final String OUTSIDE_PASSES = "(outside passes)";
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, PassStats> passStats = new LinkedHashMap<String, PassStats>();
+    private final InheritableThreadLocal<PassRun> currentRun =
+        new InheritableThreadLocal<PassRun>();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong itemsStored = new AtomicLong();
+    private final AtomicLong fieldsStored = new AtomicLong();
+    private ObjectName objectName = null;
+    // set by ProcessorScheduler when all the processors have finished
+    private volatile List<String> criticalPath = null;
+    private volatile long criticalPathMillis = 0;
+
+    /**
+     * The totals of all runs of the passes with one name.
+     */
+    private static class PassStats
+    {
+        private final String name;
+        private final AtomicInteger runs = new AtomicInteger();
+        private final AtomicInteger failedRuns = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicLong wallNanos = new AtomicLong();
+        private final AtomicLong selfNanos = new AtomicLong();
+        private final AtomicLong sqlNanos = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong references = new AtomicLong();
+        private final AtomicLong collections = new AtomicLong();
+        private final AtomicLong attributes = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicInteger peakFeatureMapSize = new AtomicInteger();
+
+        PassStats(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * One run of a pass, returned by startPass().
+     */
+    public static final class PassRun
+    {
+        private final PassStats stats;
+        private final PassRun parent;
+        private final Thread thread = Thread.currentThread();
+        private final long startNanos = System.nanoTime();
+        private final long startAllocatedBytes = getAllocatedBytes();
+        private final AtomicLong childNanos = new AtomicLong();
+
+        private PassRun(PassStats stats, PassRun parent) {
+            this.stats = stats;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * Start a run of a pass in the calling thread.  Until finishPass() is called, the work done
+     * by the thread counts towards this pass.
+     * @param name the name of the pass, runs with the same name are added together
+     * @return the new run
+     */
+    public PassRun startPass(String name) {
+        PassRun run = new PassRun(getStats(name), currentRun.get());
+        run.stats.running.incrementAndGet();
+        currentRun.set(run);
+        return run;
+    }
+
+    /**
+     * Finish a run started by startPass() in the calling thread, and go back to counting towards
+     * the pass that was running before.
+     * @param run the value returned by startPass()
+     */
+    public void finishPass(PassRun run) {
+        finishPass(run, false);
+    }
+
+    /**
+     * Finish a run started by startPass() in the calling thread, and go back to counting towards
+     * the pass that was running before.  Call from a finally block so that a pass that throws an
+     * exception doesn't stay in the running passes and isn't charged for the work done after it.
+     * @param run the value returned by startPass()
+     * @param failed true if the pass ended with an exception
+     */
+    public void finishPass(PassRun run, boolean failed) {
+        long wallNanos = System.nanoTime() - run.startNanos;
+        PassStats stats = run.stats;
+        stats.runs.incrementAndGet();
+        if (failed) {
+            stats.failedRuns.incrementAndGet();
+        }
+        stats.running.decrementAndGet();
+        stats.wallNanos.addAndGet(wallNanos);
+        stats.selfNanos.addAndGet(Math.max(0, wallNanos - run.childNanos.get()));
+        long allocatedBytes = getAllocatedBytes();
+        if (allocatedBytes >= 0 && run.startAllocatedBytes >= 0) {
+            stats.allocatedBytes.addAndGet(allocatedBytes - run.startAllocatedBytes);
+        }
+        if (run.parent != null) {
+            run.parent.childNanos.addAndGet(wallNanos);
+        }
+        if (run.thread == Thread.currentThread()) {
+            currentRun.set(run.parent);
+        }
+    }
+
+    private PassStats getStats(String name) {
+        synchronized (passStats) {
+            PassStats stats = passStats.get(name);
+            if (stats == null) {
+                stats = new PassStats(name);
+                passStats.put(name, stats);
+            }
+            return stats;
+        }
+    }
+
+    private PassStats getCurrentStats() {
+        PassRun run = currentRun.get();
+        return run == null ? getStats(OUTSIDE_PASSES) : run.stats;
+    }
+
+    /**
+     * Count rows read from chado.
+     * @param count the number of rows
+     */
+    void countRows(int count) {
+        rowsRead.addAndGet(count);
+        getCurrentStats().rows.addAndGet(count);
+    }
+
+    /**
+     * Add time spent waiting for JDBC calls.
+     * @param nanos the time in nanoseconds
+     */
+    void addSqlTime(long nanos) {
+        getCurrentStats().sqlNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Count a stored Item.
+     */
+    void countItem() {
+        itemsStored.incrementAndGet();
+        getCurrentStats().items.incrementAndGet();
+    }
+
+    /**
+     * Count a stored Reference.
+     */
+    void countReference() {
+        fieldsStored.incrementAndGet();
+        getCurrentStats().references.incrementAndGet();
+    }
+
+    /**
+     * Count a stored ReferenceList.
+     */
+    void countCollection() {
+        fieldsStored.incrementAndGet();
+        getCurrentStats().collections.incrementAndGet();
+    }
+
+    /**
+     * Count a stored Attribute.
+     */
+    void countAttribute() {
+        fieldsStored.incrementAndGet();
+        getCurrentStats().attributes.incrementAndGet();
+    }
+
+    /**
+     * Record the size of a featureMap, keeping the largest size seen by the current pass.
+     * @param size the number of features in the map
+     */
+    void recordFeatureMapSize(int size) {
+        AtomicInteger peak = getCurrentStats().peakFeatureMapSize;
+        int current = peak.get();
+        while (size > current && !peak.compareAndSet(current, size)) {
+            current = peak.get();
+        }
+    }
+
+    /**
+     * Record the longest chain of dependent processors, see ProcessorScheduler.
+     * @param processorNames the names of the processors on the critical path, in order
+     * @param millis the time taken by the processors on the path
+     */
+    void setCriticalPath(List<String> processorNames, long millis) {
+        criticalPathMillis = millis;
+        criticalPath = new ArrayList<String>(processorNames);
+    }
+
+    /**
+     * Return the bytes allocated by the calling thread so far, or -1 if the JVM can't tell.
+     */
+    static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getItemsStored() {
+        return itemsStored.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFieldsStored() {
+        return fieldsStored.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getRunningPasses() {
+        List<String> names = new ArrayList<String>();
+        for (PassStats stats: getAllStats()) {
+            if (stats.running.get() > 0) {
+                names.add(stats.name);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    private List<PassStats> getAllStats() {
+        synchronized (passStats) {
+            return new ArrayList<PassStats>(passStats.values());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        appendField(sb, "  ", "elapsedMillis", getElapsedMillis()).append(",\n");
+        appendField(sb, "  ", "rowsRead", getRowsRead()).append(",\n");
+        appendField(sb, "  ", "itemsStored", getItemsStored()).append(",\n");
+        appendField(sb, "  ", "fieldsStored", getFieldsStored()).append(",\n");
+        List<String> path = criticalPath;
+        if (path != null) {
+            sb.append("  \"criticalPath\": {\n");
+            appendField(sb, "    ", "millis", criticalPathMillis).append(",\n");
+            sb.append("    \"processors\": [");
+            for (int i = 0; i < path.size(); i++) {
+                sb.append(i == 0 ? "" : ", ").append(quote(path.get(i)));
+            }
+            sb.append("]\n  },\n");
+        }
+        sb.append("  \"passes\": [");
+        boolean first = true;
+        for (PassStats stats: getAllStats()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            long wallMillis = stats.wallNanos.get() / 1000000;
+            long selfMillis = stats.selfNanos.get() / 1000000;
+            long sqlMillis = stats.sqlNanos.get() / 1000000;
+            long allocatedBytes = stats.allocatedBytes.get();
+            String indent = "      ";
+            sb.append("    {\n");
+            sb.append(indent).append("\"name\": ").append(quote(stats.name)).append(",\n");
+            appendField(sb, indent, "runs", stats.runs.get()).append(",\n");
+            appendField(sb, indent, "failedRuns", stats.failedRuns.get()).append(",\n");
+            appendField(sb, indent, "wallMillis", wallMillis).append(",\n");
+            appendField(sb, indent, "selfMillis", selfMillis).append(",\n");
+            appendField(sb, indent, "sqlMillis", sqlMillis).append(",\n");
+            appendField(sb, indent, "javaMillis", Math.max(0, selfMillis - sqlMillis))
+                .append(",\n");
+            appendField(sb, indent, "rowsRead", stats.rows.get()).append(",\n");
+            appendField(sb, indent, "rowsPerSecond",
+                    wallMillis == 0 ? 0 : stats.rows.get() * 1000 / wallMillis).append(",\n");
+            appendField(sb, indent, "itemsStored", stats.items.get()).append(",\n");
+            appendField(sb, indent, "referencesStored", stats.references.get()).append(",\n");
+            appendField(sb, indent, "collectionsStored", stats.collections.get()).append(",\n");
+            appendField(sb, indent, "attributesStored", stats.attributes.get()).append(",\n");
+            appendField(sb, indent, "peakFeatureMapSize", stats.peakFeatureMapSize.get())
+                .append(",\n");
+            appendField(sb, indent, "allocatedBytes", allocatedBytes).append(",\n");
+            appendField(sb, indent, "allocatedMBPerSecond",
+                    selfMillis == 0 ? 0 : (allocatedBytes * 1000 / selfMillis) >> 20).append("\n");
+            sb.append("    }");
+        }
+        sb.append(first ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static StringBuilder appendField(StringBuilder sb, String indent, String name,
+            long value) {
+        return sb.append(indent).append('"').append(name).append("\": ").append(value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Write the JSON report to a file.
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void writeReport(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(getReport());
+        } finally {
+            writer.close();
+        }
+        LOG.info("wrote load profile to " + file);
+    }
+
+    /**
+     * Register this profile with the platform MBean server so that it can be watched with a JMX
+     * console.  Failures are logged rather than thrown, as the load doesn't depend on JMX.
+     * @param name the value of the name key of the ObjectName
+     */
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.intermine.bio.dataconversion:type=LoadProfile,name="
+                    + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            LOG.info("registered load profile MBean: " + objectName);
+        } catch (Exception e) {
+            LOG.warn("can't register load profile MBean", e);
+            objectName = null;
+        }
+    }
+
+    /**
+     * Unregister the MBean registered by registerMBean(), if any.
+     */
+    public void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOG.warn("can't unregister load profile MBean", e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Wrap a connection so that the rows read through its statements and the time spent in
+     * JDBC calls are counted towards the pass of the calling thread.
+     * @param connection the connection to wrap
+     * @return the wrapped connection, which implements the same interfaces
+     */
+    public Connection profileConnection(Connection connection) {
+        return (Connection) wrap(connection, new ProfilingHandler(connection));
+    }
+
+    private static Object wrap(Object target, InvocationHandler handler) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> cls = target.getClass(); cls != null; cls = cls.getSuperclass()) {
+            for (Class<?> iface: cls.getInterfaces()) {
+                interfaces.add(iface);
+            }
+        }
+        return Proxy.newProxyInstance(target.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), handler);
+    }
+
+    /**
+     * Times the calls to a Connection, Statement or ResultSet, wraps the Statements and
+     * ResultSets that it returns and counts the rows returned by ResultSet.next().
+     */
+    private class ProfilingHandler implements InvocationHandler
+    {
+        private final Object target;
+
+        ProfilingHandler(Object target) {
+            this.target = target;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (!(target instanceof Connection)) {
+                    addSqlTime(System.nanoTime() - start);
+                }
+            }
+            if (target instanceof ResultSet && "next".equals(method.getName())
+                    && Boolean.TRUE.equals(result)) {
+                countRows(1);
+            }
+            if (result instanceof Statement || result instanceof ResultSet) {
+                return wrap(result, new ProfilingHandler(result));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * The JMX view of a LoadProfile, for watching a chado load while it runs.
+ */
+public interface LoadProfileMBean
+{
+    /**
+     * Return the profile of every pass so far, as JSON.
+     * @return the JSON report
+     */
+    String getReport();
+
+    /**
+     * Return the names of the passes that are running.
+     * @return the pass names
+     */
+    String[] getRunningPasses();
+
+    /**
+     * Return the number of rows read from chado so far.
+     * @return the row count
+     */
+    long getRowsRead();
+
+    /**
+     * Return the number of Items stored so far.
+     * @return the item count
+     */
+    long getItemsStored();
+
+    /**
+     * Return the number of references, collections and attributes stored so far.
+     * @return the count
+     */
+    long getFieldsStored();
+
+    /**
+     * Return the time since the load started.
+     * @return the time in milliseconds
+     */
+    long getElapsedMillis();
+}
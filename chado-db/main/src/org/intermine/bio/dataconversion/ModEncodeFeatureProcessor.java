@@ -10,6 +10,7 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -31,6 +32,7 @@ import org.apache.log4j.Logger;
 import org.intermine.bio.chado.config.ConfigAction;
 import org.intermine.bio.chado.config.SetFieldConfigAction;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.IntPresentSet;
 import org.intermine.util.TypeUtil;
 import org.intermine.xml.full.Attribute;
 import org.intermine.xml.full.Item;
@@ -78,7 +80,14 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
     private static final String CHROMOSOME = "Chromosome";
     // the configuration for this processor, set when getConfig() is called the first time
     private final Map<Integer, MultiKeyMap> config = new HashMap<Integer, MultiKeyMap>();
-    private Map<Integer, FeatureData> commonFeaturesMap = new HashMap<Integer, FeatureData>();
+    // the chado feature_ids of the features that are common between submissions, see
+    // addToFeatureMap()
+    private final IntPresentSet commonFeatureIds = new IntPresentSet();
+    // the common features first seen by this processor
+    private final FeatureDataMap newCommonFeaturesMap = new FeatureDataMap();
+    // the common features of the processors running at the same time, null if submissions are
+    // processed one at a time
+    private CommonFeatureRegistry commonFeatureRegistry = null;
     // list of modelled attributes for expression levels
     private static final Set<String> EL_KNOWN_ATTRIBUTES =
             Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
@@ -97,7 +106,8 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
      *                             i.e. the submissionItemIdentifier
      * @param dataSourceIdentifier the item identifier of the DataSource,
      *                             i.e. the labItemIdentifier
-     * @param dataIdsTableName     name of a temporary table containing the data ids for the sub
+     * @param dataIdsTableName     name of a temporary table containing the data ids for the sub,
+     *                             or a parenthesised subquery returning a data_id column
      * @param title                the title
      * @param scoreProtocolItemId  score protocol item id
      */
@@ -120,6 +130,15 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
         commonFeatureInterMineTypes.add("EST");
         commonFeatureInterMineTypes.add("CDS");
     }
+    /**
+     * {@inheritDoc}
+     * The features of a submission are always kept on the heap because the common features are
+     * shared with other submissions by reference, which a SpillingFeatureDataMap can't do.
+     */
+    @Override
+    FeatureDataMap createFeatureMap() {
+        return new FeatureDataMap();
+    }
     /**
      * Get a list of the chado/so types of the LocatedSequenceFeatures we wish to load.  The list
      * will not include chromosome-like features.
@@ -130,23 +149,91 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
         return FEATURES;
     }
     /**
-     * Get a map of features that are expected to be common between submissions.  This map can be
-     * used to initialise this processor for a subsequent run.  The feature types added to this map
-     * are governed by the addToFeatureMap method in this class.
+     * Get a map of the features that are expected to be common between submissions and that
+     * weren't passed to initialiseCommonFeatures().  Adding these to the initial map gives the
+     * map to initialise the processor for the next submission.  The feature types added to this
+     * map are governed by the addToFeatureMap method in this class.
      * @return a map of chado feature id to FeatureData objects
      */
-    protected Map<Integer, FeatureData> getCommonFeaturesMap() {
-        return commonFeaturesMap;
+    protected Map<Integer, FeatureData> getNewCommonFeaturesMap() {
+        return newCommonFeaturesMap;
     }
     /**
-     * Initialise SequenceProcessor with features that have already been processed and put the same
-     * features data into a commonFeaturesMap that tracks features (e.g. Chromosomes) that appear
-     * in multiple submissions but should only be processed once.
+     * Initialise SequenceProcessor with features that have already been processed and record
+     * their ids as common features (e.g. Chromosomes) that appear in multiple submissions but
+     * should only be processed once.
      * @param initialMap map of chado feature id to FeatureData objects
      */
     protected void initialiseCommonFeatures(Map<Integer, FeatureData> initialMap) {
-        super.initialiseFeatureMap(initialMap);
-        commonFeaturesMap.putAll(initialMap);
+        // the map may be a view of a CommonFeatureRegistry that other threads are adding to, so
+        // each entry is read once
+        for (Map.Entry<Integer, FeatureData> entry: initialMap.entrySet()) {
+            super.addToFeatureMap(entry.getKey(), entry.getValue());
+            commonFeatureIds.set(entry.getKey().intValue(), true);
+        }
+    }
+    /**
+     * Share common features with the processors of other submissions that are being processed
+     * at the same time.  Each common feature is made by the first processor to find it.
+     * @param commonFeatureRegistry the registry shared by the processors
+     */
+    protected void setCommonFeatureRegistry(CommonFeatureRegistry commonFeatureRegistry) {
+        this.commonFeatureRegistry = commonFeatureRegistry;
+    }
+    /**
+     * If there is a CommonFeatureRegistry, claim features of the common types or use the
+     * FeatureData made by another processor.
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean claimFeature(int featureId, String chadoType) {
+        if (commonFeatureRegistry == null || !commonFeatureInterMineTypes.contains(
+                TypeUtil.javaiseClassName(fixFeatureType(chadoType)))) {
+            return true;
+        }
+        FeatureData fdat;
+        try {
+            fdat = commonFeatureRegistry.claim(Integer.valueOf(featureId));
+        } catch (InterruptedException e) {
+            throw new RuntimeException("interrupted while waiting for feature " + featureId, e);
+        }
+        if (fdat == null) {
+            return true;
+        }
+        super.addToFeatureMap(Integer.valueOf(featureId), fdat);
+        commonFeatureIds.set(featureId, true);
+        return false;
+    }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void releaseFeature(int featureId, FeatureData fdat) {
+        if (commonFeatureRegistry != null) {
+            if (fdat != null && commonFeatureInterMineTypes.contains(fdat.getInterMineType())) {
+                commonFeatureRegistry.release(Integer.valueOf(featureId), fdat);
+            } else {
+                commonFeatureRegistry.release(Integer.valueOf(featureId), null);
+            }
+        }
+    }
+    /**
+     * A processor is made for each submission, so the features are always all loaded.
+     * {@inheritDoc}
+     */
+    @Override
+    protected File getManifestFile() {
+        return null;
+    }
+
+    /**
+     * The feature queries use a TEMPORARY table of submission feature ids, which the connections
+     * of the parallel passes can't see, so the passes are always run one after another.
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean canProcessInParallel() {
+        return false;
     }
     /**
      * {@inheritDoc}
@@ -199,7 +286,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
      * @param srcFeatureData the FeatureData for the src feature (the Chromosome)
      * @param featureData the FeatureData for the SequenceFeature
      * @param taxonId the taxon id to use when finding the Chromosome for the Location
-     * @param featureId the chado feature id, key to our commonFeaturesMap
+     * @param featureId the chado feature id
      * @return the new Location object
      * @throws ObjectStoreException if there is a problem while storing
      */
@@ -208,13 +295,11 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
             FeatureData featureData, int taxonId, int featureId)
         throws ObjectStoreException {
         // if a common feature, do it only once..
-        if (commonFeaturesMap.containsKey(featureId)) {
+        if (commonFeatureIds.contains(featureId)) {
             return null;
         }
-        Item location = getChadoDBConverter().makeLocation(srcFeatureData.getItemIdentifier(),
-                featureData.getItemIdentifier(),
-                start, end, strand, taxonId);
-        return location;
+        return getChadoDBConverter().makeLocation(srcFeatureData.getItemIdentifier(),
+                featureData.getItemIdentifier(), start, end, strand, taxonId);
     }
 
 
@@ -254,8 +339,9 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
         super.addToFeatureMap(featureId, fdat);
         // We know chromosomes will be common between submissions so add them here
         if (commonFeatureInterMineTypes.contains(fdat.getInterMineType())
-                && !commonFeaturesMap.containsKey(featureId)) {
-            commonFeaturesMap.put(featureId, fdat);
+                && !commonFeatureIds.contains(featureId.intValue())) {
+            commonFeatureIds.set(featureId.intValue(), true);
+            newCommonFeaturesMap.put(featureId, fdat);
         }
     }
     private List<String> getMatchTypes(Connection connection) throws SQLException {
@@ -280,7 +366,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                 "SELECT name from cvterm where name like '%_match' ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         LOG.debug("QUERY TIME feature match types: " + (System.currentTimeMillis() - bT));
         return res;
@@ -318,7 +404,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                         + " (select feature_id from " + SUBFEATUREID_TEMP_TABLE_NAME + " ) ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         LOG.info("QUERY TIME feature " + featType + "_match: " + (System.currentTimeMillis() - bT));
         return res;
@@ -607,8 +693,8 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
             Integer featureId = res.getInt("feature_id");
             //            Integer score = res.getInt("data_id");
             String sourceFile = res.getString("value");
-            if (featureMap.containsKey(featureId)) {
-                FeatureData fData = featureMap.get(featureId);
+            if (getFeatureMap().containsKey(featureId)) {
+                FeatureData fData = getFeatureMap().get(featureId);
                 Integer storedFeatureId = fData.getIntermineObjectId();
                 Attribute sourceFileAttribute = new Attribute("sourceFile", sourceFile);
                 getChadoDBConverter().store(sourceFileAttribute, storedFeatureId);
@@ -644,7 +730,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                         + "AND df.feature_id = sf.feature_id ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         LOG.info("QUERY TIME feature sources: " + (System.currentTimeMillis() - bT));
         return res;
@@ -659,16 +745,16 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
             Double score = res.getDouble("score");
             String program = res.getString("program");
             if (title.equalsIgnoreCase(SUB_3154_TITLE)) {
-                if (featureMap.containsKey(featureId)) {
-                    FeatureData fData = featureMap.get(featureId);
+                if (getFeatureMap().containsKey(featureId)) {
+                    FeatureData fData = getFeatureMap().get(featureId);
                     program = fData.getChadoFeatureName();
                 }
                 Item level = createExpressionLevel(featureId, program, score.toString());
                 getChadoDBConverter().store(level);
                 continue;
             }
-            if (featureMap.containsKey(featureId)) {
-                FeatureData fData = featureMap.get(featureId);
+            if (getFeatureMap().containsKey(featureId)) {
+                FeatureData fData = getFeatureMap().get(featureId);
                 Integer storedFeatureId = fData.getIntermineObjectId();
                 Attribute scoreAttribute = new Attribute("score", score.toString());
                 getChadoDBConverter().store(scoreAttribute, storedFeatureId);
@@ -693,7 +779,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                         + " (select feature_id from " + SUBFEATUREID_TEMP_TABLE_NAME + " ) ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         LOG.info("QUERY TIME feature scores: " + (System.currentTimeMillis() - bT));
         return res;
@@ -759,8 +845,8 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
         } else {
             LOG.warn("ExpressionLevel found with blank value for uniquename: " + name);
         }
-        if (featureMap.containsKey(featureId)) {
-            FeatureData fData = featureMap.get(featureId);
+        if (getFeatureMap().containsKey(featureId)) {
+            FeatureData fData = getFeatureMap().get(featureId);
             String referenceName = "feature";
             String featureItemId = fData.getItemIdentifier();
             level.setReference(referenceName, featureItemId);
@@ -796,7 +882,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                 + " ORDER BY subject_id";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         LOG.info("QUERY TIME expression levels: " + (System.currentTimeMillis() - bT));
         return res;
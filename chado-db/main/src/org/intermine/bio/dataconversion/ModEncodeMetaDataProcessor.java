@@ -14,6 +14,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -21,12 +22,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +46,7 @@ import org.intermine.bio.util.OrganismRepository;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
+import org.intermine.util.StringUtil;
 import org.intermine.util.Util;
 import org.intermine.xml.full.Attribute;
 import org.intermine.xml.full.Item;
@@ -51,6 +62,16 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 {
     private static final Logger LOG = Logger.getLogger(ModEncodeMetaDataProcessor.class);
     private static final String DATA_IDS_TABLE_NAME = "data_ids";
+    // followed by the time the table was made, see createStagedDataIdsTable()
+    private static final String STAGED_DATA_IDS_TABLE_NAME = "modmine_staged_data_ids";
+    private static final Pattern STAGED_DATA_IDS_TABLE_PATTERN =
+        Pattern.compile(STAGED_DATA_IDS_TABLE_NAME + "_[0-9]+");
+    // rows to fetch at a time from the data_feature join of all submissions, if no fetch size is
+    // configured for this processor
+    private static final int STAGED_DATA_FEATURE_FETCH_SIZE = 10000;
+    // the number of feature/submission pairs to hold before writing them to the converter's
+    // spill directory, see SubmissionCollections
+    private static final int SUBMISSION_COLLECTIONS_SPILL_SIZE = 1 << 22;
     private static final String WIKI_URL = "http://wiki.modencode.org/project/index.php?title=";
     private static final String FILE_URL = "http://submit.modencode.org/submit/public/get_file/";
     private static final String DCC_PREFIX = "modENCODE_";
@@ -156,8 +177,10 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
 
     // caches
     // ------
-    // cache cv term names by id
+    // cache cv term names by id, prefetched for the types of data by prefetchCvterms()
     private Map<String, String> cvtermCache = new HashMap<String, String>();
+    private int cvtermHits = 0;
+    private int cvtermMisses = 0;
 
     private Map<String, String> devStageTerms = new HashMap<String, String>();
     private Map<String, String> devOntologies = new HashMap<String, String>();
@@ -279,52 +302,69 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
      */
     @Override
     public void process(Connection connection) throws Exception {
+        LoadProfile profile = getChadoDBConverter().getLoadProfile();
+        LoadProfile.PassRun profileRun = profile.startPass("ModEncodeMetaDataProcessor.metadata");
+        try {
+            processDeleted(connection);
 
-        processDeleted(connection);
+            processProjectTable(connection);
+            processLabTable(connection);
 
-        processProjectTable(connection);
-        processLabTable(connection);
+            processSubmissionOrganism(connection);
+            processSubmission(connection);
+            processSubmissionAttributes(connection);
+            processProtocolTable(connection);
+            processAppliedProtocolTable(connection);
+            processProtocolAttributes(connection);
 
-        processSubmissionOrganism(connection);
-        processSubmission(connection);
-        processSubmissionAttributes(connection);
-        processProtocolTable(connection);
-        processAppliedProtocolTable(connection);
-        processProtocolAttributes(connection);
+            processDag(connection);
+            processAppliedData(connection);
+            processAppliedDataAttributes(connection);
+            processExperiment(connection);
+            findScoreProtocols();
+            profile.finishPass(profileRun);
 
-        processDag(connection);
-        processAppliedData(connection);
-        processAppliedDataAttributes(connection);
-        processExperiment(connection);
-        findScoreProtocols();
+            profileRun = profile.startPass("ModEncodeMetaDataProcessor.features");
+            processFeatures(connection, submissionMap);
+            profile.finishPass(profileRun);
 
-        processFeatures(connection, submissionMap);
+            profileRun = profile.startPass("ModEncodeMetaDataProcessor.references");
+            // set references
+            setSubmissionRefs(connection);
+            setSubmissionExperimentRefs(connection);
+            setDAGRefs(connection);
 
-        // set references
-        setSubmissionRefs(connection);
-        setSubmissionExperimentRefs(connection);
-        setDAGRefs(connection);
+            // create DatabaseRecords where necessary for each submission
+            createDatabaseRecords(connection);
+            // create result files per submission
+            createResultFiles(connection);
 
-        // create DatabaseRecords where necessary for each submission
-        createDatabaseRecords(connection);
-        // create result files per submission
-        createResultFiles(connection);
+            profile.finishPass(profileRun);
 
-        // for high level attributes and experimental factors (EF)
-        // TODO: clean up
-        processEFactor(connection);
+            profileRun = profile.startPass("ModEncodeMetaDataProcessor.properties");
+            // for high level attributes and experimental factors (EF)
+            // TODO: clean up
+            processEFactor(connection);
 
-        // create id resolvers
-        if (rslv == null) {
-            rslv = IdResolverService.getFlyIdResolver();
-            rslv = IdResolverService.getWormIdResolver();
-        }
+            // create id resolvers
+            if (rslv == null) {
+                rslv = IdResolverService.getFlyIdResolver();
+                rslv = IdResolverService.getWormIdResolver();
+            }
 
-        processSubmissionProperties(connection);
-        createRelatedSubmissions(connection);
-        setSubmissionProtocolsRefs(connection);
-        setSubmissionEFactorsRefs(connection);
-        setSubmissionPublicationRefs(connection);
+            processSubmissionProperties(connection);
+            createRelatedSubmissions(connection);
+            setSubmissionProtocolsRefs(connection);
+            setSubmissionEFactorsRefs(connection);
+            setSubmissionPublicationRefs(connection);
+            profile.finishPass(profileRun);
+            profileRun = null;
+        } finally {
+            if (profileRun != null) {
+                // the pass that was running when processing failed
+                profile.finishPass(profileRun, true);
+            }
+        }
     }
 
     /**
@@ -387,82 +427,229 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         throws Exception {
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
 
-        // keep map of feature to submissions it has been referenced by, some features appear in
-        // more than one submission
-        Map<Integer, List<String>> subCollections = new HashMap<Integer, List<String>>();
+        // the submissions that reference each feature, some features appear in more than one
+        // submission
+        SubmissionCollections subCollections =
+            new SubmissionCollections(SUBMISSION_COLLECTIONS_SPILL_SIZE,
+                    getChadoDBConverter().getSpillDirectory());
 
+        List<Integer> chadoExperimentIds = new ArrayList<Integer>();
+        for (Integer chadoExperimentId: submissionMap.keySet()) {
+            if (!deletedSubMap.containsKey(chadoExperimentId)) {
+                chadoExperimentIds.add(chadoExperimentId);
+            }
+        }
+
+        String stagedDataIdsTable = null;
+        if (getChadoDBConverter().isStagedDataIds()) {
+            stagedDataIdsTable = createStagedDataIdsTable(connection, chadoExperimentIds);
+        }
+        try {
+            int threads =
+                Math.min(getChadoDBConverter().getParallelism(), chadoExperimentIds.size());
+            if (threads > 1) {
+                processFeaturesInParallel(chadoExperimentIds, subCollections, threads,
+                        stagedDataIdsTable);
+            } else {
+                processFeaturesInOrder(connection, chadoExperimentIds, subCollections,
+                        stagedDataIdsTable);
+            }
+        } finally {
+            if (stagedDataIdsTable != null) {
+                dropDataIdsTempTable(connection, stagedDataIdsTable);
+                setStagedDataIdsLock(connection, stagedDataIdsTable, false);
+            }
+        }
+
+        int collectionCount = subCollections.store(getChadoDBConverter());
+        LOG.info("stored " + collectionCount + " submissions collections from "
+                + subCollections.getPairCount() + " feature/submission pairs, "
+                + subCollections.getRunCount() + " spilled runs");
+
+        LOG.info("PROCESS TIME features: " + (System.currentTimeMillis() - bT) + " ms");
+    }
+
+    /**
+     * Process the features of the submissions one after another.  If there is a staged data ids
+     * table, the data_feature rows of all submissions are read with one query on a second
+     * connection, in submission order.
+     */
+    private void processFeaturesInOrder(Connection connection, List<Integer> chadoExperimentIds,
+            SubmissionCollections subCollections, String stagedDataIdsTable)
+        throws Exception {
         // hold features that should only be processed once across all submissions, initialise
         // processor with this map each time
-        Map<Integer, FeatureData> commonFeaturesMap = new HashMap<Integer, FeatureData>();
+        Map<Integer, FeatureData> commonFeaturesMap = new FeatureDataMap();
 
-        for (Map.Entry<Integer, SubmissionDetails> entry: submissionMap.entrySet()) {
+        if (stagedDataIdsTable == null) {
+            for (Integer chadoExperimentId: chadoExperimentIds) {
+                processSubmissionFeatures(connection, chadoExperimentId, subCollections,
+                        commonFeaturesMap, null, null, null);
+            }
+            return;
+        }
 
-            Integer chadoExperimentId = entry.getKey();
-            if (deletedSubMap.containsKey(chadoExperimentId)) {
-                continue;
+        List<Integer> sortedIds = new ArrayList<Integer>(chadoExperimentIds);
+        Collections.sort(sortedIds);
+        // the processors commit on the main connection, which would close the cursor
+        Connection cursorConnection = getChadoDBConverter().getNewConnection();
+        try {
+            cursorConnection.setAutoCommit(false);
+            DataFeatureCursor cursor =
+                new DataFeatureCursor(getStagedDataFeature(cursorConnection, stagedDataIdsTable),
+                        true);
+            for (Integer chadoExperimentId: sortedIds) {
+                processSubmissionFeatures(connection, chadoExperimentId, subCollections,
+                        commonFeaturesMap, null, stagedDataIdsTable, cursor);
             }
-            Map<Integer, FeatureData> subFeatureMap = new HashMap<Integer, FeatureData>();
-            SubmissionDetails submissionDetails = entry.getValue();
-            String submissionItemIdentifier = submissionDetails.itemIdentifier;
-            String labItemIdentifier = submissionDetails.labItemIdentifier;
-            String submissionTitle = submissionDetails.title;
+            cursor.close();
+            cursorConnection.commit();
+        } finally {
+            cursorConnection.close();
+        }
+    }
 
-            List<Integer> thisSubmissionDataIds = submissionDataMap.get(chadoExperimentId);
-            LOG.info("DATA IDS for " + dccIdMap.get(chadoExperimentId) + ": "
-                    + thisSubmissionDataIds.size());
+    /**
+     * Process the features of several submissions at the same time, each thread using its own
+     * connection.  The submissions with the most data are started first so that a large
+     * submission doesn't hold up the end of the run.  Common features are shared through a
+     * CommonFeatureRegistry, so each is stored once.
+     */
+    private void processFeaturesInParallel(List<Integer> chadoExperimentIds,
+            final SubmissionCollections subCollections, int threads,
+            final String stagedDataIdsTable) throws Exception {
+        List<Integer> sortedIds = new ArrayList<Integer>(chadoExperimentIds);
+        Collections.sort(sortedIds, new Comparator<Integer>() {
+            public int compare(Integer id1, Integer id2) {
+                return submissionDataMap.get(id2).size() - submissionDataMap.get(id1).size();
+            }
+        });
+        final Queue<Integer> queue = new ConcurrentLinkedQueue<Integer>(sortedIds);
+        final CommonFeatureRegistry registry = new CommonFeatureRegistry();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        LOG.info("processing features of " + sortedIds.size() + " submissions using " + threads
+                + " threads");
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        Connection subConnection = getChadoDBConverter().getNewConnection();
+                        try {
+                            Integer chadoExperimentId;
+                            while (!failed.get() && (chadoExperimentId = queue.poll()) != null) {
+                                processSubmissionFeatures(subConnection, chadoExperimentId,
+                                        subCollections, null, registry, stagedDataIdsTable,
+                                        null);
+                            }
+                        } catch (Exception e) {
+                            failed.set(true);
+                            throw e;
+                        } finally {
+                            subConnection.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future: futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw new RuntimeException("submission processing failed", cause);
+                }
+            }
+        } finally {
+            ProcessorScheduler.shutDown(executor);
+        }
+        LOG.info("processed features of " + sortedIds.size() + " submissions in "
+                + (System.currentTimeMillis() - startTime) + "ms, " + registry.getSharedCount()
+                + " uses of common features made by other submissions");
+    }
 
-            // Create a temporary table with the feature ids related to this submission
-            // based on the data_feature table
-            String dataIdsTempTable = createDataIdsTempTable(connection, chadoExperimentId,
+    /**
+     * Process the features of one submission.
+     * @param commonFeaturesMap the common features of the submissions processed so far, updated
+     * with the new common features of this submission, or null if registry is set
+     * @param registry the registry of common features shared by submissions processed at the
+     * same time, or null
+     * @param stagedDataIdsTable the table made by createStagedDataIdsTable(), or null to make a
+     * data ids table for this submission
+     * @param cursor the data_feature rows of all submissions, or null to query the rows of this
+     * submission
+     */
+    private void processSubmissionFeatures(Connection connection, Integer chadoExperimentId,
+            SubmissionCollections subCollections, Map<Integer, FeatureData> commonFeaturesMap,
+            CommonFeatureRegistry registry, String stagedDataIdsTable, DataFeatureCursor cursor)
+        throws Exception {
+        SubmissionDetails submissionDetails = submissionMap.get(chadoExperimentId);
+        String submissionItemIdentifier = submissionDetails.itemIdentifier;
+        String labItemIdentifier = submissionDetails.labItemIdentifier;
+        String submissionTitle = submissionDetails.title;
+
+        List<Integer> thisSubmissionDataIds = submissionDataMap.get(chadoExperimentId);
+        LOG.info("DATA IDS for " + dccIdMap.get(chadoExperimentId) + ": "
+                + thisSubmissionDataIds.size());
+
+        // Create a temporary table with the feature ids related to this submission
+        // based on the data_feature table, or select them from the staged table
+        String dataIdsTempTable;
+        if (stagedDataIdsTable == null) {
+            dataIdsTempTable = createDataIdsTempTable(connection, chadoExperimentId,
                     thisSubmissionDataIds);
+        } else {
+            dataIdsTempTable = "(SELECT data_id FROM " + stagedDataIdsTable
+                + " WHERE experiment_id = " + chadoExperimentId + ")";
+        }
 
-            ModEncodeFeatureProcessor processor =
-                    new ModEncodeFeatureProcessor(getChadoDBConverter(), submissionItemIdentifier,
-                            labItemIdentifier, dataIdsTempTable, submissionTitle,
-                            scoreProtocols.get(chadoExperimentId));
+        ModEncodeFeatureProcessor processor =
+                new ModEncodeFeatureProcessor(getChadoDBConverter(), submissionItemIdentifier,
+                        labItemIdentifier, dataIdsTempTable, submissionTitle,
+                        scoreProtocols.get(chadoExperimentId));
+        if (registry == null) {
             processor.initialiseCommonFeatures(commonFeaturesMap);
-            processor.process(connection);
+        } else {
+            processor.setCommonFeatureRegistry(registry);
+            processor.initialiseCommonFeatures(registry.getFeatures());
+        }
+        processor.process(connection);
 
-            // all features related to this submission
-            subFeatureMap.putAll(processor.getFeatureMap());
+        // all features related to this submission
+        Map<Integer, FeatureData> subFeatureMap = processor.getFeatureMap();
 
+        if (registry == null) {
             // features common across many submissions
-            commonFeaturesMap.putAll(processor.getCommonFeaturesMap());
+            commonFeaturesMap.putAll(processor.getNewCommonFeaturesMap());
             LOG.info("COMMON FEATURES: " + commonFeaturesMap.size());
+        }
 
-            if (subFeatureMap.keySet().size() == 0) {
-                LOG.error("FEATMAP: submission " + chadoExperimentId
-                        + " has no featureMap keys.");
-                continue;
-            }
-            LOG.info("FEATMAP: submission " + chadoExperimentId + "|"
-                    + "featureMap: " + subFeatureMap.keySet().size());
+        if (subFeatureMap.keySet().size() == 0) {
+            LOG.error("FEATMAP: submission " + chadoExperimentId
+                    + " has no featureMap keys.");
+            return;
+        }
+        LOG.info("FEATMAP: submission " + chadoExperimentId + "|"
+                + "featureMap: " + subFeatureMap.keySet().size());
 
-            // Populate map of submissions to features, some features are in multiple submissions
-            processDataFeatureTable(connection, subCollections, subFeatureMap,
-                    chadoExperimentId, dataIdsTempTable);
+        // Populate map of submissions to features, some features are in multiple submissions
+        processDataFeatureTable(connection, subCollections, subFeatureMap,
+                chadoExperimentId, dataIdsTempTable, cursor);
 
+        if (stagedDataIdsTable == null) {
             dropDataIdsTempTable(connection, dataIdsTempTable);
-
-            // 1- generate a map of gene-identifiers so we can re-use the same item identifiers
-            // when creating antibody/strain target genes late
-            // 2- fill the 'ChromatinState' state with the secondaryId
-            additionalProcessing(processor, subFeatureMap);
         }
 
-        storeSubmissionsCollections(subCollections);
-
-        LOG.info("PROCESS TIME features: " + (System.currentTimeMillis() - bT) + " ms");
-    }
-
-
-    private void storeSubmissionsCollections(Map<Integer, List<String>> subCollections)
-        throws ObjectStoreException {
-        for (Map.Entry<Integer, List<String>> entry : subCollections.entrySet()) {
-            Integer featureObjectId = entry.getKey();
-            ReferenceList collection = new ReferenceList("submissions", entry.getValue());
-            getChadoDBConverter().store(collection, featureObjectId);
-        }
+        // 1- generate a map of gene-identifiers so we can re-use the same item identifiers
+        // when creating antibody/strain target genes late
+        // 2- fill the 'ChromatinState' state with the secondaryId
+        additionalProcessing(processor, subFeatureMap);
     }
 
     private void additionalProcessing(ModEncodeFeatureProcessor processor,
@@ -472,7 +659,9 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             // when creating antibody/strain target genes late
             if ("Gene".equals(fData.getInterMineType())) {
                 String geneIdentifier = processor.fixIdentifier(fData, fData.getUniqueName());
-                geneToItemIdentifier.put(geneIdentifier, fData.getItemIdentifier());
+                synchronized (geneToItemIdentifier) {
+                    geneToItemIdentifier.put(geneIdentifier, fData.getItemIdentifier());
+                }
             }
             // 2- fill the 'ChromatinState' state with the secondaryId
             if ("ChromatinState".equals(fData.getInterMineType())) {
@@ -484,18 +673,25 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
     }
 
 
-    private void processDataFeatureTable(Connection connection, Map<Integer, List<String>> subCols,
-            Map<Integer, FeatureData> featureMap, Integer chadoExperimentId, String dataIdTable)
-        throws SQLException {
+    private void processDataFeatureTable(Connection connection, SubmissionCollections subCols,
+            Map<Integer, FeatureData> featureMap, Integer chadoExperimentId, String dataIdTable,
+            DataFeatureCursor cursor)
+        throws SQLException, IOException {
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
 
         String submissionItemId = submissionMap.get(chadoExperimentId).itemIdentifier;
 
-        bT = System.currentTimeMillis();     // to monitor time spent in the process
-        ResultSet res = getDataFeature(connection, dataIdTable);
-        while (res.next()) {
-            Integer dataId = new Integer(res.getInt("data_id"));
-            Integer featureId = new Integer(res.getInt("feature_id"));
+        // read the object ids first so that other threads can add their submissions while this
+        // one is reading
+        int[] featureObjectIds = new int[1024];
+        int featureCount = 0;
+        DataFeatureCursor rows = cursor;
+        if (rows == null) {
+            rows = new DataFeatureCursor(getDataFeature(connection, dataIdTable), false);
+        }
+        while (rows.next(chadoExperimentId.intValue())) {
+            Integer dataId = new Integer(rows.getDataId());
+            Integer featureId = new Integer(rows.getFeatureId());
 
             FeatureData featureData = featureMap.get(featureId);
             if (featureData == null) {
@@ -504,13 +700,20 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 continue;
             }
 
-            Integer featureObjectId = featureData.getIntermineObjectId();
-            List<String> subs = subCols.get(featureObjectId);
-            if (subs == null) {
-                subs = new ArrayList<String>();
-                subCols.put(featureObjectId, subs);
+            if (featureCount == featureObjectIds.length) {
+                featureObjectIds = Arrays.copyOf(featureObjectIds, featureCount * 2);
+            }
+            featureObjectIds[featureCount++] = featureData.getIntermineObjectId().intValue();
+        }
+        if (cursor == null) {
+            rows.close();
+        }
+        synchronized (subCols) {
+            int submissionIndex = subCols.addSubmission(submissionItemId);
+            for (int i = 0; i < featureCount; i++) {
+                subCols.add(featureObjectIds[i], submissionIndex);
             }
-            subs.add(submissionItemId);
+            subCols.endSubmission();
         }
         LOG.info("DATA IDS PROCESS TIME data_feature table: " + (System.currentTimeMillis() - bT));
     }
@@ -565,6 +768,152 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         return tableName;
     }
 
+    /**
+     * Copy the data ids of all the submissions into one table, with the experiment_id of each,
+     * so that one indexed table serves every submission.  The table isn't temporary so that it
+     * can be read from the connections of other threads.  It is made in the converter's staging
+     * schema if there is one, and is named with the time so that runs sharing a database each
+     * have their own.  The run holds an advisory lock on the name until the table is dropped
+     * with dropDataIdsTempTable() and the lock released with setStagedDataIdsLock(), so a table
+     * whose lock is free was left by a run that died, and is dropped here.
+     */
+    private String createStagedDataIdsTable(Connection connection,
+            List<Integer> chadoExperimentIds) throws SQLException {
+        String stagingSchema = getChadoDBConverter().getStagingSchema();
+        Statement stmt = connection.createStatement();
+        if (stagingSchema != null) {
+            String query = "CREATE SCHEMA IF NOT EXISTS " + stagingSchema;
+            LOG.info("executing: " + query);
+            stmt.execute(query);
+        }
+        dropLeftoverStagedDataIdsTables(connection, stagingSchema);
+
+        String baseName = STAGED_DATA_IDS_TABLE_NAME + "_" + System.currentTimeMillis();
+        String tableName = stagingSchema == null ? baseName : stagingSchema + "." + baseName;
+        setStagedDataIdsLock(connection, tableName, true);
+
+        long bT = System.currentTimeMillis();
+        String query = "CREATE UNLOGGED TABLE " + tableName + " (experiment_id int, data_id int)";
+        LOG.info("executing: " + query);
+        try {
+            stmt.execute(query);
+        } catch (SQLException e) {
+            setStagedDataIdsLock(connection, tableName, false);
+            throw e;
+        }
+
+        try {
+            BatchWriterPostgresCopyImpl batchWriter = new BatchWriterPostgresCopyImpl();
+            Batch batch = new Batch(batchWriter);
+
+            String[] colNames = new String[] {"experiment_id", "data_id"};
+            int rowCount = 0;
+            for (Integer chadoExperimentId: chadoExperimentIds) {
+                HashSet<Integer> uniqueDataIds =
+                    new HashSet<Integer>(submissionDataMap.get(chadoExperimentId));
+                for (Integer dataId : uniqueDataIds) {
+                    // data ids may be in more than one submission, so use the row number as id
+                    batch.addRow(connection, tableName, new Integer(rowCount), colNames,
+                            new Object[] {chadoExperimentId, dataId});
+                    rowCount++;
+                }
+            }
+            batch.flush(connection);
+            batch.close(connection);
+
+            LOG.info("CREATED STAGED DATA IDS TABLE: " + tableName + " with " + rowCount
+                    + " data ids in " + (System.currentTimeMillis() - bT) + "ms");
+
+            String idIndexQuery = "CREATE INDEX " + baseName + "_experiment_data_id_index ON "
+                    + tableName + "(experiment_id, data_id)";
+            LOG.info("DATA IDS executing: " + idIndexQuery);
+            long bT1 = System.currentTimeMillis();
+            stmt.execute(idIndexQuery);
+            LOG.info("DATA IDS TIME creating INDEX: " + (System.currentTimeMillis() - bT1) + "ms");
+            String analyze = "ANALYZE " + tableName;
+            LOG.info("executing: " + analyze);
+            long bT2 = System.currentTimeMillis();
+            stmt.execute(analyze);
+            LOG.info("DATA IDS TIME analyzing: " + (System.currentTimeMillis() - bT2) + "ms");
+            if (!connection.getAutoCommit()) {
+                // make the table visible to other connections
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            query = "DROP TABLE " + tableName;
+            stmt.execute(query);
+            setStagedDataIdsLock(connection, tableName, false);
+            throw e;
+        }
+        return tableName;
+    }
+
+    /**
+     * Take or release the session advisory lock on the name of a staged data ids table.  Session
+     * locks are released when the connection closes, however the run ends.
+     */
+    private void setStagedDataIdsLock(Connection connection, String tableName, boolean lock)
+        throws SQLException {
+        String query = "SELECT " + (lock ? "pg_advisory_lock" : "pg_advisory_unlock")
+            + "(hashtext(?))";
+        LOG.info("executing: " + query + " for " + tableName);
+        PreparedStatement stmt = connection.prepareStatement(query);
+        stmt.setString(1, tableName);
+        stmt.executeQuery().close();
+        stmt.close();
+    }
+
+    /**
+     * Drop the staged data ids tables in the given schema, or in the current schema if it is null,
+     * that were left by runs that failed before dropping them.  A table whose advisory lock can't
+     * be taken belongs to a run that is still going and is left alone.
+     */
+    private void dropLeftoverStagedDataIdsTables(Connection connection, String stagingSchema)
+        throws SQLException {
+        List<String> leftoverNames = new ArrayList<String>();
+        String query = "SELECT tablename FROM pg_tables WHERE schemaname = "
+            + (stagingSchema == null ? "current_schema()" : "?");
+        LOG.info("executing: " + query);
+        PreparedStatement listStmt = connection.prepareStatement(query);
+        if (stagingSchema != null) {
+            listStmt.setString(1, stagingSchema.toLowerCase());
+        }
+        ResultSet res = listStmt.executeQuery();
+        while (res.next()) {
+            String name = res.getString("tablename");
+            if (STAGED_DATA_IDS_TABLE_PATTERN.matcher(name).matches()) {
+                leftoverNames.add(name);
+            }
+        }
+        res.close();
+        listStmt.close();
+
+        PreparedStatement lockStmt =
+            connection.prepareStatement("SELECT pg_try_advisory_lock(hashtext(?))");
+        Statement stmt = connection.createStatement();
+        for (String name: leftoverNames) {
+            String tableName = stagingSchema == null ? name : stagingSchema + "." + name;
+            lockStmt.setString(1, tableName);
+            ResultSet lockRes = lockStmt.executeQuery();
+            boolean locked = lockRes.next() && lockRes.getBoolean(1);
+            lockRes.close();
+            if (!locked) {
+                LOG.info("staged data ids table " + tableName + " is in use by another run");
+                continue;
+            }
+            try {
+                LOG.warn("dropping staged data ids table left by an earlier run: " + tableName);
+                stmt.execute("DROP TABLE IF EXISTS " + tableName);
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } finally {
+                setStagedDataIdsLock(connection, tableName, false);
+            }
+        }
+        lockStmt.close();
+    }
+
     private void dropDataIdsTempTable(Connection connection, String dataIdsTableName)
         throws SQLException {
         long bT = System.currentTimeMillis();
@@ -586,6 +935,29 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         return doQuery(connection, query, "getDataFeature");
     }
 
+    /**
+     * Return the data_feature rows of all the submissions in a staged data ids table, ordered by
+     * experiment_id.  The rows are fetched in batches, so the connection must not be in
+     * auto-commit mode.
+     */
+    private ResultSet getStagedDataFeature(Connection connection, String stagedDataIdsTable)
+        throws SQLException {
+        String query =
+                "SELECT d.experiment_id, df.data_id, df.feature_id"
+                        + " FROM data_feature df, " + stagedDataIdsTable + " d"
+                        + " WHERE df.data_id = d.data_id"
+                        + " ORDER BY d.experiment_id";
+        LOG.info("executing: " + query);
+        long bT = System.currentTimeMillis();
+        Statement stmt = createStatement(connection);
+        if (stmt.getFetchSize() <= 0) {
+            stmt.setFetchSize(STAGED_DATA_FEATURE_FETCH_SIZE);
+        }
+        ResultSet res = stmt.executeQuery(query);
+        LOG.info("QUERY TIME getStagedDataFeature: " + (System.currentTimeMillis() - bT) + " ms");
+        return res;
+    }
+
     /**
      *
      * ====================
@@ -841,96 +1213,77 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
     }
 
     /**
-     * Applies iteratively buildADaglevel
+     * Associate each applied protocol with the submission of the first applied protocol it can be
+     * reached from and with its level in the DAG, in a single pass over an AppliedProtocolDag.
+     * It also fills the map linking the data (including the 'leaf' output data) with submission.
      *
-     * @throws SQLException
      * @throws ObjectStoreException
      */
     private void traverseDag()
         throws ObjectStoreException {
-        List<Integer> currentIterationAP = firstAppliedProtocols;
-        List<Integer> nextIterationAP = new ArrayList<Integer>();
-        Integer step = 1;     // DAG level
-
-        while (currentIterationAP.size() > 0) {
-            nextIterationAP = buildADagLevel (currentIterationAP, step);
-            currentIterationAP = nextIterationAP;
-            step++;
-        }
-    }
-
-    /**
-     * This method is given a set of applied protocols (already associated with a submission)
-     * and produces the next set of applied protocols. The latter are the protocols attached to the
-     * output data of the starting set (output data for a applied protocol is the input data for the
-     * next one).
-     * It also fills the map linking directly results ('leaf' output data) with submission
-     *
-     * @param previousAppliedProtocols
-     * @return the next batch of appliedProtocolId
-     * @throws SQLException
-     * @throws ObjectStoreException
-     */
-    private List<Integer> buildADagLevel(List<Integer> previousAppliedProtocols, Integer step)
-        throws ObjectStoreException {
-        List<Integer> nextIterationProtocols = new ArrayList<Integer>();
-        Iterator<Integer> pap = previousAppliedProtocols.iterator();
-        while (pap.hasNext()) {
-            List<Integer> outputs = new ArrayList<Integer>();
-            List<Integer> inputs = new ArrayList<Integer>();
-            Integer currentId = pap.next();
-            // add the DAG level here only if these are the first AP
-            if (step == 1) {
-                appliedProtocolMap.get(currentId).step = step;
-            }
-            outputs.addAll(appliedProtocolMap.get(currentId).outputs);
-            Integer submissionId = appliedProtocolMap.get(currentId).submissionId;
-            Iterator<Integer> od = outputs.iterator();
-            while (od.hasNext()) {
-                Integer currentOD = od.next();
-                List<Integer> nextProtocols = new ArrayList<Integer>();
-                // build map submission-data
-                mapSubmissionAndData(submissionId, currentOD);
-                if (appliedDataMap.containsKey(currentOD)) {
-                    // fill the list of next (children) protocols
-                    nextProtocols.addAll(appliedDataMap.get(currentOD).nextAppliedProtocols);
-                    if (appliedDataMap.get(currentOD).nextAppliedProtocols.isEmpty()) {
-                        // this is a leaf!!
-                        LOG.debug("DAG leaf: " + submissionId + " dataId: " + currentOD);
-                    }
-                }
-
-                // to fill submission-dataId map
-                // this is needed, otherwise inputs to AP that are not outputs
-                // of a previous protocol are not considered
-                inputs.addAll(appliedProtocolMap.get(currentId).inputs);
-                Iterator<Integer> in = inputs.iterator();
-                while (in.hasNext()) {
-                    Integer currentIn = in.next();
-                    // build map submission-data
-                    mapSubmissionAndData(submissionId, currentIn);
-                }
-
-                // build the list of children applied protocols chado identifiers
-                // as input for the next iteration
-                Iterator<Integer> nap = nextProtocols.iterator();
-                while (nap.hasNext()) {
-                    // and fill the map with the chado experiment_id and the DAG level
-                    Integer currentAPId = nap.next();
-                    appliedProtocolMap.get(currentAPId).submissionId = submissionId;
-                    appliedProtocolMap.get(currentAPId).step = step + 1;
-
-                    nextIterationProtocols.add(currentAPId);
-
-                    // and set the reference from applied protocol to the submission
-                    Reference reference = new Reference();
-                    reference.setName("submission");
-                    reference.setRefId(submissionMap.get(submissionId).itemIdentifier);
-                    getChadoDBConverter().store(reference, appliedProtocolIdMap.get(currentAPId));
+        long bT = System.currentTimeMillis();     // to monitor time spent in the process
+        AppliedProtocolDag appliedProtocolDag = new AppliedProtocolDag();
+        for (Map.Entry<Integer, AppliedProtocol> entry : appliedProtocolMap.entrySet()) {
+            int appliedProtocolId = entry.getKey().intValue();
+            for (Integer dataId : entry.getValue().inputs) {
+                appliedProtocolDag.addInput(appliedProtocolId, dataId.intValue());
+            }
+            for (Integer dataId : entry.getValue().outputs) {
+                appliedProtocolDag.addOutput(appliedProtocolId, dataId.intValue());
+            }
+        }
+        appliedProtocolDag.build();
+
+        int[] firstIds = new int[firstAppliedProtocols.size()];
+        int[] firstSubmissionIds = new int[firstIds.length];
+        for (int i = 0; i < firstIds.length; i++) {
+            AppliedProtocol ap = appliedProtocolMap.get(firstAppliedProtocols.get(i));
+            // the DAG level of the first AP, even if it has no data
+            ap.step = new Integer(1);
+            firstIds[i] = firstAppliedProtocols.get(i).intValue();
+            firstSubmissionIds[i] = ap.submissionId.intValue();
+        }
+        int reached = appliedProtocolDag.traverse(firstIds, firstSubmissionIds);
+
+        for (int appliedProtocolId : appliedProtocolDag.getTraversalOrder()) {
+            AppliedProtocol ap = appliedProtocolMap.get(new Integer(appliedProtocolId));
+            int step = appliedProtocolDag.getStep(appliedProtocolId);
+            ap.step = new Integer(step);
+            if (step > 1) {
+                // fill the map with the chado experiment_id of a child applied protocol
+                ap.submissionId =
+                    new Integer(appliedProtocolDag.getSubmissionId(appliedProtocolId));
+
+                // and set the reference from applied protocol to the submission
+                Reference reference = new Reference();
+                reference.setName("submission");
+                reference.setRefId(submissionMap.get(ap.submissionId).itemIdentifier);
+                getChadoDBConverter().store(reference,
+                        appliedProtocolIdMap.get(new Integer(appliedProtocolId)));
+            }
+            if (ap.outputs.isEmpty()) {
+                continue;
+            }
+            // build map submission-data
+            for (Integer currentOD : ap.outputs) {
+                mapSubmissionAndData(ap.submissionId, currentOD);
+                if (appliedProtocolDag.getNextAppliedProtocols(currentOD.intValue()).length == 0) {
+                    // this is a leaf!!
+                    LOG.debug("DAG leaf: " + ap.submissionId + " dataId: " + currentOD);
                 }
             }
+            // this is needed, otherwise inputs to AP that are not outputs
+            // of a previous protocol are not considered
+            for (Integer currentIn : ap.inputs) {
+                mapSubmissionAndData(ap.submissionId, currentIn);
+            }
         }
-        return nextIterationProtocols;
+        if (reached < appliedProtocolMap.size()) {
+            LOG.warn((appliedProtocolMap.size() - reached) + " applied protocols aren't reachable"
+                    + " from a first applied protocol, or are on a cycle");
+        }
+        LOG.info("TIME traversing DAG of " + reached + " applied protocols: "
+                + (System.currentTimeMillis() - bT) + " ms");
     }
 
     /**
@@ -1735,6 +2088,9 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         throws SQLException, ObjectStoreException {
         long bT = System.currentTimeMillis();     // to monitor time spent in the process
 
+        prefetchCvterms(connection);
+        Map<Integer, String> officialNames = getOfficialNames(connection);
+
         ResultSet res = getAppliedData(connection);
         int count = 0;
         while (res.next()) {
@@ -1751,11 +2107,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             String url = res.getString("url");
 
             // check if this datum has an official name:
-            ResultSet oName = getOfficialName(connection, dataId);
-            String officialName = null;
-            while (oName.next()) {
-                officialName = oName.getString(1);
-            }
+            String officialName = officialNames.get(dataId);
 
             // if there is one, use it instead of the value
             String datumType = getCvterm(connection, typeId);
@@ -1797,6 +2149,8 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         }
         LOG.info("created " + count + " SubmissionData");
         res.close();
+        LOG.info("cvterm lookups: " + cvtermHits + " from cache, " + cvtermMisses
+                + " queried one at a time");
         LOG.info("PROCESS TIME submission data: " + (System.currentTimeMillis() - bT) + " ms");
     }
 
@@ -1832,24 +2186,94 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
     }
 
     /**
-     * Return the rows needed for data from the applied_protocol_data table.
+     * Look up the official names of the data of the live submissions, with one query for each
+     * ChadoDBConverter.getLookupBatchSize() data ids.
+     * @param connection the db connection
+     * @return a map from data id to official name
+     * @throws SQLException if a database problem occurs
+     */
+    private Map<Integer, String> getOfficialNames(Connection connection) throws SQLException {
+        long bT = System.currentTimeMillis();
+        List<Integer> dataIds = new ArrayList<Integer>();
+        for (Map.Entry<Integer, Integer> entry : dataSubmissionMap.entrySet()) {
+            if (!deletedSubMap.containsKey(entry.getValue())) {
+                dataIds.add(entry.getKey());
+            }
+        }
+        Collections.sort(dataIds);
+
+        Map<Integer, String> officialNames = new HashMap<Integer, String>();
+        int batchSize = getChadoDBConverter().getLookupBatchSize();
+        int queryCount = 0;
+        for (int start = 0; start < dataIds.size(); start += batchSize) {
+            List<Integer> batch =
+                dataIds.subList(start, Math.min(start + batchSize, dataIds.size()));
+            ResultSet res = getOfficialNamesResultSet(connection, batch);
+            while (res.next()) {
+                officialNames.put(new Integer(res.getInt("data_id")), res.getString("value"));
+            }
+            res.close();
+            queryCount++;
+        }
+        LOG.info("found " + officialNames.size() + " official names for " + dataIds.size()
+                + " data with " + queryCount + " queries in "
+                + (System.currentTimeMillis() - bT) + " ms");
+        return officialNames;
+    }
+
+    /**
+     * Return the official names of some data, as columns data_id and value.
+     * This is a protected method so that it can be overridden for testing
      *
      * @param connection the db connection
-     * @param dataId the dataId
+     * @param dataIds the data ids
      * @return the SQL result set
      * @throws SQLException if a database problem occurs
      */
-    protected ResultSet getOfficialName(Connection connection, Integer dataId)
+    protected ResultSet getOfficialNamesResultSet(Connection connection, List<Integer> dataIds)
         throws SQLException {
         String query =
-                "SELECT a.value "
+                "SELECT da.data_id, a.value "
                         + " from attribute a, data_attribute da "
                         + " where a.attribute_id=da.attribute_id "
-                        + " and da.data_id=" + dataId
+                        + " and da.data_id IN (" + StringUtil.join(dataIds, ",") + ")"
                         + " and a.heading='official name'";
         return doQuery(connection, query);
     }
 
+    /**
+     * Fill cvtermCache with the names of the types of all data, in one query.
+     * @param connection the db connection
+     * @throws SQLException if a database problem occurs
+     */
+    private void prefetchCvterms(Connection connection) throws SQLException {
+        ResultSet res = getDataTypeCvtermsResultSet(connection);
+        int count = 0;
+        while (res.next()) {
+            cvtermCache.put(String.valueOf(res.getInt("cvterm_id")), res.getString("name"));
+            count++;
+        }
+        res.close();
+        LOG.info("prefetched " + count + " cvterms for the types of data");
+    }
+
+    /**
+     * Return the cvterms used as the type of any data, as columns cvterm_id and name.
+     * This is a protected method so that it can be overridden for testing
+     *
+     * @param connection the db connection
+     * @return the SQL result set
+     * @throws SQLException if a database problem occurs
+     */
+    protected ResultSet getDataTypeCvtermsResultSet(Connection connection)
+        throws SQLException {
+        String query =
+                "SELECT c.cvterm_id, c.name"
+                        + " FROM cvterm c"
+                        + " WHERE c.cvterm_id IN (SELECT DISTINCT d.type_id FROM data d)";
+        return doQuery(connection, query, "getDataTypeCvterms");
+    }
+
     /**
      * Fetch a cvterm by id and cache results in cvtermCache.  Returns null if the cv terms isn't
      * found.
@@ -1859,19 +2283,27 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
      * @throws SQLException if database access problem
      */
     private String getCvterm(Connection connection, String cvtermId) throws SQLException {
-        String cvTerm = cvtermCache.get(cvtermId);
-        if (cvTerm == null) {
-            String query =
-                    "SELECT c.name "
-                            + " from cvterm c"
-                            + " where c.cvterm_id=" + cvtermId;
-            Statement stmt = connection.createStatement();
-            ResultSet res = stmt.executeQuery(query);
-            while (res.next()) {
-                cvTerm = res.getString("name");
-            }
-            cvtermCache.put(cvtermId, cvTerm);
+        if (cvtermId == null) {
+            return null;
         }
+        if (cvtermCache.containsKey(cvtermId)) {
+            cvtermHits++;
+            return cvtermCache.get(cvtermId);
+        }
+        cvtermMisses++;
+        String cvTerm = null;
+        String query =
+                "SELECT c.name "
+                        + " from cvterm c"
+                        + " where c.cvterm_id=" + cvtermId;
+        Statement stmt = connection.createStatement();
+        ResultSet res = stmt.executeQuery(query);
+        while (res.next()) {
+            cvTerm = res.getString("name");
+        }
+        res.close();
+        // remember terms that aren't found too
+        cvtermCache.put(cvtermId, cvTerm);
         return cvTerm;
     }
 
@@ -0,0 +1,176 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.xml.full.Attribute;
+import org.intermine.xml.full.Reference;
+import org.intermine.xml.full.ReferenceList;
+
+/**
+ * A buffer of attribute, reference and collection updates to Items that have already been
+ * stored, keyed by intermine object id.  A later update of an attribute or reference of an
+ * object replaces an earlier one that hasn't been flushed yet, as it would in the ItemWriter, so
+ * repeated updates (eg. the length attribute set from each location of a feature) cost one
+ * store() call.  Later updates of a collection are merged into the earlier one, so that no
+ * element of either is lost.
+ * The updates are written in one batch by flush().  Not thread safe - each thread that stores
+ * updates needs its own PendingUpdates, see ChadoProcessor.startPendingUpdates().
+ */
+class PendingUpdates
+{
+    // map from intermine object id to a map from field name to Attribute, Reference or
+    // ReferenceList
+    private final Map<Integer, Map<String, Object>> updates =
+        new LinkedHashMap<Integer, Map<String, Object>>();
+    private int size = 0;
+
+    private long updateCount = 0;
+    private long coalescedCount = 0;
+    private long flushCount = 0;
+    private long flushNanos = 0;
+
+    /**
+     * Add an attribute update.
+     * @param attribute the Attribute
+     * @param intermineObjectId the id of the object to update
+     */
+    void add(Attribute attribute, Integer intermineObjectId) {
+        addUpdate(intermineObjectId, attribute.getName(), attribute);
+    }
+
+    /**
+     * Add a reference update.
+     * @param reference the Reference
+     * @param intermineObjectId the id of the object to update
+     */
+    void add(Reference reference, Integer intermineObjectId) {
+        addUpdate(intermineObjectId, reference.getName(), reference);
+    }
+
+    /**
+     * Add a collection update.
+     * @param referenceList the ReferenceList
+     * @param intermineObjectId the id of the object to update
+     */
+    void add(ReferenceList referenceList, Integer intermineObjectId) {
+        addUpdate(intermineObjectId, referenceList.getName(), referenceList);
+    }
+
+    private void addUpdate(Integer intermineObjectId, String fieldName, Object update) {
+        updateCount++;
+        Map<String, Object> objectUpdates = updates.get(intermineObjectId);
+        if (objectUpdates == null) {
+            objectUpdates = new HashMap<String, Object>(4);
+            updates.put(intermineObjectId, objectUpdates);
+        }
+        Object earlierUpdate = objectUpdates.get(fieldName);
+        if (earlierUpdate == null) {
+            objectUpdates.put(fieldName, update);
+            size++;
+        } else {
+            if (update instanceof ReferenceList && earlierUpdate instanceof ReferenceList) {
+                objectUpdates.put(fieldName,
+                        merge((ReferenceList) earlierUpdate, (ReferenceList) update));
+            } else {
+                objectUpdates.put(fieldName, update);
+            }
+            coalescedCount++;
+        }
+    }
+
+    // return a new ReferenceList with the elements of both lists, in order and without
+    // repeats - the lists themselves may still be in use by the caller
+    private static ReferenceList merge(ReferenceList earlier, ReferenceList later) {
+        Set<String> refIds = new LinkedHashSet<String>(earlier.getRefIds());
+        refIds.addAll(later.getRefIds());
+        return new ReferenceList(earlier.getName(), new ArrayList<String>(refIds));
+    }
+
+    /**
+     * Return the number of updates waiting to be flushed.
+     * @return the number of updates
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Store all the pending updates using the converter.  The converter is locked while storing
+     * so that other threads don't interleave their stores with the batch.
+     * @param converter the converter to store with
+     * @throws ObjectStoreException if there is a problem while storing
+     */
+    void flush(ChadoDBConverter converter) throws ObjectStoreException {
+        if (size == 0) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        synchronized (converter) {
+            for (Map.Entry<Integer, Map<String, Object>> entry: updates.entrySet()) {
+                Integer intermineObjectId = entry.getKey();
+                for (Object update: entry.getValue().values()) {
+                    if (update instanceof Attribute) {
+                        converter.store((Attribute) update, intermineObjectId);
+                    } else if (update instanceof Reference) {
+                        converter.store((Reference) update, intermineObjectId);
+                    } else {
+                        converter.store((ReferenceList) update, intermineObjectId);
+                    }
+                }
+            }
+        }
+        updates.clear();
+        size = 0;
+        flushCount++;
+        flushNanos += System.nanoTime() - startTime;
+    }
+
+    /**
+     * Return the number of updates added.
+     * @return the count
+     */
+    long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Return the number of updates that replaced or were merged into an earlier update of the
+     * same field and so saved a store() call.
+     * @return the count
+     */
+    long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Return the number of times flush() has stored a batch.
+     * @return the count
+     */
+    long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Return the total time spent storing batches.
+     * @return the time in nanoseconds
+     */
+    long getFlushNanos() {
+        return flushNanos;
+    }
+}
@@ -0,0 +1,276 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the processors of a ChadoDBConverter, starting each one as soon as the processors it
+ * depends on (see ChadoProcessor.getDependencies()) have finished.  With one thread the
+ * processors run in list order on the converter's connection, as they always have.  With more,
+ * independent processors run at the same time, each on a new connection.  When all processors
+ * have finished the time each took and the critical path - the longest chain of dependent
+ * processors, which no number of threads can make faster - are logged and added to the
+ * LoadProfile.
+ */
+class ProcessorScheduler
+{
+    private static final Logger LOG = Logger.getLogger(ProcessorScheduler.class);
+
+    private final ChadoDBConverter converter;
+    private final int threads;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private long startNanos;
+
+    /**
+     * A processor and the earlier processors it waits for.
+     */
+    private static class Node
+    {
+        private final ChadoProcessor processor;
+        private final String name;
+        private final List<Node> dependencies = new ArrayList<Node>();
+        private int unfinishedDependencies;
+        private long startNanos = -1;
+        private long finishNanos = -1;
+        // the longest chain of dependencies ending with this node, see getCriticalPathEnd()
+        private long pathNanos;
+        private Node pathPredecessor;
+
+        Node(ChadoProcessor processor) {
+            this.processor = processor;
+            name = processor.getClass().getSimpleName();
+        }
+
+        long getNanos() {
+            return finishNanos < 0 ? 0 : finishNanos - startNanos;
+        }
+    }
+
+    /**
+     * Create a new ProcessorScheduler.
+     * @param converter the converter to store the completed processors in
+     * @param threads the number of processors that may run at once
+     */
+    ProcessorScheduler(ChadoDBConverter converter, int threads) {
+        this.converter = converter;
+        this.threads = threads;
+    }
+
+    /**
+     * Add the next processor from the processors list.  Its dependencies must already have been
+     * added.
+     * @param processor the processor
+     */
+    void add(ChadoProcessor processor) {
+        Node node = new Node(processor);
+        List<Class<? extends ChadoProcessor>> dependencyClasses = processor.getDependencies();
+        for (Node earlier: nodes) {
+            if (dependencyClasses == null || isInstance(earlier.processor, dependencyClasses)) {
+                node.dependencies.add(earlier);
+            }
+        }
+        node.unfinishedDependencies = node.dependencies.size();
+        nodes.add(node);
+    }
+
+    private static boolean isInstance(ChadoProcessor processor,
+            List<Class<? extends ChadoProcessor>> classes) {
+        for (Class<? extends ChadoProcessor> cls: classes) {
+            if (cls.isInstance(processor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the names of the processors each processor waits for, for logging and testing.
+     * @param index the position of the processor in the processors list
+     * @return the simple class names of the dependencies
+     */
+    List<String> getDependencyNames(int index) {
+        List<String> names = new ArrayList<String>();
+        for (Node dependency: nodes.get(index).dependencies) {
+            names.add(dependency.name);
+        }
+        return names;
+    }
+
+    /**
+     * Run all the processors.
+     * @param connection the connection to use when there is only one thread
+     * @throws Exception if a processor fails, in which case the processors that are running are
+     * interrupted and waited for and no more are started
+     */
+    void run(Connection connection) throws Exception {
+        startNanos = System.nanoTime();
+        if (threads == 1 || nodes.size() < 2) {
+            for (Node node: nodes) {
+                runProcessor(node, connection);
+            }
+        } else {
+            runInParallel();
+        }
+        report();
+    }
+
+    private void runProcessor(Node node, Connection connection) throws Exception {
+        LoadProfile profile = converter.getLoadProfile();
+        node.startNanos = System.nanoTime();
+        LoadProfile.PassRun run = profile.startPass(node.name);
+        boolean failed = true;
+        try {
+            node.processor.process(connection);
+            failed = false;
+        } finally {
+            profile.finishPass(run, failed);
+            node.finishNanos = System.nanoTime();
+        }
+        synchronized (converter.getCompletedProcessors()) {
+            converter.getCompletedProcessors().add(node.processor);
+        }
+    }
+
+    private void runInParallel() throws Exception {
+        int poolSize = Math.min(threads, nodes.size());
+        LOG.info("running " + nodes.size() + " processors using up to " + poolSize + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        CompletionService<Node> completionService = new ExecutorCompletionService<Node>(executor);
+        try {
+            int submitted = 0;
+            for (Node node: nodes) {
+                if (node.unfinishedDependencies == 0) {
+                    submit(completionService, node);
+                    submitted++;
+                }
+            }
+            int finished = 0;
+            while (finished < submitted) {
+                Node done;
+                try {
+                    done = completionService.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw new RuntimeException("processor failed", cause);
+                }
+                finished++;
+                for (Node node: nodes) {
+                    if (node.dependencies.contains(done) && --node.unfinishedDependencies == 0) {
+                        submit(completionService, node);
+                        submitted++;
+                    }
+                }
+            }
+        } finally {
+            shutDown(executor);
+        }
+    }
+
+    /**
+     * Interrupt the tasks of an executor and wait for them to stop, so that when a task has
+     * failed none of the others are still using their connections or the converter when the
+     * failure is reported.
+     * @param executor the executor
+     */
+    static void shutDown(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info("waiting for running tasks to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(CompletionService<Node> completionService, final Node node) {
+        LOG.info("starting " + node.name);
+        completionService.submit(new Callable<Node>() {
+            public Node call() throws Exception {
+                Connection processorConnection = converter.getNewConnection();
+                try {
+                    runProcessor(node, processorConnection);
+                } finally {
+                    if (processorConnection != null) {
+                        processorConnection.close();
+                    }
+                }
+                return node;
+            }
+        });
+    }
+
+    /**
+     * Return the processors on the critical path: the chain of processors, each depending on
+     * the one before, that took longest in total.  However many threads are used, the processors
+     * can't finish in less time than this chain takes.
+     * @return the processors on the critical path, in order
+     */
+    List<String> getCriticalPath() {
+        List<String> path = new ArrayList<String>();
+        for (Node node = getCriticalPathEnd(); node != null; node = node.pathPredecessor) {
+            path.add(node.name);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    // set pathNanos and pathPredecessor of every node and return the end of the longest chain,
+    // preferring later processors when times are equal
+    private Node getCriticalPathEnd() {
+        Node end = null;
+        // the dependencies of a node come before it in the list
+        for (Node node: nodes) {
+            node.pathPredecessor = null;
+            long longestDependencyPath = 0;
+            for (Node dependency: node.dependencies) {
+                if (dependency.pathNanos >= longestDependencyPath) {
+                    node.pathPredecessor = dependency;
+                    longestDependencyPath = dependency.pathNanos;
+                }
+            }
+            node.pathNanos = longestDependencyPath + node.getNanos();
+            if (end == null || node.pathNanos >= end.pathNanos) {
+                end = node;
+            }
+        }
+        return end;
+    }
+
+    private void report() {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+        for (Node node: nodes) {
+            LOG.info(node.name + " took " + node.getNanos() / 1000000 + "ms, started after "
+                    + (node.startNanos - startNanos) / 1000000 + "ms");
+        }
+        List<String> path = getCriticalPath();
+        long pathMillis = getCriticalPathEnd().pathNanos / 1000000;
+        LOG.info("critical path: " + path + ", " + pathMillis + "ms of the " + elapsedMillis
+                + "ms taken by all processors");
+        converter.getLoadProfile().setCriticalPath(path, pathMillis);
+    }
+}
@@ -0,0 +1,90 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The rows of a JDBC ResultSet.  The JDBC index of each column is found once, when the
+ * ResultSetRows is made, and values are then read by index as primitives so that decoding a row
+ * doesn't look up labels or create Integer objects.
+ */
+class ResultSetRows extends ChadoRows
+{
+    private final ResultSet res;
+    private final int[] indexes;
+
+    /**
+     * Create a new ResultSetRows.
+     * @param res the results
+     * @param columnNames the labels of the columns to read
+     * @throws SQLException if the results don't have a column with one of the labels
+     */
+    ResultSetRows(ResultSet res, String... columnNames) throws SQLException {
+        super(columnNames);
+        this.res = res;
+        indexes = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            indexes[i] = res.findColumn(columnNames[i]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    boolean next() throws SQLException {
+        return res.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    int getInt(int column) throws SQLException {
+        return res.getInt(indexes[column]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    int getInt(int column, int nullValue) throws SQLException {
+        int value = res.getInt(indexes[column]);
+        // JDBC returns 0 for NULL so wasNull() only needs asking about a 0
+        return value == 0 && res.wasNull() ? nullValue : value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    String getString(int column) throws SQLException {
+        return res.getString(indexes[column]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    boolean getBoolean(int column) throws SQLException {
+        return res.getBoolean(indexes[column]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void close() throws SQLException {
+        res.close();
+    }
+}
@@ -0,0 +1,337 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The rows of the feature_relationship table with subject and object swapped, read back sorted
+ * by the new feature1 without changing the order of rows with the same feature1.  A row is held
+ * as a sort key - feature1 and the position of the row - and three ints, the relation type being
+ * interned.  If a spill directory is given, the rows are sorted and written to a run file
+ * whenever more than spillSize are held, and the runs are merged when the rows are read back, so
+ * memory use is bounded by spillSize.  Not thread safe.
+ */
+class ReverseRelations
+{
+    private static final Logger LOG = Logger.getLogger(ReverseRelations.class);
+
+    private final int spillSize;
+    private final File spillDirectory;
+    private final List<String> typeNames = new ArrayList<String>();
+    private final Map<String, Integer> typeOrdinalMap = new HashMap<String, Integer>();
+    private final List<File> runFiles = new ArrayList<File>();
+    private long[] sortKeys = new long[1024];
+    private int[] relationshipIds = new int[1024];
+    private int[] feature2Ids = new int[1024];
+    private int[] typeOrdinals = new int[1024];
+    private int[] order = null;
+    private int size = 0;
+    private int rowCount = 0;
+
+    private PriorityQueue<Run> queue = null;
+    private Run currentRun = null;
+
+    /**
+     * Create a new ReverseRelations.
+     * @param spillSize the number of rows to hold in memory before writing a run file
+     * @param spillDirectory the directory for the run files, or null to keep all rows in memory
+     */
+    ReverseRelations(int spillSize, File spillDirectory) {
+        this.spillSize = spillSize;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Add a row.  All rows must be added before next() is first called.
+     * @param relationshipId the feature_relationship_id
+     * @param feature1Id the new feature1 - the object_id of the relation
+     * @param feature2Id the new feature2 - the subject_id of the relation
+     * @param typeName the name of the relation type
+     * @throws IOException if a run file can't be written
+     */
+    void add(int relationshipId, int feature1Id, int feature2Id, String typeName)
+        throws IOException {
+        if (size == sortKeys.length) {
+            int newLength = size * 2;
+            sortKeys = Arrays.copyOf(sortKeys, newLength);
+            relationshipIds = Arrays.copyOf(relationshipIds, newLength);
+            feature2Ids = Arrays.copyOf(feature2Ids, newLength);
+            typeOrdinals = Arrays.copyOf(typeOrdinals, newLength);
+        }
+        Integer typeOrdinal = typeOrdinalMap.get(typeName);
+        if (typeOrdinal == null) {
+            typeOrdinal = new Integer(typeNames.size());
+            typeNames.add(typeName);
+            typeOrdinalMap.put(typeName, typeOrdinal);
+        }
+        // feature_ids are positive, so sorting by feature1 then by row count keeps rows for the
+        // same feature1 in the order they were added, across run files too
+        sortKeys[size] = ((long) feature1Id << 32) | (rowCount & 0xffffffffL);
+        relationshipIds[size] = relationshipId;
+        feature2Ids[size] = feature2Id;
+        typeOrdinals[size] = typeOrdinal.intValue();
+        size++;
+        rowCount++;
+        if (spillDirectory != null && size > spillSize) {
+            spill();
+        }
+    }
+
+    // sort the rows held in memory, leaving the index of each row in key order in order[]
+    private void sortRows() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            // the low half of a key is only needed to keep the order, so replace it by the index
+            keys[i] = (sortKeys[i] & 0xffffffff00000000L) | i;
+        }
+        Arrays.sort(keys);
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) keys[i];
+        }
+    }
+
+    private void spill() throws IOException {
+        sortRows();
+        File runFile = File.createTempFile("reverse_relations", ".run", spillDirectory);
+        runFile.deleteOnExit();
+        runFiles.add(runFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(runFile), 65536));
+        try {
+            for (int i = 0; i < size; i++) {
+                int row = order[i];
+                out.writeLong(sortKeys[row]);
+                out.writeInt(relationshipIds[row]);
+                out.writeInt(feature2Ids[row]);
+                out.writeInt(typeOrdinals[row]);
+            }
+        } finally {
+            out.close();
+        }
+        LOG.info("wrote " + size + " reverse relations to " + runFile);
+        size = 0;
+        order = null;
+        if (sortKeys.length > spillSize * 2) {
+            sortKeys = new long[Math.max(1024, spillSize)];
+            relationshipIds = new int[sortKeys.length];
+            feature2Ids = new int[sortKeys.length];
+            typeOrdinals = new int[sortKeys.length];
+        }
+    }
+
+    /**
+     * Return the number of rows added.
+     * @return the count
+     */
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Return the number of run files written.
+     * @return the count
+     */
+    int getRunCount() {
+        return runFiles.size();
+    }
+
+    /**
+     * Move to the next row in feature1 order, merging the run files with the rows held in
+     * memory.  When there are no more rows the run files are deleted.
+     * @return false if there are no more rows
+     * @throws IOException if a run file can't be read
+     */
+    boolean next() throws IOException {
+        if (queue == null) {
+            sortRows();
+            queue = new PriorityQueue<Run>();
+            addRun(new MemoryRun());
+            for (File runFile: runFiles) {
+                addRun(new FileRun(runFile));
+            }
+        } else if (currentRun != null) {
+            addRun(currentRun);
+        }
+        currentRun = queue.poll();
+        if (currentRun == null) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    private void addRun(Run run) throws IOException {
+        boolean added = false;
+        try {
+            if (run.advance()) {
+                queue.add(run);
+                added = true;
+            }
+        } finally {
+            if (!added) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * Return the feature_relationship_id of the current row.
+     * @return the id
+     */
+    int getRelationshipId() {
+        return currentRun.relationshipId;
+    }
+
+    /**
+     * Return the feature1 - the object_id of the relation - of the current row.
+     * @return the feature_id
+     */
+    int getFeature1Id() {
+        return (int) (currentRun.sortKey >>> 32);
+    }
+
+    /**
+     * Return the feature2 - the subject_id of the relation - of the current row.
+     * @return the feature_id
+     */
+    int getFeature2Id() {
+        return currentRun.feature2Id;
+    }
+
+    /**
+     * Return the relation type name of the current row.
+     * @return the name
+     */
+    String getTypeName() {
+        return typeNames.get(currentRun.typeOrdinal);
+    }
+
+    /**
+     * Close any open run files, delete them and free the rows held in memory.  Called by next()
+     * when all rows have been read and should be called if reading stops early.
+     */
+    void close() {
+        if (queue != null) {
+            for (Run run: queue) {
+                run.close();
+            }
+            queue.clear();
+        }
+        if (currentRun != null) {
+            currentRun.close();
+            currentRun = null;
+        }
+        for (File runFile: runFiles) {
+            runFile.delete();
+        }
+        runFiles.clear();
+        sortKeys = new long[0];
+        relationshipIds = new int[0];
+        feature2Ids = new int[0];
+        typeOrdinals = new int[0];
+        order = null;
+        size = 0;
+    }
+
+    /**
+     * A sorted sequence of rows, ordered by the sort key of the current row.
+     */
+    private abstract static class Run implements Comparable<Run>
+    {
+        long sortKey;
+        int relationshipId;
+        int feature2Id;
+        int typeOrdinal;
+
+        abstract boolean advance() throws IOException;
+
+        void close() {
+            // nothing to close by default
+        }
+
+        public int compareTo(Run other) {
+            return sortKey < other.sortKey ? -1 : (sortKey == other.sortKey ? 0 : 1);
+        }
+    }
+
+    /**
+     * The sorted rows held in memory.
+     */
+    private class MemoryRun extends Run
+    {
+        private int pos = 0;
+
+        @Override
+        boolean advance() {
+            if (pos == size) {
+                return false;
+            }
+            int row = order[pos++];
+            sortKey = sortKeys[row];
+            relationshipId = relationshipIds[row];
+            feature2Id = feature2Ids[row];
+            typeOrdinal = typeOrdinals[row];
+            return true;
+        }
+    }
+
+    /**
+     * The rows of a run file.
+     */
+    private static class FileRun extends Run
+    {
+        private final DataInputStream in;
+
+        FileRun(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                sortKey = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            relationshipId = in.readInt();
+            feature2Id = in.readInt();
+            typeOrdinal = in.readInt();
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOG.warn("failed to close reverse relations run", e);
+            }
+        }
+    }
+}
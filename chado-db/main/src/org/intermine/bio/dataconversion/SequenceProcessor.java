@@ -10,12 +10,16 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -23,7 +27,15 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.collections.map.MultiKeyMap;
@@ -40,6 +52,7 @@ import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.model.bio.SequenceFeature;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.IntPresentSet;
 import org.intermine.util.StringUtil;
 import org.intermine.util.TypeUtil;
 import org.intermine.xml.full.Item;
@@ -57,11 +70,18 @@ public class SequenceProcessor extends ChadoProcessor
     // name for temporary tables
     private static int tempTableCount = 0;
 
+    // added to the names of the tables made in parallel mode so that runs sharing a database
+    // don't use each other's tables, see getTempTableName()
+    private static final String RUN_ID = UUID.randomUUID().toString().substring(0, 8);
+
     private static final Logger LOG = Logger.getLogger(SequenceProcessor.class);
 
     // a map from chado feature id to FeatureData objects, populated by processFeatureTable()
     // and used to get object types, Item IDs etc. (see FeatureData)
-    protected Map<Integer, FeatureData> featureMap = new HashMap<Integer, FeatureData>();
+    private FeatureDataMap featureMap;
+
+    // the indexed configuration of each organism, see getConfigIndex()
+    private volatile ConfigIndex[] configIndexes = new ConfigIndex[0];
 
     // we don't configure anything by default, so the process methods do their default actions
     private static final MultiKeyMap DEFAULT_CONFIG = new MultiKeyMap();
@@ -76,6 +96,22 @@ public class SequenceProcessor extends ChadoProcessor
     // the name of the temporary table we create from the feature table to speed up processing
     private String tempFeatureTableName = null;
 
+    // tables made by getCreateTempTableSql() in parallel mode, dropped by finishedProcessing()
+    // or, if processing fails, by process()
+    private final List<String> parallelTables = new ArrayList<String>();
+
+    // in an incremental load, the name of the table of feature_ids of new or changed features,
+    // null if all features are being loaded - see prepareIncrementalLoad()
+    private String changedFeatureTableName = null;
+
+    // in an incremental load, the feature_ids of new or changed features, null if all features
+    // are being loaded - see isChangedFeature()
+    private IntPresentSet changedFeatureIds = null;
+
+    // the manifest to write when the conversion has finished, null if there is no manifest
+    // file - see writePendingManifest()
+    private FeatureManifest newManifest = null;
+
     // a list of the possible names for the part_of relation
     private static final List<String> PARTOF_RELATIONS = Arrays.asList("partof", "part_of");
 
@@ -91,9 +127,45 @@ public class SequenceProcessor extends ChadoProcessor
     private static final List<String> DEFAULT_CHROMOSOME_FEATURES =
             Arrays.asList("chromosome", "chromosome_arm", "ultra_scaffold", "golden_path_region");
 
+    // the number of characters to read in one query when reading residues lazily
+    private static final int RESIDUES_CHUNK_SIZE = 1000000;
+
+    // the number of reversed feature_relationship rows held in memory before they are written
+    // to a run file, if there is a spill directory
+    private static final int REVERSE_RELATIONS_SPILL_SIZE = 1 << 22;
+
     // Avoid explosion of log messages by only logging missing collections once
     private Set<String> loggedMissingCols = new HashSet<String>();
 
+    // model information for each InterMine type, see getFeatureTypeInfo() - read without locking
+    // by the passes of every pipeline
+    private final ConcurrentHashMap<String, FeatureTypeInfo> featureTypeInfoMap =
+            new ConcurrentHashMap<String, FeatureTypeInfo>();
+
+    /**
+     * Information from the model about one InterMine type, looked up once per type rather than
+     * once per row.
+     */
+    private static class FeatureTypeInfo
+    {
+        private final ClassDescriptor cd;
+        private final boolean hasChromosome;
+        private final boolean hasChromosomeLocation;
+        // null until needed by processLocationTable()
+        private volatile Boolean isSequenceFeature = null;
+        // map from object type to the references/collections found by
+        // getReferenceForRelationship(), shared by the passes reading both relation directions
+        private final Map<String, List<FieldDescriptor>> relationshipFields =
+                new ConcurrentHashMap<String, List<FieldDescriptor>>();
+
+        FeatureTypeInfo(ClassDescriptor cd) {
+            this.cd = cd;
+            hasChromosome = cd != null && cd.getFieldDescriptorByName("chromosome") != null;
+            hasChromosomeLocation =
+                    cd != null && cd.getFieldDescriptorByName("chromosomeLocation") != null;
+        }
+    }
+
     /**
      * An action that makes a synonym.
      */
@@ -109,6 +181,31 @@ public class SequenceProcessor extends ChadoProcessor
     // unique
     private static final String TEMP_FEATURE_TABLE_NAME_PREFIX = "intermine_chado_features_temp";
 
+    // the columns of the queries read by processDbxrefTable(), processFeaturePropTable() and
+    // processSynonymTable()
+    private static final String[] DBXREF_COLUMNS = {
+        "feature_id", "accession", "db_name", "is_current"
+    };
+    private static final String[] FEATUREPROP_COLUMNS = {"feature_id", "value", "type_name"};
+    private static final String[] SYNONYM_COLUMNS = {
+        "feature_id", "synonym_name", "type_name", "is_current"
+    };
+    // the columns read by processFeatureTable(), processLocationTable() and
+    // processRelationTable(), which are found once per query and then read by index
+    private static final String[] FEATURE_COLUMNS = {
+        "feature_id", "name", "uniquename", "type", "seqlen", "md5checksum", "organism_id"
+    };
+    private static final String[] FEATURE_RESIDUES_COLUMNS = {
+        "feature_id", "name", "uniquename", "type", "seqlen", "md5checksum", "organism_id",
+        "residues"
+    };
+    private static final String[] LOCATION_COLUMNS = {
+        "featureloc_id", "feature_id", "srcfeature_id", "fmin", "fmax", "strand"
+    };
+    private static final String[] RELATIONSHIP_COLUMNS = {
+        "feature_relationship_id", "feature1_id", "feature2_id", "type_name"
+    };
+
     static final String PRIMARY_IDENTIFIER_STRING = "primaryIdentifier";
     static final String SECONDARY_IDENTIFIER_STRING = "secondaryIdentifier";
     static final String SYMBOL_STRING = "symbol";
@@ -123,10 +220,27 @@ public class SequenceProcessor extends ChadoProcessor
      */
     public SequenceProcessor(ChadoDBConverter chadoDBConverter) {
         super(chadoDBConverter);
-        synchronized (this) {
+        // processors may be made by several threads, see ModEncodeMetaDataProcessor
+        synchronized (SequenceProcessor.class) {
             tempTableCount++;
-            tempFeatureTableName  = TEMP_FEATURE_TABLE_NAME_PREFIX + "_" + tempTableCount;
+            tempFeatureTableName =
+                getTempTableName(TEMP_FEATURE_TABLE_NAME_PREFIX + "_" + tempTableCount);
+        }
+        featureMap = createFeatureMap();
+    }
+
+    /**
+     * Make the map that will hold the features of this processor, see
+     * ChadoDBConverter.setFeatureCacheSize().  Called by the constructor.
+     * @return the new featureMap
+     */
+    FeatureDataMap createFeatureMap() {
+        int featureCacheSize = getChadoDBConverter().getFeatureCacheSize();
+        if (featureCacheSize > 0) {
+            return new SpillingFeatureDataMap(featureCacheSize,
+                    getChadoDBConverter().getSpillDirectory());
         }
+        return new FeatureDataMap();
     }
 
     /**
@@ -148,6 +262,33 @@ public class SequenceProcessor extends ChadoProcessor
         return DEFAULT_CONFIG;
     }
 
+    /**
+     * Return the config Map of an organism indexed for looking up keys without making MultiKeys.
+     * The index is made the first time it's needed, so getConfig() must return the same
+     * configuration each time it is called for an organism.
+     * @param taxonId return the configuration for this organism
+     * @return the index
+     */
+    protected ConfigIndex getConfigIndex(int taxonId) {
+        for (ConfigIndex index: configIndexes) {
+            if (index.getTaxonId() == taxonId) {
+                return index;
+            }
+        }
+        synchronized (this) {
+            for (ConfigIndex index: configIndexes) {
+                if (index.getTaxonId() == taxonId) {
+                    return index;
+                }
+            }
+            ConfigIndex index = new ConfigIndex(taxonId, getConfig(taxonId));
+            ConfigIndex[] newIndexes = Arrays.copyOf(configIndexes, configIndexes.length + 1);
+            newIndexes[configIndexes.length] = index;
+            configIndexes = newIndexes;
+            return index;
+        }
+    }
+
     /**
      * {@inheritDoc}
      * We process the chado database by reading each table in turn (feature, pub, featureloc, etc.)
@@ -155,37 +296,308 @@ public class SequenceProcessor extends ChadoProcessor
      */
     @Override
     public void process(Connection connection) throws Exception {
+        // if a fetch size is configured, read all results through cursors in one transaction
+        boolean streaming = startStreaming(connection);
+        boolean finished = false;
+        try {
+            processTables(connection);
+            finishStreaming(connection, streaming);
+            finished = true;
+        } finally {
+            if (!finished) {
+                abortStreaming(connection, streaming);
+                dropParallelTables(connection);
+            }
+        }
+        logHeapHighWaterMark("process()");
+        logPendingUpdateStats();
+    }
+
+    /**
+     * Do the work of process(), inside the streaming transaction if there is one.
+     */
+    private void processTables(Connection connection) throws Exception {
         // overridden by subclasses if necessary
         earlyExtraProcessing(connection);
 
         createFeatureTempTable(connection);
 
-        processFeatureTable(connection);
-        processFeatureCVTermTable(connection);
-        processPubTable(connection);
+        prepareIncrementalLoad(connection);
 
-        // process direct locations
-        ResultSet directLocRes = getFeatureLocResultSet(connection);
+        boolean parallel = connection != null && isParallel();
+        if (parallel && !connection.getAutoCommit()) {
+            // the passes below can only see the new tables from their connections once committed
+            connection.commit();
+        }
 
-        // we don't call getFeatureLocResultSet() in the processLocationTable() method because
-        // processLocationTable() is called by subclasses to create locations
-        processLocationTable(connection, directLocRes);
+        new Pass("processFeatureTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                processFeatureTable(passConnection);
+            }
+        }.runTimed(connection);
+        if (getChadoDBConverter().isLazyResidues()) {
+            new Pass("processResidues()") {
+                @Override
+                void run(Connection passConnection) throws Exception {
+                    processResidues(passConnection);
+                }
+            }.runTimed(connection);
+        }
 
-        processRelationTable(connection, true);
-        processRelationTable(connection, false);
-        processDbxrefTable(connection);
-        processSynonymTable(connection);
-        processFeaturePropTable(connection);
+        Pass cvTermPass = new Pass("processFeatureCVTermTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                processFeatureCVTermTable(passConnection);
+            }
+        };
+        Pass pubPass = new Pass("processPubTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                processPubTable(passConnection);
+            }
+        };
+        Pass locationPass = new Pass("processLocationTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                // process direct locations
+                ResultSet directLocRes = getFeatureLocResultSet(passConnection);
+
+                // we don't call getFeatureLocResultSet() in the processLocationTable() method
+                // because processLocationTable() is called by subclasses to create locations
+                processLocationTable(passConnection, directLocRes);
+            }
+        };
+        Pass relationPass = new Pass("processRelationTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                processRelationTable(passConnection);
+            }
+        };
+        Pass dbxrefPass = new Pass("processDbxrefTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                processDbxrefTable(passConnection);
+            }
+        };
+        Pass synonymPass = new Pass("processSynonymTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                processSynonymTable(passConnection);
+            }
+        };
+        Pass featurePropPass = new Pass("processFeaturePropTable()") {
+            @Override
+            void run(Connection passConnection) throws Exception {
+                processFeaturePropTable(passConnection);
+            }
+        };
         /**
           see #2173
           processLibraryFeatureTable(connection);
           processLibraryCVTermTable(connection);
          */
 
-        // overridden by subclasses if necessary
-        extraProcessing(connection, featureMap);
-        // overridden by subclasses if necessary
-        finishedProcessing(connection, featureMap);
+        if (parallel) {
+            // the cvterm, dbxref, synonym and featureprop passes all create synonyms and set
+            // identifier fields, so they run one after another in their usual order
+            List<List<Pass>> pipelines = new ArrayList<List<Pass>>();
+            pipelines.add(Arrays.asList(cvTermPass, dbxrefPass, synonymPass, featurePropPass));
+            pipelines.add(Arrays.asList(locationPass));
+            pipelines.add(Arrays.asList(relationPass));
+            pipelines.add(Arrays.asList(pubPass));
+            processInParallel(pipelines);
+        } else {
+            for (Pass pass: Arrays.asList(cvTermPass, pubPass, locationPass, relationPass,
+                    dbxrefPass, synonymPass, featurePropPass)) {
+                pass.runTimed(connection);
+            }
+        }
+
+        LoadProfile profile = getChadoDBConverter().getLoadProfile();
+        LoadProfile.PassRun profileRun =
+            profile.startPass(getClass().getSimpleName() + ".extraProcessing()");
+        boolean failed = true;
+        try {
+            // overridden by subclasses if necessary
+            extraProcessing(connection, featureMap);
+            // overridden by subclasses if necessary
+            finishedProcessing(connection, featureMap);
+            profile.recordFeatureMapSize(featureMap.size());
+            failed = false;
+        } finally {
+            profile.finishPass(profileRun, failed);
+        }
+    }
+
+    /**
+     * One of the passes over the chado tables made by process().
+     */
+    private abstract class Pass
+    {
+        private final String name;
+
+        Pass(String name) {
+            this.name = name;
+        }
+
+        abstract void run(Connection connection) throws Exception;
+
+        void runTimed(Connection connection) throws Exception {
+            long startTime = System.currentTimeMillis();
+            LoadProfile profile = getChadoDBConverter().getLoadProfile();
+            LoadProfile.PassRun profileRun =
+                profile.startPass(SequenceProcessor.this.getClass().getSimpleName() + "." + name);
+            boolean failed = true;
+            try {
+                startPendingUpdates();
+                run(connection);
+                finishPendingUpdates();
+                profile.recordFeatureMapSize(featureMap.size());
+                failed = false;
+            } finally {
+                profile.finishPass(profileRun, failed);
+            }
+            LOG.info("finished " + name + " in " + (System.currentTimeMillis() - startTime)
+                    + "ms");
+            logHeapHighWaterMark(name);
+        }
+    }
+
+    /**
+     * Run lists of passes at the same time, using at most ChadoDBConverter.getParallelism()
+     * threads.  The passes in each list are run in order on a new connection.
+     * @param pipelines the lists of passes
+     * @throws Exception if any of the passes fail
+     */
+    private void processInParallel(List<List<Pass>> pipelines) throws Exception {
+        int threads = Math.min(getChadoDBConverter().getParallelism(), pipelines.size());
+        LOG.info("running " + pipelines.size() + " pass pipelines using " + threads + " threads");
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (final List<Pass> pipeline: pipelines) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        Connection passConnection = getChadoDBConverter().getNewConnection();
+                        boolean streaming = false;
+                        boolean finished = false;
+                        try {
+                            streaming = startStreaming(passConnection);
+                            for (Pass pass: pipeline) {
+                                pass.runTimed(passConnection);
+                            }
+                            finishStreaming(passConnection, streaming);
+                            finished = true;
+                        } finally {
+                            if (!finished) {
+                                abortStreaming(passConnection, streaming);
+                            }
+                            passConnection.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future: futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw new RuntimeException("pass failed", cause);
+                }
+            }
+        } finally {
+            ProcessorScheduler.shutDown(executor);
+        }
+        LOG.info("finished parallel passes in " + (System.currentTimeMillis() - startTime)
+                + "ms");
+    }
+
+    /**
+     * A SequenceProcessor reads only its own features so it can run alongside other processors.
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Class<? extends ChadoProcessor>> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Return true if this processor can run some of its passes at the same time.  Subclasses
+     * should return false if their queries use TEMPORARY tables made on the main connection,
+     * which other connections can't see, or if their overridden methods aren't thread safe.
+     * @return true if the passes can run in parallel
+     */
+    protected boolean canProcessInParallel() {
+        return true;
+    }
+
+    /**
+     * Return true if the passes of process() will be run in parallel because the converter's
+     * parallelism is more than 1 and canProcessInParallel() returns true.
+     * @return true if the passes will be run in parallel
+     */
+    protected boolean isParallel() {
+        return getChadoDBConverter().getParallelism() > 1 && canProcessInParallel();
+    }
+
+    /**
+     * Return the name to use for a table made with getCreateTempTableSql().  In parallel mode
+     * the table is a normal table that other runs using the same database can see, so a suffix
+     * unique to this run is added to the name.
+     * @param baseName the name of the table
+     * @return the name to create the table with
+     */
+    protected String getTempTableName(String baseName) {
+        if (isParallel()) {
+            return baseName + "_" + RUN_ID;
+        }
+        return baseName;
+    }
+
+    /**
+     * Return the start of an SQL statement that creates a table for use while processing, eg.
+     * "CREATE TEMPORARY TABLE my_table".  In parallel mode the passes use other connections,
+     * which can't see TEMPORARY tables, so a normal table is made instead and dropped by
+     * finishedProcessing().  Its name should come from getTempTableName().
+     * @param connection the connection that will create the table
+     * @param tableName the name of the table
+     * @return the SQL
+     */
+    protected String getCreateTempTableSql(Connection connection, String tableName) {
+        if (!isParallel()) {
+            return "CREATE TEMPORARY TABLE " + tableName;
+        }
+        parallelTables.add(tableName);
+        return "CREATE TABLE " + tableName;
+    }
+
+    /**
+     * Drop the tables made by getCreateTempTableSql() in parallel mode that haven't been dropped
+     * by finishedProcessing().  Called when processing fails, so problems are logged rather than
+     * thrown.
+     */
+    private void dropParallelTables(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        for (String tableName: parallelTables) {
+            String query = "DROP TABLE IF EXISTS " + tableName;
+            try {
+                Statement stmt = connection.createStatement();
+                LOG.info("executing: " + query);
+                stmt.execute(query);
+                stmt.close();
+            } catch (SQLException e) {
+                LOG.error("failed to drop " + tableName, e);
+            }
+        }
+        parallelTables.clear();
     }
 
     /**
@@ -198,22 +610,37 @@ public class SequenceProcessor extends ChadoProcessor
     private void processFeatureTable(Connection connection)
         throws SQLException, ObjectStoreException {
         Set<String> chromosomeFeatureTypesSet = new HashSet<String>(getChromosomeFeatureTypes());
-        ResultSet res = getFeatureTableResultSet(connection);
+        // if residues are read lazily they aren't in the temporary table, see processResidues()
+        boolean lazyResidues = getChadoDBConverter().isLazyResidues();
+        ChadoRows rows = new ResultSetRows(getFeatureTableResultSet(connection),
+                lazyResidues ? FEATURE_COLUMNS : FEATURE_RESIDUES_COLUMNS);
+        int featureIdColumn = rows.findColumn("feature_id");
+        int nameColumn = rows.findColumn("name");
+        int uniqueNameColumn = rows.findColumn("uniquename");
+        int typeColumn = rows.findColumn("type");
+        int seqlenColumn = rows.findColumn("seqlen");
+        int residuesColumn = lazyResidues ? -1 : rows.findColumn("residues");
+        int checksumColumn = rows.findColumn("md5checksum");
+        int organismIdColumn = rows.findColumn("organism_id");
         int count = 0;
-        while (res.next()) {
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            String name = res.getString("name");
-            String uniqueName = res.getString("uniquename");
-            String type = res.getString("type");
-            String residues = res.getString("residues");
-            String checksum = res.getString("md5checksum");
-            Integer organismId = new Integer(res.getInt("organism_id"));
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
+            String name = rows.getString(nameColumn);
+            String uniqueName = rows.getString(uniqueNameColumn);
+            String type = rows.getString(typeColumn);
+            String residues = null;
+            if (!lazyResidues) {
+                residues = rows.getString(residuesColumn);
+            }
+            String checksum = rows.getString(checksumColumn);
+            int organismId = rows.getInt(organismIdColumn);
             if (chromosomeFeatureTypesSet.contains(type)) {
                 addToChromosomeMaps(organismId, uniqueName, featureId);
             }
-            int seqlen = 0;
-            if (res.getObject("seqlen") != null) {
-                seqlen = res.getInt("seqlen");
+            int seqlen = rows.getInt(seqlenColumn, -1);
+            if (seqlen < 0) {
+                // seqlen is NULL, so use the length of the residues if we have them
+                seqlen = residues == null ? 0 : residues.length();
             }
             if (processAndStoreFeature(featureId, uniqueName, name, seqlen, residues,
                     checksum, type, organismId)) {
@@ -221,22 +648,21 @@ public class SequenceProcessor extends ChadoProcessor
             }
         }
         LOG.info("created " + count + " features");
-        res.close();
+        rows.close();
     }
 
 
     /**
      * Add the given chromosome feature_id, uniqueName and organismId to chromosomeMaps.
      */
-    private void addToChromosomeMaps(Integer organismId, String chrUniqueName, Integer chrId) {
-        Map<String, Integer> chromosomeMap;
-        if (chromosomeMaps.containsKey(organismId)) {
-            chromosomeMap = chromosomeMaps.get(organismId);
-        } else {
+    private void addToChromosomeMaps(int organismId, String chrUniqueName, int chrId) {
+        Integer organismKey = Integer.valueOf(organismId);
+        Map<String, Integer> chromosomeMap = chromosomeMaps.get(organismKey);
+        if (chromosomeMap == null) {
             chromosomeMap = new HashMap<String, Integer>();
-            chromosomeMaps.put(organismId, chromosomeMap);
+            chromosomeMaps.put(organismKey, chromosomeMap);
         }
-        chromosomeMap.put(chrUniqueName, chrId);
+        chromosomeMap.put(chrUniqueName, Integer.valueOf(chrId));
     }
 
     /**
@@ -252,35 +678,67 @@ public class SequenceProcessor extends ChadoProcessor
      * @param organismId the chado organism id
      * @throws ObjectStoreException if there is a problem while storing
      */
-    private boolean processAndStoreFeature(Integer featureId, String uniqueName,
+    private boolean processAndStoreFeature(int featureId, String uniqueName,
             String name, int seqlen, String residues,
             String md5checksum, String chadoType,
-            Integer organismId)
+            int organismId)
         throws ObjectStoreException {
 
-        if (featureMap.containsKey(featureId)) {
+        if (featureMap.containsKey(featureId) || !claimFeature(featureId, chadoType)) {
             return false;
         }
 
+        FeatureData fdat = null;
+        try {
+            fdat = makeAndStoreFeature(featureId, uniqueName, name, seqlen, residues, md5checksum,
+                    chadoType, organismId);
+        } finally {
+            releaseFeature(featureId, fdat);
+        }
+        return fdat != null;
+    }
+
+    /**
+     * Do the work of processAndStoreFeature().
+     * @return the FeatureData of the new feature, or null if it wasn't made
+     */
+    private FeatureData makeAndStoreFeature(int featureId, String uniqueName,
+            String name, int seqlen, String residues,
+            String md5checksum, String chadoType,
+            int organismId)
+        throws ObjectStoreException {
         FeatureData fdat =
-                makeFeatureData(featureId.intValue(), chadoType, uniqueName, name, md5checksum,
-                        seqlen, organismId.intValue());
+                makeFeatureData(featureId, chadoType, uniqueName, name, md5checksum, seqlen,
+                        organismId);
 
         if (fdat == null) {
-            return false;
+            return null;
         }
 
         String fixedUniqueName = fixIdentifier(fdat, uniqueName);
 
-        if (seqlen > 0) {
-            setAttributeIfNotSet(fdat, "length", String.valueOf(seqlen));
-        }
         ChadoDBConverter chadoDBConverter = getChadoDBConverter();
 
         String dataSourceName = chadoDBConverter.getDataSourceName();
-        MultiKey nameKey = new MultiKey("feature", fdat.getInterMineType(), dataSourceName, "name");
         OrganismData orgData = fdat.getOrganismData();
-        List<ConfigAction> nameActionList = getConfig(orgData.getTaxonId()).get(nameKey);
+        ConfigIndex orgConfig = getConfigIndex(orgData.getTaxonId());
+        List<ConfigAction> uniqueNameActionList =
+                orgConfig.get("feature", fdat.getInterMineType(), dataSourceName, "uniquename");
+
+        if (!isChangedFeature(featureId)) {
+            // an unchanged feature that new or changed features refer to, see
+            // getFeatureTableResultSet().  Only the fields made from the uniquename are set, so
+            // that the item merges with the object from the last load without storing it again
+            setUniqueNameFields(fdat, uniqueNameActionList, fixedUniqueName);
+            addToFeatureMap(Integer.valueOf(featureId), fdat);
+            return fdat;
+        }
+
+        if (seqlen > 0) {
+            setAttributeIfNotSet(fdat, "length", String.valueOf(seqlen));
+        }
+        List<ConfigAction> nameActionList =
+                orgConfig.get("feature", fdat.getInterMineType(), dataSourceName, "name");
 
         // check interMineType not chadoType - FlyBase subclass converts some Genes to Alleles
         if (fdat.getInterMineType().endsWith("Gene")) {
@@ -316,44 +774,11 @@ public class SequenceProcessor extends ChadoProcessor
             }
         }
 
-        MultiKey uniqueNameKey =
-                new MultiKey("feature", fdat.getInterMineType(), dataSourceName,
-                        "uniquename");
-        List<ConfigAction> uniqueNameActionList =
-                getConfig(fdat.getOrganismData().getTaxonId()).get(uniqueNameKey);
-        if (uniqueNameActionList == null || uniqueNameActionList.size() == 0) {
-            // default: set primaryIdentifier to be the uniquename
-            setAttributeIfNotSet(fdat, "primaryIdentifier", fixedUniqueName);
-            fieldValuesSet.add(fixedUniqueName);
-        } else {
-            // using the configuration, set a field to be the feature name
-            for (ConfigAction action: uniqueNameActionList) {
-                if (action instanceof SetFieldConfigAction) {
-                    SetFieldConfigAction attrAction = (SetFieldConfigAction) action;
-                    if (attrAction.isValidValue(fixedUniqueName)) {
-                        String newFieldValue =
-                                attrAction.processValue(fixedUniqueName);
-                        setAttributeIfNotSet(fdat, attrAction.getFieldName(), newFieldValue);
-                        fieldValuesSet.add(newFieldValue);
-                    }
-                }
-            }
-        }
+        setUniqueNameFields(fdat, uniqueNameActionList, fixedUniqueName);
 
         // set the BioEntity sequence if there is one
-        if (fdat.checkField(SEQUENCE_STRING)
-                && residues != null && residues.length() > 0) {
-            if (!fdat.getFlag(SEQUENCE_STRING)) {
-                Item sequence = getChadoDBConverter().createItem("Sequence");
-                sequence.setAttribute("residues", residues);
-                sequence.setAttribute("length", String.valueOf(seqlen));
-                Reference chrReference = new Reference();
-                chrReference.setName(SEQUENCE_STRING);
-                chrReference.setRefId(sequence.getIdentifier());
-                getChadoDBConverter().store(chrReference, fdat.getIntermineObjectId());
-                getChadoDBConverter().store(sequence);
-                fdat.setFlag(SEQUENCE_STRING, true);
-            }
+        if (residues != null && residues.length() > 0) {
+            storeSequence(fdat, residues, seqlen);
         }
 
         // create a synonym for name, if configured
@@ -364,7 +789,7 @@ public class SequenceProcessor extends ChadoProcessor
                         CreateSynonymAction createSynonymAction = (CreateSynonymAction) action;
                         if (createSynonymAction.isValidValue(fixedName)) {
                             String processedName = createSynonymAction.processValue(fixedName);
-                            if (!fdat.getExistingSynonyms().contains(processedName)) {
+                            if (!fdat.hasExistingSynonym(processedName)) {
                                 Item nameSynonym = createSynonym(fdat, processedName);
                                 if (nameSynonym != null) {
                                     getChadoDBConverter().store(nameSynonym);
@@ -376,11 +801,192 @@ public class SequenceProcessor extends ChadoProcessor
             }
         }
 
-        addToFeatureMap(featureId, fdat);
+        // only the features that are made are boxed
+        addToFeatureMap(Integer.valueOf(featureId), fdat);
+
+        return fdat;
+    }
+
+    /**
+     * Set the fields made from the uniquename of a feature, primaryIdentifier unless the
+     * configuration says otherwise.
+     */
+    private void setUniqueNameFields(FeatureData fdat, List<ConfigAction> uniqueNameActionList,
+            String fixedUniqueName) throws ObjectStoreException {
+        if (uniqueNameActionList == null || uniqueNameActionList.size() == 0) {
+            // default: set primaryIdentifier to be the uniquename
+            setAttributeIfNotSet(fdat, "primaryIdentifier", fixedUniqueName);
+        } else {
+            // using the configuration, set a field to be the feature name
+            for (ConfigAction action: uniqueNameActionList) {
+                if (action instanceof SetFieldConfigAction) {
+                    SetFieldConfigAction attrAction = (SetFieldConfigAction) action;
+                    if (attrAction.isValidValue(fixedUniqueName)) {
+                        String newFieldValue =
+                                attrAction.processValue(fixedUniqueName);
+                        setAttributeIfNotSet(fdat, attrAction.getFieldName(), newFieldValue);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by processFeatureTable() before making a feature that isn't in featureMap.  Return
+     * false if the feature has already been made by another processor, after adding it to
+     * featureMap, so that processors running at the same time can share features.  If this
+     * method returns true, releaseFeature() is called once the feature has been made.
+     * @param featureId the chado feature_id
+     * @param chadoType the chado type of the feature
+     * @return true if this processor should make the feature
+     */
+    protected boolean claimFeature(int featureId, String chadoType) {
+        return true;
+    }
 
+    /**
+     * Called after a feature claimed with claimFeature() has been made and stored, or has been
+     * rejected by makeFeatureData().
+     * @param featureId the chado feature_id
+     * @param fdat the FeatureData of the new feature, or null if it wasn't made
+     */
+    protected void releaseFeature(int featureId, FeatureData fdat) {
+        // nothing to do by default
+    }
+
+    /**
+     * Create and store a Sequence for the given feature and set the sequence reference, unless
+     * the feature can't have a sequence or already has one.
+     */
+    private boolean storeSequence(FeatureData fdat, String residues, int seqlen)
+        throws ObjectStoreException {
+        if (!fdat.checkField(SEQUENCE_STRING) || !fdat.setFlagIfNotSet(SEQUENCE_STRING)) {
+            return false;
+        }
+        Item sequence = getChadoDBConverter().createItem("Sequence");
+        sequence.setAttribute("residues", residues);
+        sequence.setAttribute("length", String.valueOf(seqlen));
+        Reference chrReference = new Reference();
+        chrReference.setName(SEQUENCE_STRING);
+        chrReference.setRefId(sequence.getIdentifier());
+        storeReference(chrReference, fdat.getIntermineObjectId());
+        getChadoDBConverter().store(sequence);
         return true;
     }
 
+    /**
+     * Read the residues of the features that can have a sequence, one feature at a time, and
+     * store the Sequences.  Used instead of reading residues in processFeatureTable() when
+     * residues are read lazily so that only one sequence is held in memory at a time.
+     */
+    private void processResidues(Connection connection)
+        throws SQLException, ObjectStoreException {
+        ChadoRows rows = new ResultSetRows(getResiduesFeatureResultSet(connection), "feature_id",
+                "seqlen");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int seqlenColumn = rows.findColumn("seqlen");
+        checkResiduesStorage(connection);
+        PreparedStatement chunkStmt = getResiduesChunkStatement(connection);
+        int count = 0;
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
+            FeatureData fdat = featureMap.get(featureId);
+            if (fdat == null || !isChangedFeature(featureId) || !fdat.checkField(SEQUENCE_STRING)
+                    || fdat.getFlag(SEQUENCE_STRING)) {
+                continue;
+            }
+            // getResiduesFeatureResultSet() uses the length of the residues if seqlen is NULL
+            int seqlen = rows.getInt(seqlenColumn, -1);
+            String residues = readResidues(chunkStmt, featureId, seqlen);
+            if (residues.length() == 0) {
+                continue;
+            }
+            if (seqlen < 0) {
+                seqlen = residues.length();
+            }
+            if (storeSequence(fdat, residues, seqlen)) {
+                // processFeatureTable() only sets the length if seqlen isn't NULL
+                setAttributeIfNotSet(fdat, LENGTH_STRING, String.valueOf(seqlen));
+                count++;
+            }
+        }
+        chunkStmt.close();
+        LOG.info("created " + count + " sequences");
+        rows.close();
+    }
+
+    /**
+     * Warn if the residues column is stored compressed.  substring() of a compressed value
+     * decompresses it from the start each time, so reading a chromosome in chunks would take time
+     * quadratic in its length.  With "ALTER TABLE feature ALTER COLUMN residues SET STORAGE
+     * EXTERNAL" residues are stored uncompressed and substring() only reads the chunk - the
+     * setting only applies to values written after it is made, so existing residues have to be
+     * rewritten too, eg. with "UPDATE feature SET residues = residues || ''".
+     */
+    private void checkResiduesStorage(Connection connection) {
+        String query = "SELECT attstorage FROM pg_attribute"
+                + " WHERE attrelid = 'feature'::regclass AND attname = 'residues'";
+        try {
+            Statement stmt = createStatement(connection);
+            ResultSet res = stmt.executeQuery(query);
+            if (res.next() && !"e".equals(res.getString(1))) {
+                LOG.warn("feature.residues is stored compressed (storage '" + res.getString(1)
+                        + "') so reading residues in chunks is slow for long sequences - use"
+                        + " ALTER TABLE feature ALTER COLUMN residues SET STORAGE EXTERNAL and"
+                        + " rewrite the residues");
+            }
+            res.close();
+            stmt.close();
+        } catch (SQLException e) {
+            LOG.warn("can't check the storage of feature.residues", e);
+        }
+    }
+
+    /**
+     * Read the residues of one feature in chunks of RESIDUES_CHUNK_SIZE characters so that the
+     * driver never has to buffer a whole chromosome in addition to the result.  The chunks are
+     * copied into one char array of seqlen characters, so while the String is made from it a
+     * long sequence is held twice, plus one chunk.  A sequence that fits in one chunk is returned
+     * without copying it.  Chunked reads are only fast if the residues are stored uncompressed,
+     * see checkResiduesStorage().
+     */
+    private String readResidues(PreparedStatement chunkStmt, int featureId, int seqlen)
+        throws SQLException {
+        char[] residues = null;
+        int length = 0;
+        while (true) {
+            chunkStmt.setInt(1, length + 1);
+            chunkStmt.setInt(2, RESIDUES_CHUNK_SIZE);
+            chunkStmt.setInt(3, featureId);
+            ResultSet chunkRes = chunkStmt.executeQuery();
+            String chunk = null;
+            if (chunkRes.next()) {
+                chunk = chunkRes.getString(1);
+            }
+            chunkRes.close();
+            if (chunk == null || chunk.length() == 0) {
+                break;
+            }
+            if (residues == null) {
+                if (chunk.length() < RESIDUES_CHUNK_SIZE) {
+                    return chunk;
+                }
+                residues = new char[Math.max(seqlen, 2 * RESIDUES_CHUNK_SIZE)];
+            }
+            if (length + chunk.length() > residues.length) {
+                // only if seqlen is less than the length of the residues
+                residues = Arrays.copyOf(residues, Math.max(residues.length * 2,
+                        length + chunk.length()));
+            }
+            chunk.getChars(0, chunk.length(), residues, length);
+            length += chunk.length();
+            if (chunk.length() < RESIDUES_CHUNK_SIZE) {
+                break;
+            }
+        }
+        return residues == null ? "" : new String(residues, 0, length);
+    }
+
     /**
      * to set source field if in the model (modmine)
      * @param imObjectId im object id
@@ -392,7 +998,7 @@ public class SequenceProcessor extends ChadoProcessor
     protected void setGeneSource(Integer imObjectId, String dataSourceName)
         throws ObjectStoreException {
         // for gene in modENCODE
-        ClassDescriptor cd = getModel().getClassDescriptorByName("Gene");
+        ClassDescriptor cd = getFeatureTypeInfo("Gene").cd;
         if (cd.getFieldDescriptorByName("source") != null) {
             // if it is there (e.g. modmine) let's set it
             setAttribute(imObjectId, "source", dataSourceName);
@@ -408,7 +1014,7 @@ public class SequenceProcessor extends ChadoProcessor
     protected void setGeneSource(FeatureData fdat, String dataSourceName)
         throws ObjectStoreException {
         // for gene in modENCODE
-        ClassDescriptor cd = getModel().getClassDescriptorByName("Gene");
+        ClassDescriptor cd = getFeatureTypeInfo("Gene").cd;
         if (cd.getFieldDescriptorByName("source") != null) {
             Integer imObjectId = fdat.getIntermineObjectId();
             // if it is there (e.g. modmine) let's set it
@@ -426,14 +1032,24 @@ public class SequenceProcessor extends ChadoProcessor
     }
 
     /**
-     * Set the given attribute if the FeatureData says it's not set, then set the flag in
+     * Add feature data to FeatureMap that must stay the same object for as long as the processor
+     * runs, because it is shared by several features or held in another map too.  Needed when
+     * the features are kept in a SpillingFeatureDataMap, which otherwise would hand out copies.
+     * @param featureId the chado feature id
+     * @param fdat feature information
+     */
+    protected void addPinnedToFeatureMap(Integer featureId, FeatureData fdat) {
+        featureMap.putPinned(featureId.intValue(), fdat);
+    }
+
+    /**
+     * Set the given attribute if the FeatureData says it's not set, setting the flag in
      * FeatureData to say it's set.
      */
     private void setAttributeIfNotSet(FeatureData fdat, final String attributeName,
             final String value) throws ObjectStoreException {
-        if (!fdat.getFlag(attributeName)) {
+        if (fdat.setFlagIfNotSet(attributeName)) {
             setAttribute(fdat.getIntermineObjectId(), attributeName, value);
-            fdat.setFlag(attributeName, true);
         }
     }
 
@@ -456,7 +1072,7 @@ public class SequenceProcessor extends ChadoProcessor
             int organismId) throws ObjectStoreException {
         String interMineType = TypeUtil.javaiseClassName(fixFeatureType(chadoType));
         OrganismData organismData =
-                getChadoDBConverter().getChadoIdToOrgDataMap().get(new Integer(organismId));
+                getChadoDBConverter().getChadoIdToOrgDataMap().get(Integer.valueOf(organismId));
 
         Item feature = makeFeature(new Integer(featureId), chadoType, interMineType, name,
                 uniqueName, seqlen, organismData.getTaxonId());
@@ -465,13 +1081,18 @@ public class SequenceProcessor extends ChadoProcessor
         }
         int taxonId = organismData.getTaxonId();
         FeatureData fdat = new FeatureData();
-        Item organismItem = getChadoDBConverter().getOrganismItem(taxonId);
-        feature.setReference("organism", organismItem);
+        ChadoDBConverter converter = getChadoDBConverter();
+        // the converter makes the organism and SO term items on first use and other processors
+        // may be making features at the same time, see ModEncodeMetaDataProcessor
+        synchronized (converter) {
+            Item organismItem = converter.getOrganismItem(taxonId);
+            feature.setReference("organism", organismItem);
+            BioStoreHook.setSOTerm(converter, feature, chadoType,
+                    converter.getSequenceOntologyRefId());
+        }
         if (feature.checkAttribute("md5checksum")) {
             feature.setAttribute("md5checksum", md5checksum);
         }
-        BioStoreHook.setSOTerm(getChadoDBConverter(), feature, chadoType,
-                getChadoDBConverter().getSequenceOntologyRefId());
         fdat.setFieldExistenceFlags(feature);
 
         fdat.setIntermineObjectId(store(feature, taxonId));
@@ -599,7 +1220,234 @@ public class SequenceProcessor extends ChadoProcessor
             Statement stmt = connection.createStatement();
             LOG.info("executing: " + query);
             stmt.execute(query);
+            if (changedFeatureTableName != null) {
+                query = "DROP TABLE " + changedFeatureTableName;
+                LOG.info("executing: " + query);
+                stmt.execute(query);
+            }
+            for (String tableName: parallelTables) {
+                if (!tableName.equals(tempFeatureTableName)
+                        && !tableName.equals(changedFeatureTableName)) {
+                    query = "DROP TABLE " + tableName;
+                    LOG.info("executing: " + query);
+                    stmt.execute(query);
+                }
+            }
+            parallelTables.clear();
+            changedFeatureTableName = null;
+        }
+    }
+
+    /**
+     * Write the manifest of the features processed by this run to a pending file next to the
+     * manifest file.  Called by ChadoDBConverter once all processors have finished.  The pending
+     * manifest only replaces the manifest that prepareIncrementalLoad() reads once the items
+     * have been integrated - see ChadoDBConverter.commitManifests() - so a failed conversion or
+     * integration means that the next run loads the same changes again.
+     * @throws IOException if the file can't be written
+     */
+    void writePendingManifest() throws IOException {
+        if (newManifest == null) {
+            return;
+        }
+        File pendingFile = FeatureManifest.getPendingFile(getManifestFile());
+        newManifest.write(pendingFile);
+        LOG.info("wrote manifest of " + newManifest.size() + " features to " + pendingFile);
+        newManifest = null;
+    }
+
+    /**
+     * Return true if the feature with the given id should be fully processed: in an incremental
+     * load the new and changed features, otherwise all features.  Unchanged features are only
+     * read so that new and changed features can refer to them.
+     * @param featureId the chado feature_id
+     * @return true if the feature is new or changed
+     */
+    protected boolean isChangedFeature(int featureId) {
+        return changedFeatureIds == null || changedFeatureIds.contains(featureId);
+    }
+
+    /**
+     * Return the file that records the features processed by the last run, used to load only
+     * new and changed features.  See ChadoDBConverter.setManifestDirectory().
+     * @return the manifest file, or null if all features should always be loaded
+     */
+    protected File getManifestFile() {
+        File manifestDirectory = getChadoDBConverter().getManifestDirectory();
+        if (manifestDirectory == null) {
+            return null;
         }
+        // one manifest per set of organisms so that shards can share the directory
+        return new File(manifestDirectory, getClass().getSimpleName() + "-"
+                + getManifestOrganismIds().replace(',', '_') + ".manifest");
+    }
+
+    private String getManifestOrganismIds() {
+        return StringUtil.join(new TreeSet<Integer>(
+                getChadoDBConverter().getChadoIdToOrgDataMap().keySet()), ",");
+    }
+
+    /**
+     * If there is a manifest file, compare each feature with the manifest from the last run and
+     * make a table of the features that are new or have changed.  A feature has changed if its
+     * timelastmodified is later than that of any feature in the manifest or if the digest of its
+     * relations differs, as adding or removing a relation doesn't touch the feature row.  Changes
+     * to locations or dbxrefs that don't update timelastmodified aren't seen.  Only those
+     * features, their sequences, locations, relations, dbxrefs, synonyms, properties, cvterms
+     * and publications are then processed - see getChangedFeatureIdQuery() and
+     * isChangedFeature().  Unchanged features are only read if they are chromosomes or are
+     * related to a changed feature, and are stored with just their identifiers so that they
+     * merge with the objects from the last run.  If there is no usable manifest, or some
+     * features have been removed from chado since it was written, all features are loaded.  The
+     * items from an incremental load are meant to be integrated into the database built from
+     * the last run.
+     * @param connection the db connection
+     * @throws SQLException if there is a database problem
+     */
+    private void prepareIncrementalLoad(Connection connection) throws SQLException {
+        File manifestFile = getManifestFile();
+        if (manifestFile == null) {
+            return;
+        }
+        String organismIds = getManifestOrganismIds();
+        FeatureManifest oldManifest = null;
+        if (manifestFile.exists()) {
+            try {
+                oldManifest = FeatureManifest.read(manifestFile);
+            } catch (IOException e) {
+                LOG.warn("can't read manifest " + manifestFile + " - loading all features", e);
+            }
+            if (oldManifest != null && !organismIds.equals(oldManifest.getOrganismIds())) {
+                LOG.warn("manifest " + manifestFile + " is for organisms "
+                        + oldManifest.getOrganismIds() + " not " + organismIds
+                        + " - loading all features");
+                oldManifest = null;
+            }
+        } else {
+            LOG.info("no manifest " + manifestFile + " - loading all features");
+        }
+
+        newManifest = new FeatureManifest(organismIds);
+        int[] changedIds = new int[1024];
+        int changedCount = 0;
+        int existingCount = 0;
+        ChadoRows rows = new ResultSetRows(getFeatureDigestResultSet(connection), "feature_id",
+                "modified", "digest");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int modifiedColumn = rows.findColumn("modified");
+        int digestColumn = rows.findColumn("digest");
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
+            String modifiedString = rows.getString(modifiedColumn);
+            long modified = modifiedString == null ? 0 : Long.parseLong(modifiedString);
+            // NULL if the feature has no relations
+            String digestString = rows.getString(digestColumn);
+            long digest = digestString == null ? 0 : FeatureManifest.parseDigest(digestString);
+            newManifest.add(featureId, digest);
+            newManifest.updateLastModified(modified);
+            if (oldManifest != null) {
+                if (oldManifest.contains(featureId)) {
+                    existingCount++;
+                }
+                if (modified > oldManifest.getLastModified()
+                        || !oldManifest.isUnchanged(featureId, digest)) {
+                    if (changedCount == changedIds.length) {
+                        changedIds = Arrays.copyOf(changedIds, changedCount * 2);
+                    }
+                    changedIds[changedCount++] = featureId;
+                }
+            }
+        }
+        rows.close();
+
+        if (oldManifest == null) {
+            return;
+        }
+        int removedCount = oldManifest.size() - existingCount;
+        if (removedCount > 0) {
+            LOG.warn(removedCount + " features have been removed since the manifest was written"
+                    + " - loading all features");
+            return;
+        }
+        LOG.info(changedCount + " of " + newManifest.size() + " features are new or changed");
+
+        changedFeatureIds = new IntPresentSet();
+        for (int i = 0; i < changedCount; i++) {
+            changedFeatureIds.set(changedIds[i], true);
+        }
+        createChangedFeatureTable(connection, changedIds, changedCount);
+    }
+
+    /**
+     * Create the table of the feature_ids of new and changed features used by the incremental
+     * queries and set changedFeatureTableName.
+     * This is a protected method so that it can be overridden for testing
+     * @param connection the db connection
+     * @param changedIds the feature_ids, the first changedCount of which are used
+     * @param changedCount the number of feature_ids
+     * @throws SQLException if there is a database problem
+     */
+    protected void createChangedFeatureTable(Connection connection, int[] changedIds,
+            int changedCount) throws SQLException {
+        changedFeatureTableName = tempFeatureTableName + "_changed";
+        Statement stmt = connection.createStatement();
+        String query = getCreateTempTableSql(connection, changedFeatureTableName)
+            + " (feature_id int)";
+        LOG.info("executing: " + query);
+        stmt.execute(query);
+        PreparedStatement insertStmt = connection.prepareStatement("INSERT INTO "
+                + changedFeatureTableName + " VALUES (?)");
+        for (int i = 0; i < changedCount; i++) {
+            insertStmt.setInt(1, changedIds[i]);
+            insertStmt.addBatch();
+            if (i % 1000 == 999) {
+                insertStmt.executeBatch();
+            }
+        }
+        insertStmt.executeBatch();
+        insertStmt.close();
+        String idIndexQuery = "CREATE INDEX " + changedFeatureTableName + "_feature_index ON "
+                + changedFeatureTableName + "(feature_id)";
+        LOG.info("executing: " + idIndexQuery);
+        stmt.execute(idIndexQuery);
+        String analyze = "ANALYZE " + changedFeatureTableName;
+        LOG.info("executing: " + analyze);
+        stmt.execute(analyze);
+    }
+
+    /**
+     * Return the feature_id, the timelastmodified in milliseconds and a digest of the relations
+     * of each feature in the feature temporary table, in feature_id order.  The digest is made
+     * from the feature's relations to other features in both directions, so that both ends of a
+     * new or removed relation count as changed, and is NULL for a feature with no relations.
+     * The feature_relationship table is read once and grouped, rather than once per feature.
+     * This is a protected method so that it can be overridden for testing
+     * @param connection the db connection
+     * @return the SQL result set
+     * @throws SQLException if a database problem occurs
+     */
+    protected ResultSet getFeatureDigestResultSet(Connection connection) throws SQLException {
+        String query =
+            "SELECT temp.feature_id,"
+            + " (extract(epoch FROM feature.timelastmodified) * 1000)::bigint AS modified,"
+            + " relations.digest"
+            + " FROM " + tempFeatureTableName + " temp"
+            + " JOIN feature ON feature.feature_id = temp.feature_id"
+            + " LEFT JOIN (SELECT feature_id,"
+            + "     md5(string_agg(relation, ',' ORDER BY relation)) AS digest"
+            + "   FROM (SELECT subject_id AS feature_id,"
+            + "       's' || type_id || ':' || object_id AS relation"
+            + "       FROM feature_relationship"
+            + "     UNION ALL"
+            + "     SELECT object_id AS feature_id,"
+            + "       'o' || type_id || ':' || subject_id AS relation"
+            + "       FROM feature_relationship) feature_relations"
+            + "   GROUP BY feature_id) relations ON relations.feature_id = temp.feature_id"
+            + " ORDER BY temp.feature_id";
+        LOG.info("executing getFeatureDigestResultSet(): " + query);
+        Statement stmt = createStatement(connection);
+        ResultSet res = stmt.executeQuery(query);
+        return res;
     }
 
     /**
@@ -612,19 +1460,30 @@ public class SequenceProcessor extends ChadoProcessor
      */
     protected void processLocationTable(Connection connection, ResultSet res)
         throws SQLException, ObjectStoreException {
+        ChadoRows rows = new ResultSetRows(res, LOCATION_COLUMNS);
+        int featureLocIdColumn = rows.findColumn("featureloc_id");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int srcFeatureIdColumn = rows.findColumn("srcfeature_id");
+        int fminColumn = rows.findColumn("fmin");
+        int fmaxColumn = rows.findColumn("fmax");
+        int strandColumn = rows.findColumn("strand");
         int count = 0;
         int featureWarnings = 0;
-        while (res.next()) {
-            Integer featureLocId = new Integer(res.getInt("featureloc_id"));
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            Integer srcFeatureId = new Integer(res.getInt("srcfeature_id"));
-            int start = res.getInt("fmin") + 1;
-            int end = res.getInt("fmax");
+        while (rows.next()) {
+            int featureLocId = rows.getInt(featureLocIdColumn);
+            int featureId = rows.getInt(featureIdColumn);
+            int srcFeatureId = rows.getInt(srcFeatureIdColumn);
+            int start = rows.getInt(fminColumn) + 1;
+            int end = rows.getInt(fmaxColumn);
             if (start < 1 || end < 1) {
                 // ignore as this location not legal in flymine
                 continue;
             }
-            int strand = res.getInt("strand");
+            int strand = rows.getInt(strandColumn);
+            if (!isChangedFeature(featureId)) {
+                // the location from the last load of an unchanged feature is still there
+                continue;
+            }
             if (featureMap.containsKey(srcFeatureId)) {
                 FeatureData srcFeatureData = featureMap.get(srcFeatureId);
                 if (featureMap.containsKey(featureId)) {
@@ -637,28 +1496,22 @@ public class SequenceProcessor extends ChadoProcessor
                     if (location != null) {
                         getChadoDBConverter().store(location);
                     }
-                    final String featureClassName =
-                            getModel().getPackageName() + "." + featureData.getInterMineType();
-                    Class<?> featureClass;
-                    try {
-                        featureClass = Class.forName(featureClassName);
-                    } catch (ClassNotFoundException e) {
-                        throw new RuntimeException("unable to find class object for setting "
-                                + "a chromosome reference", e);
-                    }
-                    if (SequenceFeature.class.isAssignableFrom(featureClass)) {
+                    String interMineType = featureData.getInterMineType();
+                    if (isSequenceFeature(interMineType)) {
+                        FeatureTypeInfo typeInfo = getFeatureTypeInfo(interMineType);
                         Integer featureIntermineObjectId = featureData.getIntermineObjectId();
-                        if ("Chromosome".equals(srcFeatureData.getInterMineType())) {
+                        if (typeInfo.hasChromosome
+                                && "Chromosome".equals(srcFeatureData.getInterMineType())) {
                             Reference chrReference = new Reference();
                             chrReference.setName("chromosome");
                             chrReference.setRefId(srcFeatureData.getItemIdentifier());
-                            getChadoDBConverter().store(chrReference, featureIntermineObjectId);
+                            storeReference(chrReference, featureIntermineObjectId);
                         }
-                        if (location != null) {
+                        if (typeInfo.hasChromosomeLocation && location != null) {
                             Reference locReference = new Reference();
                             locReference.setName("chromosomeLocation");
                             locReference.setRefId(location.getIdentifier());
-                            getChadoDBConverter().store(locReference, featureIntermineObjectId);
+                            storeReference(locReference, featureIntermineObjectId);
                         }
                         if (!featureData.getFlag(FeatureData.LENGTH_SET)) {
                             setAttribute(featureData.getIntermineObjectId(), "length",
@@ -691,7 +1544,7 @@ public class SequenceProcessor extends ChadoProcessor
             }
         }
         LOG.info("created " + count + " locations");
-        res.close();
+        rows.close();
     }
 
     /**
@@ -709,108 +1562,175 @@ public class SequenceProcessor extends ChadoProcessor
     protected Item makeLocation(int start, int end, int strand, FeatureData srcFeatureData,
             FeatureData featureData, int taxonId, int featureId)
         throws ObjectStoreException {
-        Item location = getChadoDBConverter().makeLocation(srcFeatureData.getItemIdentifier(),
-                featureData.getItemIdentifier(),
-                start, end, strand, taxonId);
-        return location;
+        return getChadoDBConverter().makeLocation(srcFeatureData.getItemIdentifier(),
+                featureData.getItemIdentifier(), start, end, strand, taxonId);
     }
 
     /**
      * Use the feature_relationship table to set relations (references and collections) between
-     * features.
+     * features.  The table is read once, ordered by subject, and the relations of each subject
+     * are processed as soon as all its rows have been read.  The rows are also saved in a
+     * ReverseRelations, which spills to the spill directory if one is set, so that the relations
+     * can then be processed the other way round, grouped by object.
      */
-    private void processRelationTable(Connection connection, boolean subjectFirst)
-        throws SQLException, ObjectStoreException {
-        ResultSet res = getFeatureRelationshipResultSet(connection, subjectFirst);
-        Integer lastSubjectId = null;
+    private void processRelationTable(Connection connection)
+        throws SQLException, ObjectStoreException, IOException {
+        ChadoRows rows = new ResultSetRows(getFeatureRelationshipResultSet(connection, true),
+                RELATIONSHIP_COLUMNS);
+        int relationshipIdColumn = rows.findColumn("feature_relationship_id");
+        int subjectIdColumn = rows.findColumn("feature1_id");
+        int objectIdColumn = rows.findColumn("feature2_id");
+        int typeNameColumn = rows.findColumn("type_name");
+        RelationGrouper grouper = new RelationGrouper(true);
+        ReverseRelations reverseRelations = new ReverseRelations(REVERSE_RELATIONS_SPILL_SIZE,
+                getChadoDBConverter().getSpillDirectory());
+        while (rows.next()) {
+            int featRelationshipId = rows.getInt(relationshipIdColumn);
+            int subjectId = rows.getInt(subjectIdColumn);
+            int objectId = rows.getInt(objectIdColumn);
+            String relationTypeName = rows.getString(typeNameColumn);
+            grouper.add(featRelationshipId, subjectId, objectId, relationTypeName);
+            // the gene <-> protein relations from getGenesProteinsQuery() have an id of 0 and
+            // are only wanted one way, part_of relations are directional.  In an incremental
+            // load the collections of unchanged objects are left as they are, see add()
+            if (featRelationshipId != 0 && !PARTOF_RELATIONS.contains(relationTypeName)
+                    && isChangedFeature(objectId)
+                    && featureMap.containsKey(subjectId) && featureMap.containsKey(objectId)) {
+                reverseRelations.add(featRelationshipId, objectId, subjectId, relationTypeName);
+            }
+        }
+        rows.close();
+        grouper.finish();
+
+        RelationGrouper reverseGrouper = new RelationGrouper(false);
+        try {
+            while (reverseRelations.next()) {
+                reverseGrouper.add(reverseRelations.getRelationshipId(),
+                        reverseRelations.getFeature1Id(), reverseRelations.getFeature2Id(),
+                        reverseRelations.getTypeName());
+            }
+        } finally {
+            reverseRelations.close();
+        }
+        reverseGrouper.finish();
+    }
+
+    /**
+     * Collects the relations of one feature1 at a time from rows ordered by feature1 and passes
+     * them to processCollectionData().  The maps and lists used for each feature1 are reused.
+     */
+    private class RelationGrouper
+    {
+        private final boolean subjectFirst;
+        private Integer lastSubjectId = null;
 
         // Map from relation type to Map from object type to FeatureData - used to collect up all
         // the collection/reference information for one subject feature
-        Map<String, Map<String, List<FeatureData>>> relTypeMap =
+        private final Map<String, Map<String, List<FeatureData>>> relTypeMap =
                 new HashMap<String, Map<String, List<FeatureData>>>();
-        int featureWarnings = 0;
-        int collectionWarnings = 0;
-        int count = 0;
-        int collectionTotal = 0;
-        while (res.next()) {
-            Integer featRelationshipId = new Integer(res.getInt("feature_relationship_id"));
-            Integer firstFeature1Id = new Integer(res.getInt("feature1_id"));
-            Integer secondFeatureId = new Integer(res.getInt("feature2_id"));
-            String relationTypeName = res.getString("type_name");
+        private final List<Map<String, List<FeatureData>>> freeMaps =
+                new ArrayList<Map<String, List<FeatureData>>>();
+        private final List<List<FeatureData>> freeLists = new ArrayList<List<FeatureData>>();
 
-            if (lastSubjectId != null && !firstFeature1Id.equals(lastSubjectId)) {
-                if (!processCollectionData(lastSubjectId, relTypeMap, collectionWarnings,
-                        subjectFirst)) {
-                    collectionWarnings++;
-                    if (collectionWarnings == 20) {
-                        LOG.warn("ignoring further unknown feature warnings from "
-                                + "processCollectionData()");
-                    }
-                }
-                collectionTotal += relTypeMap.size();
-                relTypeMap = new HashMap<String, Map<String, List<FeatureData>>>();
-            }
+        private int featureWarnings = 0;
+        private int collectionWarnings = 0;
+        private int count = 0;
+        private int collectionTotal = 0;
 
-            if (PARTOF_RELATIONS.contains(relationTypeName) && !subjectFirst) {
-                // special case for part_of relations - they are directional
-                continue;
-            }
+        RelationGrouper(boolean subjectFirst) {
+            this.subjectFirst = subjectFirst;
+        }
 
-            if (featureMap.containsKey(firstFeature1Id)) {
-                if (featureMap.containsKey(secondFeatureId)) {
-                    FeatureData objectFeatureData = featureMap.get(secondFeatureId);
-                    Map<String, List<FeatureData>> objectClassFeatureDataMap;
-                    if (relTypeMap.containsKey(relationTypeName)) {
-                        objectClassFeatureDataMap = relTypeMap.get(relationTypeName);
-                    } else {
-                        objectClassFeatureDataMap = new HashMap<String, List<FeatureData>>();
-                        relTypeMap.put(relationTypeName, objectClassFeatureDataMap);
-                    }
+        void add(int featRelationshipId, int feature1Id, int feature2Id, String relationTypeName)
+            throws ObjectStoreException {
+            if (!isChangedFeature(feature1Id)) {
+                // in an incremental load only the relations of changed features are read in
+                // full, so the collections and counts of an unchanged feature1 aren't stored
+                // again - the rows of one feature1 are together, so the grouping isn't affected
+                return;
+            }
+            Integer firstFeature1Id = new Integer(feature1Id);
+            if (lastSubjectId != null && !firstFeature1Id.equals(lastSubjectId)) {
+                processSubject();
+            }
+            lastSubjectId = firstFeature1Id;
+            count++;
 
-                    List<FeatureData> featureDataList;
-                    String objectFeatureType = objectFeatureData.getInterMineType();
-                    if (objectClassFeatureDataMap.containsKey(objectFeatureType)) {
-                        featureDataList =
-                                objectClassFeatureDataMap.get(objectFeatureType);
+            FeatureData subjectFeatureData = featureMap.get(feature1Id);
+            if (subjectFeatureData == null) {
+                if (featureWarnings <= 20) {
+                    if (featureWarnings < 20) {
+                        LOG.warn("subject_id " + feature1Id + " from feature_relationship "
+                                + featRelationshipId
+                                + " was not found in the feature table");
                     } else {
-                        featureDataList = new ArrayList<FeatureData>();
-                        objectClassFeatureDataMap.put(objectFeatureType,
-                                featureDataList);
-                    }
-                    featureDataList.add(objectFeatureData);
-                } else {
-                    if (featureWarnings <= 20) {
-                        if (featureWarnings < 20) {
-                            LOG.warn("object_id " + secondFeatureId + " from feature_relationship "
-                                    + featRelationshipId + " was not found in the feature table");
-                        } else {
-                            LOG.warn("further feature_relationship warnings ignored");
-                        }
-                        featureWarnings++;
+                        LOG.warn("further feature_relationship warnings ignored");
                     }
+                    featureWarnings++;
                 }
-            } else {
+                return;
+            }
+            FeatureData objectFeatureData = featureMap.get(feature2Id);
+            if (objectFeatureData == null) {
                 if (featureWarnings <= 20) {
                     if (featureWarnings < 20) {
-                        LOG.warn("subject_id " + firstFeature1Id + " from feature_relationship "
-                                + featRelationshipId
-                                + " was not found in the feature table");
+                        LOG.warn("object_id " + feature2Id + " from feature_relationship "
+                                + featRelationshipId + " was not found in the feature table");
                     } else {
                         LOG.warn("further feature_relationship warnings ignored");
                     }
                     featureWarnings++;
                 }
+                return;
             }
-            count++;
-            lastSubjectId = firstFeature1Id;
+            Map<String, List<FeatureData>> objectClassFeatureDataMap =
+                relTypeMap.get(relationTypeName);
+            if (objectClassFeatureDataMap == null) {
+                objectClassFeatureDataMap = freeMaps.isEmpty()
+                        ? new HashMap<String, List<FeatureData>>()
+                        : freeMaps.remove(freeMaps.size() - 1);
+                relTypeMap.put(relationTypeName, objectClassFeatureDataMap);
+            }
+            String objectFeatureType = objectFeatureData.getInterMineType();
+            List<FeatureData> featureDataList = objectClassFeatureDataMap.get(objectFeatureType);
+            if (featureDataList == null) {
+                featureDataList = freeLists.isEmpty()
+                        ? new ArrayList<FeatureData>()
+                        : freeLists.remove(freeLists.size() - 1);
+                objectClassFeatureDataMap.put(objectFeatureType, featureDataList);
+            }
+            featureDataList.add(objectFeatureData);
         }
-        if (lastSubjectId != null) {
-            processCollectionData(lastSubjectId, relTypeMap, collectionWarnings, subjectFirst);
+
+        private void processSubject() throws ObjectStoreException {
+            if (!processCollectionData(lastSubjectId, relTypeMap, collectionWarnings,
+                    subjectFirst)) {
+                collectionWarnings++;
+                if (collectionWarnings == 20) {
+                    LOG.warn("ignoring further unknown feature warnings from "
+                            + "processCollectionData()");
+                }
+            }
             collectionTotal += relTypeMap.size();
+            for (Map<String, List<FeatureData>> objectClassFeatureDataMap: relTypeMap.values()) {
+                for (List<FeatureData> featureDataList: objectClassFeatureDataMap.values()) {
+                    featureDataList.clear();
+                    freeLists.add(featureDataList);
+                }
+                objectClassFeatureDataMap.clear();
+                freeMaps.add(objectClassFeatureDataMap);
+            }
+            relTypeMap.clear();
+        }
+
+        void finish() throws ObjectStoreException {
+            if (lastSubjectId != null) {
+                processSubject();
+            }
+            LOG.info("processed " + count + " relations"
+                    + (subjectFirst ? "" : " in reverse"));
+            LOG.info("total collection elements created: " + collectionTotal);
         }
-        LOG.info("processed " + count + " relations");
-        LOG.info("total collection elements created: " + collectionTotal);
-        res.close();
     }
 
     /**
@@ -834,7 +1754,8 @@ public class SequenceProcessor extends ChadoProcessor
         Map<String, List<String>> collectionsToStore = new HashMap<String, List<String>>();
 
         String subjectInterMineType = subjectData.getInterMineType();
-        ClassDescriptor cd = getModel().getClassDescriptorByName(subjectInterMineType);
+        FeatureTypeInfo subjectTypeInfo = getFeatureTypeInfo(subjectInterMineType);
+        ClassDescriptor cd = subjectTypeInfo.cd;
         Integer intermineObjectId = subjectData.getIntermineObjectId();
         for (Map.Entry<String, Map<String, List<FeatureData>>> entry: relTypeMap.entrySet()) {
             String relationType = entry.getKey();
@@ -854,10 +1775,9 @@ public class SequenceProcessor extends ChadoProcessor
                 } else {
                     relType = "rev_relationship";
                 }
-                MultiKey key = new MultiKey(relType, subjectFeatureData.getInterMineType(),
-                        relationType, objectClass);
                 List<ConfigAction> actionList =
-                        getConfig(subjectData.organismData.getTaxonId()).get(key);
+                        getConfigIndex(subjectData.organismData.getTaxonId()).get(relType,
+                                subjectFeatureData.getInterMineType(), relationType, objectClass);
 
                 if (actionList != null) {
                     if (actionList.size() == 0
@@ -875,14 +1795,18 @@ public class SequenceProcessor extends ChadoProcessor
                             if (fd == null) {
                                 throw new RuntimeException("can't find field " + fieldName
                                         + " in class " + cd + " configured for "
-                                        + key);
+                                        + new MultiKey(relType,
+                                                subjectFeatureData.getInterMineType(),
+                                                relationType, objectClass));
                             }
                             fds.add(fd);
 
                         }
                     }
                     if (fds.size() == 0) {
-                        throw new RuntimeException("no actions found for " + key);
+                        throw new RuntimeException("no actions found for "
+                                + new MultiKey(relType, subjectFeatureData.getInterMineType(),
+                                        relationType, objectClass));
                     }
                 } else {
                     if (PARTOF_RELATIONS.contains(relationType)) {
@@ -891,7 +1815,11 @@ public class SequenceProcessor extends ChadoProcessor
                         // objectClass).  eg.  If the subject is a Transcript and the objectClass
                         // is Exon then find collections called "exons", "geneParts" (GenePart is
                         // a superclass of Exon)
-                        fds = getReferenceForRelationship(objectClass, cd);
+                        fds = subjectTypeInfo.relationshipFields.get(objectClass);
+                        if (fds == null) {
+                            fds = getReferenceForRelationship(objectClass, cd);
+                            subjectTypeInfo.relationshipFields.put(objectClass, fds);
+                        }
                     } else {
                         continue;
                     }
@@ -922,7 +1850,7 @@ public class SequenceProcessor extends ChadoProcessor
                             reference.setName(fd.getName());
                             FeatureData referencedFeatureData = featureDataCollection.get(0);
                             reference.setRefId(referencedFeatureData.getItemIdentifier());
-                            getChadoDBConverter().store(reference, intermineObjectId);
+                            storeReference(reference, intermineObjectId);
 
                             // special case for 1-1 relations - we need to set the reverse
                             // reference
@@ -933,7 +1861,7 @@ public class SequenceProcessor extends ChadoProcessor
                                 revReference.setName(reverseRD.getName());
                                 revReference.setRefId(subjectData.getItemIdentifier());
                                 Integer refObjectId = referencedFeatureData.getIntermineObjectId();
-                                getChadoDBConverter().store(revReference, refObjectId);
+                                storeReference(revReference, refObjectId);
                             }
                         }
 
@@ -959,7 +1887,7 @@ public class SequenceProcessor extends ChadoProcessor
             referenceList.setName(collectionName);
             List<String> idList = entry.getValue();
             referenceList.setRefIds(idList);
-            getChadoDBConverter().store(referenceList, intermineObjectId);
+            storeCollection(referenceList, intermineObjectId);
 
             // if there is a field called <classname>Count that matches the name of the collection
             // we just stored, set it
@@ -978,6 +1906,44 @@ public class SequenceProcessor extends ChadoProcessor
         return true;
     }
 
+    /**
+     * Return the model information for an InterMine type, creating it the first time the type is
+     * seen.  Called for every location and relation row, so it doesn't lock - threads that see a
+     * new type at the same time may each make a FeatureTypeInfo, but they all use the first.
+     */
+    private FeatureTypeInfo getFeatureTypeInfo(String interMineType) {
+        FeatureTypeInfo typeInfo = featureTypeInfoMap.get(interMineType);
+        if (typeInfo == null) {
+            typeInfo = new FeatureTypeInfo(getModel().getClassDescriptorByName(interMineType));
+            FeatureTypeInfo existing = featureTypeInfoMap.putIfAbsent(interMineType, typeInfo);
+            if (existing != null) {
+                typeInfo = existing;
+            }
+        }
+        return typeInfo;
+    }
+
+    /**
+     * Return true if the given InterMine type is a SequenceFeature.  The class is found using
+     * reflection the first time each type is seen.
+     */
+    private boolean isSequenceFeature(String interMineType) {
+        FeatureTypeInfo typeInfo = getFeatureTypeInfo(interMineType);
+        if (typeInfo.isSequenceFeature == null) {
+            final String featureClassName = getModel().getPackageName() + "." + interMineType;
+            Class<?> featureClass;
+            try {
+                featureClass = Class.forName(featureClassName);
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("unable to find class object for setting "
+                        + "a chromosome reference", e);
+            }
+            typeInfo.isSequenceFeature =
+                    Boolean.valueOf(SequenceFeature.class.isAssignableFrom(featureClass));
+        }
+        return typeInfo.isSequenceFeature.booleanValue();
+    }
+
     /**
      * Search ClassDescriptor cd class for refs/collections with the right name for the objectType
      * eg. find CDSs collection for objectType = CDS and find gene reference for objectType = Gene.
@@ -1011,28 +1977,32 @@ public class SequenceProcessor extends ChadoProcessor
         return fds;
     }
 
-    @SuppressWarnings("boxing")
     private void processDbxrefTable(Connection connection)
         throws SQLException, ObjectStoreException {
 
-        ResultSet res = getDbxrefResultSet(connection);
+        ChadoRows rows = copyRows(connection, getDbxrefQuery(), DBXREF_COLUMNS);
+        if (rows == null) {
+            rows = new ResultSetRows(getDbxrefResultSet(connection), DBXREF_COLUMNS);
+        }
+        int featureIdColumn = rows.findColumn("feature_id");
+        int accessionColumn = rows.findColumn("accession");
+        int dbNameColumn = rows.findColumn("db_name");
+        int isCurrentColumn = rows.findColumn("is_current");
+        // the fields set by this row, so that only the first action for a field is used
         Set<String> existingAttributes = new HashSet<String>();
-        Integer currentFeatureId = null;
         int count = 0;
 
-        while (res.next()) {
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            String accession = res.getString("accession");
-            String dbName = res.getString("db_name");
-            Boolean isCurrent = res.getBoolean("is_current");
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
+            String accession = rows.getString(accessionColumn);
+            String dbName = rows.getString(dbNameColumn);
+            // Boolean.valueOf() returns one of the two constants
+            Boolean isCurrent = Boolean.valueOf(rows.getBoolean(isCurrentColumn));
 
-            if (currentFeatureId != null && currentFeatureId != featureId) {
-                existingAttributes = new HashSet<String>();
-            }
+            existingAttributes.clear();
 
-            if (featureMap.containsKey(featureId)) {
-                FeatureData fdat = featureMap.get(featureId);
-                MultiKey key = new MultiKey("dbxref", fdat.getInterMineType(), dbName, isCurrent);
+            FeatureData fdat = featureMap.get(featureId);
+            if (fdat != null) {
 
                 if (accession == null) {
                     throw new RuntimeException("found null accession in dbxref table for database "
@@ -1041,21 +2011,19 @@ public class SequenceProcessor extends ChadoProcessor
                 accession  = fixIdentifier(fdat, accession);
 
                 int taxonId = fdat.organismData.getTaxonId();
-                Map<MultiKey, List<ConfigAction>> orgConfig =
-                        getConfig(taxonId);
-                List<ConfigAction> actionList = orgConfig.get(key);
+                ConfigIndex orgConfig = getConfigIndex(taxonId);
+                List<ConfigAction> actionList =
+                        orgConfig.get("dbxref", fdat.getInterMineType(), dbName, isCurrent);
 
                 if (actionList == null) {
                     // try ignoring isCurrent
-                    MultiKey key2 = new MultiKey("dbxref", fdat.getInterMineType(), dbName, null);
-                    actionList = orgConfig.get(key2);
+                    actionList = orgConfig.get("dbxref", fdat.getInterMineType(), dbName, null);
                 }
 
                 if (actionList == null) {
                     // no actions configured for this synonym
                     continue;
                 }
-                Set<String> fieldsSet = new HashSet<String>();
                 for (ConfigAction action: actionList) {
                     if (action instanceof SetFieldConfigAction) {
                         SetFieldConfigAction setAction = (SetFieldConfigAction) action;
@@ -1065,7 +2033,6 @@ public class SequenceProcessor extends ChadoProcessor
                                 setAttribute(fdat.getIntermineObjectId(), setAction.getFieldName(),
                                         newFieldValue);
                                 existingAttributes.add(setAction.getFieldName());
-                                fieldsSet.add(newFieldValue);
                                 if ("primaryIdentifier".equals(setAction.getFieldName())) {
                                     fdat.setFlag(FeatureData.IDENTIFIER_SET, true);
                                 }
@@ -1081,7 +2048,7 @@ public class SequenceProcessor extends ChadoProcessor
                             continue;
                         }
                         String newFieldValue = createSynonymAction.processValue(accession);
-                        if (fdat.getExistingSynonyms().contains(newFieldValue)) {
+                        if (fdat.hasExistingSynonym(newFieldValue)) {
                             continue;
                         }
                         Item synonym = createSynonym(fdat, newFieldValue);
@@ -1092,41 +2059,42 @@ public class SequenceProcessor extends ChadoProcessor
                     }
                 }
             }
-
-            currentFeatureId = featureId;
         }
 
         LOG.info("created " + count + " synonyms from the dbxref table");
-        res.close();
+        closeRows(rows);
     }
 
     private void processFeaturePropTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getFeaturePropResultSet(connection);
+        ChadoRows rows = copyRows(connection, getFeaturePropQuery(), FEATUREPROP_COLUMNS);
+        if (rows == null) {
+            rows = new ResultSetRows(getFeaturePropResultSet(connection), FEATUREPROP_COLUMNS);
+        }
+        int featureIdColumn = rows.findColumn("feature_id");
+        int valueColumn = rows.findColumn("value");
+        int typeNameColumn = rows.findColumn("type_name");
         int count = 0;
-        while (res.next()) {
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            String identifier = res.getString("value");
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
+            String identifier = rows.getString(valueColumn);
 
             if (identifier == null) {
                 continue;
             }
 
-            String propTypeName = res.getString("type_name");
+            String propTypeName = rows.getString(typeNameColumn);
 
-            if (featureMap.containsKey(featureId)) {
-
-                FeatureData fdat = featureMap.get(featureId);
-                MultiKey key = new MultiKey("prop", fdat.getInterMineType(), propTypeName);
+            FeatureData fdat = featureMap.get(featureId);
+            if (fdat != null) {
                 int taxonId = fdat.organismData.getTaxonId();
-                List<ConfigAction> actionList = getConfig(taxonId).get(key);
+                List<ConfigAction> actionList =
+                        getConfigIndex(taxonId).get("prop", fdat.getInterMineType(), propTypeName);
                 if (actionList == null) {
                     // no actions configured for this prop
                     continue;
                 }
 
-                Set<String> fieldsSet = new HashSet<String>();
-
                 for (ConfigAction action: actionList) {
                     if (action instanceof SetFieldConfigAction) {
                         SetFieldConfigAction setAction = (SetFieldConfigAction) action;
@@ -1134,7 +2102,6 @@ public class SequenceProcessor extends ChadoProcessor
                             String newFieldValue = setAction.processValue(identifier);
                             setAttribute(fdat.getIntermineObjectId(), setAction.getFieldName(),
                                     newFieldValue);
-                            fieldsSet.add(newFieldValue);
 
                             if ("primaryIdentifier".equals(setAction.getFieldName())) {
                                 fdat.setFlag(FeatureData.IDENTIFIER_SET, true);
@@ -1150,8 +2117,7 @@ public class SequenceProcessor extends ChadoProcessor
                             continue;
                         }
                         String newFieldValue = synonymAction.processValue(identifier);
-                        Set<String> existingSynonyms = fdat.getExistingSynonyms();
-                        if (existingSynonyms.contains(newFieldValue)) {
+                        if (fdat.hasExistingSynonym(newFieldValue)) {
                             continue;
                         }
                         Item synonym = createSynonym(fdat, newFieldValue);
@@ -1164,7 +2130,7 @@ public class SequenceProcessor extends ChadoProcessor
             }
         }
         LOG.info("created " + count + " synonyms from the featureprop table");
-        res.close();
+        closeRows(rows);
     }
 
     /**
@@ -1174,23 +2140,27 @@ public class SequenceProcessor extends ChadoProcessor
     @SuppressWarnings("unused")
     private void processLibraryFeatureTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getLibraryFeatureResultSet(connection);
-        while (res.next()) {
+        ChadoRows rows = new ResultSetRows(getLibraryFeatureResultSet(connection), "feature_id",
+                "value", "type_name");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int valueColumn = rows.findColumn("value");
+        int typeNameColumn = rows.findColumn("type_name");
+        while (rows.next()) {
 
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            String identifier = res.getString("value");
+            int featureId = rows.getInt(featureIdColumn);
+            String identifier = rows.getString(valueColumn);
 
             if (identifier == null) {
                 continue;
             }
 
-            String propTypeName = res.getString("type_name");
+            String propTypeName = rows.getString(typeNameColumn);
 
             if (featureMap.containsKey(featureId)) {
                 FeatureData fdat = featureMap.get(featureId);
-                MultiKey key = new MultiKey("library", fdat.getInterMineType(), propTypeName);
                 int taxonId = fdat.organismData.getTaxonId();
-                List<ConfigAction> actionList = getConfig(taxonId).get(key);
+                List<ConfigAction> actionList = getConfigIndex(taxonId).get("library",
+                        fdat.getInterMineType(), propTypeName);
                 if (actionList == null) {
                     // no actions configured for this prop
                     continue;
@@ -1213,7 +2183,7 @@ public class SequenceProcessor extends ChadoProcessor
                 }
             }
         }
-        res.close();
+        rows.close();
     }
 
     /**
@@ -1234,21 +2204,24 @@ public class SequenceProcessor extends ChadoProcessor
     @SuppressWarnings("unused")
     private void processLibraryCVTermTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getLibraryCVTermResultSet(connection);
+        ChadoRows rows = new ResultSetRows(getLibraryCVTermResultSet(connection), "feature_id",
+                "term_identifier");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int identifierColumn = rows.findColumn("term_identifier");
 
-        while (res.next()) {
+        while (rows.next()) {
 
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            String identifier = res.getString("term_identifier");
+            int featureId = rows.getInt(featureIdColumn);
+            String identifier = rows.getString(identifierColumn);
 
             if (identifier == null) {
                 continue;
             }
             if (featureMap.containsKey(featureId)) {
                 FeatureData fdat = featureMap.get(featureId);
-                MultiKey key = new MultiKey("anatomyterm", fdat.getInterMineType(), null);
                 int taxonId = fdat.organismData.getTaxonId();
-                List<ConfigAction> actionList = getConfig(taxonId).get(key);
+                List<ConfigAction> actionList =
+                        getConfigIndex(taxonId).get("anatomyterm", fdat.getInterMineType(), null);
                 if (actionList == null) {
                     // no actions configured for this prop
                     continue;
@@ -1265,13 +2238,13 @@ public class SequenceProcessor extends ChadoProcessor
                                 continue;
                             }
                             termReference.setRefId(termRefId);
-                            getChadoDBConverter().store(termReference, fdat.getIntermineObjectId());
+                            storeReference(termReference, fdat.getIntermineObjectId());
                         }
                     }
                 }
             }
         }
-        res.close();
+        rows.close();
     }
 
 
@@ -1282,18 +2255,23 @@ public class SequenceProcessor extends ChadoProcessor
      */
     private void processFeatureCVTermTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getFeatureCVTermResultSet(connection);
+        ChadoRows rows = new ResultSetRows(getFeatureCVTermResultSet(connection), "feature_id",
+                "cvterm_name", "cv_name");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int cvtermNameColumn = rows.findColumn("cvterm_name");
+        int cvNameColumn = rows.findColumn("cv_name");
         int count = 0;
-        Integer previousFeatureId = null;
+        // -1 until the first feature has been read
+        int previousFeatureId = -1;
 
         // map from reference/collection name to list of Items to store in the reference or
         // collection
         Map<String, List<Item>> dataMap = new HashMap<String, List<Item>>();
 
-        while (res.next()) {
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            String cvtermName = res.getString("cvterm_name");
-            String cvName = res.getString("cv_name");
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
+            String cvtermName = rows.getString(cvtermNameColumn);
+            String cvName = rows.getString(cvNameColumn);
 
             FeatureData fdat = featureMap.get(featureId);
 
@@ -1301,16 +2279,15 @@ public class SequenceProcessor extends ChadoProcessor
                 continue;
             }
 
-            if (!featureId.equals(previousFeatureId) && previousFeatureId != null) {
-                processCVTermRefCols(previousFeatureId, dataMap);
+            if (featureId != previousFeatureId && previousFeatureId != -1) {
+                processCVTermRefCols(new Integer(previousFeatureId), dataMap);
                 dataMap = new HashMap<String, List<Item>>();
             }
 
-            MultiKey key = new MultiKey("cvterm", fdat.getInterMineType(), cvName);
-
             int taxonId = fdat.organismData.getTaxonId();
 
-            List<ConfigAction> actionList = getConfig(taxonId).get(key);
+            List<ConfigAction> actionList =
+                    getConfigIndex(taxonId).get("cvterm", fdat.getInterMineType(), cvName);
             if (actionList == null) {
                 // no actions configured for this prop
                 continue;
@@ -1338,8 +2315,7 @@ public class SequenceProcessor extends ChadoProcessor
                             continue;
                         }
                         String newFieldValue = synonymAction.processValue(cvtermName);
-                        Set<String> existingSynonyms = fdat.getExistingSynonyms();
-                        if (existingSynonyms.contains(newFieldValue)) {
+                        if (fdat.hasExistingSynonym(newFieldValue)) {
                             continue;
                         }
                         Item synonym = createSynonym(fdat, newFieldValue);
@@ -1388,12 +2364,12 @@ public class SequenceProcessor extends ChadoProcessor
             previousFeatureId = featureId;
         }
 
-        if (previousFeatureId != null) {
-            processCVTermRefCols(previousFeatureId, dataMap);
+        if (previousFeatureId != -1) {
+            processCVTermRefCols(new Integer(previousFeatureId), dataMap);
         }
 
         LOG.info("created " + count + " synonyms from the feature_cvterm table");
-        res.close();
+        rows.close();
     }
 
 
@@ -1406,7 +2382,7 @@ public class SequenceProcessor extends ChadoProcessor
 
         FeatureData fdat = featureMap.get(chadoObjectId);
         String interMineType = fdat.getInterMineType();
-        ClassDescriptor cd = getModel().getClassDescriptorByName(interMineType);
+        ClassDescriptor cd = getFeatureTypeInfo(interMineType).cd;
         for (String referenceName: dataMap.keySet()) {
             FieldDescriptor fd = cd.getFieldDescriptorByName(referenceName);
             if (fd == null) {
@@ -1426,7 +2402,7 @@ public class SequenceProcessor extends ChadoProcessor
                 reference.setName(fd.getName());
                 String itemIdentifier = item.getIdentifier();
                 reference.setRefId(itemIdentifier);
-                getChadoDBConverter().store(reference, intermineObjectId);
+                storeReference(reference, intermineObjectId);
 
                 // XXX FIXME TODO: special case for 1-1 relations - we need to set the reverse
                 // reference
@@ -1437,22 +2413,28 @@ public class SequenceProcessor extends ChadoProcessor
                 for (Item item: itemList) {
                     referenceList.addRefId(item.getIdentifier());
                 }
-                getChadoDBConverter().store(referenceList, intermineObjectId);
+                storeCollection(referenceList, intermineObjectId);
             }
         }
     }
 
-    @SuppressWarnings("boxing")
     private void processSynonymTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getSynonymResultSet(connection);
+        ChadoRows rows = copyRows(connection, getSynonymQuery(), SYNONYM_COLUMNS);
+        if (rows == null) {
+            rows = new ResultSetRows(getSynonymResultSet(connection), SYNONYM_COLUMNS);
+        }
+        int featureIdColumn = rows.findColumn("feature_id");
+        int synonymNameColumn = rows.findColumn("synonym_name");
+        int typeNameColumn = rows.findColumn("type_name");
+        int isCurrentColumn = rows.findColumn("is_current");
+        // the fields set by this row, so that only the first action for a field is used
         Set<String> existingAttributes = new HashSet<String>();
-        Integer currentFeatureId = null;
         int count = 0;
-        while (res.next()) {
-            Integer featureId = new Integer(res.getInt("feature_id"));
-            String identifier = res.getString("synonym_name");
-            String synonymTypeName = res.getString("type_name");
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
+            String identifier = rows.getString(synonymNameColumn);
+            String synonymTypeName = rows.getString(typeNameColumn);
 
             // change type so synonyms will merge correctly
             if ("primaryAccession".equals(synonymTypeName)) {
@@ -1461,33 +2443,29 @@ public class SequenceProcessor extends ChadoProcessor
                 synonymTypeName = "identifier";
             }
 
-            Boolean isCurrent = res.getBoolean("is_current");
+            // Boolean.valueOf() returns one of the two constants
+            Boolean isCurrent = Boolean.valueOf(rows.getBoolean(isCurrentColumn));
 
             // it is a not null in db
             if (identifier == null) {
                 throw new RuntimeException("found null synonym name in synonym table.");
             }
-            identifier = fixIdentifier(featureMap.get(featureId), identifier);
+            FeatureData fdat = featureMap.get(featureId);
+            identifier = fixIdentifier(fdat, identifier);
 
-            if (currentFeatureId != null && currentFeatureId != featureId) {
-                existingAttributes = new HashSet<String>();
-            }
+            existingAttributes.clear();
 
-            if (featureMap.containsKey(featureId)) {
-                FeatureData fdat = featureMap.get(featureId);
+            if (fdat != null) {
                 identifier = fixIdentifier(fdat, identifier);
-                MultiKey key =
-                        new MultiKey("synonym", fdat.getInterMineType(),
-                                synonymTypeName, isCurrent);
                 int taxonId = fdat.organismData.getTaxonId();
-                Map<MultiKey, List<ConfigAction>> orgConfig = getConfig(taxonId);
-                List<ConfigAction> actionList = orgConfig.get(key);
+                ConfigIndex orgConfig = getConfigIndex(taxonId);
+                List<ConfigAction> actionList = orgConfig.get("synonym", fdat.getInterMineType(),
+                        synonymTypeName, isCurrent);
 
                 if (actionList == null) {
                     // try ignoring isCurrent
-                    MultiKey key2 =
-                            new MultiKey("synonym", fdat.getInterMineType(), synonymTypeName, null);
-                    actionList = orgConfig.get(key2);
+                    actionList = orgConfig.get("synonym", fdat.getInterMineType(),
+                            synonymTypeName, null);
                 }
                 if (actionList == null) {
                     // no actions configured for this synonym
@@ -1516,7 +2494,7 @@ public class SequenceProcessor extends ChadoProcessor
                             continue;
                         }
                         String newFieldValue = createSynonymAction.processValue(identifier);
-                        if (fdat.getExistingSynonyms().contains(newFieldValue)) {
+                        if (fdat.hasExistingSynonym(newFieldValue)) {
                             continue;
                         }
                         Item synonym =
@@ -1528,11 +2506,10 @@ public class SequenceProcessor extends ChadoProcessor
                     }
                 }
             }
-            currentFeatureId = featureId;
         }
 
         LOG.info("created " + count + " synonyms from the synonym table");
-        res.close();
+        closeRows(rows);
     }
 
     /**
@@ -1560,15 +2537,19 @@ public class SequenceProcessor extends ChadoProcessor
 
     private void processPubTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getPubResultSet(connection);
+        ChadoRows rows = new ResultSetRows(getPubResultSet(connection), "feature_id",
+                "pub_db_identifier");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int pubIdentifierColumn = rows.findColumn("pub_db_identifier");
 
         List<String> currentPublicationIds = new ArrayList<String>();
-        Integer lastPubFeatureId = null;
+        // -1 until the first publication has been read
+        int lastPubFeatureId = -1;
         int featureWarnings = 0;
         int count = 0;
 
-        while (res.next()) {
-            Integer featureId = new Integer(res.getInt("feature_id"));
+        while (rows.next()) {
+            int featureId = rows.getInt(featureIdColumn);
             if (!featureMap.containsKey(featureId)) {
                 if (featureWarnings <= 20) {
                     if (featureWarnings < 20) {
@@ -1581,9 +2562,9 @@ public class SequenceProcessor extends ChadoProcessor
                 }
                 continue;
             }
-            Integer pubMedId = fixPubMedId(res.getString("pub_db_identifier"));
-            if (lastPubFeatureId != null && !featureId.equals(lastPubFeatureId)) {
-                makeFeaturePublications(lastPubFeatureId, currentPublicationIds);
+            Integer pubMedId = fixPubMedId(rows.getString(pubIdentifierColumn));
+            if (lastPubFeatureId != -1 && featureId != lastPubFeatureId) {
+                makeFeaturePublications(new Integer(lastPubFeatureId), currentPublicationIds);
                 currentPublicationIds = new ArrayList<String>();
             }
             String publicationId = makePublication(pubMedId);
@@ -1592,11 +2573,11 @@ public class SequenceProcessor extends ChadoProcessor
             count++;
         }
 
-        if (lastPubFeatureId != null) {
-            makeFeaturePublications(lastPubFeatureId, currentPublicationIds);
+        if (lastPubFeatureId != -1) {
+            makeFeaturePublications(new Integer(lastPubFeatureId), currentPublicationIds);
         }
         LOG.info("Created " + count + " publications");
-        res.close();
+        rows.close();
     }
 
     /**
@@ -1644,7 +2625,7 @@ public class SequenceProcessor extends ChadoProcessor
         ReferenceList referenceList = new ReferenceList();
         referenceList.setName("publications");
         referenceList.setRefIds(publicationIds);
-        getChadoDBConverter().store(referenceList, fdat.getIntermineObjectId());
+        storeCollection(referenceList, fdat.getIntermineObjectId());
     }
 
     /**
@@ -1657,12 +2638,81 @@ public class SequenceProcessor extends ChadoProcessor
     protected ResultSet getFeatureTableResultSet(Connection connection)
         throws SQLException {
         String query = "SELECT * FROM " + tempFeatureTableName;
+        if (changedFeatureTableName != null) {
+            // in an incremental load, the new and changed features and the unchanged features
+            // they can refer to: chromosomes and the other ends of their relations.  The
+            // residues of unchanged features aren't needed so aren't read
+            String changedIds = "SELECT feature_id FROM " + changedFeatureTableName;
+            query = "SELECT * FROM " + tempFeatureTableName
+                + " WHERE feature_id IN (" + changedIds + ")"
+                + " UNION ALL"
+                + " SELECT feature_id, name, uniquename, type, seqlen, is_analysis, "
+                + (getChadoDBConverter().isLazyResidues() ? "" : "NULL AS residues, ")
+                + "md5checksum, organism_id FROM " + tempFeatureTableName
+                + " WHERE feature_id NOT IN (" + changedIds + ")"
+                + " AND (type IN (" + getFeaturesString(getChromosomeFeatureTypes()) + ")"
+                + " OR feature_id IN (SELECT object_id FROM feature_relationship"
+                + " WHERE subject_id IN (" + changedIds + "))"
+                + " OR feature_id IN (SELECT subject_id FROM feature_relationship"
+                + " WHERE object_id IN (" + changedIds + "))"
+                // the gene <-> protein relations of getGenesProteinsQuery() go through an mRNA
+                + " OR feature_id IN (SELECT fr2.subject_id"
+                + " FROM feature_relationship fr1, feature_relationship fr2"
+                + " WHERE fr2.object_id = fr1.subject_id"
+                + " AND fr1.object_id IN (" + changedIds + "))"
+                + " OR feature_id IN (SELECT fr1.object_id"
+                + " FROM feature_relationship fr1, feature_relationship fr2"
+                + " WHERE fr2.object_id = fr1.subject_id"
+                + " AND fr2.subject_id IN (" + changedIds + ")))";
+        }
         LOG.info("executing getFeatureTableResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
+        ResultSet res = stmt.executeQuery(query);
+        return res;
+    }
+
+    /**
+     * Return the feature_id and seqlen of the features from the temporary feature table that
+     * have residues.  Only used when residues are read lazily.
+     * This is a protected method so that it can be overridden for testing
+     * @param connection the db connection
+     * @return the SQL result set
+     * @throws SQLException if a database problem occurs
+     */
+    protected ResultSet getResiduesFeatureResultSet(Connection connection)
+        throws SQLException {
+        // octet_length() can be found without reading the whole residues value from the TOAST
+        // table, length() is only needed for the few features with no seqlen
+        String query = "SELECT temp.feature_id,"
+                + " COALESCE(temp.seqlen, length(feature.residues)) AS seqlen"
+                + " FROM " + tempFeatureTableName + " temp, feature"
+                + " WHERE feature.feature_id = temp.feature_id"
+                + " AND feature.residues IS NOT NULL"
+                + " AND octet_length(feature.residues) > 0"
+                + (changedFeatureTableName == null ? ""
+                   : " AND temp.feature_id IN (SELECT feature_id FROM "
+                   + changedFeatureTableName + ")");
+        LOG.info("executing getResiduesFeatureResultSet(): " + query);
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    /**
+     * Return a statement that reads part of the residues of a feature.  The parameters are the
+     * 1-based start position, the number of characters to read and the feature_id.
+     * This is a protected method so that it can be overridden for testing
+     * @param connection the db connection
+     * @return the statement
+     * @throws SQLException if a database problem occurs
+     */
+    protected PreparedStatement getResiduesChunkStatement(Connection connection)
+        throws SQLException {
+        String query = "SELECT substring(residues FROM ? FOR ?) FROM feature WHERE feature_id = ?";
+        LOG.info("preparing getResiduesChunkStatement(): " + query);
+        return connection.prepareStatement(query);
+    }
+
     /**
      * Convert the list of features to a string to be used in a SQL query.
      * @return the list of features as a string (in SQL list format)
@@ -1707,9 +2757,11 @@ public class SequenceProcessor extends ChadoProcessor
         }
 
         String query =
-                "CREATE TEMPORARY TABLE " + tempFeatureTableName + " AS"
+                getCreateTempTableSql(connection, tempFeatureTableName) + " AS"
                         + " SELECT feature_id, feature.name, uniquename, cvterm.name as type,"
-                        + " seqlen, is_analysis, residues, md5checksum, organism_id"
+                        + " seqlen, is_analysis, "
+                        + (getChadoDBConverter().isLazyResidues() ? "" : "residues, ")
+                        + "md5checksum, organism_id"
                         + " FROM feature, cvterm"
                         + " WHERE cvterm.name IN (" + featureTypesString  + ")"
                         + orgConstraintForQuery
@@ -1768,6 +2820,19 @@ public class SequenceProcessor extends ChadoProcessor
         return "SELECT feature_id FROM " + tempFeatureTableName;
     }
 
+    /**
+     * Return an SQL query that finds the feature_ids of the features whose locations, dbxrefs,
+     * synonyms etc. we need to process.  In an incremental load these are the new and changed
+     * features, otherwise they are the same features as getFeatureIdQuery().
+     * @return the SQL string
+     */
+    protected String getChangedFeatureIdQuery() {
+        if (changedFeatureTableName == null) {
+            return getFeatureIdQuery();
+        }
+        return "SELECT feature_id FROM " + changedFeatureTableName;
+    }
+
 
     private String getChromosomeFeatureIdQuery() {
         return
@@ -1781,9 +2846,10 @@ public class SequenceProcessor extends ChadoProcessor
     }
 
     /**
-     * Return the interesting rows from the feature_relationship table.  The feature pairs are
+     * Return the interesting rows from the feature_relationship table.  The feature pairs can be
      * returned in both subject, object and object, subject orientations so that the relationship
-     * processing can be configured in a natural way.
+     * processing can be configured in a natural way.  processRelationTable() reads the subject
+     * first orientation and works out the other from it.
      * This is a protected method so that it can be overridden for testing
      * @param connection the db connection
      * @param subjectFirst if true the subject_id column from the relationship table will be before
@@ -1811,10 +2877,13 @@ public class SequenceProcessor extends ChadoProcessor
                 + "  WHERE cvterm.cvterm_id = type_id"
                 + "      AND subject_id IN (" + getFeatureIdQuery() + ")"
                 + "      AND object_id IN (" + getFeatureIdQuery() + ")"
+                + (changedFeatureTableName == null ? ""
+                        : "      AND (subject_id IN (" + getChangedFeatureIdQuery() + ")"
+                        + "        OR object_id IN (" + getChangedFeatureIdQuery() + "))")
                 + extraQueryBits
                 + " ORDER BY feature1_id";
         LOG.info("executing getFeatureRelationshipResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1872,14 +2941,14 @@ public class SequenceProcessor extends ChadoProcessor
                         + " fmax, is_fmax_partial, strand"
                         + " FROM featureloc"
                         + " WHERE feature_id IN"
-                        + " (" + getFeatureIdQuery() + ")"
+                        + " (" + getChangedFeatureIdQuery() + ")"
                         + " AND feature_id NOT IN"
                         + " (" + getChromosomeFeatureIdQuery() + ")"
                         + " AND srcfeature_id IN"
                         + " (" + getChromosomeFeatureIdQuery() + ")"
                         + " AND locgroup = 0";
         LOG.info("executing getFeatureLocResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1919,7 +2988,7 @@ public class SequenceProcessor extends ChadoProcessor
         //  + "    AND f1.feature_id IN (" + getFeatureIdQuery() + ")"
         //  + "    AND f2.feature_id IN (" + getChromosomeFeatureIdQuery() + ")";
         LOG.info("executing getMatchLocResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1932,16 +3001,9 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getDbxrefResultSet(Connection connection) throws SQLException {
-        String query =
-                "SELECT feature.feature_id, accession, db.name AS db_name, is_current"
-                        + "  FROM dbxref, feature_dbxref, feature, db"
-                        + "  WHERE feature_dbxref.dbxref_id = dbxref.dbxref_id "
-                        + "    AND feature_dbxref.feature_id = feature.feature_id "
-                        + "    AND feature.feature_id IN"
-                        + "        (" + getFeatureIdQuery() + ")"
-                        + "    AND dbxref.db_id = db.db_id";
+        String query = getDbxrefQuery();
         LOG.info("executing getDbxrefResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1954,12 +3016,9 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getFeaturePropResultSet(Connection connection) throws SQLException {
-        String query =
-                "select feature_id, value, cvterm.name AS type_name FROM featureprop, cvterm"
-                        + "   WHERE featureprop.type_id = cvterm.cvterm_id"
-                        + "       AND feature_id IN (" + getFeatureIdQuery() + ")";
+        String query = getFeaturePropQuery();
         LOG.info("executing getFeaturePropResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -1987,7 +3046,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND lp.type_id=lp_type.cvterm_id "
                         + " AND f.feature_id IN (" + getFeatureIdQuery() + ")";
         LOG.info("executing getLibraryFeatureResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -2011,7 +3070,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND cvt.dbxref_id = d.dbxref_id "
                         + " AND f.feature_id IN (" + getFeatureIdQuery() + ")";
         LOG.info("executing getLibraryFeatureResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -2030,12 +3089,12 @@ public class SequenceProcessor extends ChadoProcessor
                 "SELECT DISTINCT feature_id, cvterm.cvterm_id, cvterm.name AS cvterm_name,"
                         + " cv.name AS cv_name "
                         + " FROM feature_cvterm, cvterm, cv "
-                        + " WHERE feature_id IN (" + getFeatureIdQuery() + ")"
+                        + " WHERE feature_id IN (" + getChangedFeatureIdQuery() + ")"
                         + " AND cvterm.cvterm_id = feature_cvterm.cvterm_id "
                         + " AND cvterm.cv_id = cv.cv_id "
                         + " ORDER BY feature_id";
         LOG.info("executing getFeatureCVTermResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -2048,20 +3107,73 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getSynonymResultSet(Connection connection) throws SQLException {
-        String query =
-                "SELECT DISTINCT feature_id, synonym.name AS synonym_name,"
-                        + " cvterm.name AS type_name, is_current"
-                        + " FROM feature_synonym, synonym, cvterm"
-                        + " WHERE feature_synonym.synonym_id = synonym.synonym_id"
-                        + " AND synonym.type_id = cvterm.cvterm_id"
-                        + " AND feature_id IN (" + getFeatureIdQuery() + ")"
-                        + " ORDER BY is_current DESC";
+        String query = getSynonymQuery();
         LOG.info("executing getSynonymResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    // the query for getDbxrefResultSet(), with the columns in DBXREF_COLUMNS
+    private String getDbxrefQuery() {
+        return "SELECT feature.feature_id, accession, db.name AS db_name, is_current"
+            + "  FROM dbxref, feature_dbxref, feature, db"
+            + "  WHERE feature_dbxref.dbxref_id = dbxref.dbxref_id "
+            + "    AND feature_dbxref.feature_id = feature.feature_id "
+            + "    AND feature.feature_id IN"
+            + "        (" + getChangedFeatureIdQuery() + ")"
+            + "    AND dbxref.db_id = db.db_id";
+    }
+
+    // the query for getFeaturePropResultSet(), with the columns in FEATUREPROP_COLUMNS
+    private String getFeaturePropQuery() {
+        return "select feature_id, value, cvterm.name AS type_name FROM featureprop, cvterm"
+            + "   WHERE featureprop.type_id = cvterm.cvterm_id"
+            + "       AND feature_id IN (" + getChangedFeatureIdQuery() + ")";
+    }
+
+    // the query for getSynonymResultSet(), with the columns in SYNONYM_COLUMNS
+    private String getSynonymQuery() {
+        return "SELECT DISTINCT feature_id, synonym.name AS synonym_name,"
+            + " cvterm.name AS type_name, is_current"
+            + " FROM feature_synonym, synonym, cvterm"
+            + " WHERE feature_synonym.synonym_id = synonym.synonym_id"
+            + " AND synonym.type_id = cvterm.cvterm_id"
+            + " AND feature_id IN (" + getChangedFeatureIdQuery() + ")"
+            + " ORDER BY is_current DESC";
+    }
+
+    /**
+     * If ChadoDBConverter.isBulkCopy() is true, start reading the results of a query with COPY
+     * instead of through a ResultSet.
+     * @param connection the db connection, may be null while testing
+     * @param query the query
+     * @param columnNames the names of the columns the query returns, in order
+     * @return the rows, or null if the query should be run with JDBC
+     * @throws SQLException if a database problem occurs
+     */
+    private ChadoRows copyRows(Connection connection, String query, String... columnNames)
+        throws SQLException {
+        if (connection == null || !getChadoDBConverter().isBulkCopy()) {
+            return null;
+        }
+        ChadoRows rows = CopyOutRows.open(connection, query, columnNames);
+        if (rows == null) {
+            LOG.warn("bulkCopy is set but the connection isn't a PostgreSQL connection,"
+                    + " reading with JDBC");
+        }
+        return rows;
+    }
+
+    // close rows returned by copyRows(), counting them for the LoadProfile because COPY bypasses
+    // the profiled connection
+    private void closeRows(ChadoRows rows) throws SQLException {
+        rows.close();
+        if (rows instanceof CopyOutRows) {
+            getChadoDBConverter().getLoadProfile().countRows(((CopyOutRows) rows).getRowCount());
+        }
+    }
+
     /**
      * Return the interesting rows from the pub table.
      * This is a protected method so that it can be overridden for testing
@@ -2078,10 +3190,10 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND dbxref.db_id = db.db_id"
                         + " AND pub.pub_id = pub_dbxref.pub_id"
                         + " AND db.name = 'pubmed'"
-                        + " AND feature_id IN (" + getFeatureIdQuery() + ")"
+                        + " AND feature_id IN (" + getChangedFeatureIdQuery() + ")"
                         + " ORDER BY feature_pub.feature_id";
         LOG.info("executing getPubResultSet(): " + query);
-        Statement stmt = connection.createStatement();
+        Statement stmt = createStatement(connection);
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
@@ -2096,23 +3208,27 @@ public class SequenceProcessor extends ChadoProcessor
      */
     protected Item createSynonym(FeatureData fdat, String identifier)
         throws ObjectStoreException {
-        if (fdat.getExistingSynonyms().contains(identifier)) {
-            String msg = "feature identifier " + identifier + " is already a synonym for: "
-                    + fdat.getExistingSynonyms();
-            LOG.info(msg);
-            //          TODO:  why would a duplicate synonym require an exception to be thrown?
-            //          throw new IllegalArgumentException(msg);
-            return null;
-        }
-        Item returnItem = null;
-        try {
-            returnItem = getChadoDBConverter().createSynonym(fdat.getItemIdentifier(), identifier,
-                    false);
-        } catch (ObjectStoreException e) {
-            throw new RuntimeException("Couldn't create synonym", e);
+        // the FeatureData of a common modENCODE feature may be shared with processors in other
+        // threads, so check and record the synonym atomically
+        synchronized (fdat) {
+            if (fdat.hasExistingSynonym(identifier)) {
+                String msg = "feature identifier " + identifier + " is already a synonym for: "
+                        + fdat.getExistingSynonyms();
+                LOG.info(msg);
+                //          TODO:  why would a duplicate synonym require an exception to be thrown?
+                //          throw new IllegalArgumentException(msg);
+                return null;
+            }
+            Item returnItem = null;
+            try {
+                returnItem = getChadoDBConverter().createSynonym(fdat.getItemIdentifier(),
+                        identifier, false);
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("Couldn't create synonym", e);
+            }
+            fdat.addExistingSynonym(identifier);
+            return returnItem;
         }
-        fdat.addExistingSynonym(identifier);
-        return returnItem;
     }
 
     /**
@@ -0,0 +1,429 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A FeatureDataMap that keeps only recently used features on the heap and the rest in a
+ * FeatureDataStore, so that a processor can hold more features than fit in memory.  Every feature
+ * is written to the store when it is put and written again when it is evicted from the cache, and
+ * get() of a feature that isn't cached reads it from the store.
+ *
+ * A FeatureData can still be changed after it has been evicted: while it is evicted each change
+ * is written through to the store (see FeatureData.setEvicted()), and as long as something still
+ * refers to it get() returns the same object rather than a new copy, so two copies of a feature
+ * are never changed independently.  A FeatureData added with putPinned() is never evicted, so
+ * it can be shared by several feature_ids.
+ *
+ * The cache is an open addressing table keyed by int feature_ids, so get(int) of a cached feature
+ * creates no garbage, and features are evicted by the CLOCK approximation of least recently used.
+ * The map isn't thread safe - ChadoDBConverter doesn't allow a feature cache with a parallelism of
+ * more than 1.
+ */
+class SpillingFeatureDataMap extends FeatureDataMap
+{
+    private final int cacheSize;
+    private final File directory;
+    private FeatureDataStore store;
+
+    // the cache: feature_ids, FeatureData (null for an empty slot) and CLOCK reference bits
+    private final int[] cacheKeys;
+    private final FeatureData[] cacheValues;
+    private final boolean[] cacheUsed;
+    private final int cacheMask;
+    private int cacheCount = 0;
+    private int clockHand = 0;
+
+    // evicted features that may still be referred to elsewhere, by feature_id
+    private final Map<Integer, Evicted> evicted = new HashMap<Integer, Evicted>();
+    private final ReferenceQueue<FeatureData> evictedQueue = new ReferenceQueue<FeatureData>();
+
+    // features that are kept on the heap until they are removed, see putPinned()
+    private final FeatureDataMap pinned = new FeatureDataMap();
+
+    /**
+     * Create a new, empty SpillingFeatureDataMap.
+     * @param cacheSize the number of features to keep on the heap
+     * @param directory the directory for the store file, or null for the system temporary
+     * directory
+     */
+    SpillingFeatureDataMap(int cacheSize, File directory) {
+        if (cacheSize < 1 || cacheSize > 1 << 28) {
+            throw new IllegalArgumentException("cache size must be between 1 and 2^28: "
+                    + cacheSize);
+        }
+        this.cacheSize = cacheSize;
+        this.directory = directory;
+        // at most half full, so probes stay short
+        int capacity = Integer.highestOneBit(cacheSize) << 2;
+        cacheKeys = new int[capacity];
+        cacheValues = new FeatureData[capacity];
+        cacheUsed = new boolean[capacity];
+        cacheMask = capacity - 1;
+        store = openStore();
+    }
+
+    private FeatureDataStore openStore() {
+        try {
+            return new FeatureDataStore(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to create the feature store in " + directory, e);
+        }
+    }
+
+    private void write(int featureId, FeatureData fdat) {
+        try {
+            store.write(featureId, fdat);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to write feature " + featureId + " to the feature"
+                    + " store", e);
+        }
+    }
+
+    /**
+     * Return the number of bytes of the store file used so far.
+     * @return the length
+     */
+    long getStoreLength() {
+        return store.getLength();
+    }
+
+    private int slot(int featureId) {
+        int h = featureId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & cacheMask;
+    }
+
+    private int findCacheSlot(int featureId) {
+        int i = slot(featureId);
+        while (cacheValues[i] != null && cacheKeys[i] != featureId) {
+            i = (i + 1) & cacheMask;
+        }
+        return i;
+    }
+
+    private void addToCache(int featureId, FeatureData fdat) {
+        if (cacheCount == cacheSize) {
+            evictOne();
+        }
+        int i = findCacheSlot(featureId);
+        cacheKeys[i] = featureId;
+        cacheValues[i] = fdat;
+        cacheUsed[i] = true;
+        cacheCount++;
+    }
+
+    private FeatureData removeFromCache(int featureId) {
+        int i = findCacheSlot(featureId);
+        FeatureData fdat = cacheValues[i];
+        if (fdat != null) {
+            deleteCacheSlot(i);
+        }
+        return fdat;
+    }
+
+    // move the clock hand to the first feature that hasn't been used since the hand last passed
+    // it, and evict that feature
+    private void evictOne() {
+        while (true) {
+            int i = clockHand;
+            clockHand = (clockHand + 1) & cacheMask;
+            if (cacheValues[i] == null) {
+                continue;
+            }
+            if (cacheUsed[i]) {
+                cacheUsed[i] = false;
+                continue;
+            }
+            int featureId = cacheKeys[i];
+            FeatureData fdat = cacheValues[i];
+            deleteCacheSlot(i);
+            write(featureId, fdat);
+            expungeEvicted();
+            Evicted ref = new Evicted(featureId, fdat);
+            evicted.put(new Integer(featureId), ref);
+            fdat.setEvicted(ref);
+            return;
+        }
+    }
+
+    private void deleteCacheSlot(int gap) {
+        int i = (gap + 1) & cacheMask;
+        while (cacheValues[i] != null) {
+            int home = slot(cacheKeys[i]);
+            // move the entry at i into the gap if its home slot isn't between the gap and i
+            if (((i - home) & cacheMask) >= ((i - gap) & cacheMask)) {
+                cacheKeys[gap] = cacheKeys[i];
+                cacheValues[gap] = cacheValues[i];
+                cacheUsed[gap] = cacheUsed[i];
+                gap = i;
+            }
+            i = (i + 1) & cacheMask;
+        }
+        cacheValues[gap] = null;
+        cacheUsed[gap] = false;
+        cacheCount--;
+    }
+
+    // forget the evicted features that have been garbage collected - the store has their last
+    // state
+    private void expungeEvicted() {
+        Evicted ref;
+        while ((ref = (Evicted) evictedQueue.poll()) != null) {
+            Integer key = new Integer(ref.featureId);
+            if (evicted.get(key) == ref) {
+                evicted.remove(key);
+            }
+        }
+    }
+
+    // stop writing the changes of an evicted feature to the store, because it is being cached
+    // again, replaced or removed, and return the FeatureData if it is still referred to
+    private FeatureData forgetEvicted(int featureId) {
+        Evicted ref = evicted.remove(new Integer(featureId));
+        if (ref == null) {
+            return null;
+        }
+        FeatureData fdat = ref.get();
+        if (fdat != null) {
+            fdat.setEvicted(null);
+        }
+        return fdat;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData get(int featureId) {
+        FeatureData fdat = pinned.get(featureId);
+        if (fdat != null) {
+            return fdat;
+        }
+        int i = findCacheSlot(featureId);
+        fdat = cacheValues[i];
+        if (fdat != null) {
+            cacheUsed[i] = true;
+            return fdat;
+        }
+        if (!store.contains(featureId)) {
+            return null;
+        }
+        // an evicted FeatureData that is still referred to is the one to change
+        fdat = forgetEvicted(featureId);
+        if (fdat == null) {
+            fdat = store.read(featureId);
+        }
+        addToCache(featureId, fdat);
+        return fdat;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(int featureId) {
+        return store.contains(featureId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        if (key instanceof Integer) {
+            return containsKey(((Integer) key).intValue());
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData put(int featureId, FeatureData fdat) {
+        if (fdat == null) {
+            throw new IllegalArgumentException("FeatureDataMap can't store null for feature_id "
+                    + featureId);
+        }
+        FeatureData previous = detach(featureId);
+        write(featureId, fdat);
+        addToCache(featureId, fdat);
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The FeatureData is also written to the store so that it is counted and iterated over like
+     * the other features, but get() always returns the pinned object.
+     */
+    @Override
+    public FeatureData putPinned(int featureId, FeatureData fdat) {
+        if (fdat == null) {
+            throw new IllegalArgumentException("FeatureDataMap can't store null for feature_id "
+                    + featureId);
+        }
+        FeatureData previous = detach(featureId);
+        write(featureId, fdat);
+        pinned.put(featureId, fdat);
+        return previous;
+    }
+
+    // remove a feature from the pinned features, the cache and the evicted features, returning
+    // its FeatureData if it is stored
+    private FeatureData detach(int featureId) {
+        if (!store.contains(featureId)) {
+            return null;
+        }
+        FeatureData previous = pinned.remove(featureId);
+        if (previous == null) {
+            previous = removeFromCache(featureId);
+        }
+        if (previous == null) {
+            previous = forgetEvicted(featureId);
+        } else {
+            forgetEvicted(featureId);
+        }
+        if (previous == null) {
+            previous = store.read(featureId);
+        }
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData remove(int featureId) {
+        FeatureData previous = detach(featureId);
+        if (previous != null) {
+            store.remove(featureId);
+        }
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < cacheValues.length; i++) {
+            cacheValues[i] = null;
+            cacheUsed[i] = false;
+        }
+        cacheCount = 0;
+        for (Evicted ref: evicted.values()) {
+            FeatureData fdat = ref.get();
+            if (fdat != null) {
+                fdat.setEvicted(null);
+            }
+        }
+        evicted.clear();
+        pinned.clear();
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new RuntimeException("failed to close the feature store", e);
+        }
+        store = openStore();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<Integer, FeatureData>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, FeatureData>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, FeatureData>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return SpillingFeatureDataMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * A weak reference to a FeatureData evicted from the cache.  The FeatureData refers back to
+     * it so that its changes are written to the store.
+     */
+    final class Evicted extends WeakReference<FeatureData>
+    {
+        private final int featureId;
+
+        private Evicted(int featureId, FeatureData fdat) {
+            super(fdat, evictedQueue);
+            this.featureId = featureId;
+        }
+
+        /**
+         * Write the changed FeatureData to the store, unless the feature has been replaced or
+         * removed since it was evicted.
+         * @param fdat the FeatureData
+         */
+        void changed(FeatureData fdat) {
+            if (evicted.get(new Integer(featureId)) == this) {
+                write(featureId, fdat);
+            }
+        }
+    }
+
+    /**
+     * Iterates over the features stored when the iterator was made, reading each one through
+     * get() so that changes to the returned FeatureData are kept.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<Integer, FeatureData>>
+    {
+        private final int[] featureIds;
+        private int next = 0;
+
+        EntryIterator() {
+            featureIds = store.getFeatureIds();
+        }
+
+        public boolean hasNext() {
+            return next < featureIds.length;
+        }
+
+        public Map.Entry<Integer, FeatureData> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int featureId = featureIds[next++];
+            return new SimpleImmutableEntry<Integer, FeatureData>(new Integer(featureId),
+                    get(featureId));
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("remove() not supported by FeatureDataMap");
+        }
+    }
+}
@@ -53,6 +53,18 @@ public class StockProcessor extends ChadoProcessor
         processSocks(connection);
     }
 
+    /**
+     * The stocks are linked to the features of the SequenceProcessor.
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Class<? extends ChadoProcessor>> getDependencies() {
+        List<Class<? extends ChadoProcessor>> dependencies =
+            new ArrayList<Class<? extends ChadoProcessor>>();
+        dependencies.add(SequenceProcessor.class);
+        return dependencies;
+    }
+
     /**
      * Process the stocks and genotypes tables in a chado database
      * @param connection
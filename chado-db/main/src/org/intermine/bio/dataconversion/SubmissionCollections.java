@@ -0,0 +1,276 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.xml.full.ReferenceList;
+
+/**
+ * The submissions collection of each modENCODE feature, built up one submission at a time.
+ * Each (feature object id, submission) pair is held as one long, so a pair costs 8 bytes rather
+ * than the map entry and list of a Map&lt;Integer, List&lt;String&gt;&gt;.  If a spill directory
+ * is given, the pairs are sorted and written to a run file whenever more than spillSize pairs
+ * are held at the end of a submission, and store() merges the runs, so memory use is bounded by
+ * spillSize or the largest submission.  Not thread safe.
+ */
+class SubmissionCollections
+{
+    private static final Logger LOG = Logger.getLogger(SubmissionCollections.class);
+
+    private final int spillSize;
+    private final File spillDirectory;
+    private final List<String> submissionItemIdentifiers = new ArrayList<String>();
+    private final List<File> runFiles = new ArrayList<File>();
+    private long[] pairs = new long[1024];
+    private int size = 0;
+    private long pairCount = 0;
+
+    /**
+     * Create a new SubmissionCollections.
+     * @param spillSize the number of pairs to hold in memory before writing a run file
+     * @param spillDirectory the directory for the run files, or null to keep all pairs in memory
+     */
+    SubmissionCollections(int spillSize, File spillDirectory) {
+        this.spillSize = spillSize;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Register a submission.  Submissions should be added in the order they are processed, which
+     * is the order they will appear in the collections.
+     * @param submissionItemIdentifier the item identifier of the Submission
+     * @return the index to pass to add()
+     */
+    int addSubmission(String submissionItemIdentifier) {
+        submissionItemIdentifiers.add(submissionItemIdentifier);
+        return submissionItemIdentifiers.size() - 1;
+    }
+
+    /**
+     * Record that a feature is referenced by a submission.
+     * @param featureObjectId the intermine object id of the feature
+     * @param submissionIndex the value returned by addSubmission()
+     */
+    void add(int featureObjectId, int submissionIndex) {
+        if (size == pairs.length) {
+            pairs = Arrays.copyOf(pairs, size * 2);
+        }
+        pairs[size++] = ((long) featureObjectId << 32) | submissionIndex;
+        pairCount++;
+    }
+
+    /**
+     * Called after all the pairs of a submission have been added.  Writes a run file if there is
+     * a spill directory and more than spillSize pairs are held.
+     * @throws IOException if the run file can't be written
+     */
+    void endSubmission() throws IOException {
+        if (spillDirectory != null && size > spillSize) {
+            spill();
+        }
+    }
+
+    private void spill() throws IOException {
+        Arrays.sort(pairs, 0, size);
+        File runFile = File.createTempFile("submission_collections", ".run", spillDirectory);
+        runFile.deleteOnExit();
+        runFiles.add(runFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(runFile), 65536));
+        try {
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || pairs[i] != pairs[i - 1]) {
+                    out.writeLong(pairs[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        LOG.info("wrote " + size + " submission collection entries to " + runFile);
+        size = 0;
+        if (pairs.length > spillSize * 2) {
+            // free the space used by a large submission
+            pairs = new long[Math.max(1024, spillSize)];
+        }
+    }
+
+    /**
+     * Return the number of pairs added.
+     * @return the count
+     */
+    long getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * Return the number of run files written.
+     * @return the count
+     */
+    int getRunCount() {
+        return runFiles.size();
+    }
+
+    /**
+     * Store the submissions collection of every feature, merging the run files with the pairs
+     * held in memory, then delete the run files.
+     * @param converter the converter to store with
+     * @throws IOException if a run file can't be read
+     * @throws ObjectStoreException if there is a problem while storing
+     * @return the number of collections stored
+     */
+    int store(ChadoDBConverter converter) throws IOException, ObjectStoreException {
+        Arrays.sort(pairs, 0, size);
+        PriorityQueue<Run> queue = new PriorityQueue<Run>();
+        try {
+            Run memoryRun = new MemoryRun();
+            if (memoryRun.advance()) {
+                queue.add(memoryRun);
+            }
+            for (File runFile: runFiles) {
+                Run fileRun = new FileRun(runFile);
+                if (fileRun.advance()) {
+                    queue.add(fileRun);
+                } else {
+                    fileRun.close();
+                }
+            }
+
+            int collectionCount = 0;
+            int currentObjectId = 0;
+            long lastPair = -1;
+            List<String> refIds = new ArrayList<String>();
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                long pair = run.current;
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+                if (pair == lastPair) {
+                    // the same feature and submission from another run
+                    continue;
+                }
+                lastPair = pair;
+                int objectId = (int) (pair >>> 32);
+                if (objectId != currentObjectId && !refIds.isEmpty()) {
+                    storeCollection(converter, currentObjectId, refIds);
+                    collectionCount++;
+                    refIds = new ArrayList<String>();
+                }
+                currentObjectId = objectId;
+                refIds.add(submissionItemIdentifiers.get((int) pair));
+            }
+            if (!refIds.isEmpty()) {
+                storeCollection(converter, currentObjectId, refIds);
+                collectionCount++;
+            }
+            return collectionCount;
+        } finally {
+            for (Run run: queue) {
+                run.close();
+            }
+            for (File runFile: runFiles) {
+                runFile.delete();
+            }
+            runFiles.clear();
+            pairs = new long[1024];
+            size = 0;
+        }
+    }
+
+    private static void storeCollection(ChadoDBConverter converter, int featureObjectId,
+            List<String> refIds) throws ObjectStoreException {
+        ReferenceList collection = new ReferenceList("submissions", refIds);
+        converter.store(collection, new Integer(featureObjectId));
+    }
+
+    /**
+     * A sorted sequence of pairs, ordered by the current pair.
+     */
+    private abstract static class Run implements Comparable<Run>
+    {
+        long current;
+
+        abstract boolean advance() throws IOException;
+
+        void close() {
+            // nothing to close by default
+        }
+
+        public int compareTo(Run other) {
+            return current < other.current ? -1 : (current == other.current ? 0 : 1);
+        }
+    }
+
+    /**
+     * The sorted pairs held in memory.
+     */
+    private class MemoryRun extends Run
+    {
+        private int pos = 0;
+
+        @Override
+        boolean advance() {
+            if (pos == size) {
+                return false;
+            }
+            current = pairs[pos++];
+            return true;
+        }
+    }
+
+    /**
+     * The pairs of a run file.
+     */
+    private static class FileRun extends Run
+    {
+        private final DataInputStream in;
+
+        FileRun(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                current = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOG.warn("failed to close submission collections run", e);
+            }
+        }
+    }
+}
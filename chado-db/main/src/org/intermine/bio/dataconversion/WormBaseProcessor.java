@@ -83,7 +83,7 @@ public class WormBaseProcessor extends SequenceProcessor
      */
     @SuppressWarnings("unchecked")
     @Override
-    protected Map<MultiKey, List<ConfigAction>> getConfig(int taxonId) {
+    protected synchronized Map<MultiKey, List<ConfigAction>> getConfig(int taxonId) {
         if (config == null) {
             config = new MultiKeyMap();
             config.put(new MultiKey("feature", "Gene", "WormBase", "uniquename"),
@@ -0,0 +1,136 @@
+package org.intermine.bio.chado;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+import com.mockobjects.sql.MockMultiRowResultSet;
+
+/**
+ * Tests for CachedChadoCVFactory.
+ */
+public class CachedChadoCVFactoryTest extends TestCase
+{
+    private File snapshotDirectory;
+
+    public CachedChadoCVFactoryTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        snapshotDirectory = File.createTempFile("cv_snapshot", "");
+        snapshotDirectory.delete();
+        snapshotDirectory.mkdir();
+    }
+
+    @Override
+    public void tearDown() {
+        for (File file: snapshotDirectory.listFiles()) {
+            file.delete();
+        }
+        snapshotDirectory.delete();
+    }
+
+    public void testSnapshot() throws SQLException {
+        TestCachedChadoCVFactory factory = new TestCachedChadoCVFactory(snapshotDirectory, 1006, 6, "a1");
+        ChadoCV cv = factory.getChadoCV("test cv");
+        assertEquals(1, factory.cvtermQueryCount);
+        assertTrue(new File(snapshotDirectory, "test_cv.cvsnapshot").exists());
+
+        factory = new TestCachedChadoCVFactory(snapshotDirectory, 1006, 6, "a1");
+        ChadoCV snapshotCV = factory.getChadoCV("test cv");
+        assertEquals(0, factory.cvtermQueryCount);
+        assertEquals(cv.getAllCVTerms(), snapshotCV.getAllCVTerms());
+        assertEquals(cv.getRootCVTerms(), snapshotCV.getRootCVTerms());
+        for (int id = 1000; id <= 1006; id++) {
+            ChadoCVTerm term = cv.getByChadoId(new Integer(id));
+            ChadoCVTerm snapshotTerm = snapshotCV.getByChadoId(new Integer(id));
+            assertEquals(term, snapshotTerm);
+            assertEquals(term.getDirectParents(), snapshotTerm.getDirectParents());
+            assertEquals(term.getAllChildren(), snapshotTerm.getAllChildren());
+        }
+
+        // a new cvterm changes the fingerprint
+        factory = new TestCachedChadoCVFactory(snapshotDirectory, 1007, 6, "a1");
+        factory.getChadoCV("test cv");
+        assertEquals(1, factory.cvtermQueryCount);
+    }
+
+    public void testRelationshipsAndNamesChangeFingerprint() throws SQLException {
+        TestCachedChadoCVFactory factory =
+            new TestCachedChadoCVFactory(snapshotDirectory, 1006, 6, "a1");
+        factory.getChadoCV("test cv");
+        assertEquals(1, factory.cvtermQueryCount);
+
+        // a new relationship between existing terms
+        factory = new TestCachedChadoCVFactory(snapshotDirectory, 1006, 7, "a1");
+        factory.getChadoCV("test cv");
+        assertEquals(1, factory.cvtermQueryCount);
+
+        // a renamed term
+        factory = new TestCachedChadoCVFactory(snapshotDirectory, 1006, 7, "b2");
+        factory.getChadoCV("test cv");
+        assertEquals(1, factory.cvtermQueryCount);
+
+        factory = new TestCachedChadoCVFactory(snapshotDirectory, 1006, 7, "b2");
+        factory.getChadoCV("test cv");
+        assertEquals(0, factory.cvtermQueryCount);
+    }
+
+    private static class TestCachedChadoCVFactory extends CachedChadoCVFactory
+    {
+        private final TestChadoCVFactory testFactory = new TestChadoCVFactory();
+        private final int maxCvtermId;
+        private final int relationshipCount;
+        private final String nameHash;
+        int cvtermQueryCount = 0;
+
+        TestCachedChadoCVFactory(File snapshotDirectory, int maxCvtermId, int relationshipCount,
+                String nameHash) {
+            super(null, snapshotDirectory);
+            this.maxCvtermId = maxCvtermId;
+            this.relationshipCount = relationshipCount;
+            this.nameHash = nameHash;
+        }
+
+        @Override
+        protected ResultSet getCVFingerprintResultSet(Connection connection, String cvName) {
+            MockMultiRowResultSet res = new MockMultiRowResultSet();
+            res.setupRows(new Object[][] {
+                {maxCvtermId, 7, 2000 + relationshipCount, relationshipCount, nameHash}
+            });
+            res.setupColumnNames(new String[] {
+                "max_cvterm_id", "cvterm_count", "max_relationship_id", "relationship_count",
+                "name_hash"
+            });
+            return res;
+        }
+
+        @Override
+        protected ResultSet getCVTermResultSet(Connection connection, String cvName)
+            throws SQLException {
+            cvtermQueryCount++;
+            return testFactory.getCVTermResultSet(connection, cvName);
+        }
+
+        @Override
+        protected ResultSet getCVTermRelationshipResultSet(Connection connection, String cvName)
+            throws SQLException {
+            return testFactory.getCVTermRelationshipResultSet(connection, cvName);
+        }
+    }
+}
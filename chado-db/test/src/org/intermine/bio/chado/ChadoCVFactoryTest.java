@@ -89,4 +89,20 @@ public class ChadoCVFactoryTest extends TestCase
             }
         }
     }
+
+    public void testClosure() throws SQLException {
+        ChadoCV cv = new TestChadoCVFactory().getChadoCV("test");
+        ChadoCVTerm root2 = cv.getByChadoId(new Integer(1001));
+        ChadoCVTerm child2 = cv.getByChadoId(new Integer(1003));
+        ChadoCVTerm child4 = cv.getByChadoId(new Integer(1005));
+        assertTrue(cv.termOrDescendantNamed(root2, "root2"));
+        assertTrue(cv.termOrDescendantNamed(root2, "child3"));
+        assertTrue(cv.termOrDescendantNamed(child2, "child4"));
+        assertFalse(cv.termOrDescendantNamed(child2, "child1"));
+        assertFalse(cv.termOrDescendantNamed(root2, "unknown"));
+        assertTrue(cv.ancestorNamed(child4, "root1"));
+        assertTrue(cv.ancestorNamed(child4, "root2"));
+        assertFalse(cv.ancestorNamed(child4, "child4"));
+        assertFalse(cv.ancestorNamed(root2, "child1"));
+    }
 }
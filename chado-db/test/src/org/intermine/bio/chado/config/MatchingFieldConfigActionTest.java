@@ -0,0 +1,62 @@
+package org.intermine.bio.chado.config;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for MatchingFieldConfigAction.
+ */
+public class MatchingFieldConfigActionTest extends TestCase
+{
+    public void testNoPattern() {
+        MatchingFieldConfigAction action = new SetFieldConfigAction("symbol");
+        assertTrue(action.isValidValue("anything"));
+        assertEquals("anything", action.processValue("anything"));
+    }
+
+    public void testCapturingGroup() {
+        MatchingFieldConfigAction action =
+            new SetFieldConfigAction("symbol",
+                    Pattern.compile(".*\\{.*\\}(?:.*\\[)?([def]\\d+)(?:\\])?"));
+        assertTrue(action.isValidValue("PBac{WH}f01234"));
+        assertEquals("f01234", action.processValue("PBac{WH}f01234"));
+        assertFalse(action.isValidValue("CG1234"));
+        // processValue() must not depend on the last value passed to isValidValue()
+        assertEquals("d00001", action.processValue("P{XP}d00001"));
+    }
+
+    public void testLiteralPrefix() {
+        for (String pattern: new String[] {"FBgn\\d+", "^(FBgn\\d+)$"}) {
+            MatchingFieldConfigAction action =
+                new SetFieldConfigAction("primaryIdentifier", Pattern.compile(pattern));
+            assertTrue(action.isValidValue("FBgn0000001"));
+            assertEquals("FBgn0000001", action.processValue("FBgn0000001"));
+            assertFalse(action.isValidValue("FBgn"));
+            assertFalse(action.isValidValue("FBgn0000001a"));
+            assertFalse(action.isValidValue("FBtr0000001"));
+        }
+    }
+
+    public void testTooManyGroups() {
+        MatchingFieldConfigAction action =
+            new CreateSynonymAction(Pattern.compile("(FB)(gn)\\d+"));
+        assertTrue(action.isValidValue("FBgn1"));
+        try {
+            action.processValue("FBgn1");
+            fail("expected RuntimeException");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+}
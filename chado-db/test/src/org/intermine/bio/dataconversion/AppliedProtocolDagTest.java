@@ -0,0 +1,96 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for AppliedProtocolDag.
+ */
+public class AppliedProtocolDagTest extends TestCase
+{
+    public AppliedProtocolDagTest(String arg) {
+        super(arg);
+    }
+
+    // applied protocols 1 and 2 start submission 100, 3 reads both their outputs and 4 reads
+    // the output of 3 and of 1, so 4 is at step 3 however it is reached
+    private AppliedProtocolDag makeDiamond() {
+        AppliedProtocolDag dag = new AppliedProtocolDag();
+        dag.addInput(1, 10);
+        dag.addOutput(1, 11);
+        dag.addInput(2, 20);
+        dag.addOutput(2, 21);
+        dag.addInput(3, 11);
+        dag.addInput(3, 21);
+        dag.addOutput(3, 31);
+        dag.addInput(4, 31);
+        dag.addInput(4, 11);
+        dag.addOutput(4, 41);
+        // not reachable from a first applied protocol
+        dag.addInput(5, 50);
+        dag.addOutput(5, 51);
+        dag.build();
+        return dag;
+    }
+
+    public void testTraverse() {
+        AppliedProtocolDag dag = makeDiamond();
+        assertEquals(4, dag.traverse(new int[] {1, 2}, new int[] {100, 100}));
+        int[] order = dag.getTraversalOrder();
+        assertEquals(4, order.length);
+        assertEquals(4, order[3]);
+        assertEquals(1, dag.getStep(1));
+        assertEquals(1, dag.getStep(2));
+        assertEquals(2, dag.getStep(3));
+        assertEquals(3, dag.getStep(4));
+        assertEquals(0, dag.getStep(5));
+        assertEquals(100, dag.getSubmissionId(4));
+        assertEquals(0, dag.getSubmissionId(5));
+        assertTrue(Arrays.equals(new int[] {3, 4}, dag.getNextAppliedProtocols(11)));
+        assertEquals(0, dag.getNextAppliedProtocols(41).length);
+    }
+
+    public void testCycle() {
+        AppliedProtocolDag dag = new AppliedProtocolDag();
+        dag.addInput(1, 10);
+        dag.addOutput(1, 11);
+        dag.addInput(2, 11);
+        dag.addInput(2, 31);
+        dag.addOutput(2, 21);
+        dag.addInput(3, 21);
+        dag.addOutput(3, 31);
+        dag.build();
+        // 2 and 3 are on a cycle so are never ready to visit
+        assertEquals(1, dag.traverse(new int[] {1}, new int[] {100}));
+    }
+
+    // a synthetic DAG of 500000 applied protocols and 500000 data, a long chain where each
+    // applied protocol also reads the output of the one two steps back, which would take
+    // exponential time to traverse level by level
+    public void testLargeDag() {
+        int size = 500000;
+        AppliedProtocolDag dag = new AppliedProtocolDag();
+        for (int ap = 1; ap <= size; ap++) {
+            dag.addInput(ap, ap - 1);
+            if (ap > 1) {
+                dag.addInput(ap, ap - 2);
+            }
+            dag.addOutput(ap, ap);
+        }
+        dag.build();
+        assertEquals(size, dag.traverse(new int[] {1}, new int[] {100}));
+        assertEquals(size, dag.getStep(size));
+        assertEquals(100, dag.getSubmissionId(size));
+    }
+}
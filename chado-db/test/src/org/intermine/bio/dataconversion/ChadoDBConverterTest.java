@@ -12,8 +12,10 @@ package org.intermine.bio.dataconversion;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.intermine.bio.util.OrganismData;
 import org.intermine.bio.util.OrganismRepository;
@@ -30,6 +32,9 @@ import java.sql.SQLException;
 
 public class ChadoDBConverterTest extends ItemsTestCase
 {
+    private MockItemWriter itemWriter;
+    private ChadoDBConverter converter;
+
     public ChadoDBConverterTest(String arg) {
         super(arg);
     }
@@ -40,6 +45,8 @@ public class ChadoDBConverterTest extends ItemsTestCase
     @Override
     public void setUp() throws Exception {
         super.setUp();
+        itemWriter = new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
+        converter = new TestChadoDBConverter(null, Model.getInstanceByName("genomic"), itemWriter);
     }
 
     public void testProcessTaxon() throws Exception {
@@ -53,10 +60,6 @@ public class ChadoDBConverterTest extends ItemsTestCase
     }
 
     private void doTestProcess(String orgId) throws Exception, IOException {
-        MockItemWriter itemWriter =
-            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
-        ChadoDBConverter converter =
-            new TestChadoDBConverter(null, Model.getInstanceByName("genomic"), itemWriter);
         converter.setOrganisms(orgId);
         converter.setProcessors("org.intermine.bio.dataconversion.TestFlyBaseProcessor");
         converter.setDataSourceName("FlyBase");
@@ -67,24 +70,14 @@ public class ChadoDBConverterTest extends ItemsTestCase
     }
 
     public void testGetFeatures() throws Exception {
-
         final List<String> minimalSet = Arrays.asList("gene", "exon");
 
-        MockItemWriter itemWriter =
-            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
-        ChadoDBConverter converter =
-            new TestChadoDBConverter(null, Model.getInstanceByName("genomic"), itemWriter);
         FlyBaseProcessor processor = new TestFlyBaseProcessor(converter);
         List<String> actualSet = processor.getFeatures();
         assertTrue(actualSet.containsAll(minimalSet));
     }
 
     public void testFlyBaseChromosomes() throws Exception {
-
-        MockItemWriter itemWriter =
-            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
-        ChadoDBConverter converter =
-            new TestChadoDBConverter(null, Model.getInstanceByName("genomic"), itemWriter);
         FlyBaseProcessor processor = new TestFlyBaseProcessor(converter);
 
         // if not Dmel genomic_path_regions without '_' should become chromosomes
@@ -98,6 +91,101 @@ public class ChadoDBConverterTest extends ItemsTestCase
         assertTrue(item.getClassName().endsWith("GoldenPathFragment"));
     }
 
+    public void testFetchSize() throws Exception {
+        assertEquals(0, converter.getFetchSize(SequenceProcessor.class));
+        converter.setFetchSize("1000 FlyBaseProcessor:5000");
+        assertEquals(1000, converter.getFetchSize(SequenceProcessor.class));
+        assertEquals(5000, converter.getFetchSize(FlyBaseProcessor.class));
+        // subclasses use the fetch size of their superclass
+        assertEquals(5000, converter.getFetchSize(TestFlyBaseProcessor.class));
+    }
+
+    public void testParallelism() throws Exception {
+        assertEquals(1, converter.getParallelism());
+        converter.setParallelism("4");
+        assertEquals(4, converter.getParallelism());
+        try {
+            converter.setParallelism("0");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testBulkCopy() throws Exception {
+        assertFalse(converter.isBulkCopy());
+        converter.setBulkCopy("true");
+        assertTrue(converter.isBulkCopy());
+    }
+
+    public void testProcessorParallelism() throws Exception {
+        assertEquals(1, converter.getProcessorParallelism());
+        converter.setProcessorParallelism("3");
+        assertEquals(3, converter.getProcessorParallelism());
+        try {
+            converter.setProcessorParallelism("many");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testFeatureCacheSize() throws Exception {
+        assertEquals(0, converter.getFeatureCacheSize());
+        converter.setFeatureCacheSize(" 5000 ");
+        assertEquals(5000, converter.getFeatureCacheSize());
+        try {
+            converter.setFeatureCacheSize("0");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testStagingSchema() throws Exception {
+        assertNull(converter.getStagingSchema());
+        converter.setStagingSchema(" intermine_staging ");
+        assertEquals("intermine_staging", converter.getStagingSchema());
+        try {
+            converter.setStagingSchema("staging; DROP TABLE feature");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testChadoRelease() throws Exception {
+        assertNull(converter.getChadoRelease());
+        converter.setChadoRelease(" FB2014_01 ");
+        assertEquals("FB2014_01", converter.getChadoRelease());
+        try {
+            converter.setChadoRelease(" ");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testShard() throws Exception {
+        converter.setOrganisms("7227 7237 6239");
+        assertEquals(3, converter.getShardOrganisms().size());
+        converter.setShard("1/2");
+        Set<Integer> taxonIds = new HashSet<Integer>();
+        for (OrganismData od: converter.getShardOrganisms()) {
+            taxonIds.add(new Integer(od.getTaxonId()));
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(6239, 7237)), taxonIds);
+        converter.setShard("2/2");
+        assertEquals(1, converter.getShardOrganisms().size());
+        assertEquals(7227, converter.getShardOrganisms().iterator().next().getTaxonId());
+        try {
+            converter.setShard("3/2");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     private class TestChadoDBConverter extends GenomeDBConverter {
         public TestChadoDBConverter(Database database, Model tgtModel, ItemWriter writer)
             throws SQLException {
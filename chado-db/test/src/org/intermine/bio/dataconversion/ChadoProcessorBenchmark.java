@@ -0,0 +1,610 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.bio.util.OrganismData;
+import org.intermine.bio.util.OrganismRepository;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStoreException;
+
+import com.mockobjects.sql.MockMultiRowResultSet;
+
+/**
+ * Measure the speed and allocation of SequenceProcessor, FlyBaseProcessor and
+ * ModEncodeFeatureProcessor without a database.  The processors read a SyntheticChadoData
+ * through their get*ResultSet() methods and store to a MockItemWriter.  Each processor is run
+ * a few times to warm up the JIT, then the LoadProfile of the last run is printed, with the rows
+ * read per second for each pass, followed by a summary of features per second and bytes
+ * allocated per feature.  Run from the test classpath:
+ *
+ *   java org.intermine.bio.dataconversion.ChadoProcessorBenchmark [genes [synonyms [dbxrefs
+ *       [runs [report-directory [feature-cache-size]]]]]]
+ *
+ * If a feature cache size is given the processors keep their features in a
+ * SpillingFeatureDataMap, see ChadoDBConverter.setFeatureCacheSize().
+ */
+public class ChadoProcessorBenchmark
+{
+    private static final String[] PROCESSORS = {
+        BenchmarkSequenceProcessor.class.getName(),
+        BenchmarkFlyBaseProcessor.class.getName(),
+        BenchmarkModEncodeFeatureProcessor.class.getName(),
+    };
+
+    private final SyntheticChadoData data;
+    private int featureCacheSize = 0;
+
+    /**
+     * Create a new benchmark.
+     * @param data the database to read
+     */
+    public ChadoProcessorBenchmark(SyntheticChadoData data) {
+        this.data = data;
+    }
+
+    /**
+     * Set the number of features the processors keep on the heap.
+     * @param featureCacheSize the cache size, or 0 to keep all features on the heap
+     */
+    public void setFeatureCacheSize(int featureCacheSize) {
+        this.featureCacheSize = featureCacheSize;
+    }
+
+    /**
+     * Run a processor once.
+     * @param processorClassName the name of the processor class, one of the Benchmark*Processor
+     * classes in this class
+     * @return the converter, for its LoadProfile
+     * @throws Exception if the processor fails
+     */
+    public BenchmarkConverter run(String processorClassName) throws Exception {
+        MockItemWriter itemWriter =
+            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
+        BenchmarkConverter converter =
+            new BenchmarkConverter(Model.getInstanceByName("genomic"), itemWriter, data);
+        converter.setOrganisms("7227");
+        converter.setProcessors(processorClassName);
+        converter.setDataSourceName("FlyBase");
+        if (featureCacheSize > 0) {
+            converter.setFeatureCacheSize(String.valueOf(featureCacheSize));
+        }
+        converter.process();
+        itemWriter.close();
+        return converter;
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args the number of genes, synonyms per gene, dbxrefs per gene and runs of each
+     * processor, the directory to write the JSON reports to and the feature cache size
+     * @throws Exception if a processor fails
+     */
+    public static void main(String[] args) throws Exception {
+        int genes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int synonyms = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int dbxrefs = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        File reportDirectory = args.length > 4 && args[4].length() > 0 ? new File(args[4]) : null;
+        int featureCacheSize = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+        SyntheticChadoData data = new SyntheticChadoData(genes, synonyms, dbxrefs);
+        ChadoProcessorBenchmark benchmark = new ChadoProcessorBenchmark(data);
+        benchmark.setFeatureCacheSize(featureCacheSize);
+        StringBuilder summary = new StringBuilder();
+        for (String processor: PROCESSORS) {
+            BenchmarkConverter converter = null;
+            long nanos = 0;
+            long allocatedBytes = 0;
+            for (int i = 0; i < runs; i++) {
+                System.gc();
+                long startBytes = LoadProfile.getAllocatedBytes();
+                long startNanos = System.nanoTime();
+                converter = benchmark.run(processor);
+                nanos = System.nanoTime() - startNanos;
+                allocatedBytes = LoadProfile.getAllocatedBytes() - startBytes;
+            }
+            String name = processor.substring(processor.lastIndexOf('$') + 1);
+            LoadProfile profile = converter.getLoadProfile();
+            System.out.println(name + ":");
+            System.out.println(profile.getReport());
+            if (reportDirectory != null) {
+                profile.writeReport(new File(reportDirectory, name + ".json"));
+            }
+            int features = data.getFeatureCount();
+            summary.append(String.format("%-36s %8d features %10.0f features/s %8d bytes/feature"
+                    + " %8d items%n", name, features, features * 1e9 / nanos,
+                    allocatedBytes < 0 ? -1 : allocatedBytes / features,
+                    profile.getItemsStored()));
+        }
+        System.out.print(summary);
+    }
+
+    /**
+     * A converter that gives its processors the rows of a SyntheticChadoData.
+     */
+    public static class BenchmarkConverter extends GenomeDBConverter
+    {
+        private final SyntheticChadoData data;
+
+        /**
+         * Create a new BenchmarkConverter.
+         * @param tgtModel the Model
+         * @param writer the ItemWriter to store to
+         * @param data the database to read
+         * @throws SQLException never, there is no database
+         */
+        public BenchmarkConverter(Model tgtModel, ItemWriter writer, SyntheticChadoData data)
+            throws SQLException {
+            super(null, tgtModel, writer);
+            this.data = data;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Map<OrganismData, Integer> getChadoOrganismIds(@SuppressWarnings("unused")
+                Connection connection) {
+            Map<OrganismData, Integer> retMap = new HashMap<OrganismData, Integer>();
+            retMap.put(OrganismRepository.getOrganismRepository().getOrganismDataByTaxon(7227),
+                    new Integer(SyntheticChadoData.ORGANISM_ID));
+            return retMap;
+        }
+
+        /**
+         * Return the database the processors read.
+         * @return the data
+         */
+        SyntheticChadoData getData() {
+            return data;
+        }
+
+        /**
+         * Return the items stored by the processors.
+         * @return the items
+         */
+        public Set<org.intermine.model.fulldata.Item> getItems() {
+            return ((MockItemWriter) getItemWriter()).getItems();
+        }
+
+        /**
+         * Return the rows of one of the synthetic tables, counting them as read by the current
+         * pass.
+         * @param table the table, eg. SyntheticChadoData.FEATURE
+         * @return the rows
+         */
+        ResultSet getResultSet(String table) {
+            Object[][] rows = data.getRows(table);
+            getLoadProfile().countRows(rows.length);
+            MockMultiRowResultSet res = new IndexedMockResultSet();
+            res.setupRows(rows);
+            res.setupColumnNames(data.getColumnNames(table));
+            return res;
+        }
+    }
+
+    private static ResultSet getResultSet(ChadoDBConverter converter, String table) {
+        return ((BenchmarkConverter) converter).getResultSet(table);
+    }
+
+    private static String getRelationshipTable(boolean subjectIsFirst) {
+        return subjectIsFirst ? SyntheticChadoData.RELATIONSHIP_BY_SUBJECT
+            : SyntheticChadoData.RELATIONSHIP_BY_OBJECT;
+    }
+
+    /**
+     * A SequenceProcessor that reads a SyntheticChadoData.
+     */
+    public static class BenchmarkSequenceProcessor extends SequenceProcessor
+    {
+        /**
+         * Create a new BenchmarkSequenceProcessor.
+         * @param chadoDBConverter the BenchmarkConverter
+         */
+        public BenchmarkSequenceProcessor(ChadoDBConverter chadoDBConverter) {
+            super(chadoDBConverter);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void createFeatureTempTable(Connection connection) {
+            // empty
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureTableResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURE);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureLocResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURELOC);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureRelationshipResultSet(Connection connection,
+                boolean subjectIsFirst) {
+            return getResultSet(getChadoDBConverter(), getRelationshipTable(subjectIsFirst));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getSynonymResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.SYNONYM);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getDbxrefResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.DBXREF);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeaturePropResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATUREPROP);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getPubResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.PUB);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureCVTermResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURE_CVTERM);
+        }
+    }
+
+    /**
+     * A FlyBaseProcessor that reads a SyntheticChadoData.  The allele, insertion, deletion and
+     * interaction queries return no rows, and the cv queries return the TestFlyBaseProcessor
+     * terms.
+     */
+    public static class BenchmarkFlyBaseProcessor extends TestFlyBaseProcessor
+    {
+        /**
+         * Create a new BenchmarkFlyBaseProcessor.
+         * @param chadoDBConverter the BenchmarkConverter
+         * @throws SQLException never, there is no database
+         */
+        public BenchmarkFlyBaseProcessor(ChadoDBConverter chadoDBConverter) throws SQLException {
+            super(chadoDBConverter);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureTableResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURE);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureLocResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURELOC);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getMatchLocResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.MATCHLOC);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureRelationshipResultSet(Connection connection,
+                boolean subjectIsFirst) {
+            return getResultSet(getChadoDBConverter(), getRelationshipTable(subjectIsFirst));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getSynonymResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.SYNONYM);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getDbxrefResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.DBXREF);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeaturePropResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATUREPROP);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getPubResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.PUB);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureCVTermResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURE_CVTERM);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getLocatedGenesResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.LOCATED_GENES);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getLibraryFeatureResultSet(Connection connection) {
+            return emptyResultSet("feature_id", "value", "type_name");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getLibraryCVTermResultSet(Connection connection) {
+            return emptyResultSet("feature_id", "term_identifier");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getCDNALengthResultSet(Connection connection) {
+            return emptyResultSet("feature_id", "seqlen");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getAllelePropResultSet(Connection connection) {
+            return emptyResultSet("feature_id", "value", "type_name", "featureprop_id");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getAllelePropPubResultSet(Connection connection) {
+            return emptyResultSet("featureprop_id", "pub_db_identifier");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getAlleleCVTermsResultSet(Connection connection) {
+            return emptyResultSet("feature_id", "cvterm_id");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getDeletionLocationResultSet(Connection connection) {
+            return emptyResultSet("deletion_feature_id", "deletion_organism_id",
+                    "chromosome_name", "fmin", "fmax", "strand");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getIndelResultSet(Connection connection) {
+            return emptyResultSet("deletion_feature_id", "insertion_feature_id",
+                    "breakpoint_type");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getInsertionLocationsResultSet(Connection connection) {
+            return emptyResultSet("sub_id", "fmin", "fmax", "chr_feature_id");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getInteractionResultSet(Connection connection) {
+            return emptyResultSet("feature_id", "other_feature_id", "pub_title", "pubmed_id");
+        }
+
+        private static ResultSet emptyResultSet(String... columnNames) {
+            MockMultiRowResultSet res = new IndexedMockResultSet();
+            res.setupRows(new Object[0][]);
+            res.setupColumnNames(columnNames);
+            return res;
+        }
+    }
+
+    /**
+     * A ModEncodeFeatureProcessor that reads a SyntheticChadoData as if it were one submission.
+     * The feature scores, expression levels and peak sources are read by private queries, so
+     * extraProcessing() only makes the match locations.
+     */
+    public static class BenchmarkModEncodeFeatureProcessor extends ModEncodeFeatureProcessor
+    {
+        /**
+         * Create a new BenchmarkModEncodeFeatureProcessor.
+         * @param chadoDBConverter the BenchmarkConverter
+         */
+        public BenchmarkModEncodeFeatureProcessor(ChadoDBConverter chadoDBConverter) {
+            super(chadoDBConverter, "0_1", "0_2", "benchmark_data_ids", "benchmark", null);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void earlyExtraProcessing(Connection connection) {
+            // empty
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void createFeatureTempTable(Connection connection) {
+            // empty
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void extraProcessing(Connection connection,
+                Map<Integer, FeatureData> featureDataMap)
+            throws ObjectStoreException, SQLException {
+            processLocationTable(connection, getMatchLocResultSet(connection));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void finishedProcessing(Connection connection,
+                Map<Integer, FeatureData> featureDataMap) {
+            // empty
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureTableResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURE);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureLocResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURELOC);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getMatchLocResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.MATCHLOC);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureRelationshipResultSet(Connection connection,
+                boolean subjectIsFirst) {
+            return getResultSet(getChadoDBConverter(), getRelationshipTable(subjectIsFirst));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getSynonymResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.SYNONYM);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getDbxrefResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.DBXREF);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeaturePropResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATUREPROP);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getPubResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.PUB);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureCVTermResultSet(Connection connection) {
+            return getResultSet(getChadoDBConverter(), SyntheticChadoData.FEATURE_CVTERM);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.dataconversion.ItemsTestCase;
+
+/**
+ * Tests for SyntheticChadoData and ChadoProcessorBenchmark, run on a small database so that the
+ * benchmark keeps working.
+ */
+public class ChadoProcessorBenchmarkTest extends ItemsTestCase
+{
+    public ChadoProcessorBenchmarkTest(String arg) {
+        super(arg);
+    }
+
+    public void testSyntheticChadoData() {
+        SyntheticChadoData data = new SyntheticChadoData(10, 3, 1);
+        // 4 chromosome arms and 5 features for each gene
+        assertEquals(54, data.getFeatureCount());
+        assertEquals(40, data.getRows(SyntheticChadoData.FEATURELOC).length);
+        assertEquals(10 * 6, data.getRows(SyntheticChadoData.SYNONYM).length);
+        assertEquals(10 * 3, data.getRows(SyntheticChadoData.DBXREF).length);
+        assertEquals(data.getColumnNames(SyntheticChadoData.FEATURE).length,
+                data.getRows(SyntheticChadoData.FEATURE)[0].length);
+        for (String table: new String[] {
+            SyntheticChadoData.RELATIONSHIP_BY_SUBJECT, SyntheticChadoData.RELATIONSHIP_BY_OBJECT
+        }) {
+            Object[][] rows = data.getRows(table);
+            assertEquals(40, rows.length);
+            for (int i = 1; i < rows.length; i++) {
+                assertTrue(((Integer) rows[i - 1][1]).intValue()
+                        <= ((Integer) rows[i][1]).intValue());
+            }
+        }
+        try {
+            data.getRows("no_such_table");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testRunProcessors() throws Exception {
+        ChadoProcessorBenchmark benchmark =
+            new ChadoProcessorBenchmark(new SyntheticChadoData(20, 1, 1));
+        for (Class<?> cls: new Class<?>[] {
+            ChadoProcessorBenchmark.BenchmarkSequenceProcessor.class,
+            ChadoProcessorBenchmark.BenchmarkFlyBaseProcessor.class,
+            ChadoProcessorBenchmark.BenchmarkModEncodeFeatureProcessor.class,
+        }) {
+            LoadProfile profile = benchmark.run(cls.getName()).getLoadProfile();
+            assertTrue(cls.getName(), profile.getItemsStored() > 0);
+            assertTrue(cls.getName(), profile.getRowsRead() > 0);
+            String report = profile.getReport();
+            assertTrue(report, report.contains("\"name\": \"" + cls.getSimpleName()
+                    + ".processFeatureTable()\""));
+        }
+    }
+
+    public void testSpillingFeatureMap() throws Exception {
+        ChadoProcessorBenchmark benchmark =
+            new ChadoProcessorBenchmark(new SyntheticChadoData(20, 2, 2));
+        String processor = ChadoProcessorBenchmark.BenchmarkFlyBaseProcessor.class.getName();
+        ChadoProcessorBenchmark.BenchmarkConverter inMemory = benchmark.run(processor);
+        // much smaller than the number of features, so most are read back from the store.  The
+        // proteins have no md5checksum, so FlyBaseProcessor makes them all share one FeatureData
+        benchmark.setFeatureCacheSize(8);
+        ChadoProcessorBenchmark.BenchmarkConverter spilled = benchmark.run(processor);
+        assertEquals(inMemory.getItems(), spilled.getItems());
+        assertEquals(inMemory.getLoadProfile().getRowsRead(),
+                spilled.getLoadProfile().getRowsRead());
+    }
+}
@@ -0,0 +1,112 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for CommonFeatureRegistry.
+ */
+public class CommonFeatureRegistryTest extends TestCase
+{
+    public CommonFeatureRegistryTest(String arg) {
+        super(arg);
+    }
+
+    public void testClaim() throws Exception {
+        final CommonFeatureRegistry registry = new CommonFeatureRegistry();
+        final Integer featureId = new Integer(10);
+        assertNull(registry.claim(featureId));
+        // the owner can claim again until it releases
+        assertNull(registry.claim(featureId));
+
+        final AtomicReference<FeatureData> shared = new AtomicReference<FeatureData>();
+        final CountDownLatch claiming = new CountDownLatch(1);
+        final CountDownLatch claimed = new CountDownLatch(1);
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                claiming.countDown();
+                try {
+                    shared.set(registry.claim(featureId));
+                } catch (InterruptedException e) {
+                    // leave shared null
+                }
+                claimed.countDown();
+            }
+        };
+        other.start();
+        assertTrue(claiming.await(10, TimeUnit.SECONDS));
+        // the other thread waits in claim() until the feature is released
+        long deadline = System.currentTimeMillis() + 10000;
+        while (other.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(Thread.State.WAITING, other.getState());
+        assertEquals(1, claimed.getCount());
+
+        FeatureData fdat = new FeatureData();
+        registry.release(featureId, fdat);
+        assertTrue(claimed.await(10, TimeUnit.SECONDS));
+        assertSame(fdat, shared.get());
+        assertEquals(1, registry.getSharedCount());
+        assertSame(fdat, registry.getFeatures().get(featureId));
+    }
+
+    public void testFeaturesView() throws Exception {
+        CommonFeatureRegistry registry = new CommonFeatureRegistry();
+        Map<Integer, FeatureData> features = registry.getFeatures();
+        assertTrue(features.isEmpty());
+
+        Integer featureId = new Integer(30);
+        assertNull(registry.claim(featureId));
+        // claimed but not made yet
+        assertFalse(features.containsKey(featureId));
+        FeatureData fdat = new FeatureData();
+        registry.release(featureId, fdat);
+        assertNull(registry.claim(new Integer(31)));
+        registry.release(new Integer(31), null);
+
+        // the view shows features made after it was returned
+        assertEquals(1, features.size());
+        assertSame(fdat, features.get(featureId));
+        assertEquals(featureId, features.keySet().iterator().next());
+        try {
+            features.put(new Integer(32), new FeatureData());
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            features.clear();
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testReleaseWithoutFeature() throws Exception {
+        CommonFeatureRegistry registry = new CommonFeatureRegistry();
+        Integer featureId = new Integer(20);
+        assertNull(registry.claim(featureId));
+        registry.release(featureId, null);
+        // not a common feature, so the next processor makes its own
+        assertNull(registry.claim(featureId));
+        assertEquals(0, registry.getSharedCount());
+        assertTrue(registry.getFeatures().isEmpty());
+    }
+}
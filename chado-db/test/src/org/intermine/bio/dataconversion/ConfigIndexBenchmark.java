@@ -0,0 +1,162 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.intermine.bio.chado.config.ConfigAction;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+
+/**
+ * Compare looking up the FlyBaseProcessor configuration with a MultiKey per row, as the
+ * processors used to, against looking it up in a ConfigIndex.  The rows are the synonym and
+ * dbxref lookups of processSynonymTable() and processDbxrefTable(), including the second lookup
+ * that ignores is_current.  For each way the MultiKeys made and bytes allocated per million rows
+ * and the lookups per second are printed.  Run from the test classpath:
+ *
+ *   java org.intermine.bio.dataconversion.ConfigIndexBenchmark [rows [runs]]
+ */
+public class ConfigIndexBenchmark
+{
+    // {table, feature class, synonym type or db name, is_current}
+    private static final Object[][] ROWS = {
+        {"synonym", "Gene", "fullname", Boolean.TRUE},
+        {"synonym", "Gene", "symbol", Boolean.FALSE},
+        {"synonym", "MRNA", "symbol", Boolean.TRUE},
+        {"synonym", "Exon", "symbol", Boolean.FALSE},
+        {"dbxref", "Gene", "FlyBase Annotation IDs", Boolean.TRUE},
+        {"dbxref", "Gene", "FlyBase", Boolean.FALSE},
+        {"dbxref", "MRNA", "FlyBase Annotation IDs", Boolean.FALSE},
+        {"dbxref", "Protein", "GB_protein", Boolean.TRUE},
+    };
+
+    private final Map<MultiKey, List<ConfigAction>> config;
+    private final ConfigIndex index;
+    private long multiKeyCount = 0;
+    private int found = 0;
+
+    /**
+     * Create a new benchmark.
+     * @param config the configuration to look keys up in
+     */
+    public ConfigIndexBenchmark(Map<MultiKey, List<ConfigAction>> config) {
+        this.config = config;
+        index = new ConfigIndex(7227, config);
+    }
+
+    /**
+     * Look up the given number of rows by making MultiKeys.
+     * @param rows the number of rows
+     */
+    void lookUpWithMultiKeys(int rows) {
+        for (int i = 0; i < rows; i++) {
+            Object[] row = ROWS[i % ROWS.length];
+            MultiKey key = new MultiKey(row[0], row[1], row[2], row[3]);
+            multiKeyCount++;
+            List<ConfigAction> actionList = config.get(key);
+            if (actionList == null) {
+                MultiKey key2 = new MultiKey(row[0], row[1], row[2], null);
+                multiKeyCount++;
+                actionList = config.get(key2);
+            }
+            if (actionList != null) {
+                found++;
+            }
+        }
+    }
+
+    /**
+     * Look up the given number of rows in the ConfigIndex.
+     * @param rows the number of rows
+     */
+    void lookUpWithIndex(int rows) {
+        for (int i = 0; i < rows; i++) {
+            Object[] row = ROWS[i % ROWS.length];
+            List<ConfigAction> actionList = index.get(row[0], row[1], row[2], row[3]);
+            if (actionList == null) {
+                actionList = index.get(row[0], row[1], row[2], null);
+            }
+            if (actionList != null) {
+                found++;
+            }
+        }
+    }
+
+    /**
+     * Return the number of MultiKeys made by lookUpWithMultiKeys() so far.
+     * @return the count
+     */
+    long getMultiKeyCount() {
+        return multiKeyCount;
+    }
+
+    /**
+     * Return the number of rows that had configured actions so far.
+     * @return the count
+     */
+    int getFoundCount() {
+        return found;
+    }
+
+    /**
+     * Return the configuration of a FlyBaseProcessor for D. melanogaster.
+     * @return the configuration
+     * @throws Exception if the processor can't be created
+     */
+    static Map<MultiKey, List<ConfigAction>> getFlyBaseConfig() throws Exception {
+        MockItemWriter itemWriter =
+            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
+        ChadoProcessorBenchmark.BenchmarkConverter converter =
+            new ChadoProcessorBenchmark.BenchmarkConverter(Model.getInstanceByName("genomic"),
+                    itemWriter, new SyntheticChadoData(1, 1, 1));
+        return new ChadoProcessorBenchmark.BenchmarkFlyBaseProcessor(converter).getConfig(7227);
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args the number of rows and the number of runs of each way
+     * @throws Exception if the configuration can't be made
+     */
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ConfigIndexBenchmark benchmark = new ConfigIndexBenchmark(getFlyBaseConfig());
+        for (boolean useIndex: new boolean[] {false, true}) {
+            long nanos = 0;
+            long allocatedBytes = 0;
+            long multiKeys = 0;
+            for (int i = 0; i < runs; i++) {
+                long startMultiKeys = benchmark.getMultiKeyCount();
+                long startBytes = LoadProfile.getAllocatedBytes();
+                long startNanos = System.nanoTime();
+                if (useIndex) {
+                    benchmark.lookUpWithIndex(rows);
+                } else {
+                    benchmark.lookUpWithMultiKeys(rows);
+                }
+                nanos = System.nanoTime() - startNanos;
+                allocatedBytes = LoadProfile.getAllocatedBytes() - startBytes;
+                multiKeys = benchmark.getMultiKeyCount() - startMultiKeys;
+            }
+            double millions = rows / 1e6;
+            System.out.println(String.format("%-10s %10.0f MultiKeys/million rows %12.0f"
+                    + " bytes/million rows %12.0f lookups/s", useIndex ? "ConfigIndex" : "MultiKey",
+                    multiKeys / millions, allocatedBytes < 0 ? -1 : allocatedBytes / millions,
+                    rows * 1e9 / nanos));
+        }
+        // use the result so that the lookups can't be optimised away
+        System.out.println(benchmark.getFoundCount() + " rows with actions");
+    }
+}
@@ -0,0 +1,107 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.intermine.bio.chado.config.ConfigAction;
+import org.intermine.bio.chado.config.CreateSynonymAction;
+import org.intermine.bio.chado.config.SetFieldConfigAction;
+
+/**
+ * Tests for ConfigIndex.
+ */
+public class ConfigIndexTest extends TestCase
+{
+    private final List<ConfigAction> nameActions =
+        Arrays.asList((ConfigAction) new SetFieldConfigAction("name"));
+    private final List<ConfigAction> synonymActions =
+        Arrays.asList((ConfigAction) new CreateSynonymAction());
+    private final List<ConfigAction> symbolActions =
+        Arrays.asList((ConfigAction) new SetFieldConfigAction("symbol"));
+
+    public ConfigIndexTest(String arg) {
+        super(arg);
+    }
+
+    private ConfigIndex makeIndex() {
+        Map<MultiKey, List<ConfigAction>> config = new HashMap<MultiKey, List<ConfigAction>>();
+        config.put(new MultiKey("synonym", "Gene", "fullname", Boolean.TRUE), nameActions);
+        config.put(new MultiKey("synonym", "Gene", "fullname", Boolean.FALSE), synonymActions);
+        config.put(new MultiKey("dbxref", "Gene", "FlyBase", null), synonymActions);
+        config.put(new MultiKey("prop", "Gene", "symbol"), symbolActions);
+        config.put(new MultiKey("anatomyterm", "Gene", null), synonymActions);
+        return new ConfigIndex(7227, config);
+    }
+
+    public void testFourPartKeys() {
+        ConfigIndex index = makeIndex();
+        assertEquals(7227, index.getTaxonId());
+        assertTrue(nameActions == index.get("synonym", "Gene", "fullname", Boolean.TRUE));
+        assertTrue(synonymActions == index.get("synonym", "Gene", "fullname", Boolean.FALSE));
+        assertNull(index.get("synonym", "Gene", "fullname", null));
+        assertNull(index.get("synonym", "MRNA", "fullname", Boolean.TRUE));
+        assertNull(index.get("synonym", "Gene", "symbol", Boolean.TRUE));
+        // a null part only matches a configured null
+        assertNull(index.get("dbxref", "Gene", "FlyBase", Boolean.TRUE));
+        assertTrue(synonymActions == index.get("dbxref", "Gene", "FlyBase", null));
+    }
+
+    public void testThreePartKeys() {
+        ConfigIndex index = makeIndex();
+        assertTrue(symbolActions == index.get("prop", "Gene", "symbol"));
+        assertTrue(synonymActions == index.get("anatomyterm", "Gene", null));
+        assertNull(index.get("prop", "Gene", "fullname"));
+        assertNull(index.get("anatomyterm", "Gene", "brain"));
+        // keys of different lengths don't match each other
+        assertNull(index.get("prop", "Gene", "symbol", null));
+        assertNull(index.get("synonym", "Gene", "fullname"));
+    }
+
+    public void testMatchesMap() {
+        Map<MultiKey, List<ConfigAction>> config = new HashMap<MultiKey, List<ConfigAction>>();
+        for (int i = 0; i < 500; i++) {
+            config.put(new MultiKey("prop", "Class" + (i % 7), "type" + i), nameActions);
+            config.put(new MultiKey("synonym", "Class" + (i % 7), "type" + i,
+                    Boolean.valueOf(i % 2 == 0)), synonymActions);
+        }
+        ConfigIndex index = new ConfigIndex(1, config);
+        for (int i = 0; i < 600; i++) {
+            for (int c = 0; c < 8; c++) {
+                String className = "Class" + c;
+                String type = "type" + i;
+                assertEquals(config.get(new MultiKey("prop", className, type)),
+                        index.get("prop", className, type));
+                for (Boolean isCurrent: new Boolean[] {Boolean.TRUE, Boolean.FALSE}) {
+                    assertEquals(config.get(new MultiKey("synonym", className, type, isCurrent)),
+                            index.get("synonym", className, type, isCurrent));
+                }
+            }
+        }
+    }
+
+    public void testBenchmark() throws Exception {
+        ConfigIndexBenchmark benchmark =
+            new ConfigIndexBenchmark(ConfigIndexBenchmark.getFlyBaseConfig());
+        benchmark.lookUpWithMultiKeys(1000);
+        int foundWithMultiKeys = benchmark.getFoundCount();
+        assertTrue(foundWithMultiKeys > 0);
+        assertTrue(benchmark.getMultiKeyCount() > 1000);
+        benchmark.lookUpWithIndex(1000);
+        assertEquals(foundWithMultiKeys * 2, benchmark.getFoundCount());
+    }
+}
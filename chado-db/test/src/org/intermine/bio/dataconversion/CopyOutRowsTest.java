@@ -0,0 +1,76 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for CopyOutRows.
+ */
+public class CopyOutRowsTest extends TestCase
+{
+    public CopyOutRowsTest(String arg) {
+        super(arg);
+    }
+
+    private static byte[] line(String text) throws Exception {
+        return (text + "\n").getBytes("UTF-8");
+    }
+
+    public void testParseRow() throws Exception {
+        CopyOutRows rows =
+            new CopyOutRows(null, "feature_id", "synonym_name", "type_name", "is_current");
+        assertEquals(2, rows.findColumn("type_name"));
+
+        rows.parseRow(line("23269151\tFBgn0000001_symbol\tsymbol\tt"));
+        assertEquals(23269151, rows.getInt(0));
+        assertEquals("FBgn0000001_symbol", rows.getString(1));
+        assertEquals("symbol", rows.getString(2));
+        assertTrue(rows.getBoolean(3));
+
+        rows.parseRow(line("-42\t\\N\t\tf"));
+        assertEquals(-42, rows.getInt(0));
+        assertNull(rows.getString(1));
+        assertEquals("", rows.getString(2));
+        assertFalse(rows.getBoolean(3));
+
+        rows.parseRow(line("\\N\ttab\\there\\\\ \\101\\x42 &agr;\u00e9\tsymbol\t\\N"));
+        assertEquals(0, rows.getInt(0));
+        assertEquals("tab\there\\ AB &agr;\u00e9", rows.getString(1));
+        assertFalse(rows.getBoolean(3));
+        assertEquals(3, rows.getRowCount());
+    }
+
+    public void testBadRows() throws Exception {
+        CopyOutRows rows = new CopyOutRows(null, "feature_id", "value");
+        try {
+            rows.parseRow(line("1\ttwo\tthree"));
+            fail("expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+        try {
+            rows.parseRow(line("1"));
+            fail("expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+        rows.parseRow(line("1x\tvalue"));
+        try {
+            rows.getInt(0);
+            fail("expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+}
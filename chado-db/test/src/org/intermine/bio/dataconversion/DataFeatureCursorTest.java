@@ -0,0 +1,63 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import com.mockobjects.sql.MockMultiRowResultSet;
+
+/**
+ * Tests for DataFeatureCursor.
+ */
+public class DataFeatureCursorTest extends TestCase
+{
+    public DataFeatureCursorTest(String arg) {
+        super(arg);
+    }
+
+    public void testUnordered() throws Exception {
+        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        res.setupRows(new Object[][] {{100, 1000}, {101, 1001}});
+        res.setupColumnNames(new String[] {"data_id", "feature_id"});
+        DataFeatureCursor cursor = new DataFeatureCursor(res, false);
+        assertTrue(cursor.next(5));
+        assertEquals(100, cursor.getDataId());
+        assertEquals(1000, cursor.getFeatureId());
+        assertTrue(cursor.next(5));
+        assertEquals(101, cursor.getDataId());
+        assertFalse(cursor.next(5));
+    }
+
+    public void testOrdered() throws Exception {
+        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        res.setupRows(new Object[][] {
+            {1, 100, 1000},
+            {1, 101, 1001},
+            {2, 102, 1002},
+            {3, 103, 1003},
+            {3, 104, 1004},
+        });
+        res.setupColumnNames(new String[] {"experiment_id", "data_id", "feature_id"});
+        DataFeatureCursor cursor = new DataFeatureCursor(res, true);
+        assertTrue(cursor.next(1));
+        assertEquals(100, cursor.getDataId());
+        assertTrue(cursor.next(1));
+        assertEquals(1001, cursor.getFeatureId());
+        assertFalse(cursor.next(1));
+        // submission 2 isn't read, so its rows are skipped
+        assertTrue(cursor.next(3));
+        assertEquals(103, cursor.getDataId());
+        assertTrue(cursor.next(3));
+        assertEquals(104, cursor.getDataId());
+        assertFalse(cursor.next(3));
+        assertFalse(cursor.next(4));
+    }
+}
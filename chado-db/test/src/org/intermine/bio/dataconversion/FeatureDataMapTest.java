@@ -0,0 +1,80 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for FeatureDataMap.
+ */
+public class FeatureDataMapTest extends TestCase
+{
+    public FeatureDataMapTest(String arg) {
+        super(arg);
+    }
+
+    public void testPutGet() {
+        FeatureDataMap map = new FeatureDataMap();
+        Map<Integer, FeatureData> expected = new HashMap<Integer, FeatureData>();
+        // enough to force several resizes
+        for (int i = 0; i < 10000; i++) {
+            FeatureData fdat = new FeatureData();
+            map.put(i * 7, fdat);
+            expected.put(new Integer(i * 7), fdat);
+        }
+        assertEquals(10000, map.size());
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<Integer, FeatureData>(map));
+        assertSame(expected.get(new Integer(700)), map.get(700));
+        assertTrue(map.containsKey(new Integer(7)));
+        assertFalse(map.containsKey(8));
+        assertNull(map.get(8));
+        assertNull(map.get("7"));
+    }
+
+    public void testReplace() {
+        FeatureDataMap map = new FeatureDataMap();
+        FeatureData first = new FeatureData();
+        FeatureData second = new FeatureData();
+        assertNull(map.put(42, first));
+        assertSame(first, map.put(new Integer(42), second));
+        assertEquals(1, map.size());
+        assertSame(second, map.get(42));
+    }
+
+    public void testRemove() {
+        FeatureDataMap map = new FeatureDataMap();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, new FeatureData());
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertNotNull(map.remove(new Integer(i)));
+        }
+        assertEquals(500, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, map.containsKey(i));
+        }
+        assertNull(map.remove(0));
+    }
+
+    public void testNullValue() {
+        FeatureDataMap map = new FeatureDataMap();
+        try {
+            map.put(1, null);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
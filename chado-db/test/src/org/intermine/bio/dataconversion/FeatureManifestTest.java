@@ -0,0 +1,105 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for FeatureManifest.
+ */
+public class FeatureManifestTest extends TestCase
+{
+    public FeatureManifestTest(String arg) {
+        super(arg);
+    }
+
+    public void testParseDigest() {
+        assertEquals(0x0123456789abcdefL,
+                FeatureManifest.parseDigest("0123456789abcdef0123456789abcdef"));
+        assertEquals(-1L, FeatureManifest.parseDigest("ffffffffffffffff0000000000000000"));
+        try {
+            FeatureManifest.parseDigest("xyz");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testAddAndCompare() {
+        FeatureManifest manifest = new FeatureManifest("1,2");
+        // enough to force the arrays to grow
+        for (int i = 0; i < 5000; i++) {
+            manifest.add(i * 3, i);
+        }
+        assertEquals(5000, manifest.size());
+        assertTrue(manifest.contains(300));
+        assertFalse(manifest.contains(301));
+        assertTrue(manifest.isUnchanged(300, 100));
+        assertFalse(manifest.isUnchanged(300, 101));
+        assertFalse(manifest.isUnchanged(301, 100));
+        try {
+            manifest.add(3, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testWriteRead() throws Exception {
+        FeatureManifest manifest = new FeatureManifest("1,2");
+        manifest.add(10, 100L);
+        manifest.add(20, -200L);
+        manifest.updateLastModified(5000L);
+        manifest.updateLastModified(3000L);
+        File file = File.createTempFile("feature_manifest", ".manifest");
+        try {
+            manifest.write(file);
+            FeatureManifest readManifest = FeatureManifest.read(file);
+            assertEquals("1,2", readManifest.getOrganismIds());
+            assertEquals(2, readManifest.size());
+            assertEquals(5000L, readManifest.getLastModified());
+            assertTrue(readManifest.isUnchanged(10, 100L));
+            assertTrue(readManifest.isUnchanged(20, -200L));
+            assertFalse(readManifest.contains(30));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testCommitPending() throws Exception {
+        File directory = File.createTempFile("feature_manifest", "");
+        directory.delete();
+        directory.mkdir();
+        File file = new File(directory, "SequenceProcessor-1.manifest");
+        File pendingFile = FeatureManifest.getPendingFile(file);
+        try {
+            FeatureManifest manifest = new FeatureManifest("1");
+            manifest.add(10, 100L);
+            manifest.write(file);
+            FeatureManifest newManifest = new FeatureManifest("1");
+            newManifest.add(10, 101L);
+            newManifest.write(pendingFile);
+            // the committed manifest is still the old one
+            assertTrue(FeatureManifest.read(file).isUnchanged(10, 100L));
+
+            assertEquals(1, FeatureManifest.commitPending(directory));
+            assertFalse(pendingFile.exists());
+            assertTrue(FeatureManifest.read(file).isUnchanged(10, 101L));
+            assertEquals(0, FeatureManifest.commitPending(directory));
+        } finally {
+            file.delete();
+            pendingFile.delete();
+            directory.delete();
+        }
+    }
+}
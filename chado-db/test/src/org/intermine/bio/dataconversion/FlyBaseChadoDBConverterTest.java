@@ -10,17 +10,264 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.intermine.bio.util.OrganismData;
+import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ItemsTestCase;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.sql.Database;
+
+import com.mockobjects.sql.MockMultiRowResultSet;
 
 public class FlyBaseChadoDBConverterTest extends ItemsTestCase
 {
+    private static final String ALLELE_QUERY = "SELECT feature_id FROM feature";
+
+    private ChadoDBConverter converter;
+    private StagingConnection staging;
+
     public FlyBaseChadoDBConverterTest(String arg) {
         super(arg);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        ItemWriter itemWriter =
+            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
+        converter = new TestChadoDBConverter(null, Model.getInstanceByName("genomic"), itemWriter);
+        converter.setStagingSchema("staging");
+        converter.setChadoRelease("FB2014_01");
+        staging = new StagingConnection();
+    }
+
     public void testAddCVTermColon() {
         assertEquals("some_value", FlyBaseProcessor.addCVTermColon("some_value"));
         assertEquals("FBbt:00000001", FlyBaseProcessor.addCVTermColon("FBbt:00000001"));
         assertEquals("FBbt:00000001", FlyBaseProcessor.addCVTermColon("FBbt00000001"));
     }
+
+    public void testStagingTableBuilt() throws Exception {
+        String tableName = createAlleleTable();
+        assertTrue(tableName, tableName.matches("staging\\.intermine_flybase_allele_temp_"
+                    + "[0-9a-f]{16}"));
+        String stagedName = tableName.substring("staging.".length());
+        // built under another name and then renamed
+        assertTrue(staging.statements.contains("CREATE UNLOGGED TABLE staging." + stagedName
+                    + "_build AS " + ALLELE_QUERY));
+        assertTrue(staging.statements.contains("ALTER TABLE staging." + stagedName
+                    + "_build RENAME TO " + stagedName));
+        assertEquals(new HashSet<String>(Arrays.asList(stagedName)), staging.tables);
+        assertEquals(Arrays.asList("lock " + tableName, "unlock " + tableName), staging.locks);
+    }
+
+    public void testStagingTableReused() throws Exception {
+        String tableName = createAlleleTable();
+        int statementCount = staging.statements.size();
+        staging.locks.clear();
+
+        // a later run against the same release
+        assertEquals(tableName, createAlleleTable());
+        assertEquals(statementCount, staging.statements.size());
+        assertTrue(staging.locks.isEmpty());
+
+        // a new release
+        converter.setChadoRelease("FB2014_02");
+        String newTableName = createAlleleTable();
+        assertFalse(tableName.equals(newTableName));
+    }
+
+    public void testStagingTableBuiltWhileWaiting() throws Exception {
+        String tableName = createAlleleTable();
+        String stagedName = tableName.substring("staging.".length());
+        staging.tables.clear();
+        int statementCount = staging.statements.size();
+        staging.locks.clear();
+
+        // another run builds the table while this one waits for the lock
+        staging.onLock = stagedName;
+        assertEquals(tableName, createAlleleTable());
+        assertEquals(statementCount, staging.statements.size());
+        assertEquals(Arrays.asList("lock " + tableName, "unlock " + tableName), staging.locks);
+    }
+
+    public void testStagingTableLeftByFailedRun() throws Exception {
+        String tableName = createAlleleTable();
+        String stagedName = tableName.substring("staging.".length());
+        staging.tables.clear();
+        staging.tables.add(stagedName + "_build");
+
+        // the unfinished table isn't reused
+        assertEquals(tableName, createAlleleTable());
+        assertTrue(staging.statements.contains("DROP TABLE IF EXISTS staging." + stagedName
+                    + "_build"));
+        assertEquals(new HashSet<String>(Arrays.asList(stagedName)), staging.tables);
+    }
+
+    public void testOldStagingTablesDropped() throws Exception {
+        String oldTableName = createAlleleTable();
+        String otherQueryTableName = new TestFlyBaseProcessor(converter).createTable(
+                staging.connection, "intermine_flybase_allele_temp",
+                ALLELE_QUERY + " WHERE organism_id = 1", "feature_id");
+        converter.setChadoRelease("FB2014_02");
+        String inUseTableName = createAlleleTable();
+        converter.setChadoRelease("FB2014_03");
+        staging.inUse.add(inUseTableName.substring("staging.".length()));
+
+        String newTableName = createAlleleTable();
+        assertEquals(new HashSet<String>(Arrays.asList(
+                    newTableName.substring("staging.".length()),
+                    otherQueryTableName.substring("staging.".length()),
+                    inUseTableName.substring("staging.".length()))), staging.tables);
+        assertTrue(staging.statements.contains("DROP TABLE " + oldTableName));
+        assertEquals("RESET lock_timeout",
+                staging.statements.get(staging.statements.size() - 1));
+    }
+
+    private String createAlleleTable() throws SQLException {
+        // a new processor each time, as a processor keeps the release it first sees
+        return new TestFlyBaseProcessor(converter).createTable(staging.connection,
+                "intermine_flybase_allele_temp", ALLELE_QUERY, "feature_id");
+    }
+
+    /**
+     * A Connection that keeps a set of tables in the schema "staging" and records the statements
+     * executed and the advisory locks taken.
+     */
+    private static class StagingConnection implements InvocationHandler
+    {
+        private static final Pattern CREATE_PATTERN =
+            Pattern.compile("CREATE UNLOGGED TABLE staging\\.(\\w+) AS .*");
+        private static final Pattern RENAME_PATTERN =
+            Pattern.compile("ALTER TABLE staging\\.(\\w+) RENAME TO (\\w+)");
+        private static final Pattern DROP_PATTERN =
+            Pattern.compile("DROP TABLE (IF EXISTS )?staging\\.(\\w+)");
+
+        private final Set<String> tables = new HashSet<String>();
+        // tables that another run is reading, so can't be dropped
+        private final Set<String> inUse = new HashSet<String>();
+        private final List<String> statements = new ArrayList<String>();
+        private final List<String> locks = new ArrayList<String>();
+        // a table that another run creates when the lock is taken
+        private String onLock = null;
+        private final Connection connection = (Connection) proxy(Connection.class, this);
+
+        private static Object proxy(Class<?> type, InvocationHandler handler) {
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                    handler);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("createStatement".equals(name)) {
+                return proxy(Statement.class, new InvocationHandler() {
+                    public Object invoke(Object stmt, Method stmtMethod, Object[] stmtArgs)
+                        throws SQLException {
+                        if ("execute".equals(stmtMethod.getName())) {
+                            execute((String) stmtArgs[0]);
+                            return Boolean.FALSE;
+                        }
+                        return null;
+                    }
+                });
+            }
+            if ("prepareStatement".equals(name)) {
+                final String query = (String) args[0];
+                final Map<Integer, String> params = new HashMap<Integer, String>();
+                return proxy(PreparedStatement.class, new InvocationHandler() {
+                    public Object invoke(Object stmt, Method stmtMethod, Object[] stmtArgs) {
+                        if ("setString".equals(stmtMethod.getName())) {
+                            params.put((Integer) stmtArgs[0], (String) stmtArgs[1]);
+                        } else if ("executeQuery".equals(stmtMethod.getName())) {
+                            return executeQuery(query, params);
+                        }
+                        return null;
+                    }
+                });
+            }
+            if ("getAutoCommit".equals(name)) {
+                return Boolean.TRUE;
+            }
+            return null;
+        }
+
+        private void execute(String sql) throws SQLException {
+            statements.add(sql);
+            Matcher matcher = CREATE_PATTERN.matcher(sql);
+            if (matcher.matches()) {
+                tables.add(matcher.group(1));
+            }
+            matcher = RENAME_PATTERN.matcher(sql);
+            if (matcher.matches()) {
+                tables.remove(matcher.group(1));
+                tables.add(matcher.group(2));
+            }
+            matcher = DROP_PATTERN.matcher(sql);
+            if (matcher.matches()) {
+                if (inUse.contains(matcher.group(2))) {
+                    throw new SQLException("canceling statement due to lock timeout");
+                }
+                tables.remove(matcher.group(2));
+            }
+        }
+
+        private MockMultiRowResultSet executeQuery(String query, Map<Integer, String> params) {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            if (query.contains("pg_advisory_lock")) {
+                locks.add("lock " + params.get(1));
+                if (onLock != null) {
+                    tables.add(onLock);
+                }
+                rows.add(new Object[] {""});
+            } else if (query.contains("pg_advisory_unlock")) {
+                locks.add("unlock " + params.get(1));
+                rows.add(new Object[] {Boolean.TRUE});
+            } else if (query.contains("tablename = ?")) {
+                if (tables.contains(params.get(2))) {
+                    rows.add(new Object[] {params.get(2)});
+                }
+            } else {
+                for (String table: tables) {
+                    rows.add(new Object[] {table});
+                }
+            }
+            MockMultiRowResultSet res = new MockMultiRowResultSet();
+            res.setupRows(rows.toArray(new Object[rows.size()][]));
+            res.setupColumnNames(new String[] {"tablename"});
+            return res;
+        }
+    }
+
+    private class TestChadoDBConverter extends GenomeDBConverter
+    {
+        public TestChadoDBConverter(Database database, Model tgtModel, ItemWriter writer)
+            throws SQLException {
+            super(database, tgtModel, writer);
+        }
+
+        @Override
+        protected Map<OrganismData, Integer> getChadoOrganismIds(Connection connection) {
+            return new HashMap<OrganismData, Integer>();
+        }
+    }
 }
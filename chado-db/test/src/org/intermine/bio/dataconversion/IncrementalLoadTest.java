@@ -0,0 +1,414 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.dataconversion.ItemsTestCase;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.util.StringUtil;
+
+import com.mockobjects.sql.MockMultiRowResultSet;
+
+/**
+ * Tests for incremental loads - see ChadoDBConverter.setManifestDirectory().  The processor
+ * reads a SyntheticChadoData, filtered the way the incremental queries of SequenceProcessor
+ * filter the chado tables.
+ */
+public class IncrementalLoadTest extends ItemsTestCase
+{
+    private static final int GENE_COUNT = 10;
+    // the feature_ids of the fourth gene and its mRNA, see SyntheticChadoData
+    private static final int GENE_ID = 20;
+    private static final int MRNA_ID = 21;
+    // the timelastmodified of the features, in milliseconds, unless changed in MODIFIED
+    private static final long FIRST_MODIFIED = 1000000L;
+    private static final Map<Integer, Long> MODIFIED = new HashMap<Integer, Long>();
+
+    private SyntheticChadoData data;
+    private File manifestDirectory;
+
+    public IncrementalLoadTest(String arg) {
+        super(arg);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        MODIFIED.clear();
+        data = new SyntheticChadoData(GENE_COUNT, 2, 2);
+        manifestDirectory = File.createTempFile("incremental_load", "");
+        manifestDirectory.delete();
+        manifestDirectory.mkdir();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void tearDown() throws Exception {
+        for (File file: manifestDirectory.listFiles()) {
+            file.delete();
+        }
+        manifestDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testChangedFeature() throws Exception {
+        String manifestName = IncrementalSequenceProcessor.class.getSimpleName() + "-"
+            + SyntheticChadoData.ORGANISM_ID + ".manifest";
+        File manifestFile = new File(manifestDirectory, manifestName);
+        File pendingFile = FeatureManifest.getPendingFile(manifestFile);
+
+        // no manifest, so everything is loaded
+        Set<Item> items = run();
+        assertEquals(GENE_COUNT, getItems(items, "Gene").size());
+        assertEquals(GENE_COUNT * 4, getItems(items, "Location").size());
+        // the manifest is only used once committed
+        assertTrue(pendingFile.exists());
+        assertFalse(manifestFile.exists());
+        assertEquals(1, ChadoDBConverter.commitManifests(manifestDirectory));
+        assertTrue(manifestFile.exists());
+        assertFalse(pendingFile.exists());
+
+        // change the name of one gene, which updates its timelastmodified
+        for (Object[] row: data.getRows(SyntheticChadoData.FEATURE)) {
+            if (((Integer) row[0]).intValue() == GENE_ID) {
+                row[1] = "CG99999";
+            }
+        }
+        MODIFIED.put(new Integer(GENE_ID), new Long(FIRST_MODIFIED + 1));
+        items = run();
+        List<Item> genes = getItems(items, "Gene");
+        assertEquals(1, genes.size());
+        Item gene = genes.get(0);
+        assertEquals("FBgn0000003", getAttribute(gene, "primaryIdentifier"));
+        assertEquals("CG99999", getAttribute(gene, "secondaryIdentifier"));
+
+        // the mRNA is related to the gene so is stored, but only with its identifier
+        List<Item> mrnas = getItems(items, "MRNA");
+        assertEquals(1, mrnas.size());
+        Item mrna = mrnas.get(0);
+        assertEquals("FBtr0000003", getAttribute(mrna, "primaryIdentifier"));
+        for (Item item: items) {
+            String className = getClassName(item);
+            if ("MRNA".equals(className) || "Exon".equals(className)
+                    || "Protein".equals(className)) {
+                assertNull(className, getAttribute(item, "length"));
+                assertNull(className, getAttribute(item, "secondaryIdentifier"));
+                assertNull(className, getReference(item, "sequence"));
+                assertNull(className, getReference(item, "gene"));
+                for (ReferenceList collection: item.getCollections()) {
+                    assertEquals(className, "dataSets", collection.getName());
+                }
+            }
+        }
+        assertTrue(getItems(items, "Sequence").isEmpty());
+
+        // only the changed gene has a new location and synonyms
+        List<Item> locations = getItems(items, "Location");
+        assertEquals(1, locations.size());
+        assertEquals(gene.getIdentifier(), getReference(locations.get(0), "feature"));
+        List<Item> synonyms = getItems(items, "Synonym");
+        assertFalse(synonyms.isEmpty());
+        for (Item synonym: synonyms) {
+            assertEquals(gene.getIdentifier(), getReference(synonym, "subject"));
+        }
+        assertTrue(pendingFile.exists());
+
+        // a run that doesn't commit its manifest is repeated
+        items = run();
+        assertEquals(1, getItems(items, "Gene").size());
+
+        // nothing has changed since the last committed run
+        assertEquals(1, ChadoDBConverter.commitManifests(manifestDirectory));
+        items = run();
+        assertTrue(getItems(items, "Gene").isEmpty());
+        assertTrue(getItems(items, "Location").isEmpty());
+        assertTrue(getItems(items, "Synonym").isEmpty());
+    }
+
+    public void testChangedRelation() throws Exception {
+        run();
+        ChadoDBConverter.commitManifests(manifestDirectory);
+
+        // move the mRNA of the fourth gene to the fifth gene - both genes and the mRNA change,
+        // though none of their timelastmodifieds do.  SequenceProcessor only reads the relations
+        // ordered by subject
+        for (Object[] row: data.getRows(SyntheticChadoData.RELATIONSHIP_BY_SUBJECT)) {
+            if (((Integer) row[1]).intValue() == MRNA_ID) {
+                row[2] = new Integer(GENE_ID + 5);
+            }
+        }
+        Set<Item> items = run();
+        assertEquals(2, getItems(items, "Gene").size());
+        List<Item> mrnas = getItems(items, "MRNA");
+        assertEquals(1, mrnas.size());
+        assertNotNull(getAttribute(mrnas.get(0), "length"));
+        assertNotNull(getReference(mrnas.get(0), "sequence"));
+    }
+
+    private Set<Item> run() throws Exception {
+        MockItemWriter itemWriter = new MockItemWriter(new HashMap<String, Item>());
+        ChadoProcessorBenchmark.BenchmarkConverter converter =
+            new ChadoProcessorBenchmark.BenchmarkConverter(Model.getInstanceByName("genomic"),
+                    itemWriter, data);
+        converter.setOrganisms("7227");
+        converter.setProcessors(IncrementalSequenceProcessor.class.getName());
+        converter.setDataSourceName("FlyBase");
+        converter.setManifestDirectory(manifestDirectory.getPath());
+        converter.process();
+        itemWriter.close();
+        return converter.getItems();
+    }
+
+    private static String getClassName(Item item) {
+        String className = item.getClassName();
+        return className.substring(className.lastIndexOf('#') + 1);
+    }
+
+    private static List<Item> getItems(Set<Item> items, String className) {
+        List<Item> found = new ArrayList<Item>();
+        for (Item item: items) {
+            if (className.equals(getClassName(item))) {
+                found.add(item);
+            }
+        }
+        return found;
+    }
+
+    private static String getAttribute(Item item, String name) {
+        for (Attribute attribute: item.getAttributes()) {
+            if (name.equals(attribute.getName())) {
+                return attribute.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String getReference(Item item, String name) {
+        for (Reference reference: item.getReferences()) {
+            if (name.equals(reference.getName())) {
+                return reference.getRefId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A SequenceProcessor that reads a SyntheticChadoData as the incremental queries would:
+     * the digests are made from the synthetic rows and, once the changed features are known,
+     * only the rows of changed features and of the features they can refer to are returned.
+     */
+    public static class IncrementalSequenceProcessor
+        extends ChadoProcessorBenchmark.BenchmarkSequenceProcessor
+    {
+        // the unchanged features read by getFeatureTableResultSet(), null if all features are
+        // being loaded
+        private Set<Integer> partnerIds = null;
+
+        /**
+         * Create a new IncrementalSequenceProcessor.
+         * @param chadoDBConverter the BenchmarkConverter
+         */
+        public IncrementalSequenceProcessor(ChadoDBConverter chadoDBConverter) {
+            super(chadoDBConverter);
+        }
+
+        private SyntheticChadoData getData() {
+            return ((ChadoProcessorBenchmark.BenchmarkConverter) getChadoDBConverter()).getData();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureDigestResultSet(Connection connection) {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            MessageDigest md5;
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            for (Object[] feature: getData().getRows(SyntheticChadoData.FEATURE)) {
+                Integer featureId = (Integer) feature[0];
+                List<String> relations = new ArrayList<String>();
+                for (Object[] relation: getData().getRows(
+                        SyntheticChadoData.RELATIONSHIP_BY_SUBJECT)) {
+                    if (featureId.equals(relation[1])) {
+                        relations.add("s" + relation[3] + ":" + relation[2]);
+                    }
+                    if (featureId.equals(relation[2])) {
+                        relations.add("o" + relation[3] + ":" + relation[1]);
+                    }
+                }
+                String digest = null;
+                if (!relations.isEmpty()) {
+                    Collections.sort(relations);
+                    StringBuilder sb = new StringBuilder();
+                    for (byte b: md5.digest(StringUtil.join(relations, ",").getBytes())) {
+                        sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+                    }
+                    digest = sb.toString();
+                }
+                Long modified = MODIFIED.get(featureId);
+                rows.add(new Object[] {
+                    featureId, modified == null ? Long.valueOf(FIRST_MODIFIED) : modified, digest
+                });
+            }
+            return makeResultSet(new String[] {"feature_id", "modified", "digest"}, rows);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void createChangedFeatureTable(Connection connection, int[] changedIds,
+                int changedCount) {
+            // the features related to a changed feature by up to two relations
+            Object[][] relations = getData().getRows(SyntheticChadoData.RELATIONSHIP_BY_SUBJECT);
+            Set<Integer> ids = new HashSet<Integer>();
+            for (int i = 0; i < changedCount; i++) {
+                ids.add(new Integer(changedIds[i]));
+            }
+            for (int hop = 0; hop < 2; hop++) {
+                Set<Integer> newIds = new HashSet<Integer>(ids);
+                for (Object[] relation: relations) {
+                    if (ids.contains(relation[1])) {
+                        newIds.add((Integer) relation[2]);
+                    }
+                    if (ids.contains(relation[2])) {
+                        newIds.add((Integer) relation[1]);
+                    }
+                }
+                ids = newIds;
+            }
+            partnerIds = ids;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureTableResultSet(Connection connection) {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Object[] row: getData().getRows(SyntheticChadoData.FEATURE)) {
+                int featureId = ((Integer) row[0]).intValue();
+                if (isChangedFeature(featureId)) {
+                    rows.add(row);
+                } else if ("chromosome_arm".equals(row[3])
+                        || partnerIds.contains(Integer.valueOf(featureId))) {
+                    // no residues for unchanged features
+                    Object[] unchangedRow = row.clone();
+                    unchangedRow[5] = null;
+                    rows.add(unchangedRow);
+                }
+            }
+            return makeResultSet(getData().getColumnNames(SyntheticChadoData.FEATURE), rows);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureLocResultSet(Connection connection) {
+            return getChangedRows(SyntheticChadoData.FEATURELOC, 1);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeatureRelationshipResultSet(Connection connection,
+                boolean subjectIsFirst) {
+            String table = subjectIsFirst ? SyntheticChadoData.RELATIONSHIP_BY_SUBJECT
+                : SyntheticChadoData.RELATIONSHIP_BY_OBJECT;
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Object[] row: getData().getRows(table)) {
+                if (isChangedFeature(((Integer) row[1]).intValue())
+                        || isChangedFeature(((Integer) row[2]).intValue())) {
+                    rows.add(row);
+                }
+            }
+            return makeResultSet(getData().getColumnNames(table), rows);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getSynonymResultSet(Connection connection) {
+            return getChangedRows(SyntheticChadoData.SYNONYM, 0);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getDbxrefResultSet(Connection connection) {
+            return getChangedRows(SyntheticChadoData.DBXREF, 0);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getFeaturePropResultSet(Connection connection) {
+            return getChangedRows(SyntheticChadoData.FEATUREPROP, 0);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected ResultSet getPubResultSet(Connection connection) {
+            return getChangedRows(SyntheticChadoData.PUB, 0);
+        }
+
+        // the rows of a table whose feature_id, in the given column, is a changed feature
+        private ResultSet getChangedRows(String table, int featureIdColumn) {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Object[] row: getData().getRows(table)) {
+                if (isChangedFeature(((Integer) row[featureIdColumn]).intValue())) {
+                    rows.add(row);
+                }
+            }
+            return makeResultSet(getData().getColumnNames(table), rows);
+        }
+
+        private static ResultSet makeResultSet(String[] columnNames, List<Object[]> rows) {
+            MockMultiRowResultSet res = new IndexedMockResultSet();
+            res.setupRows(rows.toArray(new Object[rows.size()][]));
+            res.setupColumnNames(columnNames);
+            return res;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+
+import com.mockobjects.sql.MockMultiRowResultSet;
+
+/**
+ * A MockMultiRowResultSet that can also be read by column index the way a JDBC driver's results
+ * are: findColumn() returns the index of a label, getInt() and getBoolean() return 0 and false
+ * for NULL and wasNull() says whether the last value read was NULL.  Needed for the tables that
+ * SequenceProcessor reads through ResultSetRows.
+ */
+public class IndexedMockResultSet extends MockMultiRowResultSet
+{
+    private Object[][] rows = new Object[0][];
+    private String[] columnNames = new String[0];
+    private int rowIndex = -1;
+    private boolean wasNull = false;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setupRows(Object[][] rows) {
+        super.setupRows(rows);
+        this.rows = rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setupColumnNames(String[] columnNames) {
+        super.setupColumnNames(columnNames);
+        this.columnNames = columnNames;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws SQLException {
+        boolean hasNext = super.next();
+        if (hasNext) {
+            rowIndex++;
+        }
+        return hasNext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int findColumn(String columnName) throws SQLException {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName)) {
+                return i + 1;
+            }
+        }
+        throw new SQLException("no column named " + columnName);
+    }
+
+    private Object getValue(int columnIndex) throws SQLException {
+        if (rowIndex < 0 || rowIndex >= rows.length) {
+            throw new SQLException("not on a row");
+        }
+        if (columnIndex < 1 || columnIndex > rows[rowIndex].length) {
+            throw new SQLException("no column " + columnIndex);
+        }
+        Object value = rows[rowIndex][columnIndex - 1];
+        wasNull = value == null;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        return getValue(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        Object value = getValue(columnIndex);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getString(int columnIndex) throws SQLException {
+        Object value = getValue(columnIndex);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getBoolean(int columnIndex) throws SQLException {
+        Object value = getValue(columnIndex);
+        return value != null && ((Boolean) value).booleanValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean wasNull() {
+        return wasNull;
+    }
+}
@@ -0,0 +1,95 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for LoadProfile.
+ */
+public class LoadProfileTest extends TestCase
+{
+    public LoadProfileTest(String arg) {
+        super(arg);
+    }
+
+    public void testPasses() throws Exception {
+        LoadProfile profile = new LoadProfile();
+        LoadProfile.PassRun outer = profile.startPass("outer");
+        profile.countItem();
+        for (int i = 0; i < 2; i++) {
+            LoadProfile.PassRun inner = profile.startPass("inner \"quoted\"");
+            assertTrue(Arrays.asList(profile.getRunningPasses()).contains("outer"));
+            profile.countRows(10);
+            profile.countReference();
+            profile.countAttribute();
+            profile.recordFeatureMapSize(5 + i);
+            profile.finishPass(inner);
+        }
+        profile.countCollection();
+        profile.finishPass(outer);
+        profile.countItem();
+
+        assertEquals(0, profile.getRunningPasses().length);
+        assertEquals(20, profile.getRowsRead());
+        assertEquals(2, profile.getItemsStored());
+        assertEquals(5, profile.getFieldsStored());
+
+        String report = profile.getReport();
+        assertTrue(report,
+                report.contains("\"name\": \"inner \\\"quoted\\\"\",\n      \"runs\": 2"));
+        assertTrue(report, report.contains("\"rowsRead\": 20"));
+        assertTrue(report, report.contains("\"rowsPerSecond\": "));
+        assertTrue(report, report.contains("\"peakFeatureMapSize\": 6"));
+        assertTrue(report, report.contains("\"collectionsStored\": 1"));
+        // the item stored after the outer pass finished
+        assertTrue(report, report.contains("\"name\": \"(outside passes)\""));
+    }
+
+    public void testFailedPass() throws Exception {
+        LoadProfile profile = new LoadProfile();
+        LoadProfile.PassRun outer = profile.startPass("outer");
+        LoadProfile.PassRun inner = profile.startPass("failing");
+        profile.finishPass(inner, true);
+        // work after the failure counts towards the outer pass again
+        profile.countItem();
+        profile.finishPass(outer);
+
+        assertEquals(0, profile.getRunningPasses().length);
+        String report = profile.getReport();
+        assertTrue(report, report.contains("\"name\": \"failing\",\n      \"runs\": 1,\n"
+                + "      \"failedRuns\": 1"));
+        assertTrue(report, report.contains("\"name\": \"outer\",\n      \"runs\": 1,\n"
+                + "      \"failedRuns\": 0"));
+        assertTrue(report, report.contains("\"itemsStored\": 1"));
+        assertFalse(report, report.contains("(outside passes)"));
+    }
+
+    public void testThreadsInheritPass() throws Exception {
+        final LoadProfile profile = new LoadProfile();
+        LoadProfile.PassRun run = profile.startPass("parallel");
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                profile.countRows(3);
+            }
+        };
+        thread.start();
+        thread.join();
+        profile.finishPass(run);
+        String report = profile.getReport();
+        assertTrue(report, report.contains("\"name\": \"parallel\""));
+        assertFalse(report, report.contains("(outside passes)"));
+        assertEquals(3, profile.getRowsRead());
+    }
+}
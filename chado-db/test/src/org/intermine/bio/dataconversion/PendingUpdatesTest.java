@@ -0,0 +1,96 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.sql.Database;
+import org.intermine.xml.full.Attribute;
+import org.intermine.xml.full.ReferenceList;
+
+/**
+ * Tests for PendingUpdates.
+ */
+public class PendingUpdatesTest extends TestCase
+{
+    private RecordingConverter converter;
+
+    public PendingUpdatesTest(String arg) {
+        super(arg);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        ItemWriter itemWriter =
+            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
+        converter = new RecordingConverter(null, Model.getInstanceByName("genomic"), itemWriter);
+    }
+
+    public void testAttributesReplaced() throws Exception {
+        PendingUpdates pendingUpdates = new PendingUpdates();
+        pendingUpdates.add(new Attribute("length", "100"), 1);
+        pendingUpdates.add(new Attribute("length", "200"), 1);
+        assertEquals(1, pendingUpdates.size());
+        assertEquals(1, pendingUpdates.getCoalescedCount());
+        pendingUpdates.flush(converter);
+        assertEquals(Arrays.asList("length=200"), converter.stored);
+    }
+
+    public void testCollectionsMerged() throws Exception {
+        PendingUpdates pendingUpdates = new PendingUpdates();
+        ReferenceList first = new ReferenceList("exons", Arrays.asList("0_1", "0_2"));
+        pendingUpdates.add(first, 1);
+        pendingUpdates.add(new ReferenceList("exons", Arrays.asList("0_2", "0_3")), 1);
+        pendingUpdates.add(new ReferenceList("exons", Arrays.asList("0_4")), 2);
+        assertEquals(2, pendingUpdates.size());
+        assertEquals(1, pendingUpdates.getCoalescedCount());
+        pendingUpdates.flush(converter);
+        assertEquals(Arrays.asList("exons=[0_1, 0_2, 0_3]", "exons=[0_4]"), converter.stored);
+        // the list that was added isn't changed by the merge
+        assertEquals(Arrays.asList("0_1", "0_2"), first.getRefIds());
+        assertEquals(0, pendingUpdates.size());
+    }
+
+    private class RecordingConverter extends GenomeDBConverter
+    {
+        private final List<String> stored = new ArrayList<String>();
+
+        public RecordingConverter(Database database, Model tgtModel, ItemWriter writer)
+            throws SQLException {
+            super(database, tgtModel, writer);
+        }
+
+        @Override
+        public void store(Attribute attribute, Integer itemId) throws ObjectStoreException {
+            stored.add(attribute.getName() + "=" + attribute.getValue());
+        }
+
+        @Override
+        public void store(ReferenceList referenceList, Integer itemId)
+            throws ObjectStoreException {
+            stored.add(referenceList.getName() + "=" + referenceList.getRefIds());
+        }
+    }
+}
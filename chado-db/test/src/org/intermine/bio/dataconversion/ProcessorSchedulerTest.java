@@ -0,0 +1,213 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+
+/**
+ * Tests for ProcessorScheduler.
+ */
+public class ProcessorSchedulerTest extends TestCase
+{
+    private ChadoDBConverter converter;
+    private List<String> events;
+
+    public ProcessorSchedulerTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        MockItemWriter itemWriter =
+            new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>());
+        converter = new TestConverter(Model.getInstanceByName("genomic"), itemWriter);
+        events = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    public void testDependencies() throws Exception {
+        ProcessorScheduler scheduler = new ProcessorScheduler(converter, 4);
+        scheduler.add(new IndependentProcessor(converter, "a", null, null));
+        scheduler.add(new IndependentProcessor(converter, "b", null, null));
+        scheduler.add(new DependentProcessor(converter, "c"));
+        scheduler.add(new SequentialProcessor(converter, "d"));
+        assertEquals(Collections.emptyList(), scheduler.getDependencyNames(0));
+        assertEquals(Collections.emptyList(), scheduler.getDependencyNames(1));
+        assertEquals(Arrays.asList("IndependentProcessor", "IndependentProcessor"),
+                scheduler.getDependencyNames(2));
+        assertEquals(Arrays.asList("IndependentProcessor", "IndependentProcessor",
+                "DependentProcessor"), scheduler.getDependencyNames(3));
+    }
+
+    public void testParallel() throws Exception {
+        CountDownLatch aStarted = new CountDownLatch(1);
+        CountDownLatch bStarted = new CountDownLatch(1);
+        ProcessorScheduler scheduler = new ProcessorScheduler(converter, 4);
+        // a and b each wait for the other to start, so they must run at the same time
+        scheduler.add(new IndependentProcessor(converter, "a", aStarted, bStarted));
+        scheduler.add(new IndependentProcessor(converter, "b", bStarted, aStarted));
+        scheduler.add(new DependentProcessor(converter, "c"));
+        scheduler.add(new SequentialProcessor(converter, "d"));
+        scheduler.run(null);
+        assertEquals(4, converter.getCompletedProcessors().size());
+        assertEquals(events.toString(), "finish c", events.get(events.size() - 3));
+        assertEquals("start d", events.get(events.size() - 2));
+        assertEquals("finish d", events.get(events.size() - 1));
+        List<String> path = scheduler.getCriticalPath();
+        assertEquals(3, path.size());
+        assertEquals("SequentialProcessor", path.get(2));
+        String report = converter.getLoadProfile().getReport();
+        assertTrue(report, report.contains("\"criticalPath\""));
+    }
+
+    public void testSequential() throws Exception {
+        ProcessorScheduler scheduler = new ProcessorScheduler(converter, 1);
+        scheduler.add(new SequentialProcessor(converter, "d"));
+        scheduler.add(new IndependentProcessor(converter, "a", null, null));
+        scheduler.add(new DependentProcessor(converter, "c"));
+        scheduler.run(null);
+        assertEquals(Arrays.asList("start d", "finish d", "start a", "finish a", "start c",
+                "finish c"), events);
+    }
+
+    public void testCriticalPath() throws Exception {
+        ProcessorScheduler scheduler = new ProcessorScheduler(converter, 1);
+        scheduler.add(new SequentialProcessor(converter, "d"));
+        IndependentProcessor slow = new IndependentProcessor(converter, "a", null, null);
+        slow.sleepMillis = 100;
+        scheduler.add(slow);
+        scheduler.add(new DependentProcessor(converter, "c"));
+        scheduler.run(null);
+        // d ran first but nothing depends on it
+        assertEquals(Arrays.asList("IndependentProcessor", "DependentProcessor"),
+                scheduler.getCriticalPath());
+        String report = converter.getLoadProfile().getReport();
+        assertTrue(report, report.contains("\"processors\": [\"IndependentProcessor\", "
+                + "\"DependentProcessor\"]"));
+    }
+
+    public void testFailure() throws Exception {
+        ProcessorScheduler scheduler = new ProcessorScheduler(converter, 2);
+        scheduler.add(new IndependentProcessor(converter, "a", null, null));
+        scheduler.add(new IndependentProcessor(converter, "fail", null, null));
+        scheduler.add(new DependentProcessor(converter, "c"));
+        try {
+            scheduler.run(null);
+            fail("expected SQLException");
+        } catch (SQLException e) {
+            assertEquals("fail failed", e.getMessage());
+        }
+        assertFalse(events.contains("start c"));
+    }
+
+    /**
+     * Records when it starts and finishes.
+     */
+    private class RecordingProcessor extends ChadoProcessor
+    {
+        private final String name;
+        long sleepMillis = 0;
+
+        RecordingProcessor(ChadoDBConverter converter, String name) {
+            super(converter);
+            this.name = name;
+        }
+
+        @Override
+        public void process(Connection connection) throws Exception {
+            events.add("start " + name);
+            if ("fail".equals(name)) {
+                throw new SQLException(name + " failed");
+            }
+            work();
+            Thread.sleep(sleepMillis);
+            events.add("finish " + name);
+        }
+
+        void work() throws Exception {
+            // empty
+        }
+    }
+
+    private class IndependentProcessor extends RecordingProcessor
+    {
+        private final CountDownLatch started;
+        private final CountDownLatch waitFor;
+
+        IndependentProcessor(ChadoDBConverter converter, String name, CountDownLatch started,
+                CountDownLatch waitFor) {
+            super(converter, name);
+            this.started = started;
+            this.waitFor = waitFor;
+        }
+
+        @Override
+        void work() throws Exception {
+            if (started != null) {
+                started.countDown();
+                assertTrue("not running in parallel", waitFor.await(10, TimeUnit.SECONDS));
+            }
+        }
+
+        @Override
+        public List<Class<? extends ChadoProcessor>> getDependencies() {
+            return Collections.emptyList();
+        }
+    }
+
+    private class DependentProcessor extends RecordingProcessor
+    {
+        DependentProcessor(ChadoDBConverter converter, String name) {
+            super(converter, name);
+        }
+
+        @Override
+        public List<Class<? extends ChadoProcessor>> getDependencies() {
+            List<Class<? extends ChadoProcessor>> dependencies =
+                new ArrayList<Class<? extends ChadoProcessor>>();
+            dependencies.add(IndependentProcessor.class);
+            return dependencies;
+        }
+    }
+
+    private class SequentialProcessor extends RecordingProcessor
+    {
+        SequentialProcessor(ChadoDBConverter converter, String name) {
+            super(converter, name);
+        }
+    }
+
+    private static class TestConverter extends GenomeDBConverter
+    {
+        TestConverter(Model tgtModel, ItemWriter writer) throws SQLException {
+            super(null, tgtModel, writer);
+        }
+
+        @Override
+        public Connection getNewConnection() {
+            // no database while testing
+            return null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ResultSetRows.
+ */
+public class ResultSetRowsTest extends TestCase
+{
+    public ResultSetRowsTest(String arg) {
+        super(arg);
+    }
+
+    private static IndexedMockResultSet makeResultSet() {
+        IndexedMockResultSet res = new IndexedMockResultSet();
+        res.setupColumnNames(new String[] {"name", "seqlen", "feature_id", "is_current"});
+        res.setupRows(new Object[][] {
+            {"CG10006", 5023, 3117509, true},
+            {null, null, 411, false},
+            {"zero", 0, 412, null}
+        });
+        return res;
+    }
+
+    public void testReadByIndex() throws Exception {
+        // the columns are read in a different order to the result set's
+        ChadoRows rows = new ResultSetRows(makeResultSet(), "feature_id", "seqlen", "name",
+                "is_current");
+        int featureIdColumn = rows.findColumn("feature_id");
+        int seqlenColumn = rows.findColumn("seqlen");
+        int nameColumn = rows.findColumn("name");
+        int isCurrentColumn = rows.findColumn("is_current");
+
+        assertTrue(rows.next());
+        assertEquals(3117509, rows.getInt(featureIdColumn));
+        assertEquals(5023, rows.getInt(seqlenColumn, -1));
+        assertEquals("CG10006", rows.getString(nameColumn));
+        assertTrue(rows.getBoolean(isCurrentColumn));
+
+        assertTrue(rows.next());
+        assertEquals(411, rows.getInt(featureIdColumn));
+        assertEquals(0, rows.getInt(seqlenColumn));
+        assertEquals(-1, rows.getInt(seqlenColumn, -1));
+        assertNull(rows.getString(nameColumn));
+        assertFalse(rows.getBoolean(isCurrentColumn));
+
+        // a real 0 isn't mistaken for NULL
+        assertTrue(rows.next());
+        assertEquals(0, rows.getInt(seqlenColumn, -1));
+        assertFalse(rows.getBoolean(isCurrentColumn));
+
+        assertFalse(rows.next());
+        rows.close();
+    }
+
+    public void testMissingColumn() throws Exception {
+        try {
+            new ResultSetRows(makeResultSet(), "feature_id", "residues");
+            fail("expected SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ReverseRelations.
+ */
+public class ReverseRelationsTest extends TestCase
+{
+    public ReverseRelationsTest(String arg) {
+        super(arg);
+    }
+
+    public void testInMemory() throws Exception {
+        checkRelations(new ReverseRelations(2, null), 0);
+    }
+
+    public void testSpill() throws Exception {
+        File spillDirectory = File.createTempFile("reverse_relations", "");
+        spillDirectory.delete();
+        spillDirectory.mkdir();
+        try {
+            checkRelations(new ReverseRelations(2, spillDirectory), 2);
+            assertEquals(0, spillDirectory.listFiles().length);
+        } finally {
+            spillDirectory.delete();
+        }
+    }
+
+    public void testCloseEarly() throws Exception {
+        File spillDirectory = File.createTempFile("reverse_relations", "");
+        spillDirectory.delete();
+        spillDirectory.mkdir();
+        try {
+            ReverseRelations relations = new ReverseRelations(1, spillDirectory);
+            relations.add(1, 20, 2, "adjacent_to");
+            relations.add(2, 10, 3, "adjacent_to");
+            relations.add(3, 30, 4, "adjacent_to");
+            assertTrue(relations.next());
+            relations.close();
+            assertEquals(0, spillDirectory.listFiles().length);
+        } finally {
+            spillDirectory.delete();
+        }
+    }
+
+    private void checkRelations(ReverseRelations relations, int expectedRuns) throws Exception {
+        relations.add(1, 20, 2, "adjacent_to");
+        relations.add(2, 10, 3, "producedby");
+        relations.add(3, 20, 1, "producedby");
+        relations.add(4, 30, 5, "adjacent_to");
+        relations.add(5, 10, 1, "adjacent_to");
+        relations.add(6, 20, 4, "adjacent_to");
+        assertEquals(expectedRuns, relations.getRunCount());
+        assertEquals(6, relations.getRowCount());
+
+        List<String> rows = new ArrayList<String>();
+        while (relations.next()) {
+            rows.add(relations.getRelationshipId() + ":" + relations.getFeature1Id() + "-"
+                    + relations.getFeature2Id() + " " + relations.getTypeName());
+        }
+        // sorted by feature1, in the order added for the same feature1
+        assertEquals(Arrays.asList("2:10-3 producedby", "5:10-1 adjacent_to",
+                    "1:20-2 adjacent_to", "3:20-1 producedby", "6:20-4 adjacent_to",
+                    "4:30-5 adjacent_to"), rows);
+        assertFalse(relations.next());
+    }
+}
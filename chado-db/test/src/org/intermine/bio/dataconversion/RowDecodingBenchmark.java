@@ -0,0 +1,202 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.mockobjects.sql.MockMultiRowResultSet;
+
+/**
+ * Compare decoding the rows of the feature table by column label, as processFeatureTable() used
+ * to, against decoding them through ResultSetRows, which finds the column indexes once and reads
+ * primitives.  The label version boxes the ids and reads seqlen twice to check for NULL.  The
+ * dbxref, synonym and featureprop rows are also read the way those loops look up their features,
+ * once boxing each feature_id and once passing it to FeatureDataMap as an int.  For each way the
+ * bytes allocated per million rows and the rows decoded per second are printed.
+ * Run from the test classpath:
+ *
+ *   java org.intermine.bio.dataconversion.RowDecodingBenchmark [genes [runs]]
+ */
+public class RowDecodingBenchmark
+{
+    private static final String[] FEATURE_ID_TABLES = {
+        SyntheticChadoData.DBXREF, SyntheticChadoData.SYNONYM, SyntheticChadoData.FEATUREPROP
+    };
+
+    private final SyntheticChadoData data;
+    private final FeatureDataMap featureMap = new FeatureDataMap();
+    private long checksum = 0;
+
+    /**
+     * Create a new benchmark.
+     * @param data the rows to decode
+     */
+    public RowDecodingBenchmark(SyntheticChadoData data) {
+        this.data = data;
+        for (Object[] row: data.getRows(SyntheticChadoData.FEATURE)) {
+            featureMap.put(((Integer) row[0]).intValue(), new FeatureData());
+        }
+    }
+
+    private ResultSet getResultSet() {
+        return getResultSet(SyntheticChadoData.FEATURE);
+    }
+
+    private ResultSet getResultSet(String table) {
+        MockMultiRowResultSet res = new IndexedMockResultSet();
+        res.setupRows(data.getRows(table));
+        res.setupColumnNames(data.getColumnNames(table));
+        return res;
+    }
+
+    /**
+     * Decode all the feature rows by column label.
+     * @return the number of rows
+     * @throws SQLException if a row can't be read
+     */
+    int decodeByLabel() throws SQLException {
+        ResultSet res = getResultSet();
+        int count = 0;
+        while (res.next()) {
+            Integer featureId = new Integer(res.getInt("feature_id"));
+            String name = res.getString("name");
+            String uniqueName = res.getString("uniquename");
+            String type = res.getString("type");
+            String residues = res.getString("residues");
+            String md5checksum = res.getString("md5checksum");
+            Integer organismId = new Integer(res.getInt("organism_id"));
+            int seqlen = 0;
+            if (res.getObject("seqlen") != null) {
+                seqlen = res.getInt("seqlen");
+            }
+            use(featureId.intValue(), name, uniqueName, type, seqlen, residues, md5checksum,
+                    organismId.intValue());
+            count++;
+        }
+        res.close();
+        return count;
+    }
+
+    /**
+     * Decode all the feature rows through ResultSetRows.
+     * @return the number of rows
+     * @throws SQLException if a row can't be read
+     */
+    int decodeByIndex() throws SQLException {
+        ChadoRows rows = new ResultSetRows(getResultSet(), "feature_id", "name", "uniquename",
+                "type", "seqlen", "residues", "md5checksum", "organism_id");
+        int count = 0;
+        while (rows.next()) {
+            use(rows.getInt(0), rows.getString(1), rows.getString(2), rows.getString(3),
+                    rows.getInt(4, 0), rows.getString(5), rows.getString(6), rows.getInt(7));
+            count++;
+        }
+        rows.close();
+        return count;
+    }
+
+    /**
+     * Read the feature_id of each dbxref, synonym and featureprop row and find its FeatureData,
+     * as processDbxrefTable(), processSynonymTable() and processFeaturePropTable() do.
+     * @param boxed if true box each feature_id and use the Object methods of the map, as those
+     * loops used to
+     * @return the number of rows
+     * @throws SQLException if a row can't be read
+     */
+    int lookUpFeatures(boolean boxed) throws SQLException {
+        int count = 0;
+        for (String table: FEATURE_ID_TABLES) {
+            ChadoRows rows = new ResultSetRows(getResultSet(table), "feature_id");
+            int featureIdColumn = rows.findColumn("feature_id");
+            while (rows.next()) {
+                FeatureData fdat = null;
+                if (boxed) {
+                    Integer featureId = new Integer(rows.getInt(featureIdColumn));
+                    if (featureMap.containsKey(featureId)) {
+                        fdat = featureMap.get(featureId);
+                    }
+                } else {
+                    fdat = featureMap.get(rows.getInt(featureIdColumn));
+                }
+                if (fdat != null) {
+                    checksum++;
+                }
+                count++;
+            }
+            rows.close();
+        }
+        return count;
+    }
+
+    // combine the values so that reading them can't be optimised away
+    private void use(int featureId, String name, String uniqueName, String type, int seqlen,
+            String residues, String md5checksum, int organismId) {
+        checksum += featureId + seqlen + organismId + uniqueName.length() + type.length();
+        if (name != null) {
+            checksum += name.length();
+        }
+        if (residues != null) {
+            checksum += residues.length();
+        }
+        if (md5checksum != null) {
+            checksum += md5checksum.length();
+        }
+    }
+
+    /**
+     * Return a value computed from all the rows decoded so far.
+     * @return the checksum
+     */
+    long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args the number of genes and the number of runs of each way
+     * @throws Exception if a row can't be read
+     */
+    public static void main(String[] args) throws Exception {
+        int genes = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        RowDecodingBenchmark benchmark =
+            new RowDecodingBenchmark(new SyntheticChadoData(genes, 2, 2));
+        String[] names = {"labels", "ResultSetRows", "boxed ids", "int ids"};
+        for (int way = 0; way < names.length; way++) {
+            long nanos = 0;
+            long allocatedBytes = 0;
+            int rows = 0;
+            for (int i = 0; i < runs; i++) {
+                long startBytes = LoadProfile.getAllocatedBytes();
+                long startNanos = System.nanoTime();
+                switch (way) {
+                case 0:
+                    rows = benchmark.decodeByLabel();
+                    break;
+                case 1:
+                    rows = benchmark.decodeByIndex();
+                    break;
+                default:
+                    rows = benchmark.lookUpFeatures(way == 2);
+                    break;
+                }
+                nanos = System.nanoTime() - startNanos;
+                allocatedBytes = LoadProfile.getAllocatedBytes() - startBytes;
+            }
+            double millions = rows / 1e6;
+            System.out.println(String.format("%-13s %12.0f bytes/million rows %12.0f rows/s",
+                    names[way], allocatedBytes < 0 ? -1 : allocatedBytes / millions,
+                    rows * 1e9 / nanos));
+        }
+        System.out.println("checksum " + benchmark.getChecksum());
+    }
+}
@@ -10,6 +10,11 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.intermine.dataconversion.ItemsTestCase;
 
 public class SequenceProcessorTest extends ItemsTestCase
@@ -44,4 +49,78 @@ public class SequenceProcessorTest extends ItemsTestCase
         assertEquals(false, fdat.getFlag("secondaryIdentifier"));
         assertEquals(false, fdat.getFlag(FeatureData.EVIDENCE_CREATED));
     }
+
+    public void testFeatureDataSetFlagIfNotSet() throws Exception {
+        final FeatureData fdat = new FeatureData();
+        assertTrue(fdat.setFlagIfNotSet(FeatureData.LENGTH_SET));
+        assertFalse(fdat.setFlagIfNotSet(FeatureData.LENGTH_SET));
+        assertTrue(fdat.getFlag(FeatureData.LENGTH_SET));
+        assertFalse(fdat.getFlag(FeatureData.NAME_SET));
+
+        // of several threads setting the same flag only one sees it unset
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger setCount = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (fdat.setFlagIfNotSet(SequenceProcessor.NAME_STRING)) {
+                        setCount.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread: threads) {
+            thread.join(10000);
+        }
+        assertEquals(1, setCount.get());
+        assertTrue(fdat.getFlag(FeatureData.NAME_SET));
+        assertTrue(fdat.getFlag(FeatureData.LENGTH_SET));
+    }
+
+    public void testFeatureDataCompactFields() {
+        FeatureData fdat = new FeatureData();
+
+        assertNull(fdat.getItemIdentifier());
+        fdat.setItemIdentifier("1_1234");
+        assertEquals("1_1234", fdat.getItemIdentifier());
+        // made from the compact form on each call, not kept
+        assertEquals(fdat.getItemIdentifier(), fdat.getItemIdentifier());
+        // not in the <prefix>_<n> form
+        fdat.setItemIdentifier("1_007");
+        assertEquals("1_007", fdat.getItemIdentifier());
+
+        fdat.setInterMineType("Gene");
+        assertEquals("Gene", fdat.getInterMineType());
+
+        assertNull(fdat.getChecksum());
+        fdat.setMd5checksum("4946c54eee3ca803caac460c6bc68db4");
+        assertEquals("4946c54eee3ca803caac460c6bc68db4", fdat.getChecksum());
+        assertTrue(fdat.hasChecksum("4946c54eee3ca803caac460c6bc68db4"));
+        assertFalse(fdat.hasChecksum("4946c54eee3ca803caac460c6bc68db5"));
+        assertFalse(fdat.hasChecksum("4946C54EEE3CA803CAAC460C6BC68DB4"));
+        assertFalse(fdat.hasChecksum(null));
+        fdat.setMd5checksum("not_a_checksum");
+        assertEquals("not_a_checksum", fdat.getChecksum());
+        assertTrue(fdat.hasChecksum("not_a_checksum"));
+
+        assertEquals(0, fdat.getExistingSynonyms().size());
+        fdat.addExistingSynonym("CG1234");
+        assertTrue(fdat.getExistingSynonyms().contains("cg1234"));
+        assertTrue(fdat.hasExistingSynonym("cg1234"));
+        assertFalse(fdat.hasExistingSynonym("CG12345"));
+        fdat.addExistingSynonym("CG12345");
+        assertEquals(2, fdat.getExistingSynonyms().size());
+        assertTrue(fdat.hasExistingSynonym("CG12345"));
+    }
 }
@@ -0,0 +1,243 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.bio.util.OrganismData;
+import org.intermine.bio.util.OrganismRepository;
+
+/**
+ * Tests for SpillingFeatureDataMap and FeatureDataStore.
+ */
+public class SpillingFeatureDataMapTest extends TestCase
+{
+    public SpillingFeatureDataMapTest(String arg) {
+        super(arg);
+    }
+
+    private FeatureData makeFeatureData(int i) {
+        FeatureData fdat = new FeatureData();
+        fdat.setInterMineType(i % 2 == 0 ? "Gene" : "MRNA");
+        fdat.setItemIdentifier("1_" + i);
+        fdat.setIntermineObjectId(new Integer(i * 10));
+        fdat.setUniqueName("FBgn" + i);
+        fdat.setChadoFeatureName(i % 3 == 0 ? "FBgn" + i : "name" + i);
+        fdat.setMd5checksum(i % 2 == 0 ? "0123456789abcdef0123456789abcdef" : "not hex");
+        fdat.setFlag(FeatureData.IDENTIFIER_SET, true);
+        fdat.organismData = OrganismRepository.getOrganismRepository().getOrganismDataByTaxon(7227);
+        return fdat;
+    }
+
+    private void assertSameFields(FeatureData expected, FeatureData actual) {
+        assertEquals(expected.getInterMineType(), actual.getInterMineType());
+        assertEquals(expected.getItemIdentifier(), actual.getItemIdentifier());
+        assertEquals(expected.getIntermineObjectId(), actual.getIntermineObjectId());
+        assertEquals(expected.getUniqueName(), actual.getUniqueName());
+        assertEquals(expected.getChadoFeatureName(), actual.getChadoFeatureName());
+        assertEquals(expected.getChecksum(), actual.getChecksum());
+        assertEquals(expected.getFlag(FeatureData.IDENTIFIER_SET),
+                actual.getFlag(FeatureData.IDENTIFIER_SET));
+        assertEquals(expected.getFlag(FeatureData.NAME_SET), actual.getFlag(FeatureData.NAME_SET));
+        assertEquals(expected.getExistingSynonyms(), actual.getExistingSynonyms());
+        assertSame(expected.getOrganismData(), actual.getOrganismData());
+    }
+
+    public void testRecord() throws Exception {
+        FeatureDataStore store = new FeatureDataStore(null);
+        FeatureData empty = new FeatureData();
+        store.write(1, empty);
+        assertSameFields(empty, store.read(1));
+        FeatureData fdat = makeFeatureData(2);
+        fdat.setItemIdentifier("unusual identifier");
+        fdat.addExistingSynonym("syn\u00e9");
+        fdat.addExistingSynonym("CG1234");
+        store.write(2, fdat);
+        FeatureData copy = store.read(2);
+        assertNotSame(fdat, copy);
+        assertSameFields(fdat, copy);
+        assertTrue(copy.getExistingSynonyms().contains("cg1234"));
+        assertNull(store.read(3));
+        store.close();
+    }
+
+    public void testRewrite() throws Exception {
+        FeatureDataStore store = new FeatureDataStore(null);
+        FeatureData fdat = makeFeatureData(1);
+        store.write(1, fdat);
+        long length = store.getLength();
+        fdat.setFlag(FeatureData.NAME_SET, true);
+        store.write(1, fdat);
+        // the same size, so written in place
+        assertEquals(length, store.getLength());
+        for (int i = 0; i < 20; i++) {
+            fdat.addExistingSynonym("synonym" + i);
+        }
+        store.write(1, fdat);
+        assertTrue(store.getLength() > length);
+        assertEquals(1, store.size());
+        assertSameFields(fdat, store.read(1));
+        store.close();
+    }
+
+    public void testPutGet() {
+        SpillingFeatureDataMap map = new SpillingFeatureDataMap(10, null);
+        Map<Integer, FeatureData> expected = new HashMap<Integer, FeatureData>();
+        for (int i = 0; i < 1000; i++) {
+            FeatureData fdat = makeFeatureData(i);
+            assertNull(map.put(i * 7, fdat));
+            expected.put(new Integer(i * 7), fdat);
+        }
+        assertEquals(1000, map.size());
+        assertTrue(map.containsKey(0));
+        assertTrue(map.containsKey(new Integer(6993)));
+        assertFalse(map.containsKey(8));
+        assertNull(map.get(8));
+        assertNull(map.get("7"));
+        for (int i = 0; i < 1000; i++) {
+            assertSameFields(expected.get(new Integer(i * 7)), map.get(i * 7));
+        }
+        // recently used features are the same objects
+        FeatureData fdat = map.get(14);
+        assertSame(fdat, map.get(14));
+    }
+
+    public void testChangesKept() {
+        SpillingFeatureDataMap map = new SpillingFeatureDataMap(2, null);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, makeFeatureData(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            FeatureData fdat = map.get(i);
+            fdat.setFlag(FeatureData.SYMBOL_SET, true);
+            fdat.addExistingSynonym("synonym" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            FeatureData fdat = map.get(i);
+            assertTrue(fdat.getFlag(FeatureData.SYMBOL_SET));
+            assertTrue(fdat.getExistingSynonyms().contains("synonym" + i));
+        }
+    }
+
+    public void testChangesAfterEviction() {
+        SpillingFeatureDataMap map = new SpillingFeatureDataMap(2, null);
+        for (int i = 0; i < 10; i++) {
+            map.put(i, makeFeatureData(i));
+        }
+        FeatureData held = map.get(0);
+        for (int i = 1; i < 10; i++) {
+            map.get(i);
+        }
+        // evicted, but the changes are written to the store
+        long length = map.getStoreLength();
+        for (int i = 0; i < 20; i++) {
+            held.addExistingSynonym("synonym" + i);
+        }
+        held.setFlag(FeatureData.SYMBOL_SET, true);
+        assertTrue(map.getStoreLength() > length);
+        // and while it is referred to it is the copy get() returns
+        assertSame(held, map.get(0));
+        assertTrue(map.get(0).getFlag(FeatureData.SYMBOL_SET));
+
+        // once replaced, changes to the old object don't reach the map
+        for (int i = 1; i < 10; i++) {
+            map.get(i);
+        }
+        map.put(0, makeFeatureData(0));
+        held.setFlag(FeatureData.NAME_SET, true);
+        for (int i = 1; i < 10; i++) {
+            map.get(i);
+        }
+        assertNotSame(held, map.get(0));
+        assertFalse(map.get(0).getFlag(FeatureData.NAME_SET));
+        assertEquals(0, map.get(0).getExistingSynonyms().size());
+    }
+
+    public void testRemoveAndIterate() {
+        SpillingFeatureDataMap map = new SpillingFeatureDataMap(5, null);
+        for (int i = 0; i < 50; i++) {
+            map.put(i, makeFeatureData(i));
+        }
+        assertNotNull(map.remove(3));
+        assertNull(map.remove(3));
+        assertNotNull(map.remove(new Integer(49)));
+        assertEquals(48, map.size());
+        Set<Integer> keys = new HashSet<Integer>();
+        for (Map.Entry<Integer, FeatureData> entry: map.entrySet()) {
+            keys.add(entry.getKey());
+            assertEquals("FBgn" + entry.getKey(), entry.getValue().getUniqueName());
+        }
+        assertEquals(48, keys.size());
+        assertFalse(keys.contains(new Integer(3)));
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+    }
+
+    public void testReplace() {
+        SpillingFeatureDataMap map = new SpillingFeatureDataMap(1, null);
+        FeatureData first = makeFeatureData(1);
+        FeatureData second = makeFeatureData(2);
+        map.put(42, first);
+        map.put(43, second);
+        assertEquals("FBgn1", map.put(42, second).getUniqueName());
+        assertEquals(2, map.size());
+        assertEquals("FBgn2", map.get(42).getUniqueName());
+    }
+
+    public void testPinned() {
+        SpillingFeatureDataMap map = new SpillingFeatureDataMap(2, null);
+        FeatureData shared = makeFeatureData(1);
+        map.putPinned(1, shared);
+        map.putPinned(2, shared);
+        for (int i = 3; i < 50; i++) {
+            map.put(i, makeFeatureData(i));
+            map.get(i);
+        }
+        // never evicted, so a change made through one feature_id is seen through the other
+        shared.addExistingSynonym("synonym");
+        assertSame(shared, map.get(1));
+        assertSame(shared, map.get(2));
+        assertEquals(49, map.size());
+        assertTrue(map.containsKey(2));
+
+        // a later put() replaces the pinned value
+        map.put(2, makeFeatureData(2));
+        for (int i = 3; i < 50; i++) {
+            map.get(i);
+        }
+        assertEquals("FBgn2", map.get(2).getUniqueName());
+        assertSame(shared, map.remove(1));
+        assertNull(map.get(1));
+        assertEquals(48, map.size());
+    }
+
+    public void testOrganisms() throws Exception {
+        FeatureDataStore store = new FeatureDataStore(null);
+        OrganismRepository repository = OrganismRepository.getOrganismRepository();
+        OrganismData fly = repository.getOrganismDataByTaxon(7227);
+        OrganismData worm = repository.getOrganismDataByTaxon(6239);
+        for (int i = 0; i < 10; i++) {
+            FeatureData fdat = new FeatureData();
+            fdat.organismData = i % 2 == 0 ? fly : worm;
+            store.write(i, fdat);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertSame(i % 2 == 0 ? fly : worm, store.read(i).getOrganismData());
+        }
+        store.close();
+    }
+}
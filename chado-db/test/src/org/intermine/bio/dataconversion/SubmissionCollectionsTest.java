@@ -0,0 +1,91 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.xml.full.ReferenceList;
+
+/**
+ * Tests for SubmissionCollections.
+ */
+public class SubmissionCollectionsTest extends TestCase
+{
+    public SubmissionCollectionsTest(String arg) {
+        super(arg);
+    }
+
+    public void testInMemory() throws Exception {
+        checkCollections(new SubmissionCollections(2, null), 0);
+    }
+
+    public void testSpill() throws Exception {
+        File spillDirectory = File.createTempFile("submission_collections", "");
+        spillDirectory.delete();
+        spillDirectory.mkdir();
+        try {
+            checkCollections(new SubmissionCollections(2, spillDirectory), 2);
+            assertEquals(0, spillDirectory.listFiles().length);
+        } finally {
+            spillDirectory.delete();
+        }
+    }
+
+    private void checkCollections(SubmissionCollections subCollections, int expectedRuns)
+        throws Exception {
+        int sub1 = subCollections.addSubmission("1_1");
+        subCollections.add(10, sub1);
+        subCollections.add(20, sub1);
+        subCollections.add(10, sub1);
+        subCollections.endSubmission();
+        int sub2 = subCollections.addSubmission("1_2");
+        subCollections.add(30, sub2);
+        subCollections.add(10, sub2);
+        subCollections.add(30, sub2);
+        subCollections.endSubmission();
+        int sub3 = subCollections.addSubmission("1_3");
+        subCollections.add(20, sub3);
+        subCollections.endSubmission();
+        assertEquals(expectedRuns, subCollections.getRunCount());
+        assertEquals(7, subCollections.getPairCount());
+
+        RecordingConverter converter = new RecordingConverter();
+        assertEquals(3, subCollections.store(converter));
+        assertEquals(Arrays.asList("1_1", "1_2"), converter.collections.get(10));
+        assertEquals(Arrays.asList("1_1", "1_3"), converter.collections.get(20));
+        assertEquals(Arrays.asList("1_2"), converter.collections.get(30));
+    }
+
+    private static class RecordingConverter extends GenomeDBConverter
+    {
+        Map<Integer, List<String>> collections = new HashMap<Integer, List<String>>();
+
+        RecordingConverter() throws SQLException {
+            super(null, Model.getInstanceByName("genomic"),
+                    new MockItemWriter(new HashMap<String, org.intermine.model.fulldata.Item>()));
+        }
+
+        @Override
+        public synchronized void store(ReferenceList referenceList, Integer itemId) {
+            assertEquals("submissions", referenceList.getName());
+            assertNull(collections.put(itemId, referenceList.getRefIds()));
+        }
+    }
+}
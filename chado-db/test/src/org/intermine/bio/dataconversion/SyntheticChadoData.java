@@ -0,0 +1,272 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A made up chado database of any size, for benchmarking the processors without a database.
+ * Each gene has one mRNA, two exons and one protein, located on one of four chromosome arms,
+ * with configurable numbers of synonyms and dbxrefs.  The identifiers follow the FlyBase
+ * conventions so that FlyBaseProcessor keeps the features.  All rows are made by the
+ * constructor, so reading them allocates nothing but the result sets.
+ */
+public class SyntheticChadoData
+{
+    /** The rows of the feature table. */
+    public static final String FEATURE = "feature";
+    /** The rows of the featureloc table. */
+    public static final String FEATURELOC = "featureloc";
+    /** The feature_relationship rows ordered by subject_id. */
+    public static final String RELATIONSHIP_BY_SUBJECT = "feature_relationship_subject";
+    /** The feature_relationship rows ordered by object_id. */
+    public static final String RELATIONSHIP_BY_OBJECT = "feature_relationship_object";
+    /** The rows of the synonym table. */
+    public static final String SYNONYM = "synonym";
+    /** The rows of the feature_dbxref table. */
+    public static final String DBXREF = "dbxref";
+    /** The rows of the featureprop table. */
+    public static final String FEATUREPROP = "featureprop";
+    /** The rows of the feature_pub table. */
+    public static final String PUB = "pub";
+    /** The rows of the feature_cvterm table, always empty. */
+    public static final String FEATURE_CVTERM = "feature_cvterm";
+    /** The ids of the located genes. */
+    public static final String LOCATED_GENES = "located_genes";
+    /** Match locations, always empty. */
+    public static final String MATCHLOC = "matchloc";
+
+    /** The chado organism_id of every feature. */
+    public static final int ORGANISM_ID = 1;
+
+    private static final String[] ARMS = {"2L", "2R", "3L", "3R"};
+    private static final int ARM_LENGTH = 25000000;
+    private static final int FEATURES_PER_GENE = 5;
+    private static final int GENE_SPACING = 5000;
+    private static final int PUB_COUNT = 100;
+    private static final String TRANSCRIPT_RESIDUES =
+        "atgtcgaacaagcagcagtgcagcaacagcgatcagcaggcgccgaagcagcgtcgctag";
+    private static final String PROTEIN_RESIDUES = "MSNKQQCSNSDQQAPKQRR";
+
+    private static final String[] LOCATION_COLUMNS = {
+        "featureloc_id", "feature_id", "srcfeature_id", "fmin", "is_fmin_partial",
+        "fmax", "is_fmax_partial", "strand"
+    };
+    private static final String[] RELATIONSHIP_COLUMNS = {
+        "feature_relationship_id", "feature1_id", "feature2_id", "type_name"
+    };
+
+    private final int geneCount;
+    private final Map<String, Object[][]> rows = new HashMap<String, Object[][]>();
+    private final Map<String, String[]> columnNames = new HashMap<String, String[]>();
+
+    /**
+     * Make the rows of a new synthetic database.
+     * @param geneCount the number of genes
+     * @param synonymsPerGene the number of synonyms of each gene, as well as the symbol and
+     * full name
+     * @param dbxrefsPerGene the number of dbxrefs of each gene, as well as the FlyBase and
+     * annotation ids
+     */
+    public SyntheticChadoData(int geneCount, int synonymsPerGene, int dbxrefsPerGene) {
+        this.geneCount = geneCount;
+
+        List<Object[]> features = new ArrayList<Object[]>();
+        List<Object[]> locations = new ArrayList<Object[]>();
+        List<Object[]> relationships = new ArrayList<Object[]>();
+        List<Object[]> synonyms = new ArrayList<Object[]>();
+        List<Object[]> dbxrefs = new ArrayList<Object[]>();
+        List<Object[]> featureProps = new ArrayList<Object[]>();
+        List<Object[]> pubs = new ArrayList<Object[]>();
+        List<Object[]> locatedGenes = new ArrayList<Object[]>();
+
+        Integer organismId = new Integer(ORGANISM_ID);
+        for (int i = 0; i < ARMS.length; i++) {
+            features.add(new Object[] {
+                new Integer(i + 1), ARMS[i], ARMS[i], "chromosome_arm", new Integer(ARM_LENGTH),
+                null, null, organismId
+            });
+        }
+
+        int locationId = 0;
+        int relationshipId = 0;
+        for (int gene = 0; gene < geneCount; gene++) {
+            int geneId = ARMS.length + 1 + gene * FEATURES_PER_GENE;
+            Integer arm = new Integer(gene % ARMS.length + 1);
+            Integer strand = new Integer(gene % 2 == 0 ? 1 : -1);
+            int start =
+                (int) ((long) (gene / ARMS.length) * GENE_SPACING % (ARM_LENGTH - GENE_SPACING));
+            String cg = "CG" + pad(gene, 5);
+            String fbgn = "FBgn" + pad(gene, 7);
+
+            Integer geneKey = new Integer(geneId);
+            Integer mrnaKey = new Integer(geneId + 1);
+            Integer exon1Key = new Integer(geneId + 2);
+            Integer exon2Key = new Integer(geneId + 3);
+            Integer proteinKey = new Integer(geneId + 4);
+
+            features.add(new Object[] {
+                geneKey, cg, fbgn, "gene", new Integer(4000), null, null, organismId
+            });
+            features.add(new Object[] {
+                mrnaKey, cg + "-RA", "FBtr" + pad(gene, 7), "mRNA",
+                new Integer(TRANSCRIPT_RESIDUES.length()), TRANSCRIPT_RESIDUES, null, organismId
+            });
+            features.add(new Object[] {
+                exon1Key, cg + ":1", cg + ":1", "exon", new Integer(1000), null, null, organismId
+            });
+            features.add(new Object[] {
+                exon2Key, cg + ":2", cg + ":2", "exon", new Integer(1000), null, null, organismId
+            });
+            features.add(new Object[] {
+                proteinKey, cg + "-PA", "FBpp" + pad(gene, 7), "protein",
+                new Integer(PROTEIN_RESIDUES.length()), PROTEIN_RESIDUES, null, organismId
+            });
+
+            locations.add(makeLocation(++locationId, geneKey, arm, start, start + 4000, strand));
+            locations.add(makeLocation(++locationId, mrnaKey, arm, start, start + 4000, strand));
+            locations.add(makeLocation(++locationId, exon1Key, arm, start, start + 1000,
+                    strand));
+            locations.add(makeLocation(++locationId, exon2Key, arm, start + 3000, start + 4000,
+                    strand));
+            locatedGenes.add(new Object[] {geneKey});
+
+            relationships.add(new Object[] {new Integer(++relationshipId), mrnaKey, geneKey,
+                "partof"});
+            relationships.add(new Object[] {new Integer(++relationshipId), exon1Key, mrnaKey,
+                "partof"});
+            relationships.add(new Object[] {new Integer(++relationshipId), exon2Key, mrnaKey,
+                "partof"});
+            relationships.add(new Object[] {new Integer(++relationshipId), proteinKey, mrnaKey,
+                "producedby"});
+
+            synonyms.add(new Object[] {geneKey, cg, "symbol", Boolean.TRUE});
+            synonyms.add(new Object[] {geneKey, cg + " gene", "fullname", Boolean.TRUE});
+            for (int i = 0; i < synonymsPerGene; i++) {
+                synonyms.add(new Object[] {geneKey, cg + "_synonym" + i, "symbol",
+                    Boolean.FALSE});
+            }
+            synonyms.add(new Object[] {mrnaKey, cg + "-RA", "symbol", Boolean.TRUE});
+
+            dbxrefs.add(new Object[] {geneKey, fbgn, "FlyBase", Boolean.TRUE});
+            dbxrefs.add(new Object[] {geneKey, cg, "FlyBase Annotation IDs", Boolean.TRUE});
+            for (int i = 0; i < dbxrefsPerGene; i++) {
+                dbxrefs.add(new Object[] {geneKey, cg + "_dbxref" + i, "FlyBase Annotation IDs",
+                    Boolean.FALSE});
+            }
+
+            featureProps.add(new Object[] {geneKey, ARMS[arm.intValue() - 1] + "-" + gene % 100,
+                "cyto_range"});
+            featureProps.add(new Object[] {geneKey, "protein_coding_gene", "promoted_gene_type"});
+
+            pubs.add(new Object[] {geneKey, String.valueOf(1000000 + gene % PUB_COUNT)});
+        }
+
+        put(FEATURE, new String[] {
+            "feature_id", "name", "uniquename", "type", "seqlen", "residues", "md5checksum",
+            "organism_id"
+        }, features);
+        put(FEATURELOC, LOCATION_COLUMNS, locations);
+        put(MATCHLOC, LOCATION_COLUMNS, new ArrayList<Object[]>());
+        put(RELATIONSHIP_BY_SUBJECT, RELATIONSHIP_COLUMNS, sortByFirstFeature(relationships));
+        List<Object[]> reversed = new ArrayList<Object[]>();
+        for (Object[] row: relationships) {
+            reversed.add(new Object[] {row[0], row[2], row[1], row[3]});
+        }
+        put(RELATIONSHIP_BY_OBJECT, RELATIONSHIP_COLUMNS, sortByFirstFeature(reversed));
+        put(SYNONYM, new String[] {
+            "feature_id", "synonym_name", "type_name", "is_current"
+        }, synonyms);
+        put(DBXREF, new String[] {"feature_id", "accession", "db_name", "is_current"}, dbxrefs);
+        put(FEATUREPROP, new String[] {"feature_id", "value", "type_name"}, featureProps);
+        put(PUB, new String[] {"feature_id", "pub_db_identifier"}, pubs);
+        put(FEATURE_CVTERM, new String[] {"feature_id", "cvterm_id", "cvterm_name", "cv_name"},
+                new ArrayList<Object[]>());
+        put(LOCATED_GENES, new String[] {"feature_id"}, locatedGenes);
+    }
+
+    private static Object[] makeLocation(int locationId, Integer featureId, Integer arm,
+            int fmin, int fmax, Integer strand) {
+        return new Object[] {
+            new Integer(locationId), featureId, arm, new Integer(fmin), Boolean.FALSE,
+            new Integer(fmax), Boolean.FALSE, strand
+        };
+    }
+
+    private static String pad(int number, int width) {
+        String digits = String.valueOf(number);
+        StringBuilder sb = new StringBuilder();
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    // the processors need the relationships ordered by feature1_id
+    private static List<Object[]> sortByFirstFeature(List<Object[]> relationships) {
+        Object[][] sorted = relationships.toArray(new Object[relationships.size()][]);
+        Arrays.sort(sorted, new Comparator<Object[]>() {
+            public int compare(Object[] o1, Object[] o2) {
+                return ((Integer) o1[1]).compareTo((Integer) o2[1]);
+            }
+        });
+        return Arrays.asList(sorted);
+    }
+
+    private void put(String table, String[] columns, List<Object[]> tableRows) {
+        columnNames.put(table, columns);
+        rows.put(table, tableRows.toArray(new Object[tableRows.size()][]));
+    }
+
+    /**
+     * Return the number of genes.
+     * @return the gene count
+     */
+    public int getGeneCount() {
+        return geneCount;
+    }
+
+    /**
+     * Return the number of rows in the feature table, including the chromosome arms.
+     * @return the feature count
+     */
+    public int getFeatureCount() {
+        return getRows(FEATURE).length;
+    }
+
+    /**
+     * Return the rows of one of the tables.
+     * @param table the table, eg. SyntheticChadoData.FEATURE
+     * @return the rows, in the order of getColumnNames()
+     */
+    public Object[][] getRows(String table) {
+        Object[][] tableRows = rows.get(table);
+        if (tableRows == null) {
+            throw new IllegalArgumentException("unknown table: " + table);
+        }
+        return tableRows;
+    }
+
+    /**
+     * Return the column names of one of the tables.
+     * @param table the table, eg. SyntheticChadoData.FEATURE
+     * @return the column names
+     */
+    public String[] getColumnNames(String table) {
+        getRows(table);
+        return columnNames.get(table);
+    }
+}
@@ -215,7 +215,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
                 "cDNA_clone", null, null, null, 1
             }
         };
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -296,7 +296,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
         };
         // results must be ordered by subject_id
         Object[][] resObjects = featureRelationshipTestHelper(subjectIsFirst);
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -325,7 +325,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
                 3117509, "FBgn0036461_dbxref4", "FlyBase", false
             },
         };
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -376,7 +376,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -400,7 +400,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -424,7 +424,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -445,7 +445,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -460,7 +460,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             "featureloc_id", "feature_id", "srcfeature_id", "fmin", "is_fmin_partial",
             "fmax", "is_fmax_partial", "strand"
         };
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
 
         res.setupRows(new Object[][] {
             {
@@ -492,7 +492,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             "featureloc_id", "feature_id", "srcfeature_id", "fmin", "is_fmin_partial",
             "fmax", "is_fmax_partial", "strand"
         };
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
 
         res.setupRows(new Object[][] {
 
@@ -509,7 +509,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
         String[] columnNames = new String[] {
             "feature_id", "synonym_name", "type_name", "is_current"
         };
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         Object[][] resObjects = new Object[][] {
             {
                 23269151, "FBgn0000001_fullname_synonym", "fullname", true
@@ -566,7 +566,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
                 2345000, "7772020"
             }
         };
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -590,7 +590,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -637,7 +637,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -663,7 +663,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -717,7 +717,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -751,7 +751,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
 
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -780,7 +780,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -806,7 +806,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -824,7 +824,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
 
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -853,7 +853,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
 
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;
@@ -876,7 +876,7 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
             }
         };
 
-        MockMultiRowResultSet res = new MockMultiRowResultSet();
+        MockMultiRowResultSet res = new IndexedMockResultSet();
         res.setupRows(resObjects);
         res.setupColumnNames(columnNames);
         return res;